@@ -0,0 +1,410 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.RequestLog;
+import org.eclipse.jetty.server.Response;
+
+/**
+ * Access log of every request, written off the request threads.
+ *
+ * <p>Requests are recorded into a ring of preallocated slots, claimed with
+ * a compare-and-set and published with a per-slot sequence number, so
+ * recording neither locks nor allocates. When the ring is full the record
+ * is dropped and counted. A single thread drains the ring every 100 ms into
+ * {@code access-<date>.log} files in a directory, one per UTC day, and
+ * deletes files older than the retention.
+ *
+ * <p>Each line holds, separated by tabs, the time the request started, the
+ * user, the method, the path, the object id in the path, the status, the
+ * bytes read and written, and the duration in milliseconds. Missing values
+ * are written as {@code -}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class AccessLog implements RequestLog, Closeable {
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(AccessLog.class.getName());
+
+    /**
+     * Object id in a path.
+     */
+    private static final Pattern OID = Pattern.compile("[0-9a-f]{64}");
+
+    /**
+     * Milliseconds between drains.
+     */
+    private static final long PERIOD = 100L;
+
+    /**
+     * Directory of log files.
+     */
+    private final Path dir;
+
+    /**
+     * Days log files are kept.
+     */
+    private final int days;
+
+    /**
+     * Mask from position to slot.
+     */
+    private final int mask;
+
+    /**
+     * Sequence number of each slot: its position when free, its position
+     * plus one when recorded.
+     */
+    private final AtomicLongArray sequence;
+
+    /**
+     * Next position to record at.
+     */
+    private final AtomicLong tail;
+
+    /**
+     * Methods.
+     */
+    private final String[] methods;
+
+    /**
+     * Paths.
+     */
+    private final String[] paths;
+
+    /**
+     * Authorization headers.
+     */
+    private final String[] auths;
+
+    /**
+     * Statuses.
+     */
+    private final int[] statuses;
+
+    /**
+     * Start times, in epoch milliseconds.
+     */
+    private final long[] starts;
+
+    /**
+     * Durations, in milliseconds.
+     */
+    private final long[] durations;
+
+    /**
+     * Bytes read.
+     */
+    private final long[] reads;
+
+    /**
+     * Bytes written.
+     */
+    private final long[] writes;
+
+    /**
+     * Records dropped because the ring was full.
+     */
+    private final AtomicLong dropped;
+
+    /**
+     * Records written.
+     */
+    private final AtomicLong written;
+
+    /**
+     * Thread draining the ring.
+     */
+    private final ScheduledExecutorService writer;
+
+    /**
+     * Line being formatted, used by the draining thread only.
+     */
+    private final StringBuilder line;
+
+    /**
+     * Next position to drain, used by the draining thread only.
+     */
+    private long head;
+
+    /**
+     * Day of the open file.
+     */
+    private LocalDate day;
+
+    /**
+     * Open file, or null.
+     */
+    private Writer file;
+
+    /**
+     * Ctor.
+     * @param dir Directory of log files
+     * @param capacity Number of slots, a power of two
+     * @param days Days log files are kept
+     */
+    AccessLog(final Path dir, final int capacity, final int days) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException(
+                String.format("Capacity %d is not a power of two", capacity)
+            );
+        }
+        this.dir = dir;
+        this.days = days;
+        this.mask = capacity - 1;
+        this.sequence = new AtomicLongArray(capacity);
+        for (int idx = 0; idx < capacity; ++idx) {
+            this.sequence.set(idx, idx);
+        }
+        this.tail = new AtomicLong();
+        this.methods = new String[capacity];
+        this.paths = new String[capacity];
+        this.auths = new String[capacity];
+        this.statuses = new int[capacity];
+        this.starts = new long[capacity];
+        this.durations = new long[capacity];
+        this.reads = new long[capacity];
+        this.writes = new long[capacity];
+        this.dropped = new AtomicLong();
+        this.written = new AtomicLong();
+        this.line = new StringBuilder();
+        this.writer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("access-log")
+                .build()
+        );
+    }
+
+    /**
+     * Start draining the ring.
+     * @return This same instance
+     * @throws IOException If the directory can't be created
+     */
+    public AccessLog start() throws IOException {
+        Files.createDirectories(this.dir);
+        this.writer.scheduleWithFixedDelay(
+            this::drain, AccessLog.PERIOD, AccessLog.PERIOD,
+            TimeUnit.MILLISECONDS
+        );
+        return this;
+    }
+
+    @Override
+    public void log(final Request request, final Response response) {
+        final long now = System.currentTimeMillis();
+        long pos = this.tail.get();
+        boolean claimed = false;
+        while (!claimed) {
+            final long seq = this.sequence.get((int) pos & this.mask);
+            if (seq < pos) {
+                break;
+            }
+            if (seq == pos && this.tail.compareAndSet(pos, pos + 1L)) {
+                claimed = true;
+            } else {
+                pos = this.tail.get();
+            }
+        }
+        if (claimed) {
+            final int slot = (int) pos & this.mask;
+            this.methods[slot] = request.getMethod();
+            this.paths[slot] = request.getRequestURI();
+            this.auths[slot] =
+                request.getHeader(HttpHeader.AUTHORIZATION.asString());
+            this.statuses[slot] = response.getStatus();
+            this.starts[slot] = request.getTimeStamp();
+            this.durations[slot] = now - request.getTimeStamp();
+            this.reads[slot] = request.getHttpInput().getContentConsumed();
+            this.writes[slot] = response.getHttpChannel().getBytesWritten();
+            this.sequence.lazySet(slot, pos + 1L);
+        } else {
+            this.dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Metrics of the access log.
+     * @return Metrics
+     */
+    public Metrics metrics() {
+        return new Metrics("AccessLog")
+            .gauge("Dropped", this.dropped::doubleValue)
+            .gauge("Written", this.written::doubleValue);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.writer.shutdown();
+        try {
+            this.writer.awaitTermination(1L, TimeUnit.MINUTES);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            this.write();
+            if (this.file != null) {
+                this.file.close();
+                this.file = null;
+            }
+        }
+    }
+
+    /**
+     * Write recorded requests, logging failures.
+     */
+    private void drain() {
+        try {
+            synchronized (this) {
+                this.write();
+            }
+            // @checkstyle IllegalCatch (1 line)
+        } catch (final IOException | RuntimeException ex) {
+            AccessLog.LOGGER.log(Level.WARNING, "Can't write access log", ex);
+        }
+    }
+
+    /**
+     * Write recorded requests and flush them.
+     * @throws IOException If the log can't be written
+     */
+    private void write() throws IOException {
+        for (int slot = (int) this.head & this.mask;
+            this.sequence.get(slot) == this.head + 1L;
+            slot = (int) this.head & this.mask) {
+            this.format(slot);
+            final Writer out = this.rotate(this.starts[slot]);
+            this.methods[slot] = null;
+            this.paths[slot] = null;
+            this.auths[slot] = null;
+            this.sequence.lazySet(slot, this.head + this.mask + 1L);
+            ++this.head;
+            out.append(this.line);
+            this.written.incrementAndGet();
+        }
+        if (this.file != null) {
+            this.file.flush();
+        }
+    }
+
+    /**
+     * Format a recorded request into the line.
+     * @param slot Slot
+     */
+    private void format(final int slot) {
+        final String path = AccessLog.dash(this.paths[slot]);
+        final Matcher oid = AccessLog.OID.matcher(path);
+        String object = "-";
+        if (oid.find()) {
+            object = oid.group();
+        }
+        String user = AuthenticatedStorage.user(this.auths[slot]);
+        if (user.isEmpty()) {
+            user = "-";
+        }
+        this.line.setLength(0);
+        this.line.append(Instant.ofEpochMilli(this.starts[slot]))
+            .append('\t').append(user)
+            .append('\t').append(AccessLog.dash(this.methods[slot]))
+            .append('\t').append(path)
+            .append('\t').append(object)
+            .append('\t').append(this.statuses[slot])
+            .append('\t').append(this.reads[slot])
+            .append('\t').append(this.writes[slot])
+            .append('\t').append(this.durations[slot])
+            .append('\n');
+    }
+
+    /**
+     * File for a record, opening the next day's file when the day changes.
+     * @param time Time of the record, in epoch milliseconds
+     * @return Open file
+     * @throws IOException If the file can't be opened
+     */
+    private Writer rotate(final long time) throws IOException {
+        final LocalDate date =
+            Instant.ofEpochMilli(time).atZone(ZoneOffset.UTC).toLocalDate();
+        if (this.file == null || !date.equals(this.day)) {
+            if (this.file != null) {
+                this.file.close();
+            }
+            this.file = Files.newBufferedWriter(
+                this.dir.resolve(String.format("access-%s.log", date)),
+                StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND
+            );
+            this.day = date;
+            this.expire(date.minusDays(this.days));
+        }
+        return this.file;
+    }
+
+    /**
+     * Delete log files of days before a date.
+     * @param oldest Oldest day to keep
+     * @throws IOException If the directory can't be read
+     */
+    private void expire(final LocalDate oldest) throws IOException {
+        final String limit = String.format("access-%s.log", oldest);
+        try (DirectoryStream<Path> files =
+            Files.newDirectoryStream(this.dir, "access-*.log")) {
+            for (final Path old : files) {
+                if (String.valueOf(old.getFileName()).compareTo(limit) < 0) {
+                    Files.delete(old);
+                }
+            }
+        }
+    }
+
+    /**
+     * Text, or a dash if there is none.
+     * @param text Text, or null
+     * @return Text or dash
+     */
+    private static String dash(final String text) {
+        String value = "-";
+        if (text != null && !text.isEmpty()) {
+            value = text;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Count-min sketch of object access frequencies.
+ *
+ * <p>Counts are kept in a fixed number of counters whatever the number of
+ * objects, so estimates may be too high, but never too low. Calling
+ * {@link #decay()} halves every count, so that old accesses weigh less
+ * than recent ones.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class AccessSketch {
+    /**
+     * Number of rows, each with its own hash function.
+     */
+    private static final int DEPTH = 4;
+
+    /**
+     * Counters, row after row.
+     */
+    private final AtomicIntegerArray counters;
+
+    /**
+     * Mask of a counter position within a row.
+     */
+    private final int mask;
+
+    /**
+     * Ctor.
+     * @param width Counters per row, a power of two
+     */
+    AccessSketch(final int width) {
+        if (Integer.bitCount(width) != 1) {
+            throw new IllegalArgumentException(
+                String.format("Width %d is not a power of two", width)
+            );
+        }
+        this.counters = new AtomicIntegerArray(width * AccessSketch.DEPTH);
+        this.mask = width - 1;
+    }
+
+    /**
+     * Record an access.
+     * @param key Object id
+     */
+    public void increment(final String key) {
+        final HashCode hash = AccessSketch.hash(key);
+        for (int row = 0; row < AccessSketch.DEPTH; ++row) {
+            final int idx = this.index(hash, row);
+            if (this.counters.get(idx) < Integer.MAX_VALUE) {
+                this.counters.incrementAndGet(idx);
+            }
+        }
+    }
+
+    /**
+     * Estimated number of accesses.
+     * @param key Object id
+     * @return Estimate, never lower than the decayed count
+     */
+    public int estimate(final String key) {
+        final HashCode hash = AccessSketch.hash(key);
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < AccessSketch.DEPTH; ++row) {
+            estimate = Math.min(
+                estimate, this.counters.get(this.index(hash, row))
+            );
+        }
+        return estimate;
+    }
+
+    /**
+     * Halve all counts.
+     */
+    public void decay() {
+        for (int idx = 0; idx < this.counters.length(); ++idx) {
+            this.counters.getAndUpdate(idx, count -> count >>> 1);
+        }
+    }
+
+    /**
+     * Position of a key's counter in a row.
+     * @param hash Key hash
+     * @param row Row
+     * @return Counter position
+     */
+    private int index(final HashCode hash, final int row) {
+        final long bits = hash.asLong();
+        final int first = (int) bits;
+        final int second = (int) (bits >>> Integer.SIZE) | 1;
+        return row * (this.mask + 1) + (first + row * second & this.mask);
+    }
+
+    /**
+     * Hash of a key.
+     * @param key Key
+     * @return Hash
+     */
+    private static HashCode hash(final String key) {
+        return Hashing.murmur3_128().hashUnencodedChars(key);
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.IOException;
+
+/**
+ * Object that can't be read because it's in the archive tier.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class ArchivedException extends IOException {
+    /**
+     * Serialization marker.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Ctor.
+     * @param oid Object id
+     * @param cause Azure error
+     */
+    ArchivedException(final String oid, final Throwable cause) {
+        super(String.format("Object %s is archived", oid), cause);
+    }
+}
@@ -0,0 +1,424 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import javax.servlet.http.HttpServletRequest;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.http.HttpClientTransportOverHTTP;
+import org.eclipse.jetty.client.util.ByteBufferContentProvider;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.reactivestreams.Publisher;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ForbiddenError;
+import ru.bozaro.gitlfs.server.UnauthorizedError;
+
+/**
+ * Git LFS Storage backed by Azure Blob Storage, without blocking a thread
+ * per Azure call.
+ *
+ * <p>Unlike {@link AzureBlobStorage}, which uses the blocking Azure SDK,
+ * calls are made with the REST API over a non-blocking HTTP client, whose
+ * few threads serve all calls in flight. Metadata lookups, ranged reads and
+ * block uploads are asynchronous: reads are published as reactive streams
+ * of buffers, and uploads staged from a reactive stream of blocks, both
+ * with backpressure. The {@link ContentManager} methods bridge them to the
+ * blocking servlet layer, so only the request thread waits, never a thread
+ * of the client.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+final class AsyncBlobStorage implements ContentManager, AutoCloseable {
+    /**
+     * Size of uploaded blocks.
+     */
+    // @checkstyle MagicNumber (1 line)
+    private static final int BLOCK = 4 << 20;
+
+    /**
+     * Most connections to Azure.
+     */
+    private static final int CONNECTIONS = 1024;
+
+    /**
+     * Most calls waiting for a connection.
+     */
+    private static final int QUEUE = 65_536;
+
+    /**
+     * Content type of uploads.
+     */
+    private static final String TYPE = "application/octet-stream";
+
+    /**
+     * REST requests on the container.
+     */
+    private final BlobRest rest;
+
+    /**
+     * HTTP client.
+     */
+    private final HttpClient client;
+
+    /**
+     * Most blocks of an upload in flight at once.
+     */
+    private final int blocks;
+
+    /**
+     * Ctor.
+     * @param container Azure container
+     * @param threads Threads of the HTTP client
+     * @param blocks Most blocks of an upload in flight at once
+     */
+    AsyncBlobStorage(final CloudBlobContainer container, final int threads,
+        final int blocks) {
+        this.rest = new BlobRest(container);
+        this.client = new HttpClient(
+            new HttpClientTransportOverHTTP(1), new SslContextFactory()
+        );
+        final QueuedThreadPool pool = new QueuedThreadPool(threads, threads);
+        pool.setName("azure-async");
+        pool.setDaemon(true);
+        this.client.setExecutor(pool);
+        this.client.setMaxConnectionsPerDestination(
+            AsyncBlobStorage.CONNECTIONS
+        );
+        this.client.setMaxRequestsQueuedPerDestination(AsyncBlobStorage.QUEUE);
+        this.client.setFollowRedirects(false);
+        this.blocks = blocks;
+    }
+
+    /**
+     * Start the HTTP client.
+     * @return This same instance
+     * @throws IOException If it can't start
+     */
+    public AsyncBlobStorage start() throws IOException {
+        try {
+            this.client.start();
+            // @checkstyle IllegalCatch (1 line)
+        } catch (final Exception ex) {
+            throw new IOException(ex);
+        }
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.client.stop();
+            // @checkstyle IllegalCatch (1 line)
+        } catch (final Exception ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    @Override
+    @Nullable
+    public Meta getMetadata(@NotNull final String hash) throws IOException {
+        return AsyncBlobStorage.await(this.metadata(hash));
+    }
+
+    @Override
+    @NotNull
+    public Downloader checkDownloadAccess(
+        @NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return new Downloader() {
+            @Override
+            @NotNull
+            public InputStream openObject(@NotNull final String hash) {
+                final PublisherStream stream = new PublisherStream();
+                AsyncBlobStorage.this.content(hash, 0L, -1L)
+                    .subscribe(stream);
+                return stream;
+            }
+
+            @Override
+            @Nullable
+            public InputStream openObjectGzipped(@NotNull final String hash) {
+                return null;
+            }
+        };
+    }
+
+    @Override
+    @NotNull
+    public Uploader checkUploadAccess(@NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return this::upload;
+    }
+
+    /**
+     * Look up an object.
+     * @param oid Object id
+     * @return Future metadata, null if there is no such object
+     */
+    public CompletableFuture<Meta> metadata(final String oid) {
+        final CompletableFuture<Meta> meta = new CompletableFuture<>();
+        final AzureCallEvent event = new AzureCallEvent();
+        event.begin();
+        this.request(HttpMethod.HEAD, oid, ImmutableMap.of()).send(
+            result -> {
+                final int status = result.getResponse().getStatus();
+                if (result.isFailed()) {
+                    meta.completeExceptionally(result.getFailure());
+                    // @checkstyle MagicNumber (1 line)
+                } else if (status == 404) {
+                    meta.complete(null);
+                } else if (AsyncBlobStorage.success(result)) {
+                    final long size = result.getResponse().getHeaders()
+                        .getLongField("Content-Length");
+                    event.finish("metadata", oid, 0L, size);
+                    meta.complete(new Meta(oid, size));
+                } else {
+                    meta.completeExceptionally(
+                        AsyncBlobStorage.failure(result)
+                    );
+                }
+            }
+        );
+        return meta;
+    }
+
+    /**
+     * Read a range of an object.
+     * @param oid Object id
+     * @param offset Offset of the range
+     * @param length Length of the range, negative to read to the end
+     * @return Content, sent for once subscribed to
+     */
+    public Publisher<ByteBuffer> content(final String oid, final long offset,
+        final long length) {
+        Map<String, String> headers = ImmutableMap.of();
+        if (offset > 0L || length >= 0L) {
+            String last = "";
+            if (length >= 0L) {
+                last = String.valueOf(offset + length - 1L);
+            }
+            headers = ImmutableMap.of(
+                "x-ms-range", String.format("bytes=%d-%s", offset, last)
+            );
+        }
+        return new BlobPublisher(this.request(HttpMethod.GET, oid, headers));
+    }
+
+    /**
+     * Upload an object from a stream of its blocks.
+     * @param oid Object id
+     * @param content Blocks, of at most 4 MiB each
+     * @return Future completing once the object is committed
+     */
+    public CompletableFuture<Void> upload(final String oid,
+        final Publisher<ByteBuffer> content) {
+        final BlockSubscriber upload =
+            new BlockSubscriber(this, oid, this.blocks);
+        content.subscribe(upload);
+        return upload.result();
+    }
+
+    /**
+     * Stage a block of a blob.
+     * @param name Blob name
+     * @param ident Block id
+     * @param content Block content
+     * @return Future completing once the block is staged
+     */
+    public CompletableFuture<Void> block(final String name,
+        final String ident, final ByteBuffer content) {
+        return this.put(
+            String.format("%s?comp=block&blockid=%s", name, ident.replace(
+                "=", "%3D"
+            ).replace("+", "%2B").replace("/", "%2F")),
+            ImmutableMap.of(), content
+        );
+    }
+
+    /**
+     * Commit the blocks of a blob.
+     * @param name Blob name
+     * @param idents Block ids, in order
+     * @return Future completing once the blob is committed
+     */
+    public CompletableFuture<Void> commit(final String name,
+        final List<String> idents) {
+        final StringBuilder xml = new StringBuilder(
+            "<?xml version=\"1.0\" encoding=\"utf-8\"?><BlockList>"
+        );
+        for (final String ident : idents) {
+            xml.append("<Latest>").append(ident).append("</Latest>");
+        }
+        xml.append("</BlockList>");
+        return this.put(
+            String.format("%s?comp=blocklist", name), ImmutableMap.of(),
+            ByteBuffer.wrap(xml.toString().getBytes(StandardCharsets.UTF_8))
+        );
+    }
+
+    /**
+     * Upload an object, in one call if it fits in a block.
+     * @param meta Metadata
+     * @param content Content
+     * @throws IOException If it can't be uploaded
+     */
+    private void upload(final Meta meta, final InputStream content)
+        throws IOException {
+        final byte[] first = new byte[AsyncBlobStorage.BLOCK];
+        final int read = ByteStreams.read(content, first, 0, first.length);
+        if (read < first.length) {
+            AsyncBlobStorage.await(
+                this.put(
+                    meta.getOid(),
+                    ImmutableMap.of("x-ms-blob-type", "BlockBlob"),
+                    ByteBuffer.wrap(first, 0, read)
+                )
+            );
+        } else {
+            final StreamPublisher source =
+                new StreamPublisher(ByteBuffer.wrap(first), content);
+            final CompletableFuture<Void> done =
+                this.upload(meta.getOid(), source);
+            source.pump();
+            AsyncBlobStorage.await(done);
+        }
+    }
+
+    /**
+     * Send content.
+     * @param path Path and query, relative to the container
+     * @param headers Extra headers, with lowercase names
+     * @param content Content
+     * @return Future completing once the content is stored
+     */
+    private CompletableFuture<Void> put(final String path,
+        final Map<String, String> headers, final ByteBuffer content) {
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final long size = content.remaining();
+        final Map<String, String> all = ImmutableMap.<String, String>builder()
+            .putAll(headers)
+            .put("content-length", String.valueOf(size))
+            .put("content-type", AsyncBlobStorage.TYPE)
+            .build();
+        final AzureCallEvent event = new AzureCallEvent();
+        event.begin();
+        this.request(HttpMethod.PUT, path, all)
+            .content(
+                new ByteBufferContentProvider(content), AsyncBlobStorage.TYPE
+            )
+            .send(
+                result -> {
+                    if (AsyncBlobStorage.success(result)) {
+                        event.finish("write", path, 0L, size);
+                        done.complete(null);
+                    } else {
+                        done.completeExceptionally(
+                            AsyncBlobStorage.failure(result)
+                        );
+                    }
+                }
+            );
+        return done;
+    }
+
+    /**
+     * Authorized request on the container, not sent yet.
+     * @param method HTTP method
+     * @param path Path and query, relative to the container
+     * @param headers Extra headers, with lowercase names
+     * @return Request
+     */
+    private Request request(final HttpMethod method, final String path,
+        final Map<String, String> headers) {
+        final URI uri = this.rest.container(String.format("/%s", path));
+        final Request request = this.client.newRequest(uri)
+            .method(method);
+        this.rest.signed(method.asString(), uri, headers).forEach(
+            request::header
+        );
+        return request;
+    }
+
+    /**
+     * Was a request answered with 2xx?
+     * @param result Outcome of the request
+     * @return True if it was
+     */
+    private static boolean success(final Result result) {
+        // @checkstyle MagicNumber (2 lines)
+        return !result.isFailed()
+            && result.getResponse().getStatus() / 100 == 2;
+    }
+
+    /**
+     * Failure of a request.
+     * @param result Outcome of the request
+     * @return Exception describing it
+     */
+    private static Throwable failure(final Result result) {
+        Throwable failure = result.getFailure();
+        if (failure == null) {
+            failure = new IOException(
+                String.format(
+                    "%s %s answered %d", result.getRequest().getMethod(),
+                    result.getRequest().getURI(),
+                    result.getResponse().getStatus()
+                )
+            );
+        }
+        return failure;
+    }
+
+    /**
+     * Wait for an asynchronous call, on behalf of the blocking servlet
+     * layer.
+     * @param future Call
+     * @param <T> Type of result
+     * @return Result
+     * @throws IOException If the call failed
+     */
+    private static <T> T await(final CompletableFuture<T> future)
+        throws IOException {
+        try {
+            return future.join();
+        } catch (final CompletionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of an access check.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+@Name("com.github.carlosmiranda.gitlfs.azure.Authentication")
+@Label("Authentication")
+@Category("Git LFS")
+@Description("Check of a request's authorization")
+@StackTrace(false)
+@SuppressWarnings("PMD.UnusedPrivateField")
+final class AuthEvent extends Event {
+    /**
+     * Access asked for, upload or download.
+     */
+    @Label("Access")
+    private String access;
+
+    /**
+     * User name.
+     */
+    @Label("User")
+    private String user;
+
+    /**
+     * Was access granted?
+     */
+    @Label("Granted")
+    private boolean granted;
+
+    /**
+     * End the check and record it, if recording.
+     * @param kind Access asked for, upload or download
+     * @param name User name
+     * @param allowed Was access granted?
+     */
+    public void finish(final String kind, final String name,
+        final boolean allowed) {
+        this.end();
+        if (this.shouldCommit()) {
+            this.access = kind;
+            this.user = name;
+            this.granted = allowed;
+            this.commit();
+        }
+    }
+}
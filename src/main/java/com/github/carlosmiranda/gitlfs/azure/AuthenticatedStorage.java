@@ -17,6 +17,8 @@ package com.github.carlosmiranda.gitlfs.azure;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import javax.servlet.http.HttpServletRequest;
 import javax.xml.bind.DatatypeConverter;
 import org.eclipse.jetty.http.HttpHeader;
@@ -74,7 +76,7 @@ final class AuthenticatedStorage implements ContentManager {
     public Downloader checkDownloadAccess(
         @NotNull final HttpServletRequest request)
         throws IOException, ForbiddenError, UnauthorizedError {
-        this.checkAuthorization(request);
+        this.checkAuthorization(request, "download");
         return this.storage.checkDownloadAccess(request);
     }
 
@@ -82,7 +84,7 @@ final class AuthenticatedStorage implements ContentManager {
     @NotNull
     public Uploader checkUploadAccess(@NotNull final HttpServletRequest request)
         throws IOException, ForbiddenError, UnauthorizedError {
-        this.checkAuthorization(request);
+        this.checkAuthorization(request, "upload");
         return this.storage.checkUploadAccess(request);
     }
 
@@ -94,15 +96,44 @@ final class AuthenticatedStorage implements ContentManager {
     }
 
     /**
-     * Check authorization.
+     * User name of a basic authorization header.
+     * @param header Authorization header, or null
+     * @return User name, or empty if there is none
+     */
+    public static String user(final String header) {
+        String user = "";
+        if (header != null
+            && header.regionMatches(true, 0, "Basic ", 0, "Basic ".length())) {
+            try {
+                final String pair = new String(
+                    Base64.getDecoder().decode(
+                        header.substring("Basic ".length()).trim()
+                    ),
+                    StandardCharsets.UTF_8
+                );
+                user = pair.substring(0, Math.max(pair.indexOf(':'), 0));
+            } catch (final IllegalArgumentException ex) {
+                user = "";
+            }
+        }
+        return user;
+    }
+
+    /**
+     * Check authorization, recording the check as an {@link AuthEvent}.
      * @param request HTTP Servlet Request.
+     * @param access Kind of access asked for.
      * @throws UnauthorizedError If authorization header does not match.
      */
-    private void checkAuthorization(final HttpServletRequest request)
-        throws UnauthorizedError {
-        if (!this.auth.equalsIgnoreCase(
-            request.getHeader(HttpHeader.AUTHORIZATION.asString())
-        )) {
+    private void checkAuthorization(final HttpServletRequest request,
+        final String access) throws UnauthorizedError {
+        final AuthEvent event = new AuthEvent();
+        event.begin();
+        final String header =
+            request.getHeader(HttpHeader.AUTHORIZATION.asString());
+        final boolean granted = this.auth.equalsIgnoreCase(header);
+        event.finish(access, AuthenticatedStorage.user(header), granted);
+        if (!granted) {
             throw new UnauthorizedError(this.realm);
         }
     }
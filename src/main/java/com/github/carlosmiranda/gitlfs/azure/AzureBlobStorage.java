@@ -15,11 +15,17 @@
  */
 package com.github.carlosmiranda.gitlfs.azure;
 
+import com.google.common.io.ByteStreams;
+import com.microsoft.azure.storage.OperationContext;
 import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.BlobRequestOptions;
 import com.microsoft.azure.storage.blob.CloudBlobContainer;
 import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
 import javax.servlet.http.HttpServletRequest;
 import org.jetbrains.annotations.NotNull;
@@ -33,49 +39,96 @@ import ru.bozaro.gitlfs.server.UnauthorizedError;
  * Git LFS Storage backed by Azure Blob Storage.
  *
  * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
  */
 public final class AzureBlobStorage implements ContentManager {
+    /**
+     * Size of uploaded blocks.
+     */
+    // @checkstyle MagicNumber (1 line)
+    private static final int BLOCK = 4 << 20;
+
+    /**
+     * Azure error code of reads of archived blobs.
+     */
+    private static final String ARCHIVED = "BlobArchived";
+
     /**
      * Cloud blob client.
      */
     private final CloudBlobContainer container;
 
     /**
-     * Downloader of files from Azure Storage.
+     * Hedging of slow reads.
+     */
+    private final Hedging hedging;
+
+    /**
+     * Routing of reads between primary and secondary endpoints.
      */
-    private final Downloader downloader;
+    private final Endpoints endpoints;
+
+    /**
+     * Most blocks of an upload in flight at once.
+     */
+    private final int blocks;
 
     /**
      * Get instance using with the specified container.
      * @param container CloudBlob Container
      */
     AzureBlobStorage(final CloudBlobContainer container) {
+        this(container, new Hedging(0.0, 0.0));
+    }
+
+    /**
+     * Get instance using with the specified container, hedging reads.
+     * @param container CloudBlob Container
+     * @param hedging Hedging of slow metadata lookups and first reads
+     */
+    AzureBlobStorage(final CloudBlobContainer container,
+        final Hedging hedging) {
+        this(container, hedging, new Endpoints());
+    }
+
+    /**
+     * Get instance using with the specified container, hedging reads and
+     * routing them between endpoints.
+     * @param container CloudBlob Container
+     * @param hedging Hedging of slow metadata lookups and first reads
+     * @param endpoints Routing of reads between endpoints
+     */
+    AzureBlobStorage(final CloudBlobContainer container,
+        final Hedging hedging, final Endpoints endpoints) {
+        this(container, hedging, endpoints, 1);
+    }
+
+    /**
+     * Get instance using with the specified container, hedging reads,
+     * routing them between endpoints and staging blocks in parallel.
+     * @param container CloudBlob Container
+     * @param hedging Hedging of slow metadata lookups and first reads
+     * @param endpoints Routing of reads between endpoints
+     * @param blocks Most blocks of an upload in flight at once
+     * @checkstyle ParameterNumber (3 lines)
+     */
+    AzureBlobStorage(final CloudBlobContainer container,
+        final Hedging hedging, final Endpoints endpoints, final int blocks) {
         this.container = container;
-        this.downloader = new AzureDownloader(container);
+        this.hedging = hedging;
+        this.endpoints = endpoints;
+        this.blocks = blocks;
     }
 
     @Override
     public Meta getMetadata(final String hash) throws IOException {
-        try {
-            final CloudBlockBlob blob =
-                this.container.getBlockBlobReference(hash);
-            final boolean exists = blob.exists();
-            final Meta meta;
-            if (exists) {
-                meta = new Meta(hash, blob.getProperties().getLength());
-            } else {
-                meta = null;
-            }
-            return meta;
-        } catch (final StorageException | URISyntaxException ex) {
-            throw new IOException(ex);
-        }
+        return this.hedging.call(() -> this.lookup(hash));
     }
 
     @Override
     public Downloader checkDownloadAccess(final HttpServletRequest request)
         throws IOException, ForbiddenError, UnauthorizedError {
-        return this.downloader;
+        return new AzureDownloader();
     }
 
     @Override
@@ -84,6 +137,39 @@ public final class AzureBlobStorage implements ContentManager {
         return this::upload;
     }
 
+    /**
+     * Look up blob metadata.
+     * @param hash Object hash
+     * @return Metadata, or null if there is no such object
+     * @throws IOException If an IO Exception occurs.
+     */
+    private Meta lookup(final String hash) throws IOException {
+        final AzureCallEvent event = new AzureCallEvent();
+        event.begin();
+        try {
+            final CloudBlockBlob blob =
+                this.container.getBlockBlobReference(hash);
+            final Meta meta = this.endpoints.read(
+                hash,
+                options -> {
+                    Meta found = null;
+                    if (blob.exists(null, options, null)) {
+                        found = new Meta(
+                            hash, blob.getProperties().getLength()
+                        );
+                    }
+                    return found;
+                }
+            );
+            event.finish(
+                "metadata", hash, 0L, blob.getProperties().getLength()
+            );
+            return meta;
+        } catch (final StorageException | URISyntaxException ex) {
+            throw new IOException(ex);
+        }
+    }
+
     /**
      * Upload blob.
      * @param meta Metadata
@@ -93,41 +179,130 @@ public final class AzureBlobStorage implements ContentManager {
     private void upload(@NotNull final Meta meta,
         @NotNull final InputStream content) throws IOException {
         try {
-            this.container.getBlockBlobReference(meta.getOid())
-                .upload(content, meta.getSize());
+            final CloudBlockBlob blob =
+                this.container.getBlockBlobReference(meta.getOid());
+            final byte[] buffer = new byte[AzureBlobStorage.BLOCK];
+            final int read =
+                ByteStreams.read(content, buffer, 0, buffer.length);
+            if (read < buffer.length) {
+                final AzureCallEvent event = new AzureCallEvent();
+                event.begin();
+                blob.uploadFromByteArray(buffer, 0, read);
+                event.finish("write", meta.getOid(), 0L, read);
+            } else {
+                blob.commitBlockList(
+                    new BlockUpload(blob, meta.getOid(), this.blocks)
+                        .stage(content, buffer, read)
+                );
+            }
+            this.endpoints.written(meta.getOid());
         } catch (final StorageException | URISyntaxException ex) {
             throw new IOException(ex);
         }
     }
 
     /**
-     * Azure implementation of Downloader.
+     * Failure of a first read, telling archived objects apart.
+     * @param hash Object hash
+     * @param error Read error
+     * @return Exception to throw
      */
-    private static final class AzureDownloader implements Downloader {
-        /**
-         * Cloud blob client.
-         */
-        private final CloudBlobContainer container;
+    private static IOException failure(final String hash,
+        final IOException error) {
+        final Throwable cause = error.getCause();
+        IOException failure = error;
+        if (cause instanceof StorageException
+            && AzureBlobStorage.ARCHIVED.equals(
+                ((StorageException) cause).getErrorCode()
+            )) {
+            failure = new ArchivedException(hash, cause);
+        }
+        return failure;
+    }
 
-        /**
-         * Get instance using with the specified container.
-         * @param container CloudBlob Container
-         */
-        AzureDownloader(final CloudBlobContainer container) {
-            this.container = container;
+    /**
+     * Failure to open an object, telling missing objects apart.
+     * @param hash Object hash
+     * @param error Azure error
+     * @return Exception to throw
+     */
+    private static IOException unopened(final String hash,
+        final StorageException error) {
+        IOException failure = new IOException(error);
+        if (error.getHttpStatusCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+            failure = new FileNotFoundException(hash);
         }
+        return failure;
+    }
 
+    /**
+     * Azure implementation of Downloader, for one download.
+     */
+    private final class AzureDownloader implements Downloader {
         @Override
         @NotNull
         public InputStream openObject(@NotNull final String hash)
             throws IOException {
+            final Cancellation cancellation = Cancellation.opening();
+            return AzureBlobStorage.this.hedging.call(
+                () -> this.open(hash, cancellation)
+            );
+        }
+
+        /**
+         * Open blob and wait for its first byte, so that a straggling
+         * first read is hedged together with the open.
+         * @param hash Object hash
+         * @param cancellation Cancellation of the reads of the object
+         * @return Stream positioned at the start of the blob
+         * @throws IOException If an IO Exception occurs.
+         */
+        private InputStream open(final String hash,
+            final Cancellation cancellation) throws IOException {
             try {
-                return this.container
-                    .getBlockBlobReference(hash).openInputStream();
-            } catch (final StorageException | URISyntaxException ex) {
+                final CloudBlockBlob blob = AzureBlobStorage.this.container
+                    .getBlockBlobReference(hash);
+                final AzureCallEvent event = new AzureCallEvent();
+                event.begin();
+                final BlobRequestOptions options =
+                    AzureBlobStorage.this.endpoints.read(
+                        hash,
+                        opts -> {
+                            final OperationContext context =
+                                cancellation.begin(opts);
+                            try {
+                                blob.downloadAttributes(null, opts, context);
+                            } finally {
+                                cancellation.end(context, 0L);
+                            }
+                            return opts;
+                        }
+                    );
+                event.finish(
+                    "open", hash, 0L, blob.getProperties().getLength()
+                );
+                final PushbackInputStream stream = new PushbackInputStream(
+                    new BlobRangeStream(blob, hash, options, cancellation)
+                );
+                try {
+                    final int first = stream.read();
+                    if (first >= 0) {
+                        stream.unread(first);
+                    }
+                } catch (final IOException ex) {
+                    stream.close();
+                    throw AzureBlobStorage.failure(hash, ex);
+                }
+                return new SizedStream(
+                    stream, blob.getProperties().getLength()
+                );
+            } catch (final StorageException ex) {
+                throw AzureBlobStorage.unopened(hash, ex);
+            } catch (final URISyntaxException ex) {
                 throw new IOException(ex);
             }
         }
+
         @Override
         @Nullable
         public InputStream openObjectGzipped(@NotNull final String hash)
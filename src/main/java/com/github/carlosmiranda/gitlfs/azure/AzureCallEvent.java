@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of a call to Azure.
+ *
+ * <p>Usage: create, {@link #begin()}, make the call, then
+ * {@link #finish(String, String, long, long)}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+@Name("com.github.carlosmiranda.gitlfs.azure.AzureCall")
+@Label("Azure Call")
+@Category({"Git LFS", "Azure"})
+@Description("Metadata lookup, open, or range read or write of a blob")
+@StackTrace(false)
+@SuppressWarnings("PMD.UnusedPrivateField")
+final class AzureCallEvent extends Event {
+    /**
+     * Operation.
+     */
+    @Label("Operation")
+    private String operation;
+
+    /**
+     * Object id.
+     */
+    @Label("Object")
+    private String oid;
+
+    /**
+     * Offset of the range in the object.
+     */
+    @Label("Offset")
+    @DataAmount
+    private long offset;
+
+    /**
+     * Bytes transferred, or the object size for lookups.
+     */
+    @Label("Bytes")
+    @DataAmount
+    private long bytes;
+
+    /**
+     * End the call and record it, if recording.
+     * @param call Operation
+     * @param object Object id
+     * @param start Offset of the range in the object
+     * @param length Bytes transferred
+     * @checkstyle ParameterNumber (3 lines)
+     */
+    public void finish(final String call, final String object,
+        final long start, final long length) {
+        this.end();
+        if (this.shouldCommit()) {
+            this.operation = call;
+            this.oid = object;
+            this.offset = start;
+            this.bytes = length;
+            this.commit();
+        }
+    }
+}
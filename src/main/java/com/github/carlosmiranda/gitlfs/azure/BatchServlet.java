@@ -0,0 +1,400 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import ru.bozaro.gitlfs.common.JsonHelper;
+import ru.bozaro.gitlfs.common.data.BatchItem;
+import ru.bozaro.gitlfs.common.data.Error;
+import ru.bozaro.gitlfs.common.data.Link;
+import ru.bozaro.gitlfs.common.data.LinkType;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.common.data.Operation;
+import ru.bozaro.gitlfs.server.PointerManager;
+import ru.bozaro.gitlfs.server.PointerServlet;
+import ru.bozaro.gitlfs.server.ServerError;
+
+/**
+ * PointerServlet streaming batch responses.
+ *
+ * <p>{@link PointerServlet} reads a whole batch request into memory, locates
+ * all of its objects and only then writes the response, so a batch of tens
+ * of thousands of objects holds both object graphs on the heap and sends
+ * nothing until the last object is located. This servlet answers the same
+ * {@code POST <path>/info/lfs/objects/batch} with the same entries, written
+ * without indentation, but reads the objects of the request {@link #CHUNK}
+ * at a time, locates them and writes their entries before reading more, so
+ * memory stays bounded by the chunk whatever the size of the batch. Other
+ * requests are left to {@link PointerServlet}.
+ *
+ * <p>Objects listed before the operation in the request have to be held
+ * until the operation is known; clients send the operation first. Errors
+ * found before the first entry is written are answered like
+ * {@link PointerServlet} does; later ones abort the response.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+final class BatchServlet extends PointerServlet {
+    /**
+     * Objects located at a time.
+     */
+    public static final int CHUNK = 100;
+
+    /**
+     * Git LFS media type.
+     */
+    private static final String MIME = "application/vnd.git-lfs+json";
+
+    /**
+     * Serialization marker.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Pointer manager.
+     */
+    private final transient PointerManager pointers;
+
+    /**
+     * JSON mapper.
+     */
+    private final transient ObjectMapper mapper;
+
+    /**
+     * Writer of response entries, leaving flushes to the servlet.
+     */
+    private final transient ObjectWriter writer;
+
+    /**
+     * Ctor.
+     * @param pointers Pointer manager
+     */
+    BatchServlet(final PointerManager pointers) {
+        super(pointers);
+        this.pointers = pointers;
+        this.mapper = JsonHelper.createMapper();
+        this.writer = this.mapper.writer()
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    @Override
+    protected void doPost(final HttpServletRequest req,
+        final HttpServletResponse resp) throws ServletException, IOException {
+        if ("/batch".equals(req.getPathInfo())) {
+            try {
+                PointerServlet.checkMimeType(
+                    req.getContentType(), BatchServlet.MIME
+                );
+                this.batch(req, resp);
+            } catch (final ServerError ex) {
+                if (resp.isCommitted()) {
+                    throw new IOException(ex);
+                }
+                resp.setStatus(ex.getStatusCode());
+                resp.setContentType(BatchServlet.MIME);
+                this.mapper.writeValue(
+                    resp.getOutputStream(),
+                    new Error(ex.getStatusCode(), ex.getMessage())
+                );
+            }
+        } else {
+            super.doPost(req, resp);
+        }
+    }
+
+    /**
+     * Answer a batch request, a chunk of objects at a time.
+     * @param req Request
+     * @param resp Response
+     * @throws IOException If the request can't be read, or the response
+     *  written
+     * @throws ServerError If the request is refused
+     */
+    private void batch(final HttpServletRequest req,
+        final HttpServletResponse resp) throws IOException, ServerError {
+        try (JsonParser parser =
+            this.mapper.getFactory().createParser(req.getInputStream())) {
+            final Request objects = new Request(parser);
+            final Operation operation = objects.operation();
+            final PointerManager.Locator locator;
+            if (operation == Operation.Download) {
+                locator = this.pointers.checkDownloadAccess(
+                    req, this.getSelfUrl(req)
+                );
+            } else {
+                locator = this.pointers.checkUploadAccess(
+                    req, this.getSelfUrl(req)
+                );
+            }
+            BatchItem[] items = BatchServlet.locate(
+                locator, objects.next(), operation
+            );
+            resp.setStatus(HttpServletResponse.SC_OK);
+            resp.setContentType(BatchServlet.MIME);
+            final JsonGenerator json = this.mapper.getFactory()
+                .createGenerator(resp.getOutputStream());
+            json.writeStartObject();
+            json.writeArrayFieldStart("objects");
+            while (items.length > 0) {
+                for (final BatchItem item : items) {
+                    this.writer.writeValue(json, item);
+                }
+                json.flush();
+                items = BatchServlet.locate(locator, objects.next(), operation);
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+            json.close();
+        }
+    }
+
+    /**
+     * Refuse deserialization, the servlet only makes sense in this server.
+     * @param stream Stream
+     * @throws IOException Always
+     * @throws ClassNotFoundException Never
+     */
+    private void readObject(final ObjectInputStream stream)
+        throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        throw new NotSerializableException(this.getClass().getName());
+    }
+
+    /**
+     * Locate a chunk of objects, keeping only the links the operation needs.
+     * @param locator Locator
+     * @param metas Objects
+     * @param operation Operation
+     * @return Response entries, in the same order
+     * @throws IOException If the objects can't be located
+     * @throws ServerError If the locator answered for other objects
+     */
+    private static BatchItem[] locate(final PointerManager.Locator locator,
+        final List<Meta> metas, final Operation operation)
+        throws IOException, ServerError {
+        BatchItem[] items = new BatchItem[0];
+        if (!metas.isEmpty()) {
+            items = locator.getLocations(metas.toArray(new Meta[metas.size()]));
+            if (items.length != metas.size()) {
+                throw new ServerError(
+                    HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                    "Unexpected locations array size"
+                );
+            }
+            for (int idx = 0; idx < items.length; ++idx) {
+                if (!items[idx].getOid().equals(metas.get(idx).getOid())) {
+                    throw new ServerError(
+                        HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                        "Metadata mismatch"
+                    );
+                }
+                items[idx] = BatchServlet.filtered(items[idx], operation);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Keep only the links the operation needs, like {@link PointerServlet}.
+     * @param item Located object
+     * @param operation Operation
+     * @return Response entry
+     * @throws IOException If an object to upload has no upload link
+     */
+    private static BatchItem filtered(final BatchItem item,
+        final Operation operation) throws IOException {
+        BatchItem entry = item;
+        if (item.getError() == null) {
+            final Map<LinkType, Link> links = item.getLinks();
+            if (links.containsKey(LinkType.Download)) {
+                entry = new BatchItem(
+                    item.getOid(), item.getSize(),
+                    BatchServlet.only(links, LinkType.Download), null
+                );
+            } else if (operation == Operation.Download) {
+                entry = new BatchItem(
+                    item.getOid(), item.getSize(), null,
+                    new Error(
+                        HttpServletResponse.SC_NOT_FOUND, "Object not found"
+                    )
+                );
+            } else if (links.containsKey(LinkType.Upload)) {
+                entry = new BatchItem(
+                    item.getOid(), item.getSize(),
+                    BatchServlet.only(links, LinkType.Upload, LinkType.Verify),
+                    null
+                );
+            } else {
+                throw new IOException("Upload link not found");
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Links of the given types.
+     * @param links All links
+     * @param types Types to keep
+     * @return Links kept
+     */
+    private static Map<LinkType, Link> only(final Map<LinkType, Link> links,
+        final LinkType... types) {
+        final Map<LinkType, Link> kept = new TreeMap<>();
+        for (final LinkType type : types) {
+            final Link link = links.get(type);
+            if (link != null) {
+                kept.put(type, link);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Error for a malformed batch request.
+     * @return Error
+     */
+    private static ServerError malformed() {
+        return new ServerError(
+            HttpServletResponse.SC_BAD_REQUEST,
+            "Expected an operation and an array of objects"
+        );
+    }
+    /**
+     * Objects of a batch request, read as they are needed.
+     */
+    private final class Request {
+        /**
+         * Parser of the request.
+         */
+        private final JsonParser parser;
+
+        /**
+         * Objects read ahead of the operation.
+         */
+        private final Deque<Meta> ahead;
+
+        /**
+         * Is the parser inside the array of objects?
+         */
+        private boolean inside;
+
+        /**
+         * Ctor.
+         * @param parser Parser of the request
+         */
+        Request(final JsonParser parser) {
+            this.parser = parser;
+            this.ahead = new ArrayDeque<>(0);
+        }
+
+        /**
+         * Read the request up to the operation and the array of objects.
+         * @return Operation
+         * @throws IOException If the request can't be read
+         * @throws ServerError If the request is malformed
+         */
+        public Operation operation() throws IOException, ServerError {
+            if (this.parser.nextToken() != JsonToken.START_OBJECT) {
+                throw BatchServlet.malformed();
+            }
+            Operation operation = null;
+            boolean listed = false;
+            while ((operation == null || !listed)
+                && this.parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = this.parser.getCurrentName();
+                final JsonToken value = this.parser.nextToken();
+                if ("operation".equals(field)) {
+                    operation = Operation.forValue(this.parser.getText());
+                } else if ("objects".equals(field)) {
+                    if (value != JsonToken.START_ARRAY) {
+                        throw BatchServlet.malformed();
+                    }
+                    listed = true;
+                    this.inside = true;
+                    if (operation == null) {
+                        this.ahead.addAll(this.next(Integer.MAX_VALUE));
+                    }
+                } else {
+                    this.parser.skipChildren();
+                }
+            }
+            if (operation == null) {
+                throw BatchServlet.malformed();
+            }
+            return operation;
+        }
+
+        /**
+         * Read the next chunk of objects.
+         * @return Objects, none once all have been read
+         * @throws IOException If the request can't be read
+         * @throws ServerError If the request is malformed
+         */
+        public List<Meta> next() throws IOException, ServerError {
+            return this.next(BatchServlet.CHUNK);
+        }
+
+        /**
+         * Read objects.
+         * @param count Most objects to read
+         * @return Objects, none once all have been read
+         * @throws IOException If the request can't be read
+         * @throws ServerError If the request is malformed
+         */
+        private List<Meta> next(final int count)
+            throws IOException, ServerError {
+            final List<Meta> metas = new ArrayList<>(
+                Math.min(count, BatchServlet.CHUNK)
+            );
+            while (metas.size() < count && !this.ahead.isEmpty()) {
+                metas.add(this.ahead.remove());
+            }
+            while (metas.size() < count && this.inside) {
+                final JsonToken token = this.parser.nextToken();
+                if (token == JsonToken.START_OBJECT) {
+                    metas.add(
+                        BatchServlet.this.mapper.readValue(
+                            this.parser, Meta.class
+                        )
+                    );
+                } else if (token == JsonToken.END_ARRAY) {
+                    this.inside = false;
+                } else {
+                    throw BatchServlet.malformed();
+                }
+            }
+            return metas;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.CharStreams;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Azure Blob batches, sending up to 256 blob requests in one.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class BlobBatch {
+    /**
+     * Maximum number of requests in a batch.
+     */
+    private static final int MAX = 256;
+
+    /**
+     * Line separator of batch bodies.
+     */
+    private static final String CRLF = "\r\n";
+
+    /**
+     * Status line of a response in a batch.
+     */
+    private static final Pattern STATUS =
+        Pattern.compile("^HTTP/1\\.1 (\\d{3})", Pattern.MULTILINE);
+
+    /**
+     * Azure REST requests.
+     */
+    private final BlobRest rest;
+
+    /**
+     * Ctor.
+     * @param rest Azure REST requests
+     */
+    BlobBatch(final BlobRest rest) {
+        this.rest = rest;
+    }
+
+    /**
+     * Set the access tier of blobs.
+     * @param blobs Blob names
+     * @param tier Access tier
+     * @return Number of blobs whose tier was set
+     * @throws IOException If a batch fails as a whole
+     */
+    public int tier(final List<String> blobs, final String tier)
+        throws IOException {
+        int done = 0;
+        for (final List<String> part : Lists.partition(blobs, BlobBatch.MAX)) {
+            final Map<String, String> headers = new TreeMap<>();
+            headers.put("x-ms-access-tier", tier);
+            done += BlobBatch.succeeded(
+                this.send(
+                    part.stream().map(
+                        blob -> this.request(
+                            "PUT", this.rest.container(
+                                String.format("/%s?comp=tier", blob)
+                            ),
+                            headers
+                        )
+                    ).collect(Collectors.toList())
+                )
+            );
+        }
+        return done;
+    }
+
+    /**
+     * Delete blobs that haven't changed since they were listed.
+     * @param blobs Blob names, and the ETags they must still have, or empty
+     *  strings to delete them whatever they hold
+     * @return Number of blobs deleted
+     * @throws IOException If a batch fails as a whole
+     */
+    public int delete(final Map<String, String> blobs) throws IOException {
+        int done = 0;
+        for (final List<Map.Entry<String, String>> part : Lists.partition(
+            new ArrayList<>(blobs.entrySet()), BlobBatch.MAX
+        )) {
+            done += BlobBatch.succeeded(
+                this.send(
+                    part.stream().map(
+                        blob -> {
+                            final Map<String, String> headers = new TreeMap<>();
+                            if (!blob.getValue().isEmpty()) {
+                                headers.put("if-match", blob.getValue());
+                            }
+                            return this.request(
+                                "DELETE",
+                                this.rest.container(
+                                    String.format("/%s", blob.getKey())
+                                ),
+                                headers
+                            );
+                        }
+                    ).collect(Collectors.toList())
+                )
+            );
+        }
+        return done;
+    }
+
+    /**
+     * Number of successful responses in a batch response.
+     * @param body Batch response body
+     * @return Number of responses with a 2xx status
+     */
+    public static int succeeded(final String body) {
+        final Matcher matcher = BlobBatch.STATUS.matcher(body);
+        int done = 0;
+        while (matcher.find()) {
+            if (matcher.group(1).charAt(0) == '2') {
+                ++done;
+            }
+        }
+        return done;
+    }
+
+    /**
+     * Request within a batch, without its MIME part headers.
+     * @param method HTTP method
+     * @param uri Request URI
+     * @param headers Request headers, with lowercase names
+     * @return Request
+     */
+    private String request(final String method, final URI uri,
+        final Map<String, String> headers) {
+        final Map<String, String> all = new TreeMap<>(headers);
+        all.put("x-ms-date", SharedKey.now());
+        all.put("content-length", "0");
+        all.put("authorization", this.rest.authorization(method, uri, all));
+        final StringBuilder request = new StringBuilder(method)
+            .append(' ').append(uri.getRawPath());
+        if (uri.getRawQuery() != null) {
+            request.append('?').append(uri.getRawQuery());
+        }
+        request.append(" HTTP/1.1").append(BlobBatch.CRLF);
+        all.forEach(
+            (name, value) -> request.append(name).append(": ").append(value)
+                .append(BlobBatch.CRLF)
+        );
+        return request.append(BlobBatch.CRLF).toString();
+    }
+
+    /**
+     * Send a batch.
+     * @param requests Requests
+     * @return Batch response body
+     * @throws IOException If the batch fails as a whole
+     */
+    private String send(final List<String> requests) throws IOException {
+        final String boundary = String.format("batch_%s", UUID.randomUUID());
+        final StringBuilder body = new StringBuilder();
+        for (int idx = 0; idx < requests.size(); ++idx) {
+            body.append("--").append(boundary).append(BlobBatch.CRLF)
+                .append("Content-Type: application/http").append(BlobBatch.CRLF)
+                .append("Content-Transfer-Encoding: binary")
+                .append(BlobBatch.CRLF)
+                .append("Content-ID: ").append(idx).append(BlobBatch.CRLF)
+                .append(BlobBatch.CRLF)
+                .append(requests.get(idx));
+        }
+        body.append("--").append(boundary).append("--")
+            .append(BlobBatch.CRLF);
+        final byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        final Map<String, String> headers = new TreeMap<>();
+        headers.put(
+            "content-type",
+            String.format("multipart/mixed; boundary=%s", boundary)
+        );
+        headers.put("content-length", Integer.toString(bytes.length));
+        final HttpURLConnection conn = this.rest.open(
+            "POST", this.rest.service("/?comp=batch"), headers
+        );
+        try (OutputStream output = conn.getOutputStream()) {
+            output.write(bytes);
+        }
+        if (conn.getResponseCode() != HttpURLConnection.HTTP_ACCEPTED) {
+            throw BlobRest.failure(conn);
+        }
+        try (Reader reader = new InputStreamReader(
+            conn.getInputStream(), StandardCharsets.UTF_8
+        )) {
+            return CharStreams.toString(reader);
+        }
+    }
+}
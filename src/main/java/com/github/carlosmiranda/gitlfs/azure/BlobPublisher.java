@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.util.Callback;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Content of a non-blocking HTTP request, as a reactive stream.
+ *
+ * <p>The request is sent on the first demand. Each buffer the client reads
+ * from the network is passed on only once there is demand for it, and the
+ * client reads no further until the buffer is released, so a slow
+ * subscriber slows the network read down instead of piling buffers up.
+ * A buffer is released at the subscriber's next request, or right after
+ * {@code onNext} if demand is left. Answers other than 2xx end the stream
+ * with an {@link IOException}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class BlobPublisher implements Publisher<ByteBuffer> {
+    /**
+     * Request, not sent yet.
+     */
+    private final Request request;
+
+    /**
+     * Has the stream been subscribed to?
+     */
+    private final AtomicBoolean subscribed;
+
+    /**
+     * Ctor.
+     * @param request Request, not sent yet
+     */
+    BlobPublisher(final Request request) {
+        this.request = request;
+        this.subscribed = new AtomicBoolean();
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super ByteBuffer> subscriber) {
+        if (this.subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow(subscriber));
+        } else {
+            subscriber.onSubscribe(new Flow(null));
+            subscriber.onError(
+                new IllegalStateException("Content can only be read once")
+            );
+        }
+    }
+
+    /**
+     * Subscription to the content, also listening to the response.
+     */
+    private final class Flow implements Subscription,
+        Response.AsyncContentListener, Response.CompleteListener {
+        /**
+         * Subscriber, or null if the subscription was refused.
+         */
+        private final Subscriber<? super ByteBuffer> subscriber;
+
+        /**
+         * Buffers requested and not passed on yet.
+         */
+        private long demand;
+
+        /**
+         * Buffer read and not passed on yet.
+         */
+        private ByteBuffer pending;
+
+        /**
+         * Callback releasing the pending buffer.
+         */
+        private Callback held;
+
+        /**
+         * Callback releasing the buffer last passed on.
+         */
+        private Callback passed;
+
+        /**
+         * Outcome of the request, once complete.
+         */
+        private Result result;
+
+        /**
+         * Has the request been sent?
+         */
+        private boolean started;
+
+        /**
+         * Has the subscriber been told the stream ended?
+         */
+        private boolean done;
+
+        /**
+         * Ctor.
+         * @param subscriber Subscriber, or null if the subscription was
+         *  refused
+         */
+        Flow(final Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public synchronized void request(final long count) {
+            final boolean open = this.subscriber != null && !this.done;
+            if (open && count <= 0L) {
+                this.cancel();
+                this.done = true;
+                this.subscriber.onError(
+                    new IllegalArgumentException("Demand must be positive")
+                );
+            } else if (open) {
+                this.demand = Math.max(this.demand + count, this.demand);
+                this.release();
+                if (this.started) {
+                    this.drain();
+                } else {
+                    this.started = true;
+                    BlobPublisher.this.request
+                        .onResponseContentAsync(this)
+                        .send(this::onComplete);
+                }
+            }
+        }
+
+        @Override
+        public synchronized void cancel() {
+            this.done = true;
+            this.release();
+            if (this.held != null) {
+                this.held.succeeded();
+                this.held = null;
+            }
+            BlobPublisher.this.request.abort(
+                new CancellationException("Content no longer read")
+            );
+        }
+
+        @Override
+        public synchronized void onContent(final Response response,
+            final ByteBuffer content, final Callback callback) {
+            // @checkstyle MagicNumber (1 line)
+            if (this.done || response.getStatus() / 100 != 2) {
+                callback.succeeded();
+            } else {
+                this.pending = content;
+                this.held = callback;
+                this.drain();
+            }
+        }
+
+        @Override
+        public synchronized void onComplete(final Result outcome) {
+            this.result = outcome;
+            this.drain();
+        }
+
+        /**
+         * Pass the pending buffer on if there is demand, and end the stream
+         * once the request is complete and no buffer is pending.
+         */
+        private void drain() {
+            if (this.pending != null && this.demand > 0L && !this.done) {
+                --this.demand;
+                final ByteBuffer content = this.pending;
+                this.pending = null;
+                this.passed = this.held;
+                this.held = null;
+                this.subscriber.onNext(content);
+                if (this.demand > 0L) {
+                    this.release();
+                }
+            }
+            if (this.pending == null && this.result != null && !this.done) {
+                this.done = true;
+                this.finish(this.result);
+            }
+        }
+
+        /**
+         * Release the buffer last passed on, so the next one can be read.
+         */
+        private void release() {
+            if (this.passed != null) {
+                final Callback callback = this.passed;
+                this.passed = null;
+                callback.succeeded();
+            }
+        }
+
+        /**
+         * Tell the subscriber how the request ended.
+         * @param outcome Outcome of the request
+         */
+        private void finish(final Result outcome) {
+            final int status = outcome.getResponse().getStatus();
+            if (outcome.isFailed()) {
+                this.subscriber.onError(outcome.getFailure());
+                // @checkstyle MagicNumber (1 line)
+            } else if (status / 100 == 2) {
+                this.subscriber.onComplete();
+            } else {
+                final String message = String.format(
+                    "%s %s answered %d",
+                    BlobPublisher.this.request.getMethod(),
+                    BlobPublisher.this.request.getURI(), status
+                );
+                IOException failure = new IOException(message);
+                if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                    failure = new FileNotFoundException(message);
+                }
+                this.subscriber.onError(failure);
+            }
+        }
+    }
+}
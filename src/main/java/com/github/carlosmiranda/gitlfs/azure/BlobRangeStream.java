@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.microsoft.azure.storage.OperationContext;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.BlobRequestOptions;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream over a blob, read one range request at a time.
+ *
+ * <p>Like the SDK's own blob stream, ranges are 4 MiB, but each range is
+ * recorded as an {@link AzureCallEvent}, and made under the
+ * {@link Cancellation} of the object, so that abandoning it aborts the
+ * range in flight. Unlike it, ranges aren't conditional on the ETag the
+ * blob had when opened: content is named by its hash and never changes,
+ * while metadata written meanwhile, such as references and last reads,
+ * changes the ETag.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class BlobRangeStream extends InputStream {
+    /**
+     * Size of a range.
+     */
+    // @checkstyle MagicNumber (1 line)
+    private static final int RANGE = 4 << 20;
+
+    /**
+     * Blob, with its attributes downloaded.
+     */
+    private final CloudBlockBlob blob;
+
+    /**
+     * Object id.
+     */
+    private final String oid;
+
+    /**
+     * Blob length.
+     */
+    private final long length;
+
+    /**
+     * Request options, naming the endpoint to read from.
+     */
+    private final BlobRequestOptions options;
+
+    /**
+     * Cancellation of the reads of the object.
+     */
+    private final Cancellation cancellation;
+
+    /**
+     * Current range.
+     */
+    private byte[] buffer;
+
+    /**
+     * Position in the current range.
+     */
+    private int pos;
+
+    /**
+     * Bytes in the current range.
+     */
+    private int limit;
+
+    /**
+     * Offset of the next range.
+     */
+    private long next;
+
+    /**
+     * Ctor.
+     * @param blob Blob, with its attributes downloaded
+     * @param oid Object id
+     * @param options Request options, naming the endpoint to read from
+     * @param cancellation Cancellation of the reads of the object
+     * @checkstyle ParameterNumber (3 lines)
+     */
+    BlobRangeStream(final CloudBlockBlob blob, final String oid,
+        final BlobRequestOptions options, final Cancellation cancellation) {
+        super();
+        this.blob = blob;
+        this.oid = oid;
+        this.options = options;
+        this.cancellation = cancellation;
+        this.length = blob.getProperties().getLength();
+    }
+
+    @Override
+    public int read() throws IOException {
+        int value = -1;
+        if (this.fill()) {
+            // @checkstyle MagicNumber (1 line)
+            value = this.buffer[this.pos] & 0xff;
+            ++this.pos;
+        }
+        return value;
+    }
+
+    @Override
+    public int read(final byte[] data, final int off, final int len)
+        throws IOException {
+        int count = 0;
+        if (len > 0) {
+            count = -1;
+            if (this.fill()) {
+                count = Math.min(len, this.limit - this.pos);
+                System.arraycopy(this.buffer, this.pos, data, off, count);
+                this.pos += count;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return this.limit - this.pos;
+    }
+
+    /**
+     * Make sure there are bytes in the current range, reading the next range
+     * if needed.
+     * @return False at the end of the blob
+     * @throws IOException If the range can't be read
+     */
+    private boolean fill() throws IOException {
+        if (this.pos >= this.limit && this.next < this.length) {
+            final int size =
+                (int) Math.min(BlobRangeStream.RANGE, this.length - this.next);
+            if (this.buffer == null) {
+                this.buffer = new byte[size];
+            }
+            final AzureCallEvent event = new AzureCallEvent();
+            event.begin();
+            final OperationContext context =
+                this.cancellation.begin(this.options);
+            this.limit = 0;
+            try {
+                this.limit = this.blob.downloadRangeToByteArray(
+                    this.next, (long) size, this.buffer, 0, null,
+                    this.options, context
+                );
+            } catch (final StorageException ex) {
+                throw new IOException(ex);
+            } finally {
+                this.cancellation.end(context, this.limit);
+            }
+            event.finish("read", this.oid, this.next, this.limit);
+            this.pos = 0;
+            this.next += this.limit;
+        }
+        return this.pos < this.limit;
+    }
+}
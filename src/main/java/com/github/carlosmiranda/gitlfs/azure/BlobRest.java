@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.CharStreams;
+import com.microsoft.azure.storage.StorageCredentials;
+import com.microsoft.azure.storage.StorageCredentialsAccountAndKey;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Raw Azure Blob REST requests on a container.
+ *
+ * <p>Used for the operations the Azure SDK has no API for, such as blob
+ * tiers and batches. Requests are authorized with the account key the
+ * container is accessed with.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class BlobRest {
+    /**
+     * REST API version.
+     */
+    private static final String VERSION = "2019-12-12";
+
+    /**
+     * Content length header, which can't be set as a request property.
+     */
+    private static final String LENGTH = "content-length";
+
+    /**
+     * Blob service endpoint, without a trailing slash.
+     */
+    private final String endpoint;
+
+    /**
+     * Container name.
+     */
+    private final String container;
+
+    /**
+     * Account key.
+     */
+    private final SharedKey key;
+
+    /**
+     * Ctor.
+     * @param container Azure container
+     */
+    BlobRest(final CloudBlobContainer container) {
+        this.endpoint = container.getServiceClient().getEndpoint().toString()
+            .replaceAll("/+$", "");
+        this.container = container.getName();
+        this.key = BlobRest.key(container);
+    }
+
+    /**
+     * URI of a service resource.
+     * @param path Path and query, relative to the service endpoint
+     * @return URI
+     */
+    public URI service(final String path) {
+        return URI.create(this.endpoint + path);
+    }
+
+    /**
+     * URI of a container resource.
+     * @param path Path and query, relative to the container
+     * @return URI
+     */
+    public URI container(final String path) {
+        return this.service(String.format("/%s%s", this.container, path));
+    }
+
+    /**
+     * Authorization header of a request, for requests sent as part of
+     * another one.
+     * @param method HTTP method
+     * @param uri Request URI
+     * @param headers Request headers, with lowercase names
+     * @return Authorization header value
+     */
+    public String authorization(final String method, final URI uri,
+        final Map<String, String> headers) {
+        return this.key.authorization(method, uri, headers);
+    }
+
+    /**
+     * Headers of an authorized request, for requests sent with another
+     * client.
+     * @param method HTTP method
+     * @param uri Request URI
+     * @param headers Request headers, with lowercase names
+     * @return All headers to send, with lowercase names
+     */
+    public Map<String, String> signed(final String method, final URI uri,
+        final Map<String, String> headers) {
+        final Map<String, String> all = new TreeMap<>(headers);
+        all.put("x-ms-date", SharedKey.now());
+        all.put("x-ms-version", BlobRest.VERSION);
+        all.put("authorization", this.key.authorization(method, uri, all));
+        return all;
+    }
+
+    /**
+     * Open an authorized request.
+     * @param method HTTP method
+     * @param uri Request URI
+     * @param headers Request headers, with lowercase names
+     * @return Connection, ready to send
+     * @throws IOException If the connection can't be opened
+     */
+    public HttpURLConnection open(final String method, final URI uri,
+        final Map<String, String> headers) throws IOException {
+        final Map<String, String> all = this.signed(method, uri, headers);
+        final HttpURLConnection conn =
+            (HttpURLConnection) uri.toURL().openConnection();
+        conn.setRequestMethod(method);
+        all.forEach(
+            (name, value) -> {
+                if (BlobRest.LENGTH.equals(name)) {
+                    conn.setDoOutput(true);
+                    conn.setFixedLengthStreamingMode(Long.parseLong(value));
+                } else {
+                    conn.setRequestProperty(name, value);
+                }
+            }
+        );
+        return conn;
+    }
+
+    /**
+     * Failure of a request answered with an unexpected status.
+     * @param conn Connection
+     * @return Exception describing the failure
+     * @throws IOException If the response can't be read
+     */
+    public static IOException failure(final HttpURLConnection conn)
+        throws IOException {
+        String text = "";
+        final InputStream error = conn.getErrorStream();
+        if (error != null) {
+            try (InputStreamReader reader =
+                new InputStreamReader(error, StandardCharsets.UTF_8)) {
+                text = CharStreams.toString(reader);
+            }
+        }
+        return new IOException(
+            String.format(
+                "%s %s answered %d: %s", conn.getRequestMethod(),
+                conn.getURL(), conn.getResponseCode(), text
+            )
+        );
+    }
+
+    /**
+     * Shared key of the account a container is accessed with.
+     * @param container Azure container
+     * @return Shared key
+     */
+    private static SharedKey key(final CloudBlobContainer container) {
+        final StorageCredentials creds =
+            container.getServiceClient().getCredentials();
+        if (!(creds instanceof StorageCredentialsAccountAndKey)) {
+            throw new IllegalArgumentException(
+                "Container is not accessed with an account key"
+            );
+        }
+        return new SharedKey(
+            creds.getAccountName(),
+            ((StorageCredentialsAccountAndKey) creds).exportBase64EncodedKey()
+        );
+    }
+}
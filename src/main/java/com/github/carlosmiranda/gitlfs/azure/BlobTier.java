@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Access tier and other properties of a blob, as listed by Azure.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class BlobTier {
+    /**
+     * Prefix of listed metadata, as sent in headers.
+     */
+    public static final String META = "x-ms-meta-";
+
+    /**
+     * Metadata holding the time the blob was last read.
+     */
+    public static final String READ = "lastread";
+    /**
+     * Blob name.
+     */
+    private final String blob;
+
+    /**
+     * Listed blob properties, by element name, and metadata, by name
+     * prefixed with {@link #META}.
+     */
+    private final Map<String, String> properties;
+
+    /**
+     * Ctor.
+     * @param blob Blob name
+     * @param properties Listed blob properties, by element name, and
+     *  metadata, by name prefixed with {@link #META}
+     */
+    BlobTier(final String blob, final Map<String, String> properties) {
+        this.blob = blob;
+        this.properties = properties;
+    }
+
+    /**
+     * Blob name.
+     * @return Name
+     */
+    public String name() {
+        return this.blob;
+    }
+
+    /**
+     * Access tier.
+     * @return Tier, such as {@code Hot}, or empty if unknown
+     */
+    public String tier() {
+        return this.properties.getOrDefault("AccessTier", "");
+    }
+
+    /**
+     * Is the blob being moved out of the archive tier?
+     * @return True if it's being rehydrated
+     */
+    public boolean rehydrating() {
+        return !this.properties.getOrDefault("ArchiveStatus", "").isEmpty();
+    }
+
+    /**
+     * Time the blob got its current tier, or was last modified if its tier
+     * was never set.
+     * @return Time
+     */
+    public Instant changed() {
+        return ZonedDateTime.parse(
+            this.properties.getOrDefault(
+                "AccessTierChangeTime",
+                this.properties.get("Last-Modified")
+            ),
+            DateTimeFormatter.RFC_1123_DATE_TIME
+        ).toInstant();
+    }
+
+    /**
+     * Time the blob was last read, or got its current tier if later.
+     * @return Time
+     */
+    public Instant accessed() {
+        Instant accessed = this.changed();
+        final String read = this.properties.get(BlobTier.META + BlobTier.READ);
+        if (read != null && Instant.parse(read).isAfter(accessed)) {
+            accessed = Instant.parse(read);
+        }
+        return accessed;
+    }
+
+    /**
+     * The same blob, read at a time.
+     * @param time Time of the read
+     * @return Blob
+     */
+    public BlobTier read(final Instant time) {
+        final Map<String, String> read = new HashMap<>(this.properties);
+        read.put(BlobTier.META + BlobTier.READ, time.toString());
+        return new BlobTier(this.blob, read);
+    }
+
+    /**
+     * Listed metadata.
+     * @return Metadata headers, by lowercase name
+     */
+    public Map<String, String> metadata() {
+        final Map<String, String> metadata = new HashMap<>();
+        for (final Map.Entry<String, String> entry
+            : this.properties.entrySet()) {
+            if (entry.getKey().startsWith(BlobTier.META)) {
+                metadata.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Time of the last change to the blob's content or metadata.
+     * @return Time
+     */
+    public Instant modified() {
+        return ZonedDateTime.parse(
+            this.properties.get("Last-Modified"),
+            DateTimeFormatter.RFC_1123_DATE_TIME
+        ).toInstant();
+    }
+
+    /**
+     * Blob length.
+     * @return Bytes
+     */
+    public long size() {
+        return Long.parseLong(
+            this.properties.getOrDefault("Content-Length", "0")
+        );
+    }
+
+    /**
+     * Blob ETag, quoted as in HTTP headers, which listings don't do.
+     * @return ETag, or empty if unknown
+     */
+    public String etag() {
+        String etag = this.properties.getOrDefault("Etag", "");
+        if (!etag.isEmpty() && etag.charAt(0) != '"') {
+            etag = String.format("\"%s\"", etag);
+        }
+        return etag;
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Upload of a blob from a reactive stream of its blocks.
+ *
+ * <p>Each block is staged as soon as it arrives, with a fixed number of
+ * blocks in flight: a new block is only asked for once a staged one is
+ * acknowledged. After the last block is acknowledged, the block list is
+ * committed. Block ids follow the offset of the block in the blob, as
+ * elsewhere.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class BlockSubscriber implements Subscriber<ByteBuffer> {
+    /**
+     * Storage staging and committing the blocks.
+     */
+    private final AsyncBlobStorage storage;
+
+    /**
+     * Blob name.
+     */
+    private final String name;
+
+    /**
+     * Most blocks in flight.
+     */
+    private final int window;
+
+    /**
+     * Ids of blocks so far, in order.
+     */
+    private final List<String> blocks;
+
+    /**
+     * Blocks staging.
+     */
+    private final AtomicInteger flight;
+
+    /**
+     * Has the block list been committed?
+     */
+    private final AtomicBoolean committed;
+
+    /**
+     * Outcome of the upload.
+     */
+    private final CompletableFuture<Void> done;
+
+    /**
+     * Subscription, once subscribed.
+     */
+    private final AtomicReference<Subscription> subscription;
+
+    /**
+     * Have all blocks arrived?
+     */
+    private volatile boolean last;
+
+    /**
+     * Offset of the next block.
+     */
+    private long offset;
+
+    /**
+     * Ctor.
+     * @param storage Storage staging and committing the blocks
+     * @param name Blob name
+     * @param window Most blocks in flight
+     */
+    BlockSubscriber(final AsyncBlobStorage storage, final String name,
+        final int window) {
+        this.storage = storage;
+        this.name = name;
+        this.window = window;
+        this.blocks = new ArrayList<>(0);
+        this.flight = new AtomicInteger();
+        this.committed = new AtomicBoolean();
+        this.done = new CompletableFuture<>();
+        this.subscription = new AtomicReference<>();
+    }
+
+    /**
+     * Outcome of the upload.
+     * @return Future completing once the blob is committed
+     */
+    public CompletableFuture<Void> result() {
+        return this.done;
+    }
+
+    @Override
+    public void onSubscribe(final Subscription sub) {
+        this.subscription.set(sub);
+        sub.request(this.window);
+    }
+
+    @Override
+    public void onNext(final ByteBuffer block) {
+        final String ident = Base64.getEncoder().encodeToString(
+            String.format("%019d", this.offset)
+                .getBytes(StandardCharsets.US_ASCII)
+        );
+        this.offset += block.remaining();
+        this.blocks.add(ident);
+        this.flight.incrementAndGet();
+        this.storage.block(this.name, ident, block).whenComplete(
+            (ignored, failure) -> {
+                if (failure == null) {
+                    this.flight.decrementAndGet();
+                    this.subscription.get().request(1L);
+                    this.commit();
+                } else {
+                    this.subscription.get().cancel();
+                    this.done.completeExceptionally(failure);
+                }
+            }
+        );
+    }
+
+    @Override
+    public void onError(final Throwable failure) {
+        this.done.completeExceptionally(failure);
+    }
+
+    @Override
+    public void onComplete() {
+        this.last = true;
+        this.commit();
+    }
+
+    /**
+     * Commit the block list, once all blocks are staged.
+     */
+    private void commit() {
+        if (this.last && this.flight.get() == 0 && !this.done.isDone()
+            && this.committed.compareAndSet(false, true)) {
+            this.storage.commit(this.name, this.blocks).whenComplete(
+                (ignored, failure) -> {
+                    if (failure == null) {
+                        this.done.complete(null);
+                    } else {
+                        this.done.completeExceptionally(failure);
+                    }
+                }
+            );
+        }
+    }
+}
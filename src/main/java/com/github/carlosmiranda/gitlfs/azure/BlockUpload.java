@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.azure.storage.blob.BlockEntry;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Upload of a large blob as blocks, several of them at a time.
+ *
+ * <p>Each block in flight holds its own buffer, and a buffer is only reused
+ * once its block is staged, so an upload holds at most as many buffers as
+ * blocks it may have in flight. With one block in flight, blocks are staged
+ * one after the other.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class BlockUpload {
+    /**
+     * Threads staging blocks.
+     */
+    private static final ExecutorService STAGING =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("block-upload-%d")
+                .build()
+        );
+
+    /**
+     * Blob being uploaded.
+     */
+    private final CloudBlockBlob blob;
+
+    /**
+     * Object id.
+     */
+    private final String oid;
+
+    /**
+     * Most blocks in flight.
+     */
+    private final int parallel;
+
+    /**
+     * Ctor.
+     * @param blob Blob being uploaded
+     * @param oid Object id
+     * @param parallel Most blocks in flight
+     */
+    BlockUpload(final CloudBlockBlob blob, final String oid,
+        final int parallel) {
+        this.blob = blob;
+        this.oid = oid;
+        this.parallel = Math.max(1, parallel);
+    }
+
+    /**
+     * Stage the content as blocks.
+     * @param content Rest of the content
+     * @param first Buffer holding the first block
+     * @param length Length of the first block, the size of the buffer
+     * @return Staged blocks, in order, to commit
+     * @throws IOException If the content can't be read or a block staged
+     */
+    public List<BlockEntry> stage(final InputStream content,
+        final byte[] first, final int length) throws IOException {
+        final List<BlockEntry> blocks = new ArrayList<>(1);
+        final Deque<Future<byte[]>> flight = new ArrayDeque<>(this.parallel);
+        byte[] buffer = first;
+        int read = length;
+        long offset = 0L;
+        try {
+            while (read > 0) {
+                final String ident = BlockUpload.ident(offset);
+                blocks.add(new BlockEntry(ident));
+                flight.add(this.submit(ident, offset, buffer, read));
+                offset += read;
+                if (flight.size() < this.parallel) {
+                    buffer = new byte[first.length];
+                } else {
+                    buffer = BlockUpload.await(flight.poll());
+                }
+                read = ByteStreams.read(content, buffer, 0, buffer.length);
+            }
+            while (!flight.isEmpty()) {
+                BlockUpload.await(flight.poll());
+            }
+        } finally {
+            flight.forEach(staged -> staged.cancel(true));
+        }
+        return blocks;
+    }
+
+    /**
+     * Stage a block in the background.
+     * @param ident Block id
+     * @param offset Offset of the block in the object
+     * @param data Buffer holding the block
+     * @param length Length of the block
+     * @return Buffer, once the block is staged
+     * @checkstyle ParameterNumber (3 lines)
+     */
+    private Future<byte[]> submit(final String ident, final long offset,
+        final byte[] data, final int length) {
+        return BlockUpload.STAGING.submit(
+            () -> {
+                final AzureCallEvent event = new AzureCallEvent();
+                event.begin();
+                this.blob.uploadBlock(
+                    ident, new ByteArrayInputStream(data, 0, length), length
+                );
+                event.finish("write", this.oid, offset, length);
+                return data;
+            }
+        );
+    }
+
+    /**
+     * Wait for a block to be staged.
+     * @param staged Staging of the block
+     * @return Buffer that held the block
+     * @throws IOException If the block couldn't be staged
+     */
+    private static byte[] await(final Future<byte[]> staged)
+        throws IOException {
+        try {
+            return staged.get();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+        } catch (final ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Block id for an offset.
+     * @param offset Offset of the block in the object
+     * @return Block id
+     */
+    private static String ident(final long offset) {
+        return Base64.getEncoder().encodeToString(
+            String.format("%019d", offset).getBytes(StandardCharsets.US_ASCII)
+        );
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.nio.LongBuffer;
+
+/**
+ * Bloom filter over SHA-256 object ids.
+ *
+ * <p>Bits live in a {@link LongBuffer}, which may be on the heap while the
+ * filter is built or a memory-mapped region of an index file afterwards.
+ * Object ids are already uniformly distributed, so their first two 64-bit
+ * words are used directly as the two base hashes for double hashing.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class BloomFilter {
+    /**
+     * Bits per key, for roughly a 1% false positive rate.
+     */
+    private static final long BITS_PER_KEY = 10L;
+
+    /**
+     * Number of hash functions.
+     */
+    private static final int HASHES = 7;
+
+    /**
+     * Shift from bit position to word position.
+     */
+    private static final int SHIFT = 6;
+
+    /**
+     * Mask of bit position within a word.
+     */
+    private static final long MASK = 63L;
+
+    /**
+     * Filter bits.
+     */
+    private final LongBuffer words;
+
+    /**
+     * Number of bits.
+     */
+    private final long bits;
+
+    /**
+     * Ctor.
+     * @param words Filter bits
+     */
+    BloomFilter(final LongBuffer words) {
+        this.words = words;
+        this.bits = (long) words.capacity() * Long.SIZE;
+    }
+
+    /**
+     * Number of 64-bit words needed for a filter of this many keys.
+     * @param keys Expected number of keys
+     * @return Number of words
+     */
+    public static int words(final long keys) {
+        return (int) Math.max(1L, keys * BloomFilter.BITS_PER_KEY / Long.SIZE);
+    }
+
+    /**
+     * Add a key.
+     * @param first First word of the object id
+     * @param second Second word of the object id
+     */
+    public void put(final long first, final long second) {
+        for (int idx = 0; idx < BloomFilter.HASHES; ++idx) {
+            final long bit = this.bit(first, second, idx);
+            final int word = (int) (bit >>> BloomFilter.SHIFT);
+            this.words.put(
+                word,
+                this.words.get(word) | 1L << (int) (bit & BloomFilter.MASK)
+            );
+        }
+    }
+
+    /**
+     * Might the key be in the filter?
+     * @param first First word of the object id
+     * @param second Second word of the object id
+     * @return False if the key is definitely absent
+     */
+    public boolean mightContain(final long first, final long second) {
+        boolean found = true;
+        for (int idx = 0; found && idx < BloomFilter.HASHES; ++idx) {
+            final long bit = this.bit(first, second, idx);
+            found = (this.words.get((int) (bit >>> BloomFilter.SHIFT))
+                & 1L << (int) (bit & BloomFilter.MASK)) != 0L;
+        }
+        return found;
+    }
+
+    /**
+     * Bit position for the given hash function.
+     * @param first First base hash
+     * @param second Second base hash
+     * @param index Hash function number
+     * @return Bit position
+     */
+    private long bit(final long first, final long second, final int index) {
+        return Math.floorMod(first + index * (second | 1L), this.bits);
+    }
+}
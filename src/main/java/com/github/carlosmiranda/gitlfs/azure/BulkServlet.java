@@ -0,0 +1,380 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ServerError;
+
+/**
+ * Servlet sending many objects in one response.
+ *
+ * <p>Mapped to {@code <path>/info/lfs/bulk}, it takes a {@code POST} of
+ * object ids, one per line, and answers a stream of frames in the same
+ * order, each a header line {@code <oid> <status> <size>} followed by
+ * {@code <size>} bytes of content. Status is {@code 200} for an object
+ * sent, {@code 404} for a missing one, {@code 503} for an archived one and
+ * {@code 500} for one that couldn't be read; only the first comes with
+ * content. Requests need the same authorization as downloads.
+ *
+ * <p>Objects are looked up and read on a shared pool, a window of them
+ * ahead of the one being sent, so the Azure round trips of small objects
+ * overlap while the output stays in order. Objects up to 1 MiB are read
+ * ahead into memory; larger ones are streamed from the storage when their
+ * turn comes. A failure while streaming one aborts the response.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+final class BulkServlet extends HttpServlet {
+    /**
+     * Most objects asked for in one request.
+     */
+    public static final int MAX_OBJECTS = 10_000;
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(BulkServlet.class.getName());
+
+    /**
+     * Serialization marker.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Largest object read ahead into memory.
+     */
+    // @checkstyle MagicNumber (1 line)
+    private static final long BUFFERED = 1L << 20;
+
+    /**
+     * Object id.
+     */
+    private static final Pattern OID = Pattern.compile("^[0-9a-f]{64}$");
+
+    /**
+     * Storage.
+     */
+    private final transient ContentManager storage;
+
+    /**
+     * Threads reading objects ahead.
+     */
+    private final transient ExecutorService threads;
+
+    /**
+     * Objects read ahead of the one being sent, per request.
+     */
+    private final int window;
+
+    /**
+     * Ctor.
+     * @param storage Storage
+     * @param threads Number of threads reading objects ahead
+     */
+    BulkServlet(final ContentManager storage, final int threads) {
+        super();
+        this.storage = storage;
+        this.threads = Executors.newFixedThreadPool(
+            threads,
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("bulk-%d")
+                .build()
+        );
+        this.window = threads * 2;
+    }
+
+    @Override
+    public void destroy() {
+        this.threads.shutdownNow();
+        super.destroy();
+    }
+
+    @Override
+    protected void doPost(final HttpServletRequest req,
+        final HttpServletResponse resp) throws IOException {
+        try {
+            final ContentManager.Downloader downloader =
+                this.storage.checkDownloadAccess(req);
+            final List<String> oids = BulkServlet.oids(req);
+            resp.setStatus(HttpServletResponse.SC_OK);
+            resp.setContentType("application/octet-stream");
+            this.send(oids, downloader, resp.getOutputStream());
+        } catch (final ServerError ex) {
+            resp.setStatus(ex.getStatusCode());
+            ex.updateHeaders(resp);
+            resp.getWriter().println(ex.getMessage());
+        }
+    }
+
+    /**
+     * Send objects in order, reading a window of them ahead.
+     * @param oids Object ids
+     * @param downloader Downloader
+     * @param out Response body
+     * @throws IOException If an object can't be sent
+     */
+    private void send(final List<String> oids,
+        final ContentManager.Downloader downloader, final OutputStream out)
+        throws IOException {
+        final Deque<Future<Part>> ahead = new ArrayDeque<>(this.window);
+        final Iterator<String> pending = oids.iterator();
+        try {
+            while (pending.hasNext() || !ahead.isEmpty()) {
+                while (pending.hasNext() && ahead.size() < this.window) {
+                    final String oid = pending.next();
+                    ahead.add(
+                        this.threads.submit(() -> this.fetch(oid, downloader))
+                    );
+                }
+                BulkServlet.await(ahead.remove()).write(out);
+            }
+        } finally {
+            for (final Future<Part> part : ahead) {
+                BulkServlet.discard(part);
+            }
+        }
+    }
+
+    /**
+     * Look an object up and open it, reading it ahead if it's small.
+     * @param oid Object id
+     * @param downloader Downloader
+     * @return Part of the response
+     */
+    private Part fetch(final String oid,
+        final ContentManager.Downloader downloader) {
+        Part part;
+        try {
+            final Meta meta = this.storage.getMetadata(oid);
+            if (meta == null) {
+                part = new Part(oid, HttpServletResponse.SC_NOT_FOUND);
+            } else if (meta.getSize() <= BulkServlet.BUFFERED) {
+                final byte[] content;
+                try (InputStream stream = downloader.openObject(oid)) {
+                    content = ByteStreams.toByteArray(stream);
+                }
+                part = new Part(
+                    oid, content.length, new ByteArrayInputStream(content)
+                );
+            } else {
+                part = new Part(
+                    oid, meta.getSize(), downloader.openObject(oid)
+                );
+            }
+        } catch (final ArchivedException ex) {
+            part = new Part(oid, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        } catch (final IOException ex) {
+            part = new Part(oid, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+        return part;
+    }
+
+    /**
+     * Refuse deserialization, the servlet only makes sense in this server.
+     * @param stream Stream
+     * @throws IOException Always
+     * @throws ClassNotFoundException Never
+     */
+    private void readObject(final ObjectInputStream stream)
+        throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        throw new NotSerializableException(this.getClass().getName());
+    }
+
+    /**
+     * Object ids asked for.
+     * @param req Request
+     * @return Object ids, in order
+     * @throws IOException If the request can't be read
+     * @throws ServerError If an object id is malformed or there are too many
+     */
+    private static List<String> oids(final HttpServletRequest req)
+        throws IOException, ServerError {
+        final List<String> oids = new ArrayList<>(0);
+        final BufferedReader body = req.getReader();
+        for (String line = body.readLine(); line != null;
+            line = body.readLine()) {
+            final String oid = line.trim();
+            if (!oid.isEmpty()) {
+                if (!BulkServlet.OID.matcher(oid).matches()
+                    || oids.size() == BulkServlet.MAX_OBJECTS) {
+                    throw new ServerError(
+                        HttpServletResponse.SC_BAD_REQUEST,
+                        String.format(
+                            "Expected at most %d object ids, one per line",
+                            BulkServlet.MAX_OBJECTS
+                        )
+                    );
+                }
+                oids.add(oid);
+            }
+        }
+        return oids;
+    }
+
+    /**
+     * Wait for a part read ahead.
+     * @param part Part being read
+     * @return Part
+     * @throws IOException If interrupted or the read failed unexpectedly
+     */
+    private static Part await(final Future<Part> part) throws IOException {
+        try {
+            return part.get();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+        } catch (final ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Cancel a part read ahead, closing it if it's open already.
+     * @param part Part being read
+     */
+    private static void discard(final Future<Part> part) {
+        if (!part.cancel(true)) {
+            try {
+                part.get().close();
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (final ExecutionException | IOException ex) {
+                BulkServlet.LOGGER.log(Level.FINE, "Can't discard", ex);
+            }
+        }
+    }
+
+    /**
+     * Object in the response.
+     */
+    private static final class Part implements Closeable {
+        /**
+         * Object id.
+         */
+        private final String oid;
+
+        /**
+         * Status.
+         */
+        private final int status;
+
+        /**
+         * Size of the content.
+         */
+        private final long size;
+
+        /**
+         * Content.
+         */
+        private final InputStream content;
+
+        /**
+         * Ctor, for an object not sent.
+         * @param oid Object id
+         * @param status Status
+         */
+        Part(final String oid, final int status) {
+            this(oid, 0L, new ByteArrayInputStream(new byte[0]), status);
+        }
+
+        /**
+         * Ctor, for an object sent.
+         * @param oid Object id
+         * @param size Size of the content
+         * @param content Content
+         */
+        Part(final String oid, final long size, final InputStream content) {
+            this(oid, size, content, HttpServletResponse.SC_OK);
+        }
+
+        /**
+         * Ctor.
+         * @param oid Object id
+         * @param size Size of the content
+         * @param content Content
+         * @param status Status
+         * @checkstyle ParameterNumber (3 lines)
+         */
+        Part(final String oid, final long size, final InputStream content,
+            final int status) {
+            this.oid = oid;
+            this.status = status;
+            this.size = size;
+            this.content = content;
+        }
+
+        /**
+         * Write the frame of this object.
+         * @param out Response body
+         * @throws IOException If it can't be written, or the content can't
+         *  be read
+         */
+        public void write(final OutputStream out) throws IOException {
+            try {
+                out.write(
+                    String.format(
+                        "%s %d %d", this.oid, this.status, this.size
+                    ).getBytes(StandardCharsets.US_ASCII)
+                );
+                out.write('\n');
+                if (ByteStreams.copy(this.content, out) != this.size) {
+                    throw new IOException(
+                        String.format("Object %s changed size", this.oid)
+                    );
+                }
+            } finally {
+                this.close();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.content.close();
+        }
+    }
+}
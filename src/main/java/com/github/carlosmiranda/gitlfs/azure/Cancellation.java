@@ -0,0 +1,277 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.microsoft.azure.storage.OperationContext;
+import com.microsoft.azure.storage.RetryContext;
+import com.microsoft.azure.storage.RetryExponentialRetry;
+import com.microsoft.azure.storage.RetryInfo;
+import com.microsoft.azure.storage.RetryPolicy;
+import com.microsoft.azure.storage.SendingRequestEvent;
+import com.microsoft.azure.storage.StorageEvent;
+import com.microsoft.azure.storage.blob.BlobRequestOptions;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cancellation of the Azure reads of one download.
+ *
+ * <p>Each read starts with {@link #begin(BlobRequestOptions)}, which gives it
+ * an {@link OperationContext} recording the connection the SDK opens, and
+ * ends with {@link #end(OperationContext, long)}. Cancelling disconnects the
+ * connections of reads in flight, stops the SDK from retrying them, and
+ * makes later reads fail before they start. Reads also fail once the
+ * deadline of the download has passed, and are given no more than the time
+ * left until it.
+ *
+ * <p>Each object opened for download has a cancellation of its own, so that
+ * abandoning one stream or running out of its time doesn't affect other
+ * objects read for the same request. The storage making the reads is handed
+ * the cancellation of the object it is opening with
+ * {@link #open(Opening)}, on the thread opening it.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+final class Cancellation {
+    /**
+     * Cancellation of the object being opened by each thread.
+     */
+    private static final ThreadLocal<Cancellation> OPENING =
+        new ThreadLocal<>();
+
+    /**
+     * Deadline, in nanoseconds, or zero if there is none.
+     */
+    private final long deadline;
+
+    /**
+     * Has the download been cancelled?
+     */
+    private final AtomicBoolean cancelled;
+
+    /**
+     * Connections of reads in flight.
+     */
+    private final ConcurrentMap<OperationContext, HttpURLConnection> calls;
+
+    /**
+     * Bytes read from Azure.
+     */
+    private final AtomicLong fetched;
+
+    /**
+     * Listener recording the connections of reads.
+     */
+    private final StorageEvent<SendingRequestEvent> sending;
+
+    /**
+     * Ctor.
+     * @param limit Time the download may take, zero for no deadline
+     */
+    Cancellation(final Duration limit) {
+        long end = 0L;
+        if (!limit.isZero()) {
+            end = System.nanoTime() + limit.toNanos();
+        }
+        this.deadline = end;
+        this.cancelled = new AtomicBoolean();
+        this.calls = new ConcurrentHashMap<>();
+        this.fetched = new AtomicLong();
+        this.sending = new Connections();
+    }
+
+    /**
+     * Cancellation of the object being opened on this thread.
+     * @return Cancellation, one never cancelled if the object is opened
+     *  outside {@link #open(Opening)}
+     */
+    public static Cancellation opening() {
+        Cancellation cancellation = Cancellation.OPENING.get();
+        if (cancellation == null) {
+            cancellation = new Cancellation(Duration.ZERO);
+        }
+        return cancellation;
+    }
+
+    /**
+     * Open an object, making its reads under this cancellation.
+     * @param opening Opening of the object
+     * @return Content
+     * @throws IOException If it can't be opened
+     */
+    public InputStream open(final Opening opening) throws IOException {
+        final Cancellation outer = Cancellation.OPENING.get();
+        Cancellation.OPENING.set(this);
+        try {
+            return opening.open();
+        } finally {
+            if (outer == null) {
+                Cancellation.OPENING.remove();
+            } else {
+                Cancellation.OPENING.set(outer);
+            }
+        }
+    }
+
+    /**
+     * Start a read.
+     * @param options Request options of the read, given the time left
+     * @return Context to make the read with
+     * @throws InterruptedIOException If the download is cancelled or its
+     *  deadline has passed
+     */
+    public OperationContext begin(final BlobRequestOptions options)
+        throws InterruptedIOException {
+        this.check();
+        if (this.deadline != 0L) {
+            options.setMaximumExecutionTimeInMs(
+                (int) Math.max(
+                    1L,
+                    TimeUnit.NANOSECONDS.toMillis(
+                        this.deadline - System.nanoTime()
+                    )
+                )
+            );
+        }
+        options.setRetryPolicyFactory(
+            new Retries(new RetryExponentialRetry())
+        );
+        final OperationContext context = new OperationContext();
+        context.getSendingRequestEventHandler().addListener(this.sending);
+        return context;
+    }
+
+    /**
+     * End a read.
+     * @param context Context the read was made with
+     * @param bytes Bytes read
+     */
+    public void end(final OperationContext context, final long bytes) {
+        this.calls.remove(context);
+        this.fetched.addAndGet(bytes);
+    }
+
+    /**
+     * Cancel the download, aborting reads in flight.
+     */
+    public void cancel() {
+        this.cancelled.set(true);
+        this.calls.values().forEach(HttpURLConnection::disconnect);
+    }
+
+    /**
+     * Has the deadline passed?
+     * @return True if it has
+     */
+    public boolean expired() {
+        return this.deadline != 0L && System.nanoTime() - this.deadline > 0L;
+    }
+
+    /**
+     * Bytes read from Azure so far.
+     * @return Bytes
+     */
+    public long fetched() {
+        return this.fetched.get();
+    }
+
+    /**
+     * Fail if the download is cancelled or its deadline has passed.
+     * @throws InterruptedIOException If it is
+     */
+    private void check() throws InterruptedIOException {
+        if (this.cancelled.get()) {
+            throw new InterruptedIOException("Download cancelled");
+        }
+        if (this.expired()) {
+            throw new InterruptedIOException("Download deadline passed");
+        }
+    }
+
+    /**
+     * Listener recording the connection of each request the SDK sends,
+     * and disconnecting it right away if the download is cancelled.
+     */
+    private final class Connections extends StorageEvent<SendingRequestEvent> {
+        @Override
+        public void eventOccurred(final SendingRequestEvent event) {
+            final Object connection = event.getConnectionObject();
+            if (connection instanceof HttpURLConnection) {
+                final HttpURLConnection http = (HttpURLConnection) connection;
+                Cancellation.this.calls.put(event.getOpContext(), http);
+                if (Cancellation.this.cancelled.get()) {
+                    http.disconnect();
+                }
+            }
+        }
+    }
+
+    /**
+     * Retry policy retrying failed reads as usual, unless the download is
+     * cancelled.
+     */
+    private final class Retries extends RetryPolicy {
+        /**
+         * Usual policy.
+         */
+        private final RetryPolicy origin;
+
+        /**
+         * Ctor.
+         * @param origin Usual policy
+         */
+        Retries(final RetryPolicy origin) {
+            super();
+            this.origin = origin;
+        }
+
+        @Override
+        public RetryPolicy createInstance(final OperationContext context) {
+            return new Retries(this.origin.createInstance(context));
+        }
+
+        @Override
+        public RetryInfo evaluate(final RetryContext retry,
+            final OperationContext context) {
+            RetryInfo info = null;
+            if (!Cancellation.this.cancelled.get()) {
+                info = this.origin.evaluate(retry, context);
+            }
+            return info;
+        }
+    }
+
+    /**
+     * Opening of an object.
+     */
+    interface Opening {
+        /**
+         * Open the object.
+         * @return Content
+         * @throws IOException If it can't be opened
+         */
+        InputStream open() throws IOException;
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ForbiddenError;
+import ru.bozaro.gitlfs.server.UnauthorizedError;
+
+/**
+ * Decorating ContentManager cancelling the Azure reads of downloads that
+ * are abandoned or take too long.
+ *
+ * <p>Each object opened for download is given a {@link Cancellation}, with
+ * a deadline if one is configured. When the content of an object is closed
+ * before its end, because the client went away or the copy failed, its
+ * reads are cancelled at once, rather than left reading ahead until the
+ * next read fails. Other objects opened for the same request, like the
+ * rest of a bulk download, carry on. The bytes read from Azure but never
+ * sent are counted as wasted.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class CancellingStorage implements ContentManager {
+    /**
+     * Time a download may take, zero for no deadline.
+     */
+    private final Duration deadline;
+
+    /**
+     * Backing storage.
+     */
+    private final ContentManager storage;
+
+    /**
+     * Downloads cancelled.
+     */
+    private final AtomicLong cancelled;
+
+    /**
+     * Downloads past their deadline.
+     */
+    private final AtomicLong expired;
+
+    /**
+     * Bytes read from Azure for downloads that never sent them.
+     */
+    private final AtomicLong wasted;
+
+    /**
+     * Ctor.
+     * @param deadline Time a download may take, zero for no deadline
+     * @param storage Backing storage
+     */
+    CancellingStorage(final Duration deadline, final ContentManager storage) {
+        this.deadline = deadline;
+        this.storage = storage;
+        this.cancelled = new AtomicLong();
+        this.expired = new AtomicLong();
+        this.wasted = new AtomicLong();
+    }
+
+    @Override
+    @NotNull
+    public Downloader checkDownloadAccess(
+        @NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return new CancellingDownloader(
+            this.storage.checkDownloadAccess(request)
+        );
+    }
+
+    @Override
+    @NotNull
+    public Uploader checkUploadAccess(@NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return this.storage.checkUploadAccess(request);
+    }
+
+    @Override
+    @Nullable
+    public Meta getMetadata(@NotNull final String hash) throws IOException {
+        return this.storage.getMetadata(hash);
+    }
+
+    /**
+     * Counts of cancelled downloads.
+     * @return Metrics
+     */
+    public Metrics metrics() {
+        return new Metrics("Cancellation")
+            .gauge("Cancelled", this.cancelled::doubleValue)
+            .gauge("Expired", this.expired::doubleValue)
+            .gauge("WastedBytes", this.wasted::doubleValue);
+    }
+
+    /**
+     * Downloader cancelling the download when content is abandoned.
+     */
+    private final class CancellingDownloader implements Downloader {
+        /**
+         * Backing downloader.
+         */
+        private final Downloader downloader;
+
+        /**
+         * Ctor.
+         * @param downloader Backing downloader
+         */
+        CancellingDownloader(final Downloader downloader) {
+            this.downloader = downloader;
+        }
+
+        @Override
+        @NotNull
+        public InputStream openObject(@NotNull final String hash)
+            throws IOException {
+            final Cancellation cancellation =
+                new Cancellation(CancellingStorage.this.deadline);
+            final InputStream content = cancellation.open(
+                () -> this.downloader.openObject(hash)
+            );
+            return SizedStream.like(
+                content, new Abandonable(content, cancellation)
+            );
+        }
+
+        @Override
+        @Nullable
+        public InputStream openObjectGzipped(@NotNull final String hash)
+            throws IOException {
+            return this.downloader.openObjectGzipped(hash);
+        }
+    }
+
+    /**
+     * Stream cancelling its reads if closed before its end.
+     */
+    private final class Abandonable extends FilterInputStream {
+        /**
+         * Cancellation of the reads of the object.
+         */
+        private final Cancellation cancellation;
+
+        /**
+         * Bytes read so far.
+         */
+        private long sent;
+
+        /**
+         * Has the end been reached?
+         */
+        private boolean done;
+
+        /**
+         * Ctor.
+         * @param source Source stream
+         * @param cancellation Cancellation of the reads of the object
+         */
+        Abandonable(final InputStream source,
+            final Cancellation cancellation) {
+            super(source);
+            this.cancellation = cancellation;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int value = super.read();
+            if (value < 0) {
+                this.done = true;
+            } else {
+                ++this.sent;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(final byte[] data, final int off, final int len)
+            throws IOException {
+            final int count = super.read(data, off, len);
+            if (count < 0) {
+                this.done = true;
+            } else {
+                this.sent += count;
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!this.done) {
+                this.done = true;
+                this.cancellation.cancel();
+                if (this.cancellation.expired()) {
+                    CancellingStorage.this.expired.incrementAndGet();
+                } else {
+                    CancellingStorage.this.cancelled.incrementAndGet();
+                }
+                CancellingStorage.this.wasted.addAndGet(
+                    Math.max(0L, this.cancellation.fetched() - this.sent)
+                );
+            }
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Progress of a long run over names in ascending order, kept in a file.
+ *
+ * <p>Names are processed out of order by several threads, so the file holds
+ * the first name not done yet, written atomically every {@value #SAVE}
+ * seconds. A run restarted with the same file starts from that name, and
+ * redoes at most what was in flight when it stopped.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class Checkpoint {
+    /**
+     * Seconds between saves.
+     */
+    private static final long SAVE = 10L;
+
+    /**
+     * Checkpoint file.
+     */
+    private final Path file;
+
+    /**
+     * Names being processed.
+     */
+    private final NavigableSet<String> pending;
+
+    /**
+     * Time of the last save.
+     */
+    private long saved;
+
+    /**
+     * Ctor.
+     * @param file Checkpoint file
+     */
+    Checkpoint(final Path file) {
+        this.file = file;
+        this.pending = new ConcurrentSkipListSet<>();
+        this.saved = System.nanoTime();
+    }
+
+    /**
+     * Name to start from.
+     * @return Name saved in the file, or empty to start afresh
+     * @throws IOException If the file can't be read
+     */
+    public String resume() throws IOException {
+        String from = "";
+        if (Files.exists(this.file)) {
+            from = new String(
+                Files.readAllBytes(this.file), StandardCharsets.UTF_8
+            ).trim();
+        }
+        return from;
+    }
+
+    /**
+     * Note that a name is being processed, saving the checkpoint if the
+     * last save was long enough ago.
+     * @param name Name, not below any name begun before
+     * @throws IOException If the file can't be written
+     */
+    public void begin(final String name) throws IOException {
+        this.pending.add(name);
+        final long now = System.nanoTime();
+        if (now - this.saved > TimeUnit.SECONDS.toNanos(Checkpoint.SAVE)) {
+            this.saved = now;
+            final Path part = this.file.resolveSibling(
+                String.format("%s.part", this.file.getFileName())
+            );
+            Files.write(
+                part, this.pending.first().getBytes(StandardCharsets.UTF_8)
+            );
+            Files.move(
+                part, this.file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE
+            );
+        }
+    }
+
+    /**
+     * Note that a name is done.
+     * @param name Name
+     */
+    public void done(final String name) {
+        this.pending.remove(name);
+    }
+
+    /**
+     * Forget the checkpoint, once the run is complete.
+     * @throws IOException If the file can't be deleted
+     */
+    public void finish() throws IOException {
+        Files.deleteIfExists(this.file);
+    }
+}
@@ -0,0 +1,579 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.base.Splitter;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import javax.servlet.http.HttpServletRequest;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ForbiddenError;
+import ru.bozaro.gitlfs.server.UnauthorizedError;
+
+/**
+ * Decorating ContentManager storing objects as deduplicated chunks.
+ *
+ * <p>Uploaded objects are split by a {@link Chunker} into chunks, stored
+ * as blobs named {@code chunks/<sha256>}, and only chunks not already in
+ * the container are uploaded, several at a time. Each object gets a
+ * manifest blob named
+ * {@code manifests/<oid>}, listing its chunks in order, one
+ * {@code <sha256> <size>} line per chunk, with the object size in the
+ * blob metadata. Downloads stream the chunks back one after another,
+ * fetching the next chunk while the current one is sent. Chunks are read
+ * through the backing storage, under the {@link Cancellation} of the
+ * object, so they're hedged, routed and recorded like whole objects, and
+ * abandoning the download aborts them.
+ *
+ * <p>Objects without a manifest, uploaded before chunking was enabled,
+ * are read from the backing storage. Metadata is looked up there first,
+ * so only chunked objects pay for looking up their manifest.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+final class ChunkedStorage implements ContentManager {
+    /**
+     * Prefix of manifest blobs.
+     */
+    public static final String MANIFESTS = "manifests/";
+
+    /**
+     * Manifest metadata key holding the object size.
+     */
+    public static final String SIZE = "size";
+
+    /**
+     * Prefix of chunk blobs.
+     */
+    public static final String CHUNKS = "chunks/";
+
+    /**
+     * Most chunks of an upload being stored at once.
+     */
+    private static final int WRITES = 8;
+
+    /**
+     * Azure container.
+     */
+    private final CloudBlobContainer container;
+
+    /**
+     * Storage of objects without a manifest.
+     */
+    private final ContentManager storage;
+
+    /**
+     * Chunk boundaries.
+     */
+    private final Chunker chunker;
+
+    /**
+     * Bytes uploaded by clients.
+     */
+    private final LongAdder logical;
+
+    /**
+     * Bytes of new chunks written to the container.
+     */
+    private final LongAdder stored;
+
+    /**
+     * Time spent finding boundaries and hashing chunks.
+     */
+    private final LongAdder nanos;
+
+    /**
+     * Threads fetching chunks ahead of downloads.
+     */
+    private final ExecutorService threads;
+
+    /**
+     * Threads storing chunks of uploads.
+     */
+    private final ExecutorService writers;
+
+    /**
+     * Ctor.
+     * @param container Azure container
+     * @param storage Storage of objects without a manifest
+     * @param chunker Chunk boundaries
+     */
+    ChunkedStorage(final CloudBlobContainer container,
+        final ContentManager storage, final Chunker chunker) {
+        this.container = container;
+        this.storage = storage;
+        this.chunker = chunker;
+        this.logical = new LongAdder();
+        this.stored = new LongAdder();
+        this.nanos = new LongAdder();
+        this.threads = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("chunk-read-%d")
+                .build()
+        );
+        this.writers = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("chunk-write-%d")
+                .build()
+        );
+    }
+
+    /**
+     * Deduplication and chunking metrics.
+     * @return Metrics
+     */
+    public Metrics metrics() {
+        return new Metrics("Chunking")
+            .gauge("LogicalBytes", this.logical::doubleValue)
+            .gauge("StoredBytes", this.stored::doubleValue)
+            .gauge("DedupRatio", this::ratio)
+            .gauge("ChunkingMegabytesPerSecond", this::throughput);
+    }
+
+    @Override
+    @NotNull
+    public Downloader checkDownloadAccess(
+        @NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return new ChunkedDownloader(
+            this.storage.checkDownloadAccess(request)
+        );
+    }
+
+    @Override
+    @NotNull
+    public Uploader checkUploadAccess(@NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        this.storage.checkUploadAccess(request);
+        return this::upload;
+    }
+
+    @Override
+    @Nullable
+    public Meta getMetadata(@NotNull final String hash) throws IOException {
+        Meta meta = this.storage.getMetadata(hash);
+        if (meta == null) {
+            meta = this.manifest(hash);
+        }
+        return meta;
+    }
+
+    /**
+     * Metadata of a chunked object, from its manifest.
+     * @param hash Object hash
+     * @return Metadata, or null if the object has no manifest
+     * @throws IOException If an IO Exception occurs.
+     */
+    private Meta manifest(final String hash) throws IOException {
+        try {
+            final CloudBlockBlob manifest =
+                this.container.getBlockBlobReference(
+                    ChunkedStorage.MANIFESTS + hash
+                );
+            Meta meta = null;
+            if (manifest.exists()) {
+                meta = new Meta(
+                    hash, Long.parseLong(
+                        manifest.getMetadata().get(ChunkedStorage.SIZE)
+                    )
+                );
+            }
+            return meta;
+        } catch (final StorageException | URISyntaxException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Split an object into chunks and store the new ones, then its manifest.
+     * @param meta Metadata
+     * @param content Contents as stream
+     * @throws IOException If an IO Exception occurs.
+     */
+    private void upload(@NotNull final Meta meta,
+        @NotNull final InputStream content) throws IOException {
+        final StringBuilder manifest = new StringBuilder();
+        final Deque<Future<Void>> writes = new ArrayDeque<>();
+        final long total;
+        try {
+            total = this.split(content, manifest, writes);
+            while (!writes.isEmpty()) {
+                ChunkedStorage.await(writes.removeFirst());
+            }
+        } finally {
+            writes.forEach(write -> write.cancel(true));
+        }
+        this.logical.add(total);
+        this.save(meta.getOid(), manifest.toString(), total);
+    }
+
+    /**
+     * Split an object into chunks, storing up to {@value #WRITES} of them
+     * at once while the next ones are found.
+     * @param content Contents as stream
+     * @param manifest Manifest lines, appended to
+     * @param writes Chunks being stored, oldest first, appended to
+     * @return Object size
+     * @throws IOException If an IO Exception occurs.
+     */
+    private long split(final InputStream content,
+        final StringBuilder manifest, final Deque<Future<Void>> writes)
+        throws IOException {
+        final byte[] buffer = new byte[this.chunker.max()];
+        long total = 0L;
+        int length = ByteStreams.read(content, buffer, 0, buffer.length);
+        while (length > 0) {
+            final long start = System.nanoTime();
+            final int cut = this.chunker.boundary(buffer, length);
+            final byte[] chunk = Arrays.copyOf(buffer, cut);
+            final String hash = Hashing.sha256().hashBytes(chunk).toString();
+            this.nanos.add(System.nanoTime() - start);
+            writes.addLast(this.write(writes, hash, chunk));
+            manifest.append(hash).append(' ').append(cut).append('\n');
+            total += cut;
+            System.arraycopy(buffer, cut, buffer, 0, length - cut);
+            length -= cut;
+            length += ByteStreams.read(
+                content, buffer, length, buffer.length - length
+            );
+        }
+        return total;
+    }
+
+    /**
+     * Store the manifest of an object.
+     * @param oid Object id
+     * @param manifest Manifest lines
+     * @param total Object size
+     * @throws IOException If an IO Exception occurs.
+     */
+    private void save(final String oid, final String manifest,
+        final long total) throws IOException {
+        try {
+            final CloudBlockBlob blob = this.container.getBlockBlobReference(
+                ChunkedStorage.MANIFESTS + oid
+            );
+            blob.getMetadata().put(ChunkedStorage.SIZE, Long.toString(total));
+            blob.uploadText(manifest);
+        } catch (final StorageException | URISyntaxException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Start storing a chunk, once fewer than {@value #WRITES} chunks of the
+     * upload are being stored.
+     * @param writes Chunks of the upload being stored, oldest first
+     * @param hash Chunk hash
+     * @param data Chunk
+     * @return Chunk being stored
+     * @throws IOException If the oldest chunk waited for couldn't be stored
+     */
+    private Future<Void> write(final Deque<Future<Void>> writes,
+        final String hash, final byte[] data) throws IOException {
+        if (writes.size() >= ChunkedStorage.WRITES) {
+            ChunkedStorage.await(writes.removeFirst());
+        }
+        return this.writers.submit(
+            () -> {
+                this.store(hash, data);
+                return null;
+            }
+        );
+    }
+
+    /**
+     * Store a chunk, unless the container already has it.
+     * @param hash Chunk hash
+     * @param data Chunk
+     * @throws IOException If an IO Exception occurs.
+     */
+    private void store(final String hash, final byte[] data)
+        throws IOException {
+        try {
+            final CloudBlockBlob blob = this.container.getBlockBlobReference(
+                ChunkedStorage.CHUNKS + hash
+            );
+            if (!blob.exists()) {
+                blob.uploadFromByteArray(data, 0, data.length);
+                this.stored.add(data.length);
+            }
+        } catch (final StorageException | URISyntaxException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Ratio of bytes uploaded by clients to bytes stored.
+     * @return Deduplication ratio
+     */
+    private double ratio() {
+        return this.logical.doubleValue()
+            / Math.max(1.0, this.stored.doubleValue());
+    }
+
+    /**
+     * Chunking throughput, excluding network transfers.
+     * @return Megabytes per second
+     */
+    private double throughput() {
+        // @checkstyle MagicNumber (1 line)
+        return this.logical.doubleValue() * 1.0e3
+            / Math.max(1.0, this.nanos.doubleValue());
+    }
+
+    /**
+     * Wait for a chunk to be fetched or stored.
+     * @param chunk Chunk being fetched or stored
+     * @param <T> Type of the result
+     * @return Chunk contents, when fetched
+     * @throws IOException If it couldn't be fetched or stored, or waiting
+     *  was interrupted
+     */
+    private static <T> T await(final Future<T> chunk) throws IOException {
+        try {
+            return chunk.get();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+        } catch (final ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Downloader reassembling chunked objects.
+     */
+    private final class ChunkedDownloader implements Downloader {
+        /**
+         * Downloader of objects without a manifest.
+         */
+        private final Downloader plain;
+
+        /**
+         * Ctor.
+         * @param plain Downloader of objects without a manifest
+         */
+        ChunkedDownloader(final Downloader plain) {
+            this.plain = plain;
+        }
+
+        @Override
+        @NotNull
+        public InputStream openObject(@NotNull final String hash)
+            throws IOException {
+            final List<String> chunks = this.chunks(hash);
+            final InputStream stream;
+            if (chunks == null) {
+                stream = this.plain.openObject(hash);
+            } else {
+                long length = 0L;
+                final List<String> hashes = new ArrayList<>(chunks.size());
+                for (final String line : chunks) {
+                    final int space = line.indexOf(' ');
+                    hashes.add(line.substring(0, space));
+                    length += Long.parseLong(line.substring(space + 1));
+                }
+                stream = new SizedStream(
+                    new ChunkStream(
+                        this.plain, Cancellation.opening(), hashes.iterator()
+                    ),
+                    length
+                );
+            }
+            return stream;
+        }
+
+        @Override
+        @Nullable
+        public InputStream openObjectGzipped(@NotNull final String hash)
+            throws IOException {
+            return this.plain.openObjectGzipped(hash);
+        }
+
+        /**
+         * Chunks of an object, from its manifest.
+         * @param hash Object hash
+         * @return Manifest lines, with the hash and size of each chunk, or
+         *  null if the object has no manifest
+         * @throws IOException If an IO Exception occurs.
+         */
+        private List<String> chunks(final String hash) throws IOException {
+            List<String> chunks = null;
+            try {
+                chunks = Splitter.on('\n').omitEmptyStrings().splitToList(
+                    ChunkedStorage.this.container.getBlockBlobReference(
+                        ChunkedStorage.MANIFESTS + hash
+                    ).downloadText()
+                );
+            } catch (final StorageException ex) {
+                final int status = ex.getHttpStatusCode();
+                if (status != HttpURLConnection.HTTP_NOT_FOUND) {
+                    throw new IOException(ex);
+                }
+            } catch (final URISyntaxException ex) {
+                throw new IOException(ex);
+            }
+            return chunks;
+        }
+    }
+
+    /**
+     * Stream of the chunks of an object, fetching each chunk while the one
+     * before it is read.
+     */
+    private final class ChunkStream extends InputStream {
+        /**
+         * Downloader reading chunks.
+         */
+        private final Downloader source;
+
+        /**
+         * Cancellation of the reads of the object.
+         */
+        private final Cancellation cancellation;
+
+        /**
+         * Chunks not fetched yet.
+         */
+        private final Iterator<String> chunks;
+
+        /**
+         * Chunk being read.
+         */
+        private InputStream current;
+
+        /**
+         * Chunk being fetched, or null after the last chunk.
+         */
+        private Future<byte[]> ahead;
+
+        /**
+         * Ctor.
+         * @param source Downloader reading chunks
+         * @param cancellation Cancellation of the reads of the object
+         * @param chunks Chunk hashes, in order
+         */
+        ChunkStream(final Downloader source, final Cancellation cancellation,
+            final Iterator<String> chunks) {
+            super();
+            this.source = source;
+            this.cancellation = cancellation;
+            this.chunks = chunks;
+            this.current = new ByteArrayInputStream(new byte[0]);
+            this.ahead = this.fetch();
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = this.current.read();
+            while (read < 0 && this.advance()) {
+                read = this.current.read();
+            }
+            return read;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset,
+            final int length) throws IOException {
+            int read = this.current.read(buffer, offset, length);
+            while (read < 0 && this.advance()) {
+                read = this.current.read(buffer, offset, length);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() {
+            if (this.ahead != null) {
+                this.ahead.cancel(true);
+                this.ahead = null;
+            }
+        }
+
+        /**
+         * Move on to the chunk fetched ahead, and start fetching the next.
+         * @return Whether there was a chunk to move on to
+         * @throws IOException If the chunk couldn't be fetched
+         */
+        private boolean advance() throws IOException {
+            final boolean more = this.ahead != null;
+            if (more) {
+                this.current = new ByteArrayInputStream(
+                    ChunkedStorage.await(this.ahead)
+                );
+                this.ahead = this.fetch();
+            }
+            return more;
+        }
+
+        /**
+         * Start fetching the next chunk.
+         * @return Chunk contents, or null if there are no chunks left
+         */
+        private Future<byte[]> fetch() {
+            Future<byte[]> next = null;
+            if (this.chunks.hasNext()) {
+                final String name = ChunkedStorage.CHUNKS + this.chunks.next();
+                next = ChunkedStorage.this.threads.submit(
+                    () -> this.read(name)
+                );
+            }
+            return next;
+        }
+
+        /**
+         * Read a chunk through the backing storage.
+         * @param name Chunk blob name
+         * @return Chunk contents
+         * @throws IOException If it can't be read
+         */
+        private byte[] read(final String name) throws IOException {
+            try (InputStream chunk = this.cancellation.open(
+                () -> this.source.openObject(name)
+            )) {
+                return ByteStreams.toByteArray(chunk);
+            }
+        }
+    }
+}
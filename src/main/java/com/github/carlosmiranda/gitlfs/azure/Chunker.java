@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.util.Random;
+
+/**
+ * Content-defined chunk boundaries.
+ *
+ * <p>Boundaries are found with a Gear rolling hash, as in FastCDC: a chunk
+ * ends after the first byte where the top bits of the hash are all zero.
+ * Since the hash only depends on the last 64 bytes, an edit in a file only
+ * moves the boundaries around it, and the rest of the chunks stay the same.
+ * Chunks are never shorter than a quarter or longer than four times the
+ * average size.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class Chunker {
+    /**
+     * Ratio of maximum to average, and of average to minimum chunk size.
+     */
+    private static final int SPREAD = 4;
+
+    /**
+     * Random value for every byte, fixed so that boundaries never change.
+     */
+    private static final long[] GEAR = Chunker.gear();
+
+    /**
+     * Minimum chunk size.
+     */
+    private final int min;
+
+    /**
+     * Maximum chunk size.
+     */
+    private final int max;
+
+    /**
+     * Mask of the hash bits that must be zero at a boundary.
+     */
+    private final long mask;
+
+    /**
+     * Ctor.
+     * @param average Average chunk size, a power of two
+     */
+    Chunker(final int average) {
+        if (Integer.bitCount(average) != 1 || average < Chunker.SPREAD) {
+            throw new IllegalArgumentException(
+                String.format("Chunk size %d is not a power of two", average)
+            );
+        }
+        this.min = average / Chunker.SPREAD;
+        this.max = average * Chunker.SPREAD;
+        this.mask = -1L << Long.SIZE - Integer.numberOfTrailingZeros(average);
+    }
+
+    /**
+     * Maximum chunk size.
+     * @return Size in bytes
+     */
+    public int max() {
+        return this.max;
+    }
+
+    /**
+     * Length of the next chunk.
+     * @param data Data, starting at the next chunk
+     * @param length Number of bytes of data, less than the maximum chunk
+     *  size only at the end of the object
+     * @return Length of the chunk
+     */
+    public int boundary(final byte[] data, final int length) {
+        final int limit = Math.min(length, this.max);
+        int cut = limit;
+        long hash = 0L;
+        for (int pos = this.min; pos < limit; ++pos) {
+            // @checkstyle MagicNumber (1 line)
+            hash = (hash << 1) + Chunker.GEAR[data[pos] & 0xff];
+            if ((hash & this.mask) == 0L) {
+                cut = pos + 1;
+                break;
+            }
+        }
+        return cut;
+    }
+
+    /**
+     * Gear table.
+     * @return Random value for every byte
+     */
+    private static long[] gear() {
+        // @checkstyle MagicNumber (1 line)
+        final Random random = new Random(0x4c465347L);
+        final long[] table = new long[1 << Byte.SIZE];
+        for (int idx = 0; idx < table.length; ++idx) {
+            table[idx] = random.nextLong();
+        }
+        return table;
+    }
+}
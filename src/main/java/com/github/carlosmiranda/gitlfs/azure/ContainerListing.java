@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.microsoft.azure.storage.blob.BlobListingDetails;
+import com.microsoft.azure.storage.blob.CloudBlob;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import ru.bozaro.gitlfs.common.data.Meta;
+
+/**
+ * Listing of the LFS objects in a container.
+ *
+ * <p>Lists blobs named after a SHA-256 object id, and the manifests of
+ * chunked objects written by {@link ChunkedStorage}, in the numeric order
+ * of their ids. Azure returns each kind in lexicographic order, which is
+ * also the numeric order, so the two are simply merged, together with
+ * objects kept elsewhere, such as in packs.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class ContainerListing implements Iterable<Meta> {
+    /**
+     * Names of LFS objects.
+     */
+    private static final Pattern OID = Pattern.compile("^[0-9a-f]{64}$");
+
+    /**
+     * Container to list.
+     */
+    private final CloudBlobContainer container;
+
+    /**
+     * Objects kept outside their own blobs.
+     */
+    private final Iterable<Meta> others;
+
+    /**
+     * Ctor.
+     * @param container Container to list
+     */
+    ContainerListing(final CloudBlobContainer container) {
+        this(container, Collections.emptyList());
+    }
+
+    /**
+     * Ctor.
+     * @param container Container to list
+     * @param others Objects kept outside their own blobs, in object id order
+     */
+    ContainerListing(final CloudBlobContainer container,
+        final Iterable<Meta> others) {
+        this.container = container;
+        this.others = others;
+    }
+
+    @Override
+    public Iterator<Meta> iterator() {
+        return Iterators.mergeSorted(
+            Arrays.asList(
+                ContainerListing.objects(
+                    this.container.listBlobs(null, false), "",
+                    blob -> blob.getProperties().getLength()
+                ),
+                ContainerListing.objects(
+                    this.container.listBlobs(
+                        ChunkedStorage.MANIFESTS, true,
+                        EnumSet.of(BlobListingDetails.METADATA), null, null
+                    ),
+                    ChunkedStorage.MANIFESTS,
+                    blob -> Long.parseLong(
+                        blob.getMetadata().get(ChunkedStorage.SIZE)
+                    )
+                ),
+                this.others.iterator()
+            ),
+            Comparator.comparing(Meta::getOid)
+        );
+    }
+
+    /**
+     * Objects among listed blobs.
+     * @param listing Listed blobs
+     * @param prefix Prefix of blob names before the object id
+     * @param size Object size of a blob
+     * @return Objects, in the listing order
+     */
+    private static Iterator<Meta> objects(final Iterable<?> listing,
+        final String prefix, final Function<CloudBlob, Long> size) {
+        return Iterables.transform(
+            Iterables.filter(
+                Iterables.filter(listing, CloudBlob.class),
+                blob -> ContainerListing.OID.matcher(
+                    blob.getName().substring(prefix.length())
+                ).matches()
+            ),
+            blob -> new Meta(
+                blob.getName().substring(prefix.length()), size.apply(blob)
+            )
+        ).iterator();
+    }
+}
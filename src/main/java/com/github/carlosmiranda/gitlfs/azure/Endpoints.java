@@ -0,0 +1,305 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.microsoft.azure.storage.LocationMode;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.BlobRequestOptions;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Routing of reads between the primary and the read-access geo-secondary
+ * endpoint of the storage account.
+ *
+ * <p>Latency of every read is recorded per endpoint, and each read goes to
+ * the endpoint with the lower median latency. One read in
+ * {@value #PROBE} goes to the other endpoint, to keep its latency known.
+ * An endpoint that fails is avoided for {@value #COOLDOWN} seconds.
+ *
+ * <p>Geo-replication is asynchronous, so objects uploaded through this
+ * server within the replication lag are read from the primary, and reads
+ * that find nothing on the secondary are repeated on the primary.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class Endpoints {
+    /**
+     * Every how many reads the slower endpoint is tried.
+     */
+    private static final int PROBE = 16;
+
+    /**
+     * Seconds a failed endpoint is avoided.
+     */
+    private static final long COOLDOWN = 30L;
+
+    /**
+     * Latency samples kept per endpoint.
+     */
+    private static final int WINDOW = 256;
+
+    /**
+     * Samples needed before an endpoint's latency is trusted.
+     */
+    private static final int WARMUP = 8;
+
+    /**
+     * Median.
+     */
+    private static final double MEDIAN = 50.0;
+
+    /**
+     * Uploads remembered before expired ones are purged.
+     */
+    private static final int PURGE = 10_000;
+
+    /**
+     * Read from the secondary at all?
+     */
+    private final boolean secondary;
+
+    /**
+     * Replication lag, in nanoseconds.
+     */
+    private final long lag;
+
+    /**
+     * Latencies of the primary and the secondary.
+     */
+    private final Latencies[] latencies;
+
+    /**
+     * Time until which the primary and the secondary are avoided.
+     */
+    private final AtomicLongArray down;
+
+    /**
+     * Objects uploaded recently, with the time of their upload.
+     */
+    private final ConcurrentMap<String, Long> recent;
+
+    /**
+     * Reads routed so far.
+     */
+    private final AtomicLong reads;
+
+    /**
+     * Reads served by the secondary so far.
+     */
+    private final AtomicLong secondaries;
+
+    /**
+     * Ctor, reading from the primary only.
+     */
+    Endpoints() {
+        this(false, Duration.ZERO);
+    }
+
+    /**
+     * Ctor.
+     * @param secondary Read from the secondary too
+     * @param lag Replication lag to allow for after uploads
+     */
+    Endpoints(final boolean secondary, final Duration lag) {
+        this.secondary = secondary;
+        this.lag = lag.toNanos();
+        this.latencies = new Latencies[] {
+            new Latencies(Endpoints.WINDOW, Endpoints.WARMUP),
+            new Latencies(Endpoints.WINDOW, Endpoints.WARMUP),
+        };
+        final long now = System.nanoTime();
+        this.down = new AtomicLongArray(new long[] {now, now});
+        this.recent = new ConcurrentHashMap<>();
+        this.reads = new AtomicLong();
+        this.secondaries = new AtomicLong();
+    }
+
+    /**
+     * Read an object from the better endpoint, falling back to the primary
+     * if the secondary doesn't have it or fails.
+     * @param oid Object id
+     * @param read Read, given request options naming the endpoint
+     * @param <T> Type of result
+     * @return Result, or null if the object doesn't exist
+     * @throws IOException If the read fails
+     * @throws StorageException If the read fails on the primary
+     */
+    public <T> T read(final String oid, final Read<T> read)
+        throws IOException, StorageException {
+        final LocationMode mode = this.choose(oid);
+        T result = null;
+        if (mode == LocationMode.SECONDARY_ONLY) {
+            try {
+                result = this.timed(mode, read);
+            } catch (final StorageException ex) {
+                result = null;
+            }
+        }
+        if (result == null) {
+            result = this.timed(LocationMode.PRIMARY_ONLY, read);
+        } else {
+            this.secondaries.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Note that an object was uploaded, so it is read from the primary
+     * until it has replicated.
+     * @param oid Object id
+     */
+    public void written(final String oid) {
+        if (this.secondary) {
+            final long now = System.nanoTime();
+            this.recent.put(oid, now);
+            if (this.recent.size() > Endpoints.PURGE) {
+                this.recent.values().removeIf(time -> now - time > this.lag);
+            }
+        }
+    }
+
+    /**
+     * Endpoint to read an object from.
+     * @param oid Object id
+     * @return Location mode of the endpoint
+     */
+    public LocationMode choose(final String oid) {
+        LocationMode mode = LocationMode.PRIMARY_ONLY;
+        if (this.secondary && this.replicated(oid)) {
+            final long now = System.nanoTime();
+            boolean faster = this.latencies[1].percentile(Endpoints.MEDIAN)
+                < this.latencies[0].percentile(Endpoints.MEDIAN);
+            if (this.reads.incrementAndGet() % Endpoints.PROBE == 0L) {
+                faster = !faster;
+            }
+            if (this.healthy(1, now) && (faster || !this.healthy(0, now))) {
+                mode = LocationMode.SECONDARY_ONLY;
+            }
+        }
+        return mode;
+    }
+
+    /**
+     * Metrics of the routing.
+     * @return Metrics
+     */
+    public Metrics metrics() {
+        return new Metrics("Endpoints")
+            .gauge("Reads", this.reads::doubleValue)
+            .gauge("SecondaryReads", this.secondaries::doubleValue)
+            .gauge("PrimaryMedianMillis", () -> this.median(0))
+            .gauge("SecondaryMedianMillis", () -> this.median(1));
+    }
+
+    /**
+     * Read from an endpoint, recording its latency or failure.
+     * @param mode Location mode of the endpoint
+     * @param read Read
+     * @param <T> Type of result
+     * @return Result, or null if the object doesn't exist
+     * @throws IOException If the read fails
+     * @throws StorageException If the read fails
+     */
+    private <T> T timed(final LocationMode mode, final Read<T> read)
+        throws IOException, StorageException {
+        int index = 0;
+        if (mode == LocationMode.SECONDARY_ONLY) {
+            index = 1;
+        }
+        final BlobRequestOptions options = new BlobRequestOptions();
+        options.setLocationMode(mode);
+        final long start = System.nanoTime();
+        try {
+            final T result = read.read(options);
+            this.latencies[index].record(System.nanoTime() - start);
+            return result;
+        } catch (final StorageException ex) {
+            if (ex.getHttpStatusCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                this.latencies[index].record(System.nanoTime() - start);
+            } else {
+                this.down.set(
+                    index,
+                    System.nanoTime()
+                        + TimeUnit.SECONDS.toNanos(Endpoints.COOLDOWN)
+                );
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Has the object had time to replicate?
+     * @param oid Object id
+     * @return False if it was uploaded within the replication lag
+     */
+    private boolean replicated(final String oid) {
+        final Long time = this.recent.get(oid);
+        boolean old = time == null;
+        if (!old && System.nanoTime() - time > this.lag) {
+            this.recent.remove(oid, time);
+            old = true;
+        }
+        return old;
+    }
+
+    /**
+     * Is an endpoint out of its cooldown?
+     * @param index Endpoint, 0 for the primary and 1 for the secondary
+     * @param now Current time
+     * @return True if it may be read from
+     */
+    private boolean healthy(final int index, final long now) {
+        return now - this.down.get(index) >= 0L;
+    }
+
+    /**
+     * Median latency of an endpoint.
+     * @param index Endpoint, 0 for the primary and 1 for the secondary
+     * @return Milliseconds, or NaN if not known yet
+     */
+    private double median(final int index) {
+        final long nanos = this.latencies[index].percentile(Endpoints.MEDIAN);
+        double millis = Double.NaN;
+        if (nanos != Long.MAX_VALUE) {
+            // @checkstyle MagicNumber (1 line)
+            millis = nanos / 1.0e6;
+        }
+        return millis;
+    }
+
+    /**
+     * Read of an object from a given endpoint.
+     * @param <T> Type of result
+     */
+    interface Read<T> {
+        /**
+         * Read.
+         * @param options Request options naming the endpoint
+         * @return Result, or null if the object doesn't exist
+         * @throws IOException If the read fails
+         * @throws StorageException If the read fails
+         */
+        T read(BlobRequestOptions options)
+            throws IOException, StorageException;
+    }
+}
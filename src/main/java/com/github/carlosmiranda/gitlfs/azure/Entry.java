@@ -15,27 +15,60 @@
  */
 package com.github.carlosmiranda.gitlfs.azure;
 
+import com.google.common.collect.Lists;
 import com.microsoft.azure.storage.CloudStorageAccount;
 import com.microsoft.azure.storage.StorageException;
 import com.microsoft.azure.storage.blob.CloudBlobContainer;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.file.Paths;
 import java.security.InvalidKeyException;
+import java.time.Duration;
 import java.util.Properties;
 import joptsimple.OptionParser;
 import joptsimple.OptionSpec;
+import org.eclipse.jetty.server.RequestLog;
 import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.LocalPointerManager;
+import ru.bozaro.gitlfs.server.PointerManager;
 
 /**
  * Entry point to launch LFS Server.
  * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
- * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ * @checkstyle ClassDataAbstractionCoupling (3 lines)
+ * @checkstyle ClassFanOutComplexity (2 lines)
  */
 public final class Entry {
     /**
      * Storage.
      */
     private final ContentManager storage;
+    /**
+     * Pointer manager answering batches.
+     */
+    private final PointerManager pointers;
+    /**
+     * Request log.
+     */
+    private final RequestLog log;
+    /**
+     * Resumable uploads.
+     */
+    private final ResumableUploads uploads;
+    /**
+     * Locks.
+     */
+    private final Locks locks;
+    /**
+     * Threads reading objects ahead for bulk downloads.
+     */
+    private final int bulk;
+    /**
+     * Cache shared with the other servers of a cluster, or null if this
+     * server runs alone.
+     */
+    private final PeerStorage peers;
     /**
      * Git LFS context path.
      */
@@ -62,12 +95,33 @@ public final class Entry {
                 ).connectionString()
             ).createCloudBlobClient().getContainerReference(params.container());
             container.createIfNotExists();
+            final StorageChain chain = new StorageChain(params, container);
+            final ContentManager backing = chain.storage();
+            this.peers = Entry.peers(params, backing, chain.swept());
+            final Prefetcher prefetcher =
+                Entry.prefetcher(params, chain.swept());
             this.storage = new AuthenticatedStorage(
                 params.username(), params.password(), params.realm(),
-                new AzureBlobStorage(container)
+                chain.tiered(Entry.served(backing, this.peers, prefetcher))
+            );
+            PointerManager local = new ReferencingPointers(
+                new LocalPointerManager(
+                    this.storage, LfsServer.content(params.path())
+                ),
+                container, chain.swept().start(), params.packMaxObject()
             );
+            if (prefetcher != null) {
+                local = new PrefetchingPointers(local, backing, prefetcher);
+            }
+            this.pointers = local;
+            this.uploads = new ResumableUploads(
+                container, Duration.ofHours(params.uploadTtlHours())
+            ).start();
+            this.locks = new Locks(container);
+            this.bulk = params.bulkThreads();
+            this.log = Entry.log(params);
         } catch (final InvalidKeyException | URISyntaxException
-                | StorageException e) {
+                | StorageException | IOException e) {
             throw new IllegalStateException(e);
         }
         this.path = params.path();
@@ -92,13 +146,124 @@ public final class Entry {
         new Entry(new Params(properties), Exit.NEVER).start();
     }
 
+    /**
+     * Prefetcher for download batches, if configured.
+     * @param params Parameters
+     * @param swept Objects deleted by sweeps, for its cache to forget
+     * @return Prefetcher, or null if objects are not fetched ahead
+     * @throws IOException If the staging directory can't be prepared
+     */
+    private static Prefetcher prefetcher(final Params params,
+        final Swept swept) throws IOException {
+        Prefetcher prefetcher = null;
+        if (!params.prefetchCache().isEmpty()) {
+            final StagingCache cache = new StagingCache(
+                Paths.get(params.prefetchCache()), params.prefetchCacheBytes()
+            ).start();
+            swept.holder(cache::remove);
+            prefetcher = new Prefetcher(
+                cache, params.prefetchThreads(), params.prefetchBatchBytes()
+            );
+            prefetcher.metrics().register();
+        }
+        return prefetcher;
+    }
+
+    /**
+     * Storage serving downloads, reading through the cluster cache and the
+     * prefetched objects if configured.
+     * @param backing Backing storage
+     * @param peers Cluster cache, or null
+     * @param prefetcher Prefetcher, or null
+     * @return Storage
+     */
+    private static ContentManager served(final ContentManager backing,
+        final PeerStorage peers, final Prefetcher prefetcher) {
+        ContentManager served = backing;
+        if (peers != null) {
+            served = peers;
+        }
+        if (prefetcher != null) {
+            served = new PrefetchedStorage(prefetcher, served);
+        }
+        return served;
+    }
+
+    /**
+     * Cache shared with the other servers of the cluster, if configured.
+     * @param params Parameters
+     * @param backing Backing storage
+     * @param swept Objects deleted by sweeps, for its cache to forget
+     * @return Cluster cache, or null if this server runs alone
+     * @throws IOException If the cache directory can't be prepared
+     */
+    private static PeerStorage peers(final Params params,
+        final ContentManager backing, final Swept swept) throws IOException {
+        PeerStorage peers = null;
+        if (!params.peers().isEmpty()) {
+            if (!params.peers().contains(params.peerSelf())
+                || params.peerCache().isEmpty()) {
+                throw new IOException(
+                    "gitlfs.peers needs gitlfs.peer.self among them and a cache"
+                );
+            }
+            final StagingCache cache = new StagingCache(
+                Paths.get(params.peerCache()), params.peerCacheBytes()
+            ).start();
+            swept.holder(cache::remove);
+            peers = new PeerStorage(
+                new HashRing(
+                    Lists.transform(
+                        params.peers(),
+                        peer -> PeerStorage.endpoint(peer, params.path())
+                    )
+                ),
+                PeerStorage.endpoint(params.peerSelf(), params.path()),
+                cache, backing
+            );
+            peers.metrics().register();
+        }
+        return peers;
+    }
+
+    /**
+     * Access log, if configured.
+     * @param params Parameters
+     * @return Request log, doing nothing if requests are not logged
+     * @throws IOException If the log directory can't be created
+     */
+    private static RequestLog log(final Params params) throws IOException {
+        RequestLog log = (request, response) -> { };
+        if (!params.accessLog().isEmpty()) {
+            // @checkstyle MagicNumber (2 lines)
+            final AccessLog access = new AccessLog(
+                Paths.get(params.accessLog()), 1 << 16, params.accessLogDays()
+            ).start();
+            access.metrics().register();
+            log = access;
+        }
+        return log;
+    }
+
     /**
      * Start the server.
      */
     public void start() {
         try (
-            LfsServer server = new LfsServer(this.path, this.storage, this.port)
+            LfsServer server = new LfsServer(
+                this.path, this.storage, this.pointers, this.port
+            )
         ) {
+            server.log(this.log).route(
+                "resumable/*", new ResumableServlet(this.storage, this.uploads)
+            ).route(
+                "locks/*", new LockServlet(this.storage, this.locks)
+            ).bulk(this.storage, this.bulk);
+            if (this.peers != null) {
+                server.route(
+                    "peer/*", new PeerServlet(this.storage, this.peers)
+                );
+            }
             server.start();
             while (!this.exit.exit()) {
                 // @checkstyle MagicNumber (1 line)
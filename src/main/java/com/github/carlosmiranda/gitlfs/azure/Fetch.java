@@ -0,0 +1,272 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.collect.Iterables;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Entry point downloading many objects into a local Git LFS object store
+ * through the bulk download endpoint of the server.
+ *
+ * <p>Reads objects from standard input, taking the first word of each line
+ * as an object id, so that a repository cloned without its objects can be
+ * filled in before checking them out:
+ * <pre>
+ * GIT_LFS_SKIP_SMUDGE=1 git clone https://host/repo.git
+ * cd repo
+ * git lfs ls-files --long | java -cp git-lfs-azureblob.jar \
+ *   com.github.carlosmiranda.gitlfs.azure.Fetch \
+ *   --url https://host/repo.git/info/lfs
+ * git lfs pull
+ * </pre>
+ * Objects already in the store are skipped, the others are asked for
+ * {@code --batch} at a time and stored once their content matches their
+ * id. Objects that couldn't be fetched are logged and left for
+ * {@code git lfs pull}; credentials come from {@code git credential fill}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+public final class Fetch {
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(Fetch.class.getName());
+
+    /**
+     * Object id.
+     */
+    private static final Pattern OID = Pattern.compile("^[0-9a-f]{64}$");
+
+    /**
+     * Bulk download client.
+     */
+    private final ResumableClient client;
+
+    /**
+     * Object store.
+     */
+    private final Path store;
+
+    /**
+     * Objects asked for in one request.
+     */
+    private final int batch;
+
+    /**
+     * Objects stored.
+     */
+    private final AtomicLong fetched;
+
+    /**
+     * Bytes stored.
+     */
+    private final AtomicLong bytes;
+
+    /**
+     * Objects that couldn't be fetched.
+     */
+    private final AtomicLong failed;
+
+    /**
+     * Ctor.
+     * @param client Bulk download client
+     * @param store Object store
+     * @param batch Objects asked for in one request
+     */
+    Fetch(final ResumableClient client, final Path store, final int batch) {
+        this.client = client;
+        this.store = store;
+        this.batch = Math.min(batch, BulkServlet.MAX_OBJECTS);
+        this.fetched = new AtomicLong();
+        this.bytes = new AtomicLong();
+        this.failed = new AtomicLong();
+    }
+
+    /**
+     * Main entry point.
+     * @param args Command line arguments.
+     * @throws Exception If something goes wrong.
+     */
+    public static void main(final String[] args) throws Exception {
+        final OptionParser parser = new OptionParser();
+        final OptionSpec<String> url = parser.accepts("url")
+            .withRequiredArg().required();
+        final OptionSpec<String> objects = parser.accepts("objects")
+            .withRequiredArg().defaultsTo(".git/lfs/objects");
+        // @checkstyle MagicNumber (2 lines)
+        final OptionSpec<Integer> batch = parser.accepts("batch")
+            .withRequiredArg().ofType(Integer.class).defaultsTo(1000);
+        final OptionSet options = parser.parse(args);
+        final String lfs = options.valueOf(url);
+        final Fetch fetch = new Fetch(
+            new ResumableClient(lfs, ResumableClient.credentials(lfs)),
+            Paths.get(options.valueOf(objects)), options.valueOf(batch)
+        );
+        fetch.run(
+            new BufferedReader(
+                new InputStreamReader(System.in, StandardCharsets.UTF_8)
+            ),
+            Fetch.LOGGER::warning
+        );
+        final Metrics metrics = fetch.metrics();
+        Fetch.LOGGER.info(
+            String.format(
+                "Fetched %.0f objects, %.0f bytes: %.0f failed",
+                metrics.value("Fetched"), metrics.value("Bytes"),
+                metrics.value("Failed")
+            )
+        );
+    }
+
+    /**
+     * Fetch the objects listed that aren't in the store yet.
+     * @param in Objects, one per line
+     * @param report Told one line per object that couldn't be fetched
+     * @throws IOException If the list can't be read
+     */
+    public void run(final BufferedReader in, final Consumer<String> report)
+        throws IOException {
+        final Set<String> wanted = new LinkedHashSet<>();
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            final String oid = line.trim().split("\\s", 2)[0];
+            if (Fetch.OID.matcher(oid).matches()
+                && !Files.exists(this.file(oid))) {
+                wanted.add(oid);
+            }
+        }
+        for (final List<String> oids : Iterables.partition(
+            wanted, this.batch
+        )) {
+            this.fetch(oids, report);
+        }
+    }
+
+    /**
+     * Counts of the fetch.
+     * @return Metrics
+     */
+    public Metrics metrics() {
+        return new Metrics("Fetch")
+            .gauge("Fetched", this.fetched::doubleValue)
+            .gauge("Bytes", this.bytes::doubleValue)
+            .gauge("Failed", this.failed::doubleValue);
+    }
+
+    /**
+     * Fetch objects in one request.
+     * @param oids Object ids
+     * @param report Told one line per object that couldn't be fetched
+     */
+    private void fetch(final List<String> oids,
+        final Consumer<String> report) {
+        final Set<String> unsent = new HashSet<>(oids);
+        try {
+            this.client.bulk(
+                oids,
+                (oid, status, content) -> {
+                    unsent.remove(oid);
+                    if (status == HttpURLConnection.HTTP_OK) {
+                        this.store(oid, content, report);
+                    } else {
+                        this.failed.incrementAndGet();
+                        report.accept(String.format("%s %d", oid, status));
+                    }
+                }
+            );
+        } catch (final IOException ex) {
+            report.accept(ex.getMessage());
+        }
+        for (final String oid : unsent) {
+            this.failed.incrementAndGet();
+            report.accept(String.format("%s unsent", oid));
+        }
+    }
+
+    /**
+     * Store an object, if its content matches its id.
+     * @param oid Object id
+     * @param content Content
+     * @param report Told a line if the object can't be stored
+     * @throws IOException If the temporary directory can't be used
+     */
+    private void store(final String oid, final InputStream content,
+        final Consumer<String> report) throws IOException {
+        final Path tmp = Files.createDirectories(
+            this.store.resolveSibling("tmp")
+        );
+        final Path file = Files.createTempFile(tmp, oid, ".tmp");
+        try {
+            final long size = Files.copy(
+                new VerifiedStream(content, oid), file,
+                StandardCopyOption.REPLACE_EXISTING
+            );
+            Files.move(
+                file, Files.createDirectories(this.dir(oid)).resolve(oid),
+                StandardCopyOption.ATOMIC_MOVE
+            );
+            this.fetched.incrementAndGet();
+            this.bytes.addAndGet(size);
+        } catch (final IOException ex) {
+            this.failed.incrementAndGet();
+            report.accept(String.format("%s %s", oid, ex.getMessage()));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * File of an object in the store.
+     * @param oid Object id
+     * @return Path
+     */
+    private Path file(final String oid) {
+        return this.dir(oid).resolve(oid);
+    }
+
+    /**
+     * Directory of an object in the store.
+     * @param oid Object id
+     * @return Path
+     */
+    private Path dir(final String oid) {
+        // @checkstyle MagicNumber (2 lines)
+        return this.store.resolve(oid.substring(0, 2))
+            .resolve(oid.substring(2, 4));
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Consistent hash ring assigning each object an owner node.
+ *
+ * <p>Every node takes {@value #REPLICAS} points on the ring, and an object
+ * belongs to the node of the first point at or after its own hash. A node
+ * joining or leaving only moves the objects next to its points, roughly
+ * one in every number of nodes, so caches of the other nodes stay warm.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class HashRing {
+    /**
+     * Points per node.
+     */
+    private static final int REPLICAS = 128;
+
+    /**
+     * Nodes, by ring position.
+     */
+    private final NavigableMap<Long, String> ring;
+
+    /**
+     * Ctor.
+     * @param nodes Initial nodes
+     */
+    HashRing(final Iterable<String> nodes) {
+        this.ring = new ConcurrentSkipListMap<>();
+        for (final String node : nodes) {
+            this.add(node);
+        }
+    }
+
+    /**
+     * Add a node.
+     * @param node Node
+     */
+    public void add(final String node) {
+        for (int idx = 0; idx < HashRing.REPLICAS; ++idx) {
+            this.ring.put(HashRing.position(node, idx), node);
+        }
+    }
+
+    /**
+     * Remove a node.
+     * @param node Node
+     */
+    public void remove(final String node) {
+        for (int idx = 0; idx < HashRing.REPLICAS; ++idx) {
+            this.ring.remove(HashRing.position(node, idx), node);
+        }
+    }
+
+    /**
+     * Node owning an object.
+     * @param oid Object id
+     * @return Node, or null if the ring is empty
+     */
+    public String owner(final String oid) {
+        Map.Entry<Long, String> entry = this.ring.ceilingEntry(
+            HashRing.hash(oid)
+        );
+        if (entry == null) {
+            entry = this.ring.firstEntry();
+        }
+        String owner = null;
+        if (entry != null) {
+            owner = entry.getValue();
+        }
+        return owner;
+    }
+
+    /**
+     * Nodes in the ring.
+     * @return Nodes
+     */
+    public Set<String> nodes() {
+        return new TreeSet<>(this.ring.values());
+    }
+
+    /**
+     * Position of a point of a node.
+     * @param node Node
+     * @param index Point number
+     * @return Position
+     */
+    private static long position(final String node, final int index) {
+        return HashRing.hash(String.format("%s#%d", node, index));
+    }
+
+    /**
+     * Position of a key on the ring.
+     * @param key Key
+     * @return Position
+     */
+    private static long hash(final String key) {
+        return Hashing.sha256().hashString(key, StandardCharsets.UTF_8)
+            .asLong();
+    }
+}
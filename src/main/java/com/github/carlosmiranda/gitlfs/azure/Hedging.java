@@ -0,0 +1,306 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hedged execution of idempotent remote calls.
+ *
+ * <p>A call that hasn't answered within the configured percentile of recent
+ * latency is duplicated, and whichever attempt succeeds first wins. Losing
+ * results that are streams are closed. The number of duplicates is
+ * capped by a token bucket: every call earns {@code budget} tokens, and each
+ * duplicate spends one, so at most that fraction of calls is ever repeated.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class Hedging {
+    /**
+     * Number of latency samples kept.
+     */
+    private static final int WINDOW = 1024;
+
+    /**
+     * Samples needed before any call is hedged.
+     */
+    private static final int WARMUP = 50;
+
+    /**
+     * Maximum tokens that may be saved up for bursts of stragglers.
+     */
+    private static final double BURST = 10.0;
+
+    /**
+     * Recent latencies of single attempts.
+     */
+    private final Latencies latencies;
+
+    /**
+     * Percentile of latency after which a call is hedged.
+     */
+    private final double percentile;
+
+    /**
+     * Fraction of calls that may be duplicated.
+     */
+    private final double budget;
+
+    /**
+     * Threads running the attempts.
+     */
+    private final ExecutorService threads;
+
+    /**
+     * Tokens currently available for duplicates.
+     */
+    private double tokens;
+
+    /**
+     * Ctor.
+     * @param percentile Percentile of latency after which to hedge
+     * @param budget Fraction of calls that may be duplicated, zero disables
+     *  hedging altogether
+     */
+    Hedging(final double percentile, final double budget) {
+        this.latencies = new Latencies(Hedging.WINDOW, Hedging.WARMUP);
+        this.percentile = percentile;
+        this.budget = budget;
+        this.threads = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("hedge-%d")
+                .build()
+        );
+    }
+
+    /**
+     * Run a call, hedging it if it turns out to be a straggler.
+     * @param task Idempotent call
+     * @param <T> Type of result
+     * @return Result of the first attempt to succeed
+     * @throws IOException If all attempts fail
+     */
+    public <T> T call(final Callable<T> task) throws IOException {
+        final T result;
+        if (this.budget > 0.0) {
+            result = this.hedged(task);
+        } else {
+            result = Hedging.direct(task);
+        }
+        return result;
+    }
+
+    /**
+     * Run a call with a possible duplicate.
+     * @param task Idempotent call
+     * @param <T> Type of result
+     * @return Result of the first attempt to succeed
+     * @throws IOException If all attempts fail
+     */
+    private <T> T hedged(final Callable<T> task) throws IOException {
+        this.earn();
+        final Race<T> race = new Race<>();
+        race.join(this.attempt(task));
+        T result;
+        try {
+            result = race.winner().get(
+                this.latencies.percentile(this.percentile),
+                TimeUnit.NANOSECONDS
+            );
+        } catch (final TimeoutException ex) {
+            if (this.spend()) {
+                race.join(this.attempt(task));
+            }
+            result = Hedging.await(race.winner());
+        } catch (final ExecutionException ex) {
+            throw Hedging.unwrap(ex);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Start a single attempt, recording its latency.
+     * @param task Call to attempt
+     * @param <T> Type of result
+     * @return Future result
+     */
+    private <T> CompletableFuture<T> attempt(final Callable<T> task) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        this.threads.execute(
+            () -> {
+                final long start = System.nanoTime();
+                try {
+                    future.complete(task.call());
+                    // @checkstyle IllegalCatch (1 line)
+                } catch (final Exception ex) {
+                    future.completeExceptionally(ex);
+                }
+                this.latencies.record(System.nanoTime() - start);
+            }
+        );
+        return future;
+    }
+
+    /**
+     * Add this call's share of tokens.
+     */
+    private synchronized void earn() {
+        this.tokens = Math.min(Hedging.BURST, this.tokens + this.budget);
+    }
+
+    /**
+     * Take a token for a duplicate, if there is one.
+     * @return True if a duplicate may be sent
+     */
+    private synchronized boolean spend() {
+        final boolean allowed = this.tokens >= 1.0;
+        if (allowed) {
+            this.tokens -= 1.0;
+        }
+        return allowed;
+    }
+
+    /**
+     * Run a call on the current thread.
+     * @param task Call
+     * @param <T> Type of result
+     * @return Result
+     * @throws IOException If the call fails
+     */
+    private static <T> T direct(final Callable<T> task) throws IOException {
+        try {
+            return task.call();
+        } catch (final IOException ex) {
+            throw ex;
+            // @checkstyle IllegalCatch (1 line)
+        } catch (final Exception ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Wait for a future without a time limit.
+     * @param future Future
+     * @param <T> Type of result
+     * @return Result
+     * @throws IOException If the future failed
+     */
+    private static <T> T await(final CompletableFuture<T> future)
+        throws IOException {
+        try {
+            return future.get();
+        } catch (final ExecutionException ex) {
+            throw Hedging.unwrap(ex);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Turn a failed attempt into an IOException.
+     * @param ex Failure
+     * @return IOException to throw
+     */
+    private static IOException unwrap(final ExecutionException ex) {
+        final Throwable cause = ex.getCause();
+        final IOException result;
+        if (cause instanceof IOException) {
+            result = (IOException) cause;
+        } else {
+            result = new IOException(cause);
+        }
+        return result;
+    }
+
+    /**
+     * Attempts racing for the same result.
+     * @param <T> Type of result
+     */
+    private static final class Race<T> {
+        /**
+         * First successful result, or the last failure.
+         */
+        private final CompletableFuture<T> first;
+
+        /**
+         * Attempts still running.
+         */
+        private final AtomicInteger running;
+
+        /**
+         * Ctor.
+         */
+        Race() {
+            this.first = new CompletableFuture<>();
+            this.running = new AtomicInteger();
+        }
+
+        /**
+         * Add an attempt to the race.
+         * @param attempt Attempt
+         */
+        public void join(final CompletableFuture<T> attempt) {
+            this.running.incrementAndGet();
+            attempt.whenComplete(
+                (result, error) -> {
+                    final int left = this.running.decrementAndGet();
+                    if (error == null) {
+                        if (!this.first.complete(result)) {
+                            Race.discard(result);
+                        }
+                    } else if (left == 0) {
+                        this.first.completeExceptionally(error);
+                    }
+                }
+            );
+        }
+
+        /**
+         * Result of the race.
+         * @return Future completed by the first attempt to succeed
+         */
+        public CompletableFuture<T> winner() {
+            return this.first;
+        }
+
+        /**
+         * Release a losing result.
+         * @param result Result that lost the race
+         */
+        private static void discard(final Object result) {
+            if (result instanceof InputStream) {
+                Closeables.closeQuietly((InputStream) result);
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.microsoft.azure.storage.CloudStorageAccount;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import org.apache.http.impl.client.HttpClients;
+import ru.bozaro.gitlfs.client.Client;
+import ru.bozaro.gitlfs.client.auth.BasicAuthProvider;
+import ru.bozaro.gitlfs.server.ContentManager;
+
+/**
+ * Entry point copying objects from local Git LFS object stores or another
+ * Git LFS server into the container.
+ *
+ * <p>Takes the server's {@code --properties}, and either one or more
+ * {@code --local} object stores or repositories, or a {@code --remote} LFS
+ * URL with an {@code --objects} file of {@code <oid> <size>} lines sorted by
+ * object id. Optionally takes {@code --user} and {@code --password} for the
+ * remote, {@code --threads}, {@code --blocks} in flight per object, and
+ * {@code --checkpoint} and {@code --report} files. Objects that failed are
+ * appended to the report; an import run again with the same checkpoint
+ * file resumes where the last one stopped.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+public final class Import {
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(Import.class.getName());
+
+    /**
+     * Bytes in a MiB.
+     */
+    // @checkstyle MagicNumber (1 line)
+    private static final long MIB = 1L << 20;
+
+    /**
+     * Utility class.
+     */
+    private Import() {
+    }
+
+    /**
+     * Main entry point.
+     * @param args Command line arguments.
+     * @throws Exception If something goes wrong.
+     */
+    public static void main(final String[] args) throws Exception {
+        final OptionParser parser = new OptionParser();
+        final OptionSpec<String> props = parser.accepts("properties")
+            .withRequiredArg().required();
+        final OptionSpec<String> local = parser.accepts("local")
+            .requiredUnless("remote").withRequiredArg();
+        final OptionSpec<String> remote = parser.accepts("remote")
+            .withRequiredArg();
+        final OptionSpec<String> objects = parser.accepts("objects")
+            .requiredIf(remote).withRequiredArg();
+        final OptionSpec<String> user = parser.accepts("user")
+            .withRequiredArg();
+        final OptionSpec<String> password = parser.accepts("password")
+            .withRequiredArg();
+        // @checkstyle MagicNumber (4 lines)
+        final OptionSpec<Integer> threads = parser.accepts("threads")
+            .withRequiredArg().ofType(Integer.class).defaultsTo(32);
+        final OptionSpec<Integer> blocks = parser.accepts("blocks")
+            .withRequiredArg().ofType(Integer.class).defaultsTo(2);
+        final OptionSpec<String> checkpoint = parser.accepts("checkpoint")
+            .withRequiredArg().defaultsTo("import.checkpoint");
+        final OptionSpec<String> report = parser.accepts("report")
+            .withRequiredArg().defaultsTo("import.report");
+        final OptionSet options = parser.parse(args);
+        final Importer.Source source;
+        if (options.has(remote)) {
+            source = new RemoteObjects(
+                new Client(
+                    new BasicAuthProvider(
+                        URI.create(options.valueOf(remote)),
+                        options.valueOf(user), options.valueOf(password)
+                    ),
+                    HttpClients.custom()
+                        .setMaxConnPerRoute(options.valueOf(threads))
+                        .setMaxConnTotal(options.valueOf(threads))
+                        .build()
+                ),
+                Paths.get(options.valueOf(objects))
+            );
+        } else {
+            source = new LocalObjects(
+                options.valuesOf(local).stream().map(Paths::get)
+                    .collect(Collectors.toList())
+            );
+        }
+        final Importer importer = Import.importer(
+            options.valueOf(props), options.valueOf(blocks),
+            options.valueOf(threads)
+        );
+        final long start = System.nanoTime();
+        try (BufferedWriter out = Files.newBufferedWriter(
+            Paths.get(options.valueOf(report)), StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND
+        )) {
+            importer.run(
+                source, Paths.get(options.valueOf(checkpoint)),
+                line -> Import.write(out, line)
+            );
+        }
+        Import.LOGGER.info(Import.summary(importer.metrics(), start));
+    }
+
+    /**
+     * Importer into the storage of the container, as the server would set
+     * it up, staging blocks of each upload in parallel.
+     * @param file Server properties file
+     * @param blocks Most blocks of an upload in flight
+     * @param threads Number of threads copying objects
+     * @return Importer
+     * @throws Exception If the storage can't be set up
+     */
+    private static Importer importer(final String file, final int blocks,
+        final int threads) throws Exception {
+        final Properties properties = new Properties();
+        try (FileInputStream input = new FileInputStream(file)) {
+            properties.load(input);
+        }
+        properties.setProperty("azure.upload.blocks", Integer.toString(blocks));
+        final Params params = new Params(properties);
+        final ContentManager storage = new StorageChain(
+            params,
+            CloudStorageAccount.parse(
+                new AzureStorageCredentials(
+                    params.account(), params.key(), true
+                ).connectionString()
+            ).createCloudBlobClient().getContainerReference(params.container())
+        ).storage();
+        // the chain has no access control, so there is no request to check
+        return new Importer(storage, storage.checkUploadAccess(null), threads);
+    }
+
+    /**
+     * Append a line to the report.
+     * @param out Report
+     * @param line Line
+     */
+    private static void write(final BufferedWriter out, final String line) {
+        synchronized (out) {
+            try {
+                out.write(line);
+                out.newLine();
+                out.flush();
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /**
+     * Summary of an import.
+     * @param metrics Counts of the import
+     * @param start Start of the import, in nanoseconds
+     * @return Summary
+     */
+    private static String summary(final Metrics metrics, final long start) {
+        // @checkstyle MagicNumber (1 line)
+        final double seconds = (System.nanoTime() - start) / 1.0e9;
+        return String.format(
+            "Imported %.0f objects at %.1f MiB/s: %.0f present, %.0f failed",
+            metrics.value("Imported"),
+            metrics.value("Bytes") / Import.MIB / Math.max(seconds, 1.0),
+            metrics.value("Present"), metrics.value("Failed")
+        );
+    }
+}
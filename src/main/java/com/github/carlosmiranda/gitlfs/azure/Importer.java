@@ -0,0 +1,258 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+
+/**
+ * Parallel copy of objects from another store into the container.
+ *
+ * <p>Objects are copied by a fixed number of threads, with at most twice as
+ * many queued, each streamed straight from the source into the storage, so
+ * memory stays bounded however many objects there are. Objects the storage
+ * already has are skipped, and content that doesn't hash to its object id
+ * fails before it is committed.
+ *
+ * <p>Objects must be listed in object id order, so that progress can be
+ * kept in a {@link Checkpoint} and a later import with the same file
+ * resumes.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class Importer {
+    /**
+     * Storage to import into.
+     */
+    private final ContentManager storage;
+
+    /**
+     * Uploader of the storage.
+     */
+    private final ContentManager.Uploader uploader;
+
+    /**
+     * Number of threads copying objects.
+     */
+    private final int threads;
+
+    /**
+     * Objects copied.
+     */
+    private final AtomicLong imported;
+
+    /**
+     * Objects the storage already had.
+     */
+    private final AtomicLong present;
+
+    /**
+     * Bytes copied.
+     */
+    private final AtomicLong bytes;
+
+    /**
+     * Objects that couldn't be copied.
+     */
+    private final AtomicLong failed;
+
+    /**
+     * Ctor.
+     * @param storage Storage to import into
+     * @param uploader Uploader of the storage
+     * @param threads Number of threads copying objects
+     */
+    Importer(final ContentManager storage,
+        final ContentManager.Uploader uploader, final int threads) {
+        this.storage = storage;
+        this.uploader = uploader;
+        this.threads = threads;
+        this.imported = new AtomicLong();
+        this.present = new AtomicLong();
+        this.bytes = new AtomicLong();
+        this.failed = new AtomicLong();
+    }
+
+    /**
+     * Copy objects, resuming from a checkpoint.
+     * @param source Objects to copy
+     * @param checkpoint Checkpoint file, deleted once the import is complete
+     * @param report Told one tab-separated line per object that failed
+     * @throws IOException If the objects can't be listed, are out of order,
+     *  or the checkpoint can't be read or written
+     * @throws InterruptedException If interrupted
+     */
+    public void run(final Source source, final Path checkpoint,
+        final Consumer<String> report)
+        throws IOException, InterruptedException {
+        final Checkpoint progress = new Checkpoint(checkpoint);
+        final String from = progress.resume();
+        final ExecutorService pool = Executors.newFixedThreadPool(
+            this.threads,
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("importer-%d")
+                .build()
+        );
+        final Semaphore slots = new Semaphore(this.threads * 2);
+        final Iterator<Meta> objects = source.objects();
+        String last = "";
+        try {
+            while (objects.hasNext()) {
+                final Meta meta = objects.next();
+                last = Importer.ordered(last, meta.getOid());
+                if (meta.getOid().compareTo(from) >= 0) {
+                    slots.acquire();
+                    progress.begin(meta.getOid());
+                    pool.execute(
+                        () -> this.copy(
+                            source, meta, report,
+                            () -> {
+                                progress.done(meta.getOid());
+                                slots.release();
+                            }
+                        )
+                    );
+                }
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            progress.finish();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Counts of the import.
+     * @return Metrics
+     */
+    public Metrics metrics() {
+        return new Metrics("Import")
+            .gauge("Imported", this.imported::doubleValue)
+            .gauge("Present", this.present::doubleValue)
+            .gauge("Bytes", this.bytes::doubleValue)
+            .gauge("Failed", this.failed::doubleValue);
+    }
+
+    /**
+     * Copy one object, then say it's done.
+     * @param source Objects to copy
+     * @param meta Object
+     * @param report Told objects that failed
+     * @param done Told when the object is copied
+     * @checkstyle ParameterNumber (3 lines)
+     */
+    private void copy(final Source source, final Meta meta,
+        final Consumer<String> report, final Runnable done) {
+        try {
+            this.copy(source, meta);
+        } catch (final IOException ex) {
+            this.failed.incrementAndGet();
+            report.accept(
+                String.format("failed\t%s\t%s", meta.getOid(), ex.getMessage())
+            );
+        } finally {
+            done.run();
+        }
+    }
+
+    /**
+     * Copy one object, unless the storage already has it.
+     * @param source Objects to copy
+     * @param meta Object
+     * @throws IOException If the object can't be copied
+     */
+    private void copy(final Source source, final Meta meta)
+        throws IOException {
+        if (this.storage.getMetadata(meta.getOid()) == null) {
+            source.read(
+                meta,
+                content -> {
+                    try (InputStream verified =
+                        new VerifiedStream(content, meta.getOid())) {
+                        this.uploader.saveObject(meta, verified);
+                    }
+                }
+            );
+            this.imported.incrementAndGet();
+            this.bytes.addAndGet(meta.getSize());
+        } else {
+            this.present.incrementAndGet();
+        }
+    }
+
+    /**
+     * Check that objects are listed in order.
+     * @param last Object id listed before
+     * @param oid Object id listed now
+     * @return Object id listed now
+     * @throws IOException If they are out of order
+     */
+    private static String ordered(final String last, final String oid)
+        throws IOException {
+        if (oid.compareTo(last) < 0) {
+            throw new IOException(
+                String.format("Object %s is listed after %s", oid, last)
+            );
+        }
+        return oid;
+    }
+
+    /**
+     * Objects to import.
+     */
+    interface Source {
+        /**
+         * List the objects.
+         * @return Objects, in object id order
+         * @throws IOException If the objects can't be listed
+         */
+        Iterator<Meta> objects() throws IOException;
+
+        /**
+         * Read an object.
+         * @param meta Object
+         * @param sink Given the content, to consume before returning
+         * @throws IOException If the object can't be read, or the sink
+         *  fails
+         */
+        void read(Meta meta, Sink sink) throws IOException;
+    }
+
+    /**
+     * Consumer of object content.
+     */
+    interface Sink {
+        /**
+         * Consume content.
+         * @param content Content
+         * @throws IOException If it can't be consumed
+         */
+        void accept(InputStream content) throws IOException;
+    }
+}
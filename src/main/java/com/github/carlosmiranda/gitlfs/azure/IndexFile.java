@@ -0,0 +1,479 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.collect.AbstractIterator;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Iterator;
+
+/**
+ * Immutable, memory-mapped file of object ids and sizes.
+ *
+ * <p>The file holds a header, the records sorted by object id, and a Bloom
+ * filter over them. Each record is the 32 bytes of the SHA-256 object id
+ * followed by the object size, all as big-endian longs. Records are mapped
+ * in segments, so the file may grow past the 2 GB limit of a single
+ * mapping, and nothing but the mapping itself is ever held in memory.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class IndexFile {
+    /**
+     * Order of records, by unsigned object id.
+     */
+    public static final Comparator<long[]> ORDER = IndexFile::compare;
+
+    /**
+     * Magic number at the start of the file.
+     */
+    private static final long MAGIC = 0x4c46534f49445831L;
+
+    /**
+     * Number of longs in an object id.
+     */
+    private static final int KEY = 4;
+
+    /**
+     * Size of the header in bytes.
+     */
+    private static final int HEADER = 32;
+
+    /**
+     * Size of a record in bytes.
+     */
+    private static final int RECORD = 40;
+
+    /**
+     * Number of records per mapped segment.
+     */
+    // @checkstyle MagicNumber (1 line)
+    private static final int SEGMENT = 1 << 25;
+
+    /**
+     * Number of hex digits in an object id.
+     */
+    private static final int DIGITS = 64;
+
+    /**
+     * Number of hex digits per long.
+     */
+    private static final int PER_LONG = 16;
+
+    /**
+     * Radix of object ids.
+     */
+    private static final int HEX = 16;
+
+    /**
+     * Bits per hex digit.
+     */
+    private static final int NIBBLE = 4;
+
+    /**
+     * Size of the write buffer.
+     */
+    // @checkstyle MagicNumber (1 line)
+    private static final int BUFFER = 1 << 16;
+
+    /**
+     * Number of records.
+     */
+    private final long count;
+
+    /**
+     * Filter in front of the records.
+     */
+    private final BloomFilter filter;
+
+    /**
+     * Mapped record segments.
+     */
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * Ctor.
+     * @param count Number of records
+     * @param filter Filter in front of the records
+     * @param segments Mapped record segments
+     */
+    private IndexFile(final long count, final BloomFilter filter,
+        final MappedByteBuffer... segments) {
+        this.count = count;
+        this.filter = filter;
+        this.segments = segments;
+    }
+
+    /**
+     * Map an existing index file.
+     * @param path Index file
+     * @return Mapped index
+     * @throws IOException If the file can't be read or isn't an index
+     */
+    public static IndexFile open(final Path path) throws IOException {
+        try (FileChannel channel =
+            FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(IndexFile.HEADER);
+            channel.read(header, 0L);
+            header.flip();
+            if (header.remaining() < IndexFile.HEADER
+                || header.getLong() != IndexFile.MAGIC) {
+                throw new IOException(String.format("Not an index: %s", path));
+            }
+            final long count = header.getLong();
+            final int words = (int) header.getLong();
+            final LongBuffer bits = channel.map(
+                FileChannel.MapMode.READ_ONLY,
+                IndexFile.HEADER + count * IndexFile.RECORD,
+                (long) words * Long.BYTES
+            ).asLongBuffer();
+            return new IndexFile(
+                count, new BloomFilter(bits), IndexFile.map(channel, count)
+            );
+        }
+    }
+
+    /**
+     * Write an index file from records in ascending order.
+     *
+     * <p>Records with the same object id as their predecessor are skipped.
+     * The file is written next to its final location and atomically moved
+     * into place once complete and synced.
+     * @param path Index file
+     * @param records Records, in ascending order
+     * @return Mapped index
+     * @throws IOException If the file can't be written or records are out
+     *  of order
+     */
+    public static IndexFile write(final Path path,
+        final Iterator<long[]> records) throws IOException {
+        final Path temp = path.resolveSibling(
+            String.format("%s.tmp", path.getFileName())
+        );
+        final long count = IndexFile.append(temp, records);
+        try (FileChannel channel = FileChannel.open(
+            temp, StandardOpenOption.READ, StandardOpenOption.WRITE
+        )) {
+            final LongBuffer bits = LongBuffer.allocate(
+                BloomFilter.words(count)
+            );
+            final BloomFilter filter = new BloomFilter(bits);
+            for (final MappedByteBuffer segment
+                : IndexFile.map(channel, count)) {
+                for (int pos = 0; pos < segment.limit();
+                    pos += IndexFile.RECORD) {
+                    filter.put(
+                        segment.getLong(pos),
+                        segment.getLong(pos + Long.BYTES)
+                    );
+                }
+            }
+            IndexFile.finish(channel, count, bits);
+        }
+        Files.move(
+            temp, path, StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING
+        );
+        return IndexFile.open(path);
+    }
+
+    /**
+     * Parse an object id into a record.
+     * @param oid Object id, as 64 lowercase hex digits
+     * @param size Object size
+     * @return Record, or null if the object id isn't a SHA-256 hash
+     */
+    public static long[] record(final String oid, final long size) {
+        long[] record = null;
+        if (oid.length() == IndexFile.DIGITS) {
+            record = new long[IndexFile.KEY + 1];
+            record[IndexFile.KEY] = size;
+            for (int idx = 0; record != null && idx < IndexFile.DIGITS;
+                ++idx) {
+                final int digit = Character.digit(
+                    oid.charAt(idx), IndexFile.HEX
+                );
+                if (digit < 0 || Character.isUpperCase(oid.charAt(idx))) {
+                    record = null;
+                } else {
+                    record[idx / IndexFile.PER_LONG] =
+                        record[idx / IndexFile.PER_LONG] << IndexFile.NIBBLE
+                        | digit;
+                }
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Object id of a record.
+     * @param record Record
+     * @return Object id, as 64 lowercase hex digits
+     */
+    public static String oid(final long[] record) {
+        final StringBuilder oid = new StringBuilder(IndexFile.DIGITS);
+        for (int idx = 0; idx < IndexFile.KEY; ++idx) {
+            final String word = Long.toHexString(record[idx]);
+            for (int pad = word.length(); pad < IndexFile.PER_LONG; ++pad) {
+                oid.append('0');
+            }
+            oid.append(word);
+        }
+        return oid.toString();
+    }
+
+    /**
+     * Serialize a record.
+     * @param record Record
+     * @return Buffer ready to be written
+     */
+    public static ByteBuffer encode(final long[] record) {
+        final ByteBuffer buffer = ByteBuffer.allocate(IndexFile.RECORD);
+        buffer.asLongBuffer().put(record);
+        return buffer;
+    }
+
+    /**
+     * Deserialize the next record.
+     * @param buffer Buffer with serialized records
+     * @return Record, or null if there isn't a whole record left
+     */
+    public static long[] decode(final ByteBuffer buffer) {
+        long[] record = null;
+        if (buffer.remaining() >= IndexFile.RECORD) {
+            record = new long[IndexFile.KEY + 1];
+            for (int idx = 0; idx < record.length; ++idx) {
+                record[idx] = buffer.getLong();
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Number of records.
+     * @return Number of records
+     */
+    public long count() {
+        return this.count;
+    }
+
+    /**
+     * Size of the object with this id.
+     * @param key Record with the object id to look for
+     * @return Size, or -1 if there is no such object
+     */
+    public long size(final long[] key) {
+        long size = -1L;
+        if (this.filter.mightContain(key[0], key[1])) {
+            long low = 0L;
+            long high = this.count - 1L;
+            while (low <= high) {
+                final long mid = low + high >>> 1;
+                final int cmp = this.compare(mid, key);
+                if (cmp < 0) {
+                    low = mid + 1L;
+                } else if (cmp > 0) {
+                    high = mid - 1L;
+                } else {
+                    size = this.segment(mid).getLong(
+                        IndexFile.offset(mid) + IndexFile.KEY * Long.BYTES
+                    );
+                    break;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * All records, in ascending order.
+     * @return Iterator over records
+     */
+    public Iterator<long[]> records() {
+        return new AbstractIterator<long[]>() {
+            /**
+             * Next record number.
+             */
+            private long next;
+            @Override
+            protected long[] computeNext() {
+                final long[] record;
+                if (this.next < IndexFile.this.count) {
+                    record = IndexFile.this.read(this.next);
+                    this.next += 1L;
+                } else {
+                    record = this.endOfData();
+                }
+                return record;
+            }
+        };
+    }
+
+    /**
+     * Read a record.
+     * @param index Record number
+     * @return Record
+     */
+    private long[] read(final long index) {
+        final MappedByteBuffer segment = this.segment(index);
+        final int offset = IndexFile.offset(index);
+        final long[] record = new long[IndexFile.KEY + 1];
+        for (int idx = 0; idx < record.length; ++idx) {
+            record[idx] = segment.getLong(offset + idx * Long.BYTES);
+        }
+        return record;
+    }
+
+    /**
+     * Compare a record's object id with a key.
+     * @param index Record number
+     * @param key Key
+     * @return Comparison result, as in {@link Comparator}
+     */
+    private int compare(final long index, final long[] key) {
+        final MappedByteBuffer segment = this.segment(index);
+        final int offset = IndexFile.offset(index);
+        int result = 0;
+        for (int idx = 0; result == 0 && idx < IndexFile.KEY; ++idx) {
+            result = Long.compareUnsigned(
+                segment.getLong(offset + idx * Long.BYTES), key[idx]
+            );
+        }
+        return result;
+    }
+
+    /**
+     * Segment holding a record.
+     * @param index Record number
+     * @return Mapped segment
+     */
+    private MappedByteBuffer segment(final long index) {
+        return this.segments[(int) (index / IndexFile.SEGMENT)];
+    }
+
+    /**
+     * Offset of a record within its segment.
+     * @param index Record number
+     * @return Byte offset
+     */
+    private static int offset(final long index) {
+        return (int) (index % IndexFile.SEGMENT) * IndexFile.RECORD;
+    }
+
+    /**
+     * Map the records of an index file.
+     * @param channel Open index file
+     * @param count Number of records
+     * @return Mapped segments
+     * @throws IOException If the file can't be mapped
+     */
+    private static MappedByteBuffer[] map(final FileChannel channel,
+        final long count) throws IOException {
+        final MappedByteBuffer[] segments =
+            new MappedByteBuffer[(int) (count / IndexFile.SEGMENT) + 1];
+        for (int idx = 0; idx < segments.length; ++idx) {
+            final long first = (long) idx * IndexFile.SEGMENT;
+            segments[idx] = channel.map(
+                FileChannel.MapMode.READ_ONLY,
+                IndexFile.HEADER + first * IndexFile.RECORD,
+                Math.min(IndexFile.SEGMENT, count - first) * IndexFile.RECORD
+            );
+        }
+        return segments;
+    }
+
+    /**
+     * Write header placeholder and records.
+     * @param path File to write
+     * @param records Records, in ascending order
+     * @return Number of records written
+     * @throws IOException If the file can't be written or records are out
+     *  of order
+     */
+    private static long append(final Path path,
+        final Iterator<long[]> records) throws IOException {
+        long count = 0L;
+        try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(
+                Files.newOutputStream(path), IndexFile.BUFFER
+            )
+        )) {
+            out.write(new byte[IndexFile.HEADER]);
+            long[] previous = null;
+            while (records.hasNext()) {
+                final long[] record = records.next();
+                if (previous == null
+                    || IndexFile.ORDER.compare(previous, record) < 0) {
+                    for (final long value : record) {
+                        out.writeLong(value);
+                    }
+                    count += 1L;
+                    previous = record;
+                } else if (IndexFile.ORDER.compare(previous, record) > 0) {
+                    throw new IOException("Index records out of order");
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Write filter and header, and sync the file.
+     * @param channel Open index file, with records already written
+     * @param count Number of records
+     * @param bits Filter bits
+     * @throws IOException If the file can't be written
+     */
+    private static void finish(final FileChannel channel, final long count,
+        final LongBuffer bits) throws IOException {
+        final ByteBuffer filter =
+            ByteBuffer.allocate(bits.capacity() * Long.BYTES);
+        filter.asLongBuffer().put(bits.array());
+        long pos = IndexFile.HEADER + count * IndexFile.RECORD;
+        while (filter.hasRemaining()) {
+            pos += channel.write(filter, pos);
+        }
+        final ByteBuffer header = ByteBuffer.allocate(IndexFile.HEADER);
+        header.putLong(IndexFile.MAGIC).putLong(count)
+            .putLong(bits.capacity()).flip();
+        channel.write(header, 0L);
+        channel.force(true);
+    }
+
+    /**
+     * Compare two records by unsigned object id.
+     * @param left First record
+     * @param right Second record
+     * @return Negative, zero or positive, as for {@link Comparator}
+     */
+    private static int compare(final long[] left, final long[] right) {
+        int result = 0;
+        for (int idx = 0; result == 0 && idx < IndexFile.KEY; ++idx) {
+            result = Long.compareUnsigned(left[idx], right[idx]);
+        }
+        return result;
+    }
+}
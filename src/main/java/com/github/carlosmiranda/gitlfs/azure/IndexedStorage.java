@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.CountingInputStream;
+import java.io.IOException;
+import javax.servlet.http.HttpServletRequest;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ForbiddenError;
+import ru.bozaro.gitlfs.server.UnauthorizedError;
+
+/**
+ * Decorating ContentManager answering metadata lookups from an index.
+ *
+ * <p>Once the index is ready, existence checks never reach the backing
+ * storage. Uploads through this storage are added to the index.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class IndexedStorage implements ContentManager {
+    /**
+     * Index of objects.
+     */
+    private final OidIndex index;
+
+    /**
+     * Backing storage.
+     */
+    private final ContentManager storage;
+
+    /**
+     * Ctor.
+     * @param index Index of objects
+     * @param storage Backing storage
+     */
+    IndexedStorage(final OidIndex index, final ContentManager storage) {
+        this.index = index;
+        this.storage = storage;
+    }
+
+    @Override
+    @NotNull
+    public Downloader checkDownloadAccess(
+        @NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return this.storage.checkDownloadAccess(request);
+    }
+
+    @Override
+    @NotNull
+    public Uploader checkUploadAccess(@NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        final Uploader uploader = this.storage.checkUploadAccess(request);
+        return (meta, content) -> {
+            final CountingInputStream counting =
+                new CountingInputStream(content);
+            uploader.saveObject(meta, counting);
+            this.index.add(meta.getOid(), counting.getCount());
+        };
+    }
+
+    @Override
+    @Nullable
+    public Meta getMetadata(@NotNull final String hash) throws IOException {
+        final Meta meta;
+        if (this.index.ready()) {
+            meta = this.index.find(hash);
+        } else {
+            meta = this.storage.getMetadata(hash);
+        }
+        return meta;
+    }
+}
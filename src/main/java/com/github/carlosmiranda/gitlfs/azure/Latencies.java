@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window of the most recent call latencies.
+ *
+ * <p>Keeps the last N samples in a ring and answers percentile queries over
+ * them. Percentiles are recomputed lazily, at most once every
+ * {@link #REFRESH} samples, so querying on every call stays cheap.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class Latencies {
+    /**
+     * Number of new samples after which cached percentile is recomputed.
+     */
+    private static final int REFRESH = 32;
+
+    /**
+     * Ring of samples, in nanoseconds.
+     */
+    private final long[] samples;
+
+    /**
+     * Minimum number of samples before any percentile is reported.
+     */
+    private final int warmup;
+
+    /**
+     * Total samples recorded so far.
+     */
+    private long count;
+
+    /**
+     * Sample count when the cached percentile was computed.
+     */
+    private long computed;
+
+    /**
+     * Percentile the cache was computed for.
+     */
+    private double cached;
+
+    /**
+     * Cached percentile value, in nanoseconds.
+     */
+    private long value;
+
+    /**
+     * Ctor.
+     * @param window Number of samples to keep
+     * @param warmup Minimum samples before percentiles are known
+     */
+    Latencies(final int window, final int warmup) {
+        this.samples = new long[window];
+        this.warmup = warmup;
+        this.computed = -1L;
+        this.cached = Double.NaN;
+        this.value = Long.MAX_VALUE;
+    }
+
+    /**
+     * Record a sample.
+     * @param nanos Latency in nanoseconds
+     */
+    public synchronized void record(final long nanos) {
+        this.samples[(int) (this.count % this.samples.length)] = nanos;
+        this.count += 1L;
+    }
+
+    /**
+     * Latency at the given percentile of the window.
+     * @param percentile Percentile, between 0 and 100
+     * @return Latency in nanoseconds, or {@link Long#MAX_VALUE} if too few
+     *  samples have been recorded yet
+     */
+    public synchronized long percentile(final double percentile) {
+        if (this.count < this.warmup) {
+            this.value = Long.MAX_VALUE;
+        } else if (Double.compare(percentile, this.cached) != 0
+            || this.count - this.computed >= Latencies.REFRESH) {
+            final int size = (int) Math.min(this.count, this.samples.length);
+            final long[] sorted = Arrays.copyOf(this.samples, size);
+            Arrays.sort(sorted);
+            // @checkstyle MagicNumber (1 line)
+            final int rank = (int) Math.ceil(percentile / 100.0 * size) - 1;
+            this.value = sorted[Math.max(0, Math.min(size - 1, rank))];
+            this.cached = percentile;
+            this.computed = this.count;
+        }
+        return this.value;
+    }
+}
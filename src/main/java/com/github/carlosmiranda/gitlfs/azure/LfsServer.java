@@ -15,19 +15,22 @@
  */
 package com.github.carlosmiranda.gitlfs.azure;
 
+import javax.servlet.http.HttpServlet;
 import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.RequestLog;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.ServletHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.jetbrains.annotations.NotNull;
 import ru.bozaro.gitlfs.server.ContentManager;
-import ru.bozaro.gitlfs.server.ContentServlet;
-import ru.bozaro.gitlfs.server.PointerServlet;
+import ru.bozaro.gitlfs.server.LocalPointerManager;
+import ru.bozaro.gitlfs.server.PointerManager;
 
 /**
  * Azure Server for Git LFS.
  * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
  */
 final class LfsServer implements AutoCloseable {
     /**
@@ -40,6 +43,16 @@ final class LfsServer implements AutoCloseable {
      */
     @NotNull
     private final ServerConnector http;
+    /**
+     * Servlets.
+     */
+    @NotNull
+    private final ServletHandler handler;
+    /**
+     * Server path.
+     */
+    @NotNull
+    private final String path;
 
     /**
      * Ctor. Creates server on random port (for testing).
@@ -58,6 +71,22 @@ final class LfsServer implements AutoCloseable {
      */
     LfsServer(final String path, final ContentManager storage,
         final int port) {
+        this(
+            path, storage,
+            new LocalPointerManager(storage, LfsServer.content(path)), port
+        );
+    }
+
+    /**
+     * Ctor.
+     * @param path Server path.
+     * @param storage Storage container.
+     * @param pointers Pointer manager answering batches.
+     * @param port Server port
+     * @checkstyle ParameterNumber (3 lines)
+     */
+    LfsServer(final String path, final ContentManager storage,
+        final PointerManager pointers, final int port) {
         this.server = new Server();
         this.http =
             new ServerConnector(this.server, new HttpConnectionFactory());
@@ -65,22 +94,64 @@ final class LfsServer implements AutoCloseable {
         // @checkstyle MagicNumber (1 line)
         this.http.setIdleTimeout(30000);
         this.server.addConnector(this.http);
-        final ServletHandler handler = new ServletHandler();
-        this.server.setHandler(handler);
-        handler.addServletWithMapping(
-            new ServletHolder(
-                new PointerServlet(
-                    storage, String.format("%s/info/lfs/storage/", path)
-                )
-            ),
+        this.path = path;
+        this.handler = new ServletHandler();
+        this.server.setHandler(this.handler);
+        this.handler.addServletWithMapping(
+            new ServletHolder(new BatchServlet(pointers)),
             String.format("%s/info/lfs/objects/*", path)
         );
-        handler.addServletWithMapping(
-            new ServletHolder(new ContentServlet(storage)),
+        this.handler.addServletWithMapping(
+            new ServletHolder(
+                new StorageServlet(new ProfiledStorage(storage))
+            ),
             String.format("%s/info/lfs/storage/*", path)
         );
     }
 
+    /**
+     * Location of object contents.
+     * @param path Server path.
+     * @return Path objects are downloaded and uploaded at.
+     */
+    public static String content(final String path) {
+        return String.format("%s/info/lfs/storage/", path);
+    }
+
+    /**
+     * Serve more requests, before starting.
+     * @param mapping Mapping, relative to {@code <path>/info/lfs/}
+     * @param servlet Servlet serving them
+     * @return This same instance.
+     */
+    public LfsServer route(final String mapping, final HttpServlet servlet) {
+        this.handler.addServletWithMapping(
+            new ServletHolder(servlet),
+            String.format("%s/info/lfs/%s", this.path, mapping)
+        );
+        return this;
+    }
+
+    /**
+     * Serve bulk downloads, before starting.
+     * @param storage Storage
+     * @param threads Threads reading objects ahead
+     * @return This same instance.
+     */
+    public LfsServer bulk(final ContentManager storage, final int threads) {
+        return this.route("bulk", new BulkServlet(storage, threads));
+    }
+
+    /**
+     * Log requests, before starting.
+     * @param log Request log
+     * @return This same instance.
+     */
+    public LfsServer log(final RequestLog log) {
+        this.server.setRequestLog(log);
+        return this;
+    }
+
     /**
      * Start the server.
      * @return This same instance.
@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import ru.bozaro.gitlfs.common.data.Meta;
+
+/**
+ * Objects in local Git LFS object stores, such as {@code .git/lfs/objects}.
+ *
+ * <p>A store keeps each object in {@code <oid[0:2]>/<oid[2:4]>/<oid>}, so
+ * walking its directories in name order lists objects in object id order,
+ * one directory listing in memory at a time. Objects in several stores are
+ * listed once.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class LocalObjects implements Importer.Source {
+    /**
+     * Object ids.
+     */
+    private static final Pattern OID = Pattern.compile("^[0-9a-f]{64}$");
+
+    /**
+     * Object stores within a repository and a bare repository.
+     */
+    private static final String[] NESTED = {".git/lfs/objects", "lfs/objects"};
+
+    /**
+     * Object stores.
+     */
+    private final List<Path> stores;
+
+    /**
+     * Ctor.
+     * @param dirs Object stores, or repositories holding them
+     */
+    LocalObjects(final Iterable<Path> dirs) {
+        this.stores = new ArrayList<>(1);
+        for (final Path dir : dirs) {
+            this.stores.add(LocalObjects.store(dir));
+        }
+    }
+
+    @Override
+    public Iterator<Meta> objects() throws IOException {
+        final List<Iterator<Path>> listings = new ArrayList<>(
+            this.stores.size()
+        );
+        for (final Path store : this.stores) {
+            listings.add(LocalObjects.walk(store, 2).iterator());
+        }
+        final PeekingIterator<Path> files = Iterators.peekingIterator(
+            Iterators.mergeSorted(
+                listings,
+                Comparator.comparing(path -> path.toFile().getName())
+            )
+        );
+        return Iterators.transform(
+            files,
+            file -> {
+                while (files.hasNext()
+                    && files.peek().endsWith(file.toFile().getName())) {
+                    files.next();
+                }
+                return LocalObjects.meta(file);
+            }
+        );
+    }
+
+    @Override
+    public void read(final Meta meta, final Importer.Sink sink)
+        throws IOException {
+        final String oid = meta.getOid();
+        Path found = null;
+        for (final Path store : this.stores) {
+            final Path file = store.resolve(LocalObjects.dir(oid))
+                .resolve(oid);
+            if (found == null && Files.isRegularFile(file)) {
+                found = file;
+            }
+        }
+        if (found == null) {
+            throw new NoSuchFileException(oid);
+        }
+        try (InputStream content = Files.newInputStream(found)) {
+            sink.accept(content);
+        }
+    }
+
+    /**
+     * Object store of a directory.
+     * @param dir Object store, or a repository or bare repository
+     * @return Object store
+     */
+    private static Path store(final Path dir) {
+        Path store = dir;
+        for (final String sub : LocalObjects.NESTED) {
+            if (store.equals(dir) && Files.isDirectory(dir.resolve(sub))) {
+                store = dir.resolve(sub);
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Objects under a directory, in name order.
+     * @param dir Directory
+     * @param depth Levels of directories above objects
+     * @return Object files
+     */
+    private static Stream<Path> walk(final Path dir, final int depth) {
+        final Stream<Path> entries;
+        try {
+            entries = Files.list(dir).sorted();
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        final Stream<Path> found;
+        if (depth > 0) {
+            found = entries.filter(Files::isDirectory)
+                .flatMap(sub -> LocalObjects.walk(sub, depth - 1));
+        } else {
+            found = entries.filter(Files::isRegularFile).filter(
+                file -> LocalObjects.placed(file.toFile().getName(), dir)
+            );
+        }
+        return found;
+    }
+
+    /**
+     * Is a file an object in its place?
+     * @param name File name
+     * @param dir Directory holding the file
+     * @return True if it's named after an object id and in the directory
+     *  for it
+     */
+    private static boolean placed(final String name, final Path dir) {
+        return LocalObjects.OID.matcher(name).matches()
+            && dir.endsWith(LocalObjects.dir(name));
+    }
+
+    /**
+     * Directory of an object within a store.
+     * @param oid Object id
+     * @return Relative path of the directory
+     */
+    private static Path dir(final String oid) {
+        // @checkstyle MagicNumber (1 line)
+        return Paths.get(oid.substring(0, 2), oid.substring(2, 4));
+    }
+
+    /**
+     * Metadata of an object file.
+     * @param file Object file
+     * @return Object id and size
+     */
+    private static Meta meta(final Path file) {
+        try {
+            return new Meta(file.toFile().getName(), Files.size(file));
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
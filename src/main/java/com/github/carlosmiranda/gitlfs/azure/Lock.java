@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Lock on a path, in the sense of the Git LFS file locking API.
+ *
+ * <p>The id of a lock is the SHA-256 of its path, so a path has at most one
+ * lock and its lock can be found without a lookup table.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class Lock {
+    /**
+     * Lock id.
+     */
+    private final String ident;
+
+    /**
+     * Locked path.
+     */
+    private final String file;
+
+    /**
+     * Name of the owner.
+     */
+    private final String user;
+
+    /**
+     * When the lock was taken.
+     */
+    private final Instant locked;
+
+    /**
+     * Ctor.
+     * @param path Locked path
+     * @param owner Name of the owner
+     * @param locked When the lock was taken
+     */
+    Lock(final String path, final String owner, final Instant locked) {
+        this.ident = Lock.key(path);
+        this.file = path;
+        this.user = owner;
+        this.locked = locked;
+    }
+
+    /**
+     * Id of the lock of a path.
+     * @param path Path
+     * @return Lock id
+     */
+    public static String key(final String path) {
+        return Hashing.sha256().hashString(path, StandardCharsets.UTF_8)
+            .toString();
+    }
+
+    /**
+     * Lock id.
+     * @return Id
+     */
+    public String ident() {
+        return this.ident;
+    }
+
+    /**
+     * Locked path.
+     * @return Path
+     */
+    public String path() {
+        return this.file;
+    }
+
+    /**
+     * Name of the owner.
+     * @return Owner
+     */
+    public String owner() {
+        return this.user;
+    }
+
+    /**
+     * When the lock was taken.
+     * @return Time
+     */
+    public Instant locked() {
+        return this.locked;
+    }
+
+    /**
+     * JSON representation, as in the Git LFS file locking API.
+     * @return JSON object
+     */
+    public Map<String, Object> json() {
+        return ImmutableMap.of(
+            "id", this.ident,
+            "path", this.file,
+            "locked_at", this.locked.toString(),
+            "owner", ImmutableMap.of("name", this.user)
+        );
+    }
+}
@@ -0,0 +1,344 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.http.HttpHeader;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ServerError;
+
+/**
+ * Servlet for the Git LFS file locking API.
+ *
+ * <p>Mapped to {@code <path>/info/lfs/locks/*}, it lists locks with
+ * {@code GET}, creates them with {@code POST}, verifies them for a push with
+ * {@code POST verify} and removes them with {@code POST <id>/unlock}. Listing
+ * needs the same authorization as downloads, the rest the same as uploads.
+ * The owner of a lock is the user name of the request's basic authorization.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class LockServlet extends HttpServlet {
+    /**
+     * Serialization marker.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Media type of the API.
+     */
+    private static final String TYPE = "application/vnd.git-lfs+json";
+
+    /**
+     * Owner of locks taken without authorization.
+     */
+    private static final String ANONYMOUS = "anonymous";
+
+    /**
+     * Default page size.
+     */
+    private static final int LIMIT = 100;
+
+    /**
+     * Largest page size.
+     */
+    private static final int MAX = 1000;
+
+    /**
+     * Path of an unlock request.
+     */
+    private static final Pattern UNLOCK =
+        Pattern.compile("^/([0-9a-f]{64})/unlock$");
+
+    /**
+     * Storage, for access checks.
+     */
+    private final transient ContentManager storage;
+
+    /**
+     * Locks.
+     */
+    private final transient Locks locks;
+
+    /**
+     * JSON mapper.
+     */
+    private final transient ObjectMapper mapper;
+
+    /**
+     * Ctor.
+     * @param storage Storage, for access checks
+     * @param locks Locks
+     */
+    LockServlet(final ContentManager storage, final Locks locks) {
+        super();
+        this.storage = storage;
+        this.locks = locks;
+        this.mapper = new ObjectMapper();
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest req,
+        final HttpServletResponse resp) throws IOException {
+        this.serve(
+            resp,
+            () -> {
+                LockServlet.root(req);
+                this.storage.checkDownloadAccess(req);
+                final Map<String, Object> answer = new HashMap<>();
+                final String path = req.getParameter("path");
+                final String ident = req.getParameter("id");
+                final List<Lock> found;
+                if (path != null) {
+                    found = LockServlet.single(this.locks.find(Lock.key(path)));
+                } else if (ident != null) {
+                    found = LockServlet.single(this.locks.find(ident));
+                } else {
+                    found = this.page(
+                        answer,
+                        Strings.nullToEmpty(req.getParameter("cursor")),
+                        req.getParameter("limit")
+                    );
+                }
+                answer.put("locks", Lists.transform(found, Lock::json));
+                return answer;
+            }
+        );
+    }
+
+    @Override
+    protected void doPost(final HttpServletRequest req,
+        final HttpServletResponse resp) throws IOException {
+        this.serve(
+            resp,
+            () -> {
+                final String path = Strings.nullToEmpty(req.getPathInfo());
+                final Matcher unlock = LockServlet.UNLOCK.matcher(path);
+                this.storage.checkUploadAccess(req);
+                final JsonNode body =
+                    this.mapper.readTree(req.getInputStream());
+                final Map<String, Object> answer;
+                if ("/verify".equals(path)) {
+                    answer = this.verify(req, body);
+                } else if (unlock.matches()) {
+                    answer = ImmutableMap.of(
+                        "lock",
+                        this.locks.remove(
+                            unlock.group(1), LockServlet.owner(req),
+                            body.path("force").asBoolean()
+                        ).json()
+                    );
+                } else {
+                    LockServlet.root(req);
+                    answer = this.create(req, resp, body);
+                }
+                return answer;
+            }
+        );
+    }
+
+    /**
+     * Create a lock.
+     * @param req Request
+     * @param resp Response
+     * @param body Request body
+     * @return Answer
+     * @throws IOException If the lock can't be created
+     * @throws ServerError If the request has no path
+     */
+    private Map<String, Object> create(final HttpServletRequest req,
+        final HttpServletResponse resp, final JsonNode body)
+        throws IOException, ServerError {
+        final String path = body.path("path").asText();
+        if (path.isEmpty()) {
+            throw new ServerError(
+                HttpServletResponse.SC_BAD_REQUEST, "No path to lock"
+            );
+        }
+        final Lock lock = this.locks.create(path, LockServlet.owner(req));
+        resp.setStatus(HttpServletResponse.SC_CREATED);
+        return ImmutableMap.of("lock", lock.json());
+    }
+
+    /**
+     * Split a page of locks into those of the user and those of others.
+     * @param req Request
+     * @param body Request body
+     * @return Answer
+     * @throws IOException If the locks can't be read
+     * @throws ServerError If the page size is not a number
+     */
+    private Map<String, Object> verify(final HttpServletRequest req,
+        final JsonNode body) throws IOException, ServerError {
+        final String owner = LockServlet.owner(req);
+        final Map<String, Object> answer = new HashMap<>();
+        final List<Object> ours = new ArrayList<>(0);
+        final List<Object> theirs = new ArrayList<>(0);
+        for (final Lock lock : this.page(
+            answer, body.path("cursor").asText(),
+            body.path("limit").asText(null)
+        )) {
+            if (lock.owner().equals(owner)) {
+                ours.add(lock.json());
+            } else {
+                theirs.add(lock.json());
+            }
+        }
+        answer.put("ours", ours);
+        answer.put("theirs", theirs);
+        return answer;
+    }
+
+    /**
+     * Answer a request with JSON.
+     * @param resp Response
+     * @param action What to answer
+     * @throws IOException If an IO Exception occurs.
+     */
+    private void serve(final HttpServletResponse resp, final Action action)
+        throws IOException {
+        Map<String, Object> answer;
+        try {
+            answer = action.run();
+        } catch (final LockedException ex) {
+            resp.setStatus(HttpServletResponse.SC_CONFLICT);
+            answer = ImmutableMap.of(
+                "lock", ex.lock().json(), "message", ex.getMessage()
+            );
+        } catch (final ServerError ex) {
+            resp.setStatus(ex.getStatusCode());
+            ex.updateHeaders(resp);
+            answer = ImmutableMap.of("message", ex.getMessage());
+        }
+        resp.setContentType(LockServlet.TYPE);
+        this.mapper.writeValue(resp.getOutputStream(), answer);
+    }
+
+    /**
+     * Refuse deserialization, the servlet only makes sense in this server.
+     * @param stream Stream
+     * @throws IOException Always
+     * @throws ClassNotFoundException Never
+     */
+    private void readObject(final ObjectInputStream stream)
+        throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        throw new NotSerializableException(this.getClass().getName());
+    }
+
+    /**
+     * Read a page of locks, adding the cursor of the next page to the answer
+     * if there are more.
+     * @param answer Answer
+     * @param cursor Cursor of the page, or empty for the first one
+     * @param limit Requested page size, or null for the default
+     * @return Page
+     * @throws IOException If the locks can't be listed
+     * @throws ServerError If the page size is not a number
+     */
+    private List<Lock> page(final Map<String, Object> answer,
+        final String cursor, final String limit)
+        throws IOException, ServerError {
+        int size = LockServlet.LIMIT;
+        if (limit != null && !limit.isEmpty()) {
+            if (!limit.matches("\\d{1,9}")) {
+                throw new ServerError(
+                    HttpServletResponse.SC_BAD_REQUEST, "Bad limit"
+                );
+            }
+            size = Math.max(
+                1, Math.min(Integer.parseInt(limit), LockServlet.MAX)
+            );
+        }
+        final Locks.Page page = this.locks.page(cursor, size);
+        if (page.next() != null) {
+            answer.put("next_cursor", page.next());
+        }
+        return page.locks();
+    }
+
+    /**
+     * Lock, if found, as a list.
+     * @param lock Lock, or null
+     * @return List with the lock, or empty
+     */
+    private static List<Lock> single(final Lock lock) {
+        List<Lock> found = Collections.emptyList();
+        if (lock != null) {
+            found = Collections.singletonList(lock);
+        }
+        return found;
+    }
+
+    /**
+     * Fail unless the request is for the locks themselves.
+     * @param req Request
+     * @throws ServerError If it isn't
+     */
+    private static void root(final HttpServletRequest req) throws ServerError {
+        final String path = Strings.nullToEmpty(req.getPathInfo());
+        if (!path.isEmpty() && !"/".equals(path)) {
+            throw new ServerError(
+                HttpServletResponse.SC_NOT_FOUND, "Not found"
+            );
+        }
+    }
+
+    /**
+     * User name of the request's basic authorization.
+     * @param req Request
+     * @return User name, or {@code anonymous}
+     */
+    private static String owner(final HttpServletRequest req) {
+        String owner = AuthenticatedStorage.user(
+            req.getHeader(HttpHeader.AUTHORIZATION.asString())
+        );
+        if (owner.isEmpty()) {
+            owner = LockServlet.ANONYMOUS;
+        }
+        return owner;
+    }
+
+    /**
+     * Answer to a request.
+     */
+    private interface Action {
+        /**
+         * Run the action.
+         * @return JSON answer
+         * @throws IOException If an IO Exception occurs.
+         * @throws ServerError If the request can't be served
+         */
+        Map<String, Object> run() throws IOException, ServerError;
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a path is already locked.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class LockedException extends IOException {
+    /**
+     * Serialization marker.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Existing lock.
+     */
+    private final transient Lock existing;
+
+    /**
+     * Ctor.
+     * @param existing Existing lock
+     * @param cause Cause
+     */
+    LockedException(final Lock existing, final Throwable cause) {
+        super(String.format("%s is already locked", existing.path()), cause);
+        this.existing = existing;
+    }
+
+    /**
+     * Existing lock.
+     * @return Lock
+     */
+    public Lock lock() {
+        return this.existing;
+    }
+}
@@ -0,0 +1,351 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.microsoft.azure.storage.AccessCondition;
+import com.microsoft.azure.storage.ResultContinuation;
+import com.microsoft.azure.storage.ResultContinuationType;
+import com.microsoft.azure.storage.ResultSegment;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.BlobListingDetails;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import com.microsoft.azure.storage.blob.DeleteSnapshotsOption;
+import com.microsoft.azure.storage.blob.ListBlobItem;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletResponse;
+import ru.bozaro.gitlfs.server.ServerError;
+
+/**
+ * Locks of a repository.
+ *
+ * <p>Each lock is an empty blob {@code locks/<id>}, with the path, owner and
+ * time in its metadata. It is created only if it doesn't exist yet, so Azure
+ * decides which of two concurrent lockers wins. Nothing is kept in memory,
+ * so any number of servers can share the container: a lookup reads one blob,
+ * and a page of locks or a verification is one listing call that starts
+ * where the page before stopped, never one call per path. The cursor of a
+ * page is the continuation marker Azure hands out with the page before.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class Locks {
+    /**
+     * Prefix of lock blobs.
+     */
+    public static final String PREFIX = "locks/";
+
+    /**
+     * Metadata holding the locked path.
+     */
+    private static final String PATH = "path";
+
+    /**
+     * Metadata holding the owner.
+     */
+    private static final String OWNER = "owner";
+
+    /**
+     * Metadata holding the lock time.
+     */
+    private static final String LOCKED = "locked";
+
+    /**
+     * Azure container.
+     */
+    private final CloudBlobContainer container;
+
+    /**
+     * Ctor.
+     * @param container Azure container
+     */
+    Locks(final CloudBlobContainer container) {
+        this.container = container;
+    }
+
+    /**
+     * Lock a path.
+     * @param path Path
+     * @param owner Name of the owner
+     * @return New lock
+     * @throws IOException If the lock can't be stored
+     * @throws LockedException If the path is already locked
+     */
+    public Lock create(final String path, final String owner)
+        throws IOException {
+        final Lock lock = new Lock(path, owner, Instant.now());
+        final Map<String, String> metadata = new HashMap<>();
+        metadata.put(Locks.PATH, Locks.encode(path));
+        metadata.put(Locks.OWNER, Locks.encode(owner));
+        metadata.put(Locks.LOCKED, lock.locked().toString());
+        try {
+            final CloudBlockBlob blob = this.blob(lock.ident());
+            blob.setMetadata(new HashMap<>(metadata));
+            blob.uploadFromByteArray(
+                new byte[0], 0, 0,
+                AccessCondition.generateIfNotExistsCondition(), null, null
+            );
+        } catch (final StorageException ex) {
+            if (ex.getHttpStatusCode() == HttpURLConnection.HTTP_CONFLICT) {
+                throw new LockedException(this.existing(lock.ident()), ex);
+            }
+            throw new IOException(ex);
+        }
+        return lock;
+    }
+
+    /**
+     * Unlock a path.
+     * @param ident Lock id
+     * @param owner Name of the user unlocking
+     * @param force Unlock even if another user owns the lock
+     * @return Removed lock
+     * @throws IOException If the lock can't be removed
+     * @throws ServerError If there is no such lock, or it isn't the user's
+     * @checkstyle ParameterNumber (3 lines)
+     */
+    public Lock remove(final String ident, final String owner,
+        final boolean force) throws IOException, ServerError {
+        final CloudBlockBlob blob = this.blob(ident);
+        final Lock lock = Locks.attributes(blob);
+        if (lock == null) {
+            throw new ServerError(
+                HttpServletResponse.SC_NOT_FOUND, "No such lock"
+            );
+        }
+        if (!force && !lock.owner().equals(owner)) {
+            throw new ServerError(
+                HttpServletResponse.SC_FORBIDDEN,
+                String.format("%s is locked by %s", lock.path(), lock.owner())
+            );
+        }
+        try {
+            blob.deleteIfExists(
+                DeleteSnapshotsOption.NONE,
+                AccessCondition.generateIfMatchCondition(
+                    blob.getProperties().getEtag()
+                ),
+                null, null
+            );
+        } catch (final StorageException ex) {
+            if (ex.getHttpStatusCode()
+                == HttpURLConnection.HTTP_PRECON_FAILED) {
+                throw new ServerError(
+                    HttpServletResponse.SC_CONFLICT,
+                    String.format("%s was locked again", lock.path()), ex
+                );
+            }
+            throw new IOException(ex);
+        }
+        return lock;
+    }
+
+    /**
+     * Find a lock.
+     * @param ident Lock id
+     * @return Lock, or null if there is no such lock
+     * @throws IOException If the lock can't be read
+     */
+    public Lock find(final String ident) throws IOException {
+        return Locks.attributes(this.blob(ident));
+    }
+
+    /**
+     * One page of locks, ordered by id, read with a single listing call.
+     * @param cursor Where the page starts, as handed out with the page
+     *  before, or empty for the first page
+     * @param limit Most locks on the page
+     * @return Page
+     * @throws IOException If the locks can't be listed
+     */
+    public Locks.Page page(final String cursor, final int limit)
+        throws IOException {
+        ResultContinuation start = null;
+        if (!cursor.isEmpty()) {
+            start = new ResultContinuation();
+            start.setContinuationType(ResultContinuationType.BLOB);
+            start.setNextMarker(cursor);
+        }
+        try {
+            final ResultSegment<ListBlobItem> segment =
+                this.container.listBlobsSegmented(
+                    Locks.PREFIX, true,
+                    EnumSet.of(BlobListingDetails.METADATA), limit, start,
+                    null, null
+                );
+            final List<Lock> locks = new ArrayList<>(segment.getLength());
+            for (final ListBlobItem item : segment.getResults()) {
+                locks.add(Locks.read(((CloudBlockBlob) item).getMetadata()));
+            }
+            String next = null;
+            if (segment.getHasMoreResults()) {
+                next = segment.getContinuationToken().getNextMarker();
+            }
+            return new Locks.Page(locks, next);
+        } catch (final StorageException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Lock that won over ours.
+     * @param ident Lock id
+     * @return Lock
+     * @throws IOException If the lock can't be read, or is gone already
+     */
+    private Lock existing(final String ident) throws IOException {
+        final Lock lock = this.find(ident);
+        if (lock == null) {
+            throw new IOException(
+                String.format("Lock %s was taken and released", ident)
+            );
+        }
+        return lock;
+    }
+
+    /**
+     * Blob of a lock.
+     * @param ident Lock id
+     * @return Blob
+     * @throws IOException If the blob can't be referenced
+     */
+    private CloudBlockBlob blob(final String ident) throws IOException {
+        try {
+            return this.container.getBlockBlobReference(
+                String.format("%s%s", Locks.PREFIX, ident)
+            );
+        } catch (final StorageException | URISyntaxException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Read a lock blob's metadata.
+     * @param blob Blob
+     * @return Lock, or null if there is no such blob
+     * @throws IOException If the blob can't be read
+     */
+    private static Lock attributes(final CloudBlockBlob blob)
+        throws IOException {
+        Lock lock = null;
+        try {
+            blob.downloadAttributes();
+            lock = Locks.read(blob.getMetadata());
+        } catch (final StorageException ex) {
+            if (ex.getHttpStatusCode() != HttpURLConnection.HTTP_NOT_FOUND) {
+                throw new IOException(ex);
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Lock from blob metadata.
+     * @param metadata Metadata
+     * @return Lock
+     * @throws IOException If the metadata is not a lock
+     */
+    private static Lock read(final Map<String, String> metadata)
+        throws IOException {
+        final String path = metadata.get(Locks.PATH);
+        final String owner = metadata.get(Locks.OWNER);
+        final String locked = metadata.get(Locks.LOCKED);
+        if (path == null || owner == null || locked == null) {
+            throw new IOException(
+                String.format("Broken lock metadata %s", metadata)
+            );
+        }
+        return new Lock(
+            Locks.decode(path), Locks.decode(owner), Instant.parse(locked)
+        );
+    }
+
+    /**
+     * Encode text for metadata, which only takes ASCII.
+     * @param text Text
+     * @return Encoded text
+     * @throws UnsupportedEncodingException Never
+     */
+    private static String encode(final String text)
+        throws UnsupportedEncodingException {
+        return URLEncoder.encode(text, StandardCharsets.UTF_8.name());
+    }
+
+    /**
+     * Decode text from metadata.
+     * @param text Encoded text
+     * @return Text
+     * @throws UnsupportedEncodingException Never
+     */
+    private static String decode(final String text)
+        throws UnsupportedEncodingException {
+        return URLDecoder.decode(text, StandardCharsets.UTF_8.name());
+    }
+
+    /**
+     * Page of locks.
+     */
+    public static final class Page {
+        /**
+         * Locks on the page.
+         */
+        private final List<Lock> locks;
+
+        /**
+         * Cursor of the next page, or null.
+         */
+        private final String next;
+
+        /**
+         * Ctor.
+         * @param locks Locks on the page
+         * @param next Cursor of the next page, or null if there are no more
+         */
+        Page(final List<Lock> locks, final String next) {
+            this.locks = locks;
+            this.next = next;
+        }
+
+        /**
+         * Locks on the page.
+         * @return Locks, ordered by id
+         */
+        public List<Lock> locks() {
+            return Collections.unmodifiableList(this.locks);
+        }
+
+        /**
+         * Cursor of the next page.
+         * @return Cursor, or null if this is the last page
+         */
+        public String next() {
+            return this.next;
+        }
+    }
+}
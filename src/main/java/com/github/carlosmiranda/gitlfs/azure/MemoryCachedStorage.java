@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.Optional;
+import javax.servlet.http.HttpServletRequest;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ForbiddenError;
+import ru.bozaro.gitlfs.server.UnauthorizedError;
+
+/**
+ * Decorating ContentManager serving small objects from a {@link SlabCache}.
+ *
+ * <p>On a miss, the first bytes of the object are read ahead: if the object
+ * ends within the largest size cached, it is offered to the cache, otherwise
+ * it is streamed from storage as usual. Access checks are still made by the
+ * backing storage for every download.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class MemoryCachedStorage implements ContentManager {
+    /**
+     * Cache.
+     */
+    private final SlabCache cache;
+
+    /**
+     * Largest object cached.
+     */
+    private final int largest;
+
+    /**
+     * Backing storage.
+     */
+    private final ContentManager storage;
+
+    /**
+     * Ctor.
+     * @param cache Cache
+     * @param largest Largest object cached, in bytes
+     * @param storage Backing storage
+     */
+    MemoryCachedStorage(final SlabCache cache, final int largest,
+        final ContentManager storage) {
+        this.cache = cache;
+        this.largest = largest;
+        this.storage = storage;
+    }
+
+    @Override
+    @NotNull
+    public Downloader checkDownloadAccess(
+        @NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return new MemoryDownloader(this.storage.checkDownloadAccess(request));
+    }
+
+    @Override
+    @NotNull
+    public Uploader checkUploadAccess(@NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return this.storage.checkUploadAccess(request);
+    }
+
+    @Override
+    @Nullable
+    public Meta getMetadata(@NotNull final String hash) throws IOException {
+        final Optional<Long> size = this.cache.size(hash);
+        final Meta meta;
+        if (size.isPresent()) {
+            meta = new Meta(hash, size.get());
+        } else {
+            meta = this.storage.getMetadata(hash);
+        }
+        return meta;
+    }
+
+    /**
+     * Downloader looking in the cache first.
+     */
+    private final class MemoryDownloader implements Downloader {
+        /**
+         * Backing downloader.
+         */
+        private final Downloader downloader;
+
+        /**
+         * Ctor.
+         * @param downloader Backing downloader
+         */
+        MemoryDownloader(final Downloader downloader) {
+            this.downloader = downloader;
+        }
+
+        @Override
+        @NotNull
+        public InputStream openObject(@NotNull final String hash)
+            throws IOException {
+            final Optional<InputStream> cached =
+                MemoryCachedStorage.this.cache.open(hash);
+            final InputStream content;
+            if (cached.isPresent()) {
+                content = cached.get();
+            } else {
+                content = this.load(hash);
+            }
+            return content;
+        }
+
+        @Override
+        @Nullable
+        public InputStream openObjectGzipped(@NotNull final String hash)
+            throws IOException {
+            return this.downloader.openObjectGzipped(hash);
+        }
+
+        /**
+         * Read an object from storage, caching it if it's small enough.
+         * @param hash Object id
+         * @return Content
+         * @throws IOException If it can't be read
+         */
+        private InputStream load(final String hash) throws IOException {
+            final InputStream source = this.downloader.openObject(hash);
+            final byte[] head = new byte[MemoryCachedStorage.this.largest + 1];
+            final int read;
+            try {
+                read = ByteStreams.read(source, head, 0, head.length);
+            } catch (final IOException ex) {
+                source.close();
+                throw ex;
+            }
+            final InputStream content;
+            if (read < head.length) {
+                source.close();
+                final byte[] whole = Arrays.copyOf(head, read);
+                MemoryCachedStorage.this.cache.offer(hash, whole);
+                content = new SizedStream(
+                    new ByteArrayInputStream(whole), whole.length
+                );
+            } else {
+                content = SizedStream.like(
+                    source,
+                    new SequenceInputStream(
+                        new ByteArrayInputStream(head), source
+                    )
+                );
+            }
+            return content;
+        }
+    }
+}
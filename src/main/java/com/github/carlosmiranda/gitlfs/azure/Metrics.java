@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Named gauges, readable over JMX.
+ *
+ * <p>Each registry is one MBean, named
+ * {@code com.github.carlosmiranda.gitlfs.azure:type=<type>}, with one
+ * read-only attribute per gauge. Gauges are evaluated when read.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+final class Metrics implements DynamicMBean {
+    /**
+     * Gauges, by name.
+     */
+    private final Map<String, DoubleSupplier> gauges;
+
+    /**
+     * MBean type.
+     */
+    private final String type;
+
+    /**
+     * Ctor.
+     * @param type MBean type
+     */
+    Metrics(final String type) {
+        this.type = type;
+        this.gauges = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * Add a gauge.
+     * @param name Attribute name
+     * @param gauge Gauge
+     * @return This same instance
+     */
+    public Metrics gauge(final String name, final DoubleSupplier gauge) {
+        this.gauges.put(name, gauge);
+        return this;
+    }
+
+    /**
+     * Register with the platform MBean server, replacing any registry of
+     * the same type.
+     * @return This same instance
+     */
+    public Metrics register() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName name = new ObjectName(
+                Metrics.class.getPackage().getName(), "type", this.type
+            );
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (final JMException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return this;
+    }
+
+    /**
+     * Current value of a gauge.
+     * @param name Gauge name
+     * @return Value
+     */
+    public double value(final String name) {
+        return this.gauges.get(name).getAsDouble();
+    }
+
+    @Override
+    public Object getAttribute(final String attribute)
+        throws AttributeNotFoundException {
+        final DoubleSupplier gauge = this.gauges.get(attribute);
+        if (gauge == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return gauge.getAsDouble();
+    }
+
+    @Override
+    public void setAttribute(final Attribute attribute)
+        throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(
+            String.format("%s is read-only", attribute.getName())
+        );
+    }
+
+    @Override
+    public AttributeList getAttributes(final String[] attributes) {
+        final AttributeList list = new AttributeList();
+        for (final String name : attributes) {
+            final DoubleSupplier gauge = this.gauges.get(name);
+            if (gauge != null) {
+                list.add(new Attribute(name, gauge.getAsDouble()));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(final AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(final String action, final Object[] params,
+        final String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(action));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        return new MBeanInfo(
+            Metrics.class.getName(),
+            String.format("Git LFS %s metrics", this.type),
+            this.gauges.keySet().stream().map(
+                name -> new MBeanAttributeInfo(
+                    name, double.class.getName(), name, true, false, false
+                )
+            ).toArray(MBeanAttributeInfo[]::new),
+            null, null, null
+        );
+    }
+}
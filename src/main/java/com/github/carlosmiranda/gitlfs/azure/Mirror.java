@@ -0,0 +1,413 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.azure.storage.StorageCredentialsAccountAndKey;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import com.microsoft.azure.storage.blob.CopyState;
+import com.microsoft.azure.storage.blob.CopyStatus;
+import com.microsoft.azure.storage.blob.SharedAccessBlobPermissions;
+import com.microsoft.azure.storage.blob.SharedAccessBlobPolicy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ServerError;
+
+/**
+ * Copies of uploaded objects in other containers, made in the background.
+ *
+ * <p>Objects are taken from a {@link MirrorQueue} by each target on its own
+ * threads, a few at a time. An object stored in a blob of its own is copied
+ * server-side, reading it with a short-lived shared access signature when
+ * the source container is accessed with an account key. Any other object,
+ * chunked, packed or still in the write-back journal, is read through the
+ * storage and uploaded. Objects a target has already are skipped, and
+ * failed copies are retried with growing delays, so a target that is down
+ * falls behind and catches up later.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ * @checkstyle ClassFanOutComplexity (2 lines)
+ */
+final class Mirror {
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(Mirror.class.getName());
+
+    /**
+     * Objects copied to a target at once.
+     */
+    private static final int THREADS = 4;
+
+    /**
+     * Longest delay between attempts to copy an object, in seconds.
+     */
+    private static final long BACKOFF = 300L;
+
+    /**
+     * Time the shared access signature of a copied blob is valid.
+     */
+    private static final Duration SIGNED = Duration.ofHours(1L);
+
+    /**
+     * Queue of objects to copy.
+     */
+    private final MirrorQueue queue;
+
+    /**
+     * Source container.
+     */
+    private final CloudBlobContainer source;
+
+    /**
+     * Storage, to read objects that aren't in a blob of their own.
+     */
+    private final ContentManager storage;
+
+    /**
+     * Target containers, by name.
+     */
+    private final Map<String, CloudBlobContainer> targets;
+
+    /**
+     * Objects copied.
+     */
+    private final LongAdder copied;
+
+    /**
+     * Objects no longer in the storage when their turn came.
+     */
+    private final LongAdder skipped;
+
+    /**
+     * Failed attempts to copy objects.
+     */
+    private final LongAdder failures;
+
+    /**
+     * Thread of each target, and one syncing the queue.
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Threads copying objects.
+     */
+    private ExecutorService copiers;
+
+    /**
+     * Ctor.
+     * @param queue Queue of objects to copy
+     * @param source Source container
+     * @param storage Storage, to read objects that aren't in a blob of
+     *  their own
+     */
+    Mirror(final MirrorQueue queue, final CloudBlobContainer source,
+        final ContentManager storage) {
+        this.queue = queue;
+        this.source = source;
+        this.storage = storage;
+        this.targets = new LinkedHashMap<>();
+        this.copied = new LongAdder();
+        this.skipped = new LongAdder();
+        this.failures = new LongAdder();
+    }
+
+    /**
+     * Copy objects to a target container, before starting.
+     * @param target Target container
+     * @return This same instance
+     */
+    public Mirror target(final CloudBlobContainer target) {
+        this.targets.put(
+            target.getUri().toString().replaceAll("^\\w+://", "")
+                .replaceAll("[^A-Za-z0-9]+", "-"),
+            target
+        );
+        return this;
+    }
+
+    /**
+     * Start copying queued objects.
+     * @return This same instance
+     * @throws IOException If the queue can't be opened
+     */
+    public Mirror start() throws IOException {
+        this.queue.start(this.targets.keySet());
+        this.scheduler = Executors.newScheduledThreadPool(
+            this.targets.size() + 1,
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("mirror-%d")
+                .build()
+        );
+        this.copiers = Executors.newFixedThreadPool(
+            this.targets.size() * Mirror.THREADS,
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("mirror-copy-%d")
+                .build()
+        );
+        for (final String target : this.targets.keySet()) {
+            this.scheduler.scheduleWithFixedDelay(
+                () -> this.drain(target), 0L, 1L, TimeUnit.SECONDS
+            );
+        }
+        this.scheduler.scheduleWithFixedDelay(
+            this::sync, 1L, 1L, TimeUnit.SECONDS
+        );
+        return this;
+    }
+
+    /**
+     * Queue an uploaded object for copying.
+     * @param oid Object id
+     * @throws IOException If it can't be queued
+     */
+    public void add(final String oid) throws IOException {
+        this.queue.add(oid);
+    }
+
+    /**
+     * Mirror metrics, with the objects each target hasn't copied yet and
+     * how long ago the oldest of them was uploaded.
+     * @return Metrics
+     */
+    public Metrics metrics() {
+        final Metrics metrics = new Metrics("Mirror")
+            .gauge("Copied", this.copied::doubleValue)
+            .gauge("Skipped", this.skipped::doubleValue)
+            .gauge("Failures", this.failures::doubleValue);
+        for (final String target : this.targets.keySet()) {
+            metrics.gauge(
+                String.format("%s.Pending", target),
+                () -> (double) this.queue.pending(target)
+            );
+            metrics.gauge(
+                String.format("%s.LagSeconds", target), () -> this.lag(target)
+            );
+        }
+        return metrics;
+    }
+
+    /**
+     * Copy the objects queued for a target, until there are none left.
+     * @param target Target name
+     */
+    private void drain(final String target) {
+        try {
+            for (List<String> oids = this.queue.next(target, Mirror.THREADS);
+                !oids.isEmpty();
+                oids = this.queue.next(target, Mirror.THREADS)) {
+                final List<Future<?>> copies = new ArrayList<>(oids.size());
+                for (final String oid : oids) {
+                    copies.add(
+                        this.copiers.submit(
+                            () -> {
+                                this.copy(this.targets.get(target), oid);
+                                return oid;
+                            }
+                        )
+                    );
+                }
+                for (final Future<?> copy : copies) {
+                    copy.get();
+                }
+                this.queue.done(target, oids.size());
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (final IOException | ExecutionException ex) {
+            Mirror.LOGGER.log(
+                Level.WARNING, String.format("Can't mirror to %s", target), ex
+            );
+        }
+    }
+
+    /**
+     * Copy an object to a target, retrying until it's copied.
+     * @param target Target container
+     * @param oid Object id
+     * @throws InterruptedException If interrupted
+     */
+    private void copy(final CloudBlobContainer target, final String oid)
+        throws InterruptedException {
+        long delay = 1L;
+        while (!this.attempt(target, oid)) {
+            this.failures.increment();
+            TimeUnit.SECONDS.sleep(delay);
+            delay = Math.min(delay * 2L, Mirror.BACKOFF);
+        }
+    }
+
+    /**
+     * Try to copy an object to a target.
+     * @param target Target container
+     * @param oid Object id
+     * @return True if the target has it now, or it's gone from the storage
+     * @throws InterruptedException If interrupted
+     */
+    private boolean attempt(final CloudBlobContainer target,
+        final String oid) throws InterruptedException {
+        boolean done = false;
+        try {
+            final CloudBlockBlob copy = target.getBlockBlobReference(oid);
+            if (!Mirror.present(copy)) {
+                final CloudBlockBlob blob =
+                    this.source.getBlockBlobReference(oid);
+                if (blob.exists()) {
+                    copy.startCopy(this.readable(blob));
+                    Replicas.await(copy);
+                    this.copied.increment();
+                } else {
+                    this.upload(copy, oid);
+                }
+            }
+            done = true;
+        } catch (final StorageException | URISyntaxException | IOException
+            | InvalidKeyException | ServerError ex) {
+            Mirror.LOGGER.log(
+                Level.FINE, String.format("Can't mirror %s", oid), ex
+            );
+        }
+        return done;
+    }
+
+    /**
+     * Upload an object read through the storage.
+     * @param copy Target blob
+     * @param oid Object id
+     * @throws IOException If it can't be read or uploaded
+     * @throws StorageException If it can't be uploaded
+     * @throws ServerError If it can't be read
+     */
+    private void upload(final CloudBlockBlob copy, final String oid)
+        throws IOException, StorageException, ServerError {
+        final Meta meta = this.storage.getMetadata(oid);
+        if (meta == null) {
+            Mirror.LOGGER.warning(
+                String.format("%s is gone, not mirrored", oid)
+            );
+            this.skipped.increment();
+        } else {
+            // the storage has no access control, there's no request to check
+            try (InputStream content =
+                this.storage.checkDownloadAccess(null).openObject(oid)) {
+                copy.upload(content, meta.getSize());
+            }
+            this.copied.increment();
+        }
+    }
+
+    /**
+     * URI a blob can be copied from.
+     * @param blob Blob
+     * @return URI, with a read-only signature if the account key is known
+     * @throws InvalidKeyException If the key is invalid
+     * @throws StorageException If it can't be signed
+     * @throws URISyntaxException If the URI is invalid
+     */
+    private URI readable(final CloudBlockBlob blob)
+        throws InvalidKeyException, StorageException, URISyntaxException {
+        URI uri = blob.getUri();
+        if (this.source.getServiceClient().getCredentials()
+            instanceof StorageCredentialsAccountAndKey) {
+            final SharedAccessBlobPolicy policy = new SharedAccessBlobPolicy();
+            policy.setPermissions(EnumSet.of(SharedAccessBlobPermissions.READ));
+            policy.setSharedAccessExpiryTime(
+                Date.from(Instant.now().plus(Mirror.SIGNED))
+            );
+            uri = new URI(
+                String.format(
+                    "%s?%s", uri, blob.generateSharedAccessSignature(
+                        policy, null
+                    )
+                )
+            );
+        }
+        return uri;
+    }
+
+    /**
+     * Force queued objects to disk.
+     */
+    private void sync() {
+        try {
+            this.queue.sync();
+        } catch (final IOException ex) {
+            Mirror.LOGGER.log(Level.WARNING, "Can't sync mirror queue", ex);
+        }
+    }
+
+    /**
+     * Seconds since the oldest object a target hasn't copied was uploaded.
+     * @param target Target name
+     * @return Seconds
+     */
+    private double lag(final String target) {
+        try {
+            // @checkstyle MagicNumber (1 line)
+            return this.queue.lag(target) / 1000.0;
+        } catch (final IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Does a target have a complete copy of an object?
+     * @param copy Target blob
+     * @return True if it has
+     * @throws StorageException If the target can't be asked
+     * @throws InterruptedException If interrupted
+     */
+    private static boolean present(final CloudBlockBlob copy)
+        throws StorageException, InterruptedException {
+        boolean present = copy.exists();
+        final CopyState state = copy.getCopyState();
+        if (present && state != null) {
+            if (state.getStatus() == CopyStatus.PENDING) {
+                Replicas.await(copy);
+            }
+            present = copy.getCopyState().getStatus() == CopyStatus.SUCCESS;
+        }
+        return present;
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Durable queue of uploaded objects, read by each mirror at its own pace.
+ *
+ * <p>Objects are appended to a log of fixed-width entries, each an object
+ * id and the time it was queued. Every mirror target has an offset into the
+ * log, saved to its own file as it advances. Once every target has read
+ * the whole log, it is emptied and offsets start over. Appends are forced
+ * to disk by {@link #sync()}, called in the background, so a machine
+ * crash may lose the last entries, but a process crash doesn't.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class MirrorQueue implements Closeable {
+    /**
+     * Length of an entry: object id, space, 13-digit time and newline.
+     */
+    // @checkstyle MagicNumber (1 line)
+    private static final int WIDTH = 64 + 1 + 13 + 1;
+
+    /**
+     * Queue directory.
+     */
+    private final Path dir;
+
+    /**
+     * Offsets of targets, in entries.
+     */
+    private final Map<String, Long> offsets;
+
+    /**
+     * Log of entries, open once started.
+     */
+    private volatile FileChannel log;
+
+    /**
+     * Ctor.
+     * @param dir Queue directory
+     */
+    MirrorQueue(final Path dir) {
+        this.dir = dir;
+        this.offsets = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Open the log, and the offsets of targets.
+     * @param targets Target names
+     * @return This same instance
+     * @throws IOException If the log or an offset can't be read
+     */
+    public MirrorQueue start(final Iterable<String> targets)
+        throws IOException {
+        Files.createDirectories(this.dir);
+        synchronized (this) {
+            this.log = FileChannel.open(
+                this.dir.resolve("queue.log"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE
+            );
+            this.log.truncate(
+                this.log.size() / MirrorQueue.WIDTH * MirrorQueue.WIDTH
+            );
+            for (final String target : targets) {
+                final Path file = this.offset(target);
+                long offset = 0L;
+                if (Files.exists(file)) {
+                    offset = Long.parseLong(
+                        new String(
+                            Files.readAllBytes(file), StandardCharsets.US_ASCII
+                        ).trim()
+                    );
+                }
+                this.offsets.put(target, Math.min(offset, this.size()));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Queue an object.
+     * @param oid Object id
+     * @throws IOException If the log can't be written
+     */
+    public synchronized void add(final String oid) throws IOException {
+        final ByteBuffer entry = ByteBuffer.wrap(
+            String.format("%s %013d", oid, System.currentTimeMillis())
+                .concat("\n").getBytes(StandardCharsets.US_ASCII)
+        );
+        long position = this.log.size();
+        while (entry.hasRemaining()) {
+            position += this.log.write(entry, position);
+        }
+    }
+
+    /**
+     * Force queued objects to disk.
+     * @throws IOException If the log can't be forced
+     */
+    public void sync() throws IOException {
+        this.log.force(false);
+    }
+
+    /**
+     * Objects a target hasn't copied yet, in the order queued.
+     * @param target Target name
+     * @param most Most objects
+     * @return Object ids
+     * @throws IOException If the log can't be read
+     */
+    public synchronized List<String> next(final String target,
+        final int most) throws IOException {
+        final long from = this.offsets.get(target);
+        final int count = (int) Math.min(most, this.size() - from);
+        final List<String> oids = new ArrayList<>(count);
+        for (int idx = 0; idx < count; ++idx) {
+            oids.add(this.entry(from + idx).split(" ")[0]);
+        }
+        return oids;
+    }
+
+    /**
+     * Record objects a target has copied.
+     * @param target Target name
+     * @param count Number of objects, from the first it hasn't copied
+     * @throws IOException If the offset can't be saved
+     */
+    public synchronized void done(final String target, final int count)
+        throws IOException {
+        this.offsets.put(target, this.offsets.get(target) + count);
+        if (this.offsets.values().stream().allMatch(
+            offset -> offset == this.size()
+        )) {
+            this.log.truncate(0L);
+            this.offsets.replaceAll((name, offset) -> 0L);
+            this.log.force(false);
+            for (final String name : this.offsets.keySet()) {
+                this.save(name);
+            }
+        } else {
+            this.save(target);
+        }
+    }
+
+    /**
+     * Number of objects a target hasn't copied yet.
+     * @param target Target name
+     * @return Number of objects
+     */
+    public synchronized long pending(final String target) {
+        return this.size() - this.offsets.get(target);
+    }
+
+    /**
+     * Milliseconds since the oldest object a target hasn't copied was
+     * queued.
+     * @param target Target name
+     * @return Milliseconds, or zero if it has copied every object
+     * @throws IOException If the log can't be read
+     */
+    public synchronized long lag(final String target) throws IOException {
+        final long offset = this.offsets.get(target);
+        long lag = 0L;
+        if (offset < this.size()) {
+            lag = Math.max(
+                0L,
+                System.currentTimeMillis()
+                    - Long.parseLong(this.entry(offset).split(" ")[1])
+            );
+        }
+        return lag;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.log.force(false);
+        this.log.close();
+    }
+
+    /**
+     * Number of entries.
+     * @return Entries
+     */
+    private long size() {
+        try {
+            return this.log.size() / MirrorQueue.WIDTH;
+        } catch (final IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Read an entry.
+     * @param index Entry number
+     * @return Entry, without its newline
+     * @throws IOException If the log can't be read
+     */
+    private String entry(final long index) throws IOException {
+        final ByteBuffer entry = ByteBuffer.allocate(MirrorQueue.WIDTH);
+        final long start = index * MirrorQueue.WIDTH;
+        int read = 0;
+        while (read >= 0 && entry.hasRemaining()) {
+            read = this.log.read(entry, start + entry.position());
+        }
+        return new String(
+            entry.array(), 0, MirrorQueue.WIDTH - 1, StandardCharsets.US_ASCII
+        );
+    }
+
+    /**
+     * Save the offset of a target.
+     * @param target Target name
+     * @throws IOException If it can't be written
+     */
+    private void save(final String target) throws IOException {
+        final Path file = this.offset(target);
+        final Path tmp = file.resolveSibling(
+            String.format("%s.tmp", file.getFileName())
+        );
+        Files.write(
+            tmp,
+            Long.toString(this.offsets.get(target))
+                .getBytes(StandardCharsets.US_ASCII)
+        );
+        Files.move(
+            tmp, file, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE
+        );
+    }
+
+    /**
+     * File of the offset of a target.
+     * @param target Target name
+     * @return Path
+     */
+    private Path offset(final String target) {
+        return this.dir.resolve(String.format("%s.offset", target));
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.http.HttpServletRequest;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ForbiddenError;
+import ru.bozaro.gitlfs.server.UnauthorizedError;
+
+/**
+ * Decorating ContentManager queueing uploads for copying by a {@link Mirror}.
+ *
+ * <p>An upload is queued once the backing storage has saved it. Failing to
+ * queue it doesn't fail the upload, which is already stored, but is logged
+ * and counted.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class MirroredStorage implements ContentManager {
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(MirroredStorage.class.getName());
+
+    /**
+     * Mirror to queue uploads in.
+     */
+    private final Mirror mirror;
+
+    /**
+     * Backing storage.
+     */
+    private final ContentManager storage;
+
+    /**
+     * Uploads that couldn't be queued.
+     */
+    private final LongAdder unqueued;
+
+    /**
+     * Ctor.
+     * @param mirror Mirror to queue uploads in
+     * @param storage Backing storage
+     */
+    MirroredStorage(final Mirror mirror, final ContentManager storage) {
+        this.mirror = mirror;
+        this.storage = storage;
+        this.unqueued = new LongAdder();
+    }
+
+    /**
+     * Mirrored storage metrics.
+     * @return Metrics
+     */
+    public Metrics metrics() {
+        return this.mirror.metrics()
+            .gauge("Unqueued", this.unqueued::doubleValue);
+    }
+
+    @Override
+    @NotNull
+    public Downloader checkDownloadAccess(
+        @NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return this.storage.checkDownloadAccess(request);
+    }
+
+    @Override
+    @NotNull
+    public Uploader checkUploadAccess(@NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        final Uploader uploader = this.storage.checkUploadAccess(request);
+        return (meta, content) -> {
+            uploader.saveObject(meta, content);
+            try {
+                this.mirror.add(meta.getOid());
+            } catch (final IOException ex) {
+                MirroredStorage.LOGGER.log(
+                    Level.SEVERE,
+                    String.format("Can't queue %s to mirror", meta.getOid()),
+                    ex
+                );
+                this.unqueued.increment();
+            }
+        };
+    }
+
+    @Override
+    @Nullable
+    public Meta getMetadata(@NotNull final String hash) throws IOException {
+        return this.storage.getMetadata(hash);
+    }
+}
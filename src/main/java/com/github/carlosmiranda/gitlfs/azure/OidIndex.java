@@ -0,0 +1,396 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import ru.bozaro.gitlfs.common.data.Meta;
+
+/**
+ * Index of all objects in the container.
+ *
+ * <p>The bulk of the index is an {@link IndexFile}, built once from a listing
+ * of the container and memory-mapped on later starts. Objects uploaded since
+ * are held in a small in-memory map and appended to a synced log next to the
+ * index file, so that they survive a restart. Once enough of them pile up,
+ * they are merged into a new index file in the background. Objects deleted
+ * by sweeps are logged the same way, with a negative size, and left out of
+ * the next index file.
+ *
+ * <p>Until the index file has been loaded or built, {@link #ready()} is
+ * false and callers should ask the container instead.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class OidIndex implements Closeable {
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(OidIndex.class.getName());
+
+    /**
+     * Number of recent uploads that triggers a merge.
+     */
+    private static final int THRESHOLD = 100_000;
+
+    /**
+     * Minutes between periodic merges.
+     */
+    private static final long PERIOD = 10L;
+
+    /**
+     * Size logged for a removed object.
+     */
+    private static final long GONE = -1L;
+
+    /**
+     * Index file.
+     */
+    private final Path file;
+
+    /**
+     * Log of recent uploads.
+     */
+    private final Path log;
+
+    /**
+     * Log of recent uploads being merged.
+     */
+    private final Path merging;
+
+    /**
+     * Listing of the container, to build the index from.
+     */
+    private final Iterable<Meta> listing;
+
+    /**
+     * Objects uploaded since the index file was written.
+     */
+    private final ConcurrentMap<String, Long> recent;
+
+    /**
+     * Thread building and merging the index.
+     */
+    private final ScheduledExecutorService maintenance;
+
+    /**
+     * Is a merge of recent uploads already queued?
+     */
+    private final AtomicBoolean pending;
+
+    /**
+     * Current index file, or null until loaded.
+     */
+    private volatile IndexFile current;
+
+    /**
+     * Open log of recent uploads.
+     */
+    private FileChannel journal;
+
+    /**
+     * Ctor.
+     * @param file Index file
+     * @param listing Listing of the container, used if there is no index
+     *  file yet
+     */
+    OidIndex(final Path file, final Iterable<Meta> listing) {
+        this.file = file;
+        this.log = file.resolveSibling(
+            String.format("%s.log", file.getFileName())
+        );
+        this.merging = file.resolveSibling(
+            String.format("%s.old", this.log.getFileName())
+        );
+        this.listing = listing;
+        this.recent = new ConcurrentHashMap<>();
+        this.pending = new AtomicBoolean();
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("oid-index")
+                .build()
+        );
+    }
+
+    /**
+     * Load the index, or build it from a listing, in the background.
+     * @return This same instance
+     * @throws IOException If the upload log can't be opened
+     */
+    public OidIndex start() throws IOException {
+        this.replay(this.merging);
+        this.replay(this.log);
+        synchronized (this) {
+            this.journal = OidIndex.append(this.log);
+        }
+        this.maintenance.execute(this::load);
+        this.maintenance.scheduleWithFixedDelay(
+            this::merge, OidIndex.PERIOD, OidIndex.PERIOD, TimeUnit.MINUTES
+        );
+        return this;
+    }
+
+    /**
+     * Has the index been loaded?
+     * @return True if {@link #find(String)} is authoritative
+     */
+    public boolean ready() {
+        return this.current != null;
+    }
+
+    /**
+     * Find an object.
+     * @param oid Object id
+     * @return Metadata, or null if there is no such object
+     */
+    public Meta find(final String oid) {
+        Long size = this.recent.get(oid);
+        final long[] key = IndexFile.record(oid, 0L);
+        final IndexFile index = this.current;
+        if (size == null && key != null && index != null) {
+            final long found = index.size(key);
+            if (found >= 0L) {
+                size = found;
+            }
+        }
+        Meta meta = null;
+        if (size != null && size != OidIndex.GONE) {
+            meta = new Meta(oid, size);
+        }
+        return meta;
+    }
+
+    /**
+     * Add an uploaded object.
+     * @param oid Object id
+     * @param size Object size
+     * @throws IOException If the upload log can't be written
+     */
+    public void add(final String oid, final long size) throws IOException {
+        this.note(oid, size);
+    }
+
+    /**
+     * Remove a deleted object.
+     * @param oid Object id
+     * @throws IOException If the upload log can't be written
+     */
+    public void remove(final String oid) throws IOException {
+        this.note(oid, OidIndex.GONE);
+    }
+
+    /**
+     * Merge recent uploads and removals into the index file.
+     * @throws IOException If the index can't be written
+     */
+    public void flush() throws IOException {
+        final IndexFile index = this.current;
+        if (index != null && !this.recent.isEmpty()) {
+            synchronized (this) {
+                this.journal.close();
+                Files.move(
+                    this.log, this.merging,
+                    StandardCopyOption.REPLACE_EXISTING
+                );
+                this.journal = OidIndex.append(this.log);
+            }
+            final Map<String, Long> merged = new ConcurrentHashMap<>(
+                this.recent
+            );
+            this.current = IndexFile.write(
+                this.file,
+                Iterators.mergeSorted(
+                    Arrays.asList(
+                        OidIndex.kept(index.records(), merged),
+                        OidIndex.sorted(merged)
+                    ),
+                    IndexFile.ORDER
+                )
+            );
+            Files.delete(this.merging);
+            merged.forEach(this.recent::remove);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.maintenance.shutdown();
+        try {
+            this.maintenance.awaitTermination(1L, TimeUnit.MINUTES);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        this.flush();
+        synchronized (this) {
+            this.journal.close();
+        }
+    }
+
+    /**
+     * Log an upload or a removal, and note it in recent uploads.
+     * @param oid Object id
+     * @param size Object size, or {@link #GONE} if it was removed
+     * @throws IOException If the upload log can't be written
+     */
+    private void note(final String oid, final long size) throws IOException {
+        final long[] record = IndexFile.record(oid, size);
+        if (record != null) {
+            final ByteBuffer entry = IndexFile.encode(record);
+            synchronized (this) {
+                this.journal.write(entry);
+                this.journal.force(false);
+                this.recent.put(oid, size);
+            }
+            if (this.recent.size() >= OidIndex.THRESHOLD
+                && this.pending.compareAndSet(false, true)) {
+                this.maintenance.execute(this::merge);
+            }
+        }
+    }
+
+    /**
+     * Load the index file, or build it if it's missing or broken.
+     */
+    private void load() {
+        try {
+            if (Files.exists(this.file)) {
+                try {
+                    this.current = IndexFile.open(this.file);
+                } catch (final IOException ex) {
+                    OidIndex.LOGGER.log(Level.WARNING, "Rebuilding index", ex);
+                }
+            }
+            if (this.current == null) {
+                this.current = IndexFile.write(
+                    this.file,
+                    Iterators.filter(
+                        Iterators.transform(
+                            this.listing.iterator(),
+                            meta -> IndexFile.record(
+                                meta.getOid(), meta.getSize()
+                            )
+                        ),
+                        Objects::nonNull
+                    )
+                );
+            }
+            // @checkstyle IllegalCatch (1 line)
+        } catch (final IOException | RuntimeException ex) {
+            OidIndex.LOGGER.log(Level.SEVERE, "Can't build index", ex);
+        }
+    }
+
+    /**
+     * Merge recent uploads, logging failures.
+     */
+    private void merge() {
+        this.pending.set(false);
+        try {
+            this.flush();
+        } catch (final IOException ex) {
+            OidIndex.LOGGER.log(Level.WARNING, "Can't merge index", ex);
+        }
+    }
+
+    /**
+     * Read a log of uploads into recent uploads.
+     * @param path Log file
+     * @throws IOException If the log can't be read
+     */
+    private void replay(final Path path) throws IOException {
+        if (Files.exists(path)) {
+            final ByteBuffer entries = ByteBuffer.wrap(
+                Files.readAllBytes(path)
+            );
+            for (long[] record = IndexFile.decode(entries); record != null;
+                record = IndexFile.decode(entries)) {
+                this.recent.put(
+                    IndexFile.oid(record), record[record.length - 1]
+                );
+            }
+        }
+    }
+
+    /**
+     * Open a log for appending.
+     * @param path Log file
+     * @return Open channel
+     * @throws IOException If the log can't be opened
+     */
+    private static FileChannel append(final Path path) throws IOException {
+        return FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND
+        );
+    }
+
+    /**
+     * Records of uploads, in ascending order.
+     * @param uploads Uploaded objects and their sizes
+     * @return Iterator over records
+     */
+    private static Iterator<long[]> sorted(final Map<String, Long> uploads) {
+        final List<long[]> records = uploads.entrySet().stream()
+            .filter(entry -> entry.getValue() != OidIndex.GONE)
+            .map(entry -> IndexFile.record(entry.getKey(), entry.getValue()))
+            .sorted(IndexFile.ORDER)
+            .collect(Collectors.toList());
+        return records.iterator();
+    }
+
+    /**
+     * Records of an index file, without those of removed objects.
+     * @param records Records of the index file
+     * @param recent Recent uploads and removals
+     * @return Iterator over records
+     */
+    private static Iterator<long[]> kept(final Iterator<long[]> records,
+        final Map<String, Long> recent) {
+        Iterator<long[]> kept = records;
+        if (recent.containsValue(OidIndex.GONE)) {
+            kept = Iterators.filter(
+                records,
+                record -> recent.getOrDefault(IndexFile.oid(record), 0L)
+                    != OidIndex.GONE
+            );
+        }
+        return kept;
+    }
+}
@@ -0,0 +1,320 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.BaseEncoding;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+import ru.bozaro.gitlfs.common.data.Meta;
+
+/**
+ * Locations of small objects packed into larger blobs.
+ *
+ * <p>A pack is written as blocks, each holding a group of objects behind a
+ * header: the number of objects as an int, then each object id as 32 bytes
+ * and its length as an int. The objects follow in the same order. Once a
+ * pack is full, the locations of all its objects are also written to an
+ * index blob of 44-byte records: object id, offset as a long and length as
+ * an int.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class PackIndex implements Iterable<Meta> {
+    /**
+     * Bytes of an object id.
+     */
+    private static final int OID = 32;
+
+    /**
+     * Bytes of an object in a block header.
+     */
+    private static final int HEADER = PackIndex.OID + Integer.BYTES;
+
+    /**
+     * Bytes of an index record.
+     */
+    private static final int RECORD = PackIndex.HEADER + Long.BYTES;
+
+    /**
+     * Locations of objects.
+     */
+    private final ConcurrentMap<String, Entry> entries;
+
+    /**
+     * Bytes of each pack whose objects are indexed.
+     */
+    private final ConcurrentMap<String, Long> loaded;
+
+    /**
+     * Ctor.
+     */
+    PackIndex() {
+        this.entries = new ConcurrentHashMap<>();
+        this.loaded = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Find an object.
+     * @param oid Object id
+     * @return Location, or null if the object isn't packed
+     */
+    public Entry find(final String oid) {
+        return this.entries.get(oid);
+    }
+
+    /**
+     * Add an object, replacing any earlier location.
+     * @param oid Object id
+     * @param entry Location
+     */
+    public void add(final String oid, final Entry entry) {
+        this.entries.put(oid, entry);
+    }
+
+    /**
+     * Forget an object, unless it has moved.
+     * @param oid Object id
+     * @param entry Location to forget
+     */
+    public void remove(final String oid, final Entry entry) {
+        this.entries.remove(oid, entry);
+    }
+
+    /**
+     * Bytes of a pack whose objects are indexed.
+     * @param pack Pack name
+     * @return Bytes, zero if none
+     */
+    public long loaded(final String pack) {
+        return this.loaded.getOrDefault(pack, 0L);
+    }
+
+    /**
+     * Note that objects of a pack are indexed up to some length.
+     * @param pack Pack name
+     * @param length Bytes of the pack indexed
+     */
+    public void loaded(final String pack, final long length) {
+        this.loaded.put(pack, length);
+    }
+
+    /**
+     * Forget a pack, once it's deleted.
+     * @param pack Pack name
+     */
+    public void dropped(final String pack) {
+        this.loaded.remove(pack);
+    }
+
+    /**
+     * Number of packed objects.
+     * @return Count
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Objects of each pack.
+     * @return Object ids and locations, by pack name
+     */
+    public Map<String, Map<String, Entry>> packs() {
+        final Map<String, Map<String, Entry>> packs = new HashMap<>();
+        this.entries.forEach(
+            (oid, entry) -> packs.computeIfAbsent(
+                entry.pack(), pack -> new HashMap<>()
+            ).put(oid, entry)
+        );
+        return packs;
+    }
+
+    @Override
+    public Iterator<Meta> iterator() {
+        return this.entries.entrySet().stream()
+            .map(entry -> new Meta(entry.getKey(), entry.getValue().length()))
+            .sorted((left, right) -> left.getOid().compareTo(right.getOid()))
+            .collect(Collectors.toList())
+            .iterator();
+    }
+
+    /**
+     * Header of a block.
+     * @param objects Object ids and lengths, in the order of their content
+     * @return Header
+     */
+    public static byte[] header(final Collection<Meta> objects) {
+        final ByteBuffer header = ByteBuffer.allocate(
+            Integer.BYTES + objects.size() * PackIndex.HEADER
+        );
+        header.putInt(objects.size());
+        for (final Meta meta : objects) {
+            header.put(PackIndex.bytes(meta.getOid()));
+            header.putInt((int) meta.getSize());
+        }
+        return header.array();
+    }
+
+    /**
+     * Number of objects in a block, from the start of its header.
+     * @param start First bytes of the header
+     * @return Bytes of the whole header
+     */
+    public static int header(final ByteBuffer start) {
+        return Integer.BYTES + start.getInt() * PackIndex.HEADER;
+    }
+
+    /**
+     * Index objects of a block from its header.
+     * @param pack Pack name
+     * @param offset Offset of the block in the pack
+     * @param header Header of the block
+     * @return Object ids and locations
+     */
+    public static Map<String, Entry> block(final String pack,
+        final long offset, final ByteBuffer header) {
+        final int count = header.getInt();
+        final Map<String, Entry> objects = new HashMap<>(count);
+        long position = offset + Integer.BYTES
+            + (long) count * PackIndex.HEADER;
+        for (int idx = 0; idx < count; ++idx) {
+            final String oid = PackIndex.oid(header);
+            final int length = header.getInt();
+            objects.put(oid, new Entry(pack, position, length));
+            position += length;
+        }
+        return objects;
+    }
+
+    /**
+     * Index blob of a pack.
+     * @param objects Object ids and locations of all objects in the pack
+     * @return Content of the index blob
+     */
+    public static byte[] encode(final Map<String, Entry> objects) {
+        final ByteBuffer index = ByteBuffer.allocate(
+            objects.size() * PackIndex.RECORD
+        );
+        objects.forEach(
+            (oid, entry) -> {
+                index.put(PackIndex.bytes(oid));
+                index.putLong(entry.offset());
+                index.putInt(entry.length());
+            }
+        );
+        return index.array();
+    }
+
+    /**
+     * Read an index blob.
+     * @param pack Pack name
+     * @param index Content of the index blob
+     * @return Object ids and locations
+     */
+    public static Map<String, Entry> decode(final String pack,
+        final ByteBuffer index) {
+        final Map<String, Entry> objects = new HashMap<>(
+            index.remaining() / PackIndex.RECORD
+        );
+        while (index.remaining() >= PackIndex.RECORD) {
+            final String oid = PackIndex.oid(index);
+            final long offset = index.getLong();
+            objects.put(oid, new Entry(pack, offset, index.getInt()));
+        }
+        return objects;
+    }
+
+    /**
+     * Bytes of an object id.
+     * @param oid Object id
+     * @return Bytes
+     */
+    private static byte[] bytes(final String oid) {
+        return BaseEncoding.base16().lowerCase().decode(oid);
+    }
+
+    /**
+     * Read an object id.
+     * @param buffer Buffer at the object id
+     * @return Object id
+     */
+    private static String oid(final ByteBuffer buffer) {
+        final byte[] oid = new byte[PackIndex.OID];
+        buffer.get(oid);
+        return BaseEncoding.base16().lowerCase().encode(oid);
+    }
+
+    /**
+     * Location of an object in a pack.
+     */
+    static final class Entry {
+        /**
+         * Pack name.
+         */
+        private final String name;
+
+        /**
+         * Offset of the object in the pack.
+         */
+        private final long start;
+
+        /**
+         * Length of the object.
+         */
+        private final int size;
+
+        /**
+         * Ctor.
+         * @param pack Pack name
+         * @param offset Offset of the object in the pack
+         * @param length Length of the object
+         */
+        Entry(final String pack, final long offset, final int length) {
+            this.name = pack;
+            this.start = offset;
+            this.size = length;
+        }
+
+        /**
+         * Pack name.
+         * @return Name
+         */
+        public String pack() {
+            return this.name;
+        }
+
+        /**
+         * Offset of the object in the pack.
+         * @return Offset
+         */
+        public long offset() {
+            return this.start;
+        }
+
+        /**
+         * Length of the object.
+         * @return Length
+         */
+        public int length() {
+            return this.size;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.BlockEntry;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import ru.bozaro.gitlfs.common.data.Meta;
+
+/**
+ * Writer of small objects into packs, a group at a time.
+ *
+ * <p>Objects written at about the same time are gathered, for up to
+ * {@value #LINGER} milliseconds or {@value #GROUP} bytes, and appended to
+ * the open pack as one block: one call to stage it and one to commit the
+ * pack's block list, however many objects it holds. Each writer returns
+ * only once its object is committed. A full pack gets its index blob, and
+ * the next group starts a new pack.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+final class PackWriter {
+    /**
+     * Prefix of pack blob names.
+     */
+    public static final String PREFIX = "packs/";
+
+    /**
+     * Suffix of index blob names.
+     */
+    public static final String INDEX = ".idx";
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(PackWriter.class.getName());
+
+    /**
+     * Most milliseconds an object waits for others to join its group.
+     */
+    private static final long LINGER = 20L;
+
+    /**
+     * Most bytes of a group.
+     */
+    private static final int GROUP = 4_194_304;
+
+    /**
+     * Bytes after which a pack is full.
+     */
+    private static final long PACK = 67_108_864L;
+
+    /**
+     * Blocks after which a pack is full.
+     */
+    private static final int BLOCKS = 10_000;
+
+    /**
+     * Objects waiting to be written before writers are held back.
+     */
+    private static final int QUEUE = 10_000;
+
+    /**
+     * Container.
+     */
+    private final CloudBlobContainer container;
+
+    /**
+     * Index of packed objects.
+     */
+    private final PackIndex index;
+
+    /**
+     * Objects waiting to be written.
+     */
+    private final BlockingQueue<Pending> queue;
+
+    /**
+     * Thread writing groups.
+     */
+    private final ExecutorService thread;
+
+    /**
+     * Groups written.
+     */
+    private final AtomicLong groups;
+
+    /**
+     * Name of the open pack, or null if there is none.
+     */
+    private volatile String pack;
+
+    /**
+     * Committed blocks of the open pack.
+     */
+    private List<BlockEntry> blocks;
+
+    /**
+     * Bytes of the open pack.
+     */
+    private long length;
+
+    /**
+     * Objects in the open pack.
+     */
+    private Map<String, PackIndex.Entry> objects;
+
+    /**
+     * Ctor.
+     * @param container Container
+     * @param index Index of packed objects, told where objects are written
+     */
+    PackWriter(final CloudBlobContainer container, final PackIndex index) {
+        this.container = container;
+        this.index = index;
+        this.queue = new LinkedBlockingQueue<>(PackWriter.QUEUE);
+        this.groups = new AtomicLong();
+        this.thread = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("pack-writer")
+                .build()
+        );
+    }
+
+    /**
+     * Start writing groups in the background.
+     * @return This same instance
+     */
+    public PackWriter start() {
+        this.thread.execute(this::run);
+        return this;
+    }
+
+    /**
+     * Write an object, and wait until it's committed.
+     * @param oid Object id
+     * @param content Content
+     * @throws IOException If it can't be written
+     */
+    public void write(final String oid, final byte[] content)
+        throws IOException {
+        final Pending pending = new Pending(oid, content);
+        try {
+            this.queue.put(pending);
+            pending.done.get();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+        } catch (final ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Name of the pack being written.
+     * @return Name, or null if there is none
+     */
+    public String open() {
+        return this.pack;
+    }
+
+    /**
+     * Number of groups written.
+     * @return Count
+     */
+    public long groups() {
+        return this.groups.get();
+    }
+
+    /**
+     * Write groups until interrupted.
+     */
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final List<Pending> group = this.gather();
+                try {
+                    this.flush(group);
+                    group.forEach(pending -> pending.done.complete(null));
+                    // @checkstyle IllegalCatch (1 line)
+                } catch (final IOException | RuntimeException ex) {
+                    PackWriter.LOGGER.log(Level.WARNING, "Can't pack", ex);
+                    this.pack = null;
+                    group.forEach(
+                        pending -> pending.done.completeExceptionally(ex)
+                    );
+                }
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gather a group of objects to write.
+     * @return Objects
+     * @throws InterruptedException If interrupted
+     */
+    private List<Pending> gather() throws InterruptedException {
+        final List<Pending> group = new ArrayList<>(1);
+        group.add(this.queue.take());
+        long bytes = group.get(0).content.length;
+        final long end = System.nanoTime()
+            + TimeUnit.MILLISECONDS.toNanos(PackWriter.LINGER);
+        Pending next = this.queue.poll();
+        while (bytes < PackWriter.GROUP && System.nanoTime() < end) {
+            if (next == null) {
+                next = this.queue.poll(
+                    end - System.nanoTime(), TimeUnit.NANOSECONDS
+                );
+            } else {
+                group.add(next);
+                bytes += next.content.length;
+                next = this.queue.poll();
+            }
+        }
+        if (next != null) {
+            group.add(next);
+        }
+        return group;
+    }
+
+    /**
+     * Append a group to the open pack, starting a new pack if needed.
+     * @param group Objects
+     * @throws IOException If the group can't be written
+     */
+    private void flush(final List<Pending> group) throws IOException {
+        if (this.pack == null || this.length >= PackWriter.PACK
+            || this.blocks.size() >= PackWriter.BLOCKS) {
+            this.seal();
+            this.pack = String.format(
+                "%s%016x-%s", PackWriter.PREFIX, System.currentTimeMillis(),
+                UUID.randomUUID()
+            );
+            this.blocks = new ArrayList<>(1);
+            this.length = 0L;
+            this.objects = new HashMap<>();
+        }
+        final List<Meta> metas = new ArrayList<>(group.size());
+        final ByteArrayOutputStream block = new ByteArrayOutputStream();
+        for (final Pending pending : group) {
+            metas.add(new Meta(pending.oid, pending.content.length));
+        }
+        final byte[] header = PackIndex.header(metas);
+        block.write(header);
+        for (final Pending pending : group) {
+            block.write(pending.content);
+        }
+        final Map<String, PackIndex.Entry> written = PackIndex.block(
+            this.pack, this.length, ByteBuffer.wrap(header)
+        );
+        this.append(block.toByteArray());
+        written.forEach(this.index::add);
+        this.objects.putAll(written);
+        this.index.loaded(this.pack, this.length);
+        this.groups.incrementAndGet();
+    }
+
+    /**
+     * Stage a block at the end of the open pack, and commit it.
+     * @param block Content of the block
+     * @throws IOException If it can't be written
+     */
+    private void append(final byte[] block) throws IOException {
+        final String ident = Base64.getEncoder().encodeToString(
+            String.format("%019d", this.length)
+                .getBytes(StandardCharsets.US_ASCII)
+        );
+        final AzureCallEvent event = new AzureCallEvent();
+        event.begin();
+        try {
+            final CloudBlockBlob blob =
+                this.container.getBlockBlobReference(this.pack);
+            blob.uploadBlock(
+                ident, new ByteArrayInputStream(block), block.length
+            );
+            final List<BlockEntry> list = new ArrayList<>(this.blocks);
+            list.add(new BlockEntry(ident));
+            blob.commitBlockList(list);
+            this.blocks = list;
+        } catch (final StorageException | URISyntaxException ex) {
+            throw new IOException(ex);
+        }
+        event.finish("write", this.pack, this.length, block.length);
+        this.length += block.length;
+    }
+
+    /**
+     * Write the index blob of the open pack, if any.
+     * @throws IOException If it can't be written
+     */
+    private void seal() throws IOException {
+        if (this.pack != null) {
+            final byte[] content = PackIndex.encode(this.objects);
+            try {
+                this.container.getBlockBlobReference(
+                    this.pack + PackWriter.INDEX
+                ).uploadFromByteArray(content, 0, content.length);
+            } catch (final StorageException | URISyntaxException ex) {
+                throw new IOException(ex);
+            }
+            this.pack = null;
+        }
+    }
+
+    /**
+     * Object waiting to be written.
+     */
+    private static final class Pending {
+        /**
+         * Object id.
+         */
+        private final String oid;
+
+        /**
+         * Content.
+         */
+        private final byte[] content;
+
+        /**
+         * Completed once the object is committed.
+         */
+        private final CompletableFuture<Void> done;
+
+        /**
+         * Ctor.
+         * @param oid Object id
+         * @param content Content
+         */
+        Pending(final String oid, final byte[] content) {
+            this.oid = oid;
+            this.content = content;
+            this.done = new CompletableFuture<>();
+        }
+    }
+}
@@ -0,0 +1,519 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.BlockEntry;
+import com.microsoft.azure.storage.blob.BlockListingFilter;
+import com.microsoft.azure.storage.blob.CloudBlob;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import javax.servlet.http.HttpServletRequest;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ForbiddenError;
+import ru.bozaro.gitlfs.server.UnauthorizedError;
+
+/**
+ * Decorating ContentManager keeping small objects in packs.
+ *
+ * <p>Objects up to a size are written by a {@link PackWriter}, many of
+ * them per Azure call, and read with one ranged read of their pack. Their
+ * locations are held in a {@link PackIndex}, so looking them up costs no
+ * call at all. The index is loaded from the container at start, and
+ * refreshed at most once a second when an object is missing, to pick up
+ * objects packed by other servers. Larger objects go to the backing
+ * storage.
+ *
+ * <p>Packs made mostly of objects no longer referenced are compacted:
+ * their other objects are packed again, and the pack deleted.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+final class PackedStorage implements ContentManager {
+    /**
+     * Milliseconds between refreshes of the index.
+     */
+    private static final long REFRESH = 1000L;
+
+    /**
+     * Container.
+     */
+    private final CloudBlobContainer container;
+
+    /**
+     * Backing storage.
+     */
+    private final ContentManager storage;
+
+    /**
+     * Largest object packed.
+     */
+    private final int largest;
+
+    /**
+     * Index of packed objects.
+     */
+    private final PackIndex index;
+
+    /**
+     * Writer of packs.
+     */
+    private final PackWriter writer;
+
+    /**
+     * Earliest time of the next refresh, in nanoseconds.
+     */
+    private final AtomicLong next;
+
+    /**
+     * Objects read from packs.
+     */
+    private final AtomicLong reads;
+
+    /**
+     * Packs compacted.
+     */
+    private final AtomicLong compacted;
+
+    /**
+     * Ctor.
+     * @param container Container
+     * @param storage Backing storage, for larger objects
+     * @param largest Largest object packed, in bytes
+     */
+    PackedStorage(final CloudBlobContainer container,
+        final ContentManager storage, final int largest) {
+        this.container = container;
+        this.storage = storage;
+        this.largest = largest;
+        this.index = new PackIndex();
+        this.writer = new PackWriter(container, this.index);
+        this.next = new AtomicLong(System.nanoTime());
+        this.reads = new AtomicLong();
+        this.compacted = new AtomicLong();
+    }
+
+    /**
+     * Load the index, and start writing packs.
+     * @return This same instance
+     * @throws IOException If the index can't be loaded
+     */
+    public PackedStorage start() throws IOException {
+        this.refresh();
+        this.writer.start();
+        return this;
+    }
+
+    @Override
+    @NotNull
+    public Downloader checkDownloadAccess(
+        @NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return new PackDownloader(this.storage.checkDownloadAccess(request));
+    }
+
+    @Override
+    @NotNull
+    public Uploader checkUploadAccess(@NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        final Uploader uploader = this.storage.checkUploadAccess(request);
+        return (meta, content) -> {
+            if (meta.getSize() > this.largest) {
+                uploader.saveObject(meta, content);
+            } else {
+                this.save(meta, content);
+            }
+        };
+    }
+
+    @Override
+    @Nullable
+    public Meta getMetadata(@NotNull final String hash) throws IOException {
+        final PackIndex.Entry entry = this.find(hash);
+        final Meta meta;
+        if (entry == null) {
+            meta = this.storage.getMetadata(hash);
+        } else {
+            meta = new Meta(hash, entry.length());
+        }
+        return meta;
+    }
+
+    /**
+     * Packed objects.
+     * @return Objects, in object id order
+     */
+    public Iterable<Meta> listing() {
+        return this.index;
+    }
+
+    /**
+     * Counts of packing.
+     * @return Metrics
+     */
+    public Metrics metrics() {
+        return new Metrics("Packs")
+            .gauge("Objects", () -> (double) this.index.size())
+            .gauge("Groups", () -> (double) this.writer.groups())
+            .gauge("Reads", this.reads::doubleValue)
+            .gauge("Compacted", this.compacted::doubleValue);
+    }
+
+    /**
+     * Compact full packs made mostly of objects no longer referenced.
+     * @param live Tells whether an object is still referenced
+     * @param before Packs sealed later, whose objects may be too recent to
+     *  be referenced yet, are left alone
+     * @throws IOException If a pack can't be compacted
+     */
+    public void compact(final Predicate<String> live, final Instant before)
+        throws IOException {
+        final String open = this.writer.open();
+        for (final Map.Entry<String, Map<String, PackIndex.Entry>> pack
+            : this.index.packs().entrySet()) {
+            long total = 0L;
+            long kept = 0L;
+            for (final Map.Entry<String, PackIndex.Entry> object
+                : pack.getValue().entrySet()) {
+                total += object.getValue().length();
+                if (live.test(object.getKey())) {
+                    kept += object.getValue().length();
+                }
+            }
+            if (kept * 2L < total && !pack.getKey().equals(open)
+                && this.sealed(pack.getKey(), before)) {
+                this.repack(pack.getKey(), pack.getValue(), live);
+            }
+        }
+    }
+
+    /**
+     * Pack an object.
+     * @param meta Object
+     * @param content Content
+     * @throws IOException If it can't be packed
+     */
+    private void save(final Meta meta, final InputStream content)
+        throws IOException {
+        final byte[] bytes = ByteStreams.toByteArray(
+            ByteStreams.limit(content, this.largest + 1L)
+        );
+        if (!Hashing.sha256().hashBytes(bytes).toString()
+            .equals(meta.getOid())) {
+            throw new IOException(
+                String.format("Content doesn't match %s", meta.getOid())
+            );
+        }
+        if (this.index.find(meta.getOid()) == null) {
+            this.writer.write(meta.getOid(), bytes);
+        }
+    }
+
+    /**
+     * Find a packed object, refreshing the index if it's missing and the
+     * last refresh was long enough ago.
+     * @param oid Object id
+     * @return Location, or null if the object isn't packed
+     * @throws IOException If the index can't be refreshed
+     */
+    private PackIndex.Entry find(final String oid) throws IOException {
+        PackIndex.Entry entry = this.index.find(oid);
+        final long now = System.nanoTime();
+        final long when = this.next.get();
+        if (entry == null && now >= when && this.next.compareAndSet(
+            when, now + TimeUnit.MILLISECONDS.toNanos(PackedStorage.REFRESH)
+        )) {
+            this.refresh();
+            entry = this.index.find(oid);
+        }
+        return entry;
+    }
+
+    /**
+     * Read a packed object, looking it up again if its pack is gone.
+     * @param oid Object id
+     * @return Content, or empty if the object isn't packed
+     * @throws IOException If it can't be read
+     */
+    private Optional<byte[]> packed(final String oid) throws IOException {
+        final PackIndex.Entry entry = this.find(oid);
+        Optional<byte[]> content = Optional.empty();
+        if (entry != null) {
+            content = this.read(entry);
+        }
+        if (entry != null && !content.isPresent()) {
+            this.index.remove(oid, entry);
+            this.refresh();
+            final PackIndex.Entry moved = this.index.find(oid);
+            if (moved != null) {
+                content = this.read(moved);
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Read an object from its pack.
+     * @param entry Location
+     * @return Content, or empty if the pack is gone
+     * @throws IOException If it can't be read
+     */
+    private Optional<byte[]> read(final PackIndex.Entry entry)
+        throws IOException {
+        final byte[] content = new byte[entry.length()];
+        final AzureCallEvent event = new AzureCallEvent();
+        event.begin();
+        Optional<byte[]> read = Optional.empty();
+        try {
+            this.container.getBlockBlobReference(entry.pack())
+                .downloadRangeToByteArray(
+                    entry.offset(), (long) entry.length(), content, 0
+                );
+            this.reads.incrementAndGet();
+            event.finish("read", entry.pack(), entry.offset(), content.length);
+            read = Optional.of(content);
+        } catch (final StorageException ex) {
+            if (ex.getHttpStatusCode() != HttpURLConnection.HTTP_NOT_FOUND) {
+                throw new IOException(ex);
+            }
+        } catch (final URISyntaxException ex) {
+            throw new IOException(ex);
+        }
+        return read;
+    }
+
+    /**
+     * Index objects of packs written since the last refresh.
+     * @throws IOException If the packs can't be read
+     */
+    private synchronized void refresh() throws IOException {
+        final Map<String, Long> packs = new HashMap<>();
+        final Set<String> sealed = new HashSet<>();
+        for (final Object item : this.container.listBlobs(
+            PackWriter.PREFIX, true
+        )) {
+            if (item instanceof CloudBlob) {
+                final CloudBlob blob = (CloudBlob) item;
+                final String name = blob.getName();
+                if (name.endsWith(PackWriter.INDEX)) {
+                    sealed.add(
+                        name.substring(
+                            0, name.length() - PackWriter.INDEX.length()
+                        )
+                    );
+                } else {
+                    packs.put(name, blob.getProperties().getLength());
+                }
+            }
+        }
+        for (final Map.Entry<String, Long> pack : packs.entrySet()) {
+            if (this.index.loaded(pack.getKey()) < pack.getValue()) {
+                this.load(pack.getKey(), sealed.contains(pack.getKey()));
+            }
+        }
+    }
+
+    /**
+     * Index objects of a pack not indexed yet.
+     * @param name Pack name
+     * @param sealed Does the pack have its index blob?
+     * @throws IOException If the pack can't be read
+     */
+    private void load(final String name, final boolean sealed)
+        throws IOException {
+        try {
+            final CloudBlockBlob pack =
+                this.container.getBlockBlobReference(name);
+            if (sealed) {
+                final CloudBlockBlob idx = this.container.getBlockBlobReference(
+                    name + PackWriter.INDEX
+                );
+                PackIndex.decode(
+                    name, ByteBuffer.wrap(PackedStorage.download(idx))
+                ).forEach(this.index::add);
+                pack.downloadAttributes();
+                this.index.loaded(name, pack.getProperties().getLength());
+            } else {
+                this.blocks(pack);
+            }
+        } catch (final StorageException | URISyntaxException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Index objects of blocks of a pack not indexed yet, from their
+     * headers.
+     * @param pack Pack
+     * @throws StorageException If the pack can't be read
+     */
+    private void blocks(final CloudBlockBlob pack) throws StorageException {
+        final long known = this.index.loaded(pack.getName());
+        long offset = 0L;
+        for (final BlockEntry block
+            : pack.downloadBlockList(BlockListingFilter.COMMITTED, null, null,
+                null)) {
+            if (offset >= known) {
+                final byte[] start = new byte[Integer.BYTES];
+                pack.downloadRangeToByteArray(
+                    offset, (long) start.length, start, 0
+                );
+                final byte[] header =
+                    new byte[PackIndex.header(ByteBuffer.wrap(start))];
+                pack.downloadRangeToByteArray(
+                    offset, (long) header.length, header, 0
+                );
+                PackIndex.block(pack.getName(), offset, ByteBuffer.wrap(header))
+                    .forEach(this.index::add);
+            }
+            offset += block.getSize();
+        }
+        this.index.loaded(pack.getName(), offset);
+    }
+
+    /**
+     * Was a pack full, with its index blob written, before a time?
+     * @param name Pack name
+     * @param before Time
+     * @return True if it was
+     * @throws IOException If it can't be told
+     */
+    private boolean sealed(final String name, final Instant before)
+        throws IOException {
+        try {
+            final CloudBlockBlob idx = this.container.getBlockBlobReference(
+                name + PackWriter.INDEX
+            );
+            return idx.exists() && idx.getProperties().getLastModified()
+                .toInstant().isBefore(before);
+        } catch (final StorageException | URISyntaxException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Pack the referenced objects of a pack again, and delete it.
+     * @param name Pack name
+     * @param objects Objects in the pack
+     * @param live Tells whether an object is still referenced
+     * @throws IOException If the pack can't be compacted
+     */
+    private void repack(final String name,
+        final Map<String, PackIndex.Entry> objects,
+        final Predicate<String> live) throws IOException {
+        for (final Map.Entry<String, PackIndex.Entry> object
+            : objects.entrySet()) {
+            final Optional<byte[]> content = this.read(object.getValue());
+            if (content.isPresent() && live.test(object.getKey())) {
+                this.writer.write(object.getKey(), content.get());
+            } else {
+                this.index.remove(object.getKey(), object.getValue());
+            }
+        }
+        try {
+            this.container.getBlockBlobReference(name + PackWriter.INDEX)
+                .deleteIfExists();
+            this.container.getBlockBlobReference(name).deleteIfExists();
+        } catch (final StorageException | URISyntaxException ex) {
+            throw new IOException(ex);
+        }
+        this.index.dropped(name);
+        this.compacted.incrementAndGet();
+    }
+
+    /**
+     * Download a whole blob.
+     * @param blob Blob
+     * @return Content
+     * @throws StorageException If it can't be read
+     */
+    private static byte[] download(final CloudBlockBlob blob)
+        throws StorageException {
+        blob.downloadAttributes();
+        final byte[] content = new byte[
+            (int) blob.getProperties().getLength()
+        ];
+        blob.downloadToByteArray(content, 0);
+        return content;
+    }
+
+    /**
+     * Downloader reading packed objects from their packs.
+     */
+    private final class PackDownloader implements Downloader {
+        /**
+         * Backing downloader.
+         */
+        private final Downloader downloader;
+
+        /**
+         * Ctor.
+         * @param downloader Backing downloader
+         */
+        PackDownloader(final Downloader downloader) {
+            this.downloader = downloader;
+        }
+
+        @Override
+        @NotNull
+        public InputStream openObject(@NotNull final String hash)
+            throws IOException {
+            final Optional<byte[]> content = PackedStorage.this.packed(hash);
+            final InputStream stream;
+            if (content.isPresent()) {
+                stream = new SizedStream(
+                    new ByteArrayInputStream(content.get()),
+                    content.get().length
+                );
+            } else {
+                stream = this.downloader.openObject(hash);
+            }
+            return stream;
+        }
+
+        @Override
+        @Nullable
+        public InputStream openObjectGzipped(@NotNull final String hash)
+            throws IOException {
+            InputStream stream = null;
+            if (PackedStorage.this.index.find(hash) == null) {
+                stream = this.downloader.openObjectGzipped(hash);
+            }
+            return stream;
+        }
+    }
+}
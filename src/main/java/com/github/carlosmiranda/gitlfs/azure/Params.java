@@ -1,5 +1,7 @@
 package com.github.carlosmiranda.gitlfs.azure;
 
+import com.google.common.base.Splitter;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -38,6 +40,10 @@ final class Params {
      * Server port.
      */
     private final int prt;
+    /**
+     * All properties, for optional settings.
+     */
+    private final Properties props;
     /**
      * Ctor.
      * @param props Properties
@@ -51,6 +57,7 @@ final class Params {
         this.acct = props.getProperty("azure.account");
         this.azkey = props.getProperty("azure.key");
         this.cntr = props.getProperty("azure.container");
+        this.props = props;
     }
     /**
      * Git LFS username.
@@ -108,4 +115,308 @@ final class Params {
     public int port() {
         return this.prt;
     }
+    /**
+     * Percentile of recent Azure read latency after which a read is hedged.
+     * @return Percentile, between 0 and 100
+     */
+    public double hedgePercentile() {
+        return Double.parseDouble(
+            this.props.getProperty("azure.hedge.percentile", "95")
+        );
+    }
+    /**
+     * Fraction of Azure reads that may be duplicated by hedging.
+     * @return Fraction of reads, zero if hedging is disabled
+     */
+    public double hedgeBudget() {
+        return Double.parseDouble(
+            this.props.getProperty("azure.hedge.budget", "0")
+        );
+    }
+    /**
+     * Should reads use the read-access geo-secondary endpoint when it is
+     * faster?
+     * @return True if reads are routed between endpoints
+     */
+    public boolean secondaryReads() {
+        return Boolean.parseBoolean(
+            this.props.getProperty("azure.secondary.reads", "false")
+        );
+    }
+    /**
+     * Minutes after an upload during which the object is only read from the
+     * primary endpoint, to allow for geo-replication.
+     * @return Minutes
+     */
+    public long secondaryLagMinutes() {
+        return Long.parseLong(
+            this.props.getProperty("azure.secondary.lag.minutes", "15")
+        );
+    }
+    /**
+     * Most blocks of one upload staged at once.
+     * @return Number of blocks
+     */
+    public int uploadBlocks() {
+        return Integer.parseInt(
+            this.props.getProperty("azure.upload.blocks", "1")
+        );
+    }
+    /**
+     * Engine making Azure calls.
+     * @return Either "sdk", blocking a thread per call, or "async"
+     */
+    public String engine() {
+        return this.props.getProperty("azure.engine", "sdk");
+    }
+    /**
+     * Threads of the non-blocking engine.
+     * @return Thread count
+     */
+    public int engineThreads() {
+        return Integer.parseInt(
+            this.props.getProperty("azure.engine.threads", "8")
+        );
+    }
+    /**
+     * Largest object to pack together with others.
+     * @return Size in bytes, or 0 if objects are not packed
+     */
+    public int packMaxObject() {
+        return Integer.parseInt(
+            this.props.getProperty("azure.pack.max.object", "0")
+        );
+    }
+    /**
+     * Location of the persistent object index.
+     * @return Index file path, or empty string if there is no index
+     */
+    public String index() {
+        return this.props.getProperty("gitlfs.index", "");
+    }
+    /**
+     * Average size of content-defined chunks objects are stored as.
+     * @return Size in bytes, zero if objects are stored whole
+     */
+    public int chunkSize() {
+        return Integer.parseInt(
+            this.props.getProperty("azure.chunk.size", "0")
+        );
+    }
+    /**
+     * Days a hot object goes unread before it's moved to the cool tier.
+     * @return Days, zero if objects are never moved between tiers
+     */
+    public int tierCoolDays() {
+        return Integer.parseInt(
+            this.props.getProperty("azure.tier.cool.days", "0")
+        );
+    }
+    /**
+     * Days a cool object goes unread before it's moved to the archive tier.
+     * @return Days, zero if objects are never archived
+     */
+    public int tierArchiveDays() {
+        return Integer.parseInt(
+            this.props.getProperty("azure.tier.archive.days", "0")
+        );
+    }
+    /**
+     * Recent reads that bring an object back to the hot tier.
+     * @return Number of reads
+     */
+    public int tierHotReads() {
+        return Integer.parseInt(
+            this.props.getProperty("azure.tier.hot.reads", "2")
+        );
+    }
+    /**
+     * Distinct objects expected to be read in a day, which sizes the
+     * record of reads between two tiering passes.
+     * @return Number of objects
+     */
+    public long tierReadsPerDay() {
+        return Long.parseLong(
+            this.props.getProperty("azure.tier.reads.per.day", "1000000")
+        );
+    }
+    /**
+     * Hours after which a resumable upload left alone is deleted.
+     * @return Hours
+     */
+    public long uploadTtlHours() {
+        return Long.parseLong(
+            this.props.getProperty("gitlfs.upload.ttl.hours", "24")
+        );
+    }
+    /**
+     * Time a download may take.
+     * @return Seconds, or 0 for no deadline
+     */
+    public long downloadDeadlineSeconds() {
+        return Long.parseLong(
+            this.props.getProperty("gitlfs.download.deadline.seconds", "0")
+        );
+    }
+    /**
+     * Directory objects of download batches are fetched ahead into.
+     * @return Path, empty if objects are not fetched ahead
+     */
+    public String prefetchCache() {
+        return this.props.getProperty("gitlfs.prefetch.cache", "");
+    }
+    /**
+     * Most bytes kept in the prefetch directory.
+     * @return Bytes
+     */
+    public long prefetchCacheBytes() {
+        return Long.parseLong(
+            this.props.getProperty("gitlfs.prefetch.cache.bytes", "1073741824")
+        );
+    }
+    /**
+     * Most bytes fetched ahead per download batch.
+     * @return Bytes
+     */
+    public long prefetchBatchBytes() {
+        return Long.parseLong(
+            this.props.getProperty("gitlfs.prefetch.batch.bytes", "268435456")
+        );
+    }
+    /**
+     * Number of objects fetched ahead at once.
+     * @return Number of threads
+     */
+    public int prefetchThreads() {
+        return Integer.parseInt(
+            this.props.getProperty("gitlfs.prefetch.threads", "4")
+        );
+    }
+    /**
+     * Directory of access log files.
+     * @return Path, empty if requests are not logged
+     */
+    public String accessLog() {
+        return this.props.getProperty("gitlfs.access.log", "");
+    }
+    /**
+     * Days access log files are kept.
+     * @return Days
+     */
+    public int accessLogDays() {
+        return Integer.parseInt(
+            this.props.getProperty("gitlfs.access.log.days", "7")
+        );
+    }
+    /**
+     * Base URLs of all servers of the cluster sharing their caches,
+     * this one included.
+     * @return URLs, empty if this server runs alone
+     */
+    public List<String> peers() {
+        return Splitter.on(',').trimResults().omitEmptyStrings().splitToList(
+            this.props.getProperty("gitlfs.peers", "")
+        );
+    }
+    /**
+     * Base URL of this server, as listed in the cluster.
+     * @return URL
+     */
+    public String peerSelf() {
+        return this.props.getProperty("gitlfs.peer.self", "");
+    }
+    /**
+     * Directory of the objects this server owns in the cluster.
+     * @return Path
+     */
+    public String peerCache() {
+        return this.props.getProperty("gitlfs.peer.cache", "");
+    }
+    /**
+     * Most bytes kept in the cluster cache directory.
+     * @return Bytes
+     */
+    public long peerCacheBytes() {
+        return Long.parseLong(
+            this.props.getProperty("gitlfs.peer.cache.bytes", "10737418240")
+        );
+    }
+    /**
+     * Directory journaling uploads before they are copied to Azure.
+     * @return Path, or empty string to upload to Azure directly
+     */
+    public String writeBack() {
+        return this.props.getProperty("gitlfs.writeback.dir", "");
+    }
+    /**
+     * Most bytes journaled before uploads go to Azure directly.
+     * @return Bytes
+     */
+    public long writeBackBytes() {
+        return Long.parseLong(
+            this.props.getProperty("gitlfs.writeback.bytes", "10737418240")
+        );
+    }
+    /**
+     * Most bytes of off-heap memory caching small objects.
+     * @return Bytes, or zero not to cache them in memory
+     */
+    public long memoryCacheBytes() {
+        return Long.parseLong(
+            this.props.getProperty("gitlfs.memory.cache.bytes", "0")
+        );
+    }
+    /**
+     * Largest object cached in memory.
+     * @return Bytes
+     */
+    public int memoryCacheMaxObject() {
+        return Integer.parseInt(
+            this.props.getProperty("gitlfs.memory.cache.max.object", "65536")
+        );
+    }
+    /**
+     * Threads reading objects ahead for bulk downloads.
+     * @return Number of threads
+     */
+    public int bulkThreads() {
+        return Integer.parseInt(
+            this.props.getProperty("gitlfs.bulk.threads", "16")
+        );
+    }
+    /**
+     * Replicas of each object read too often for one blob.
+     * @return Number of replicas, or zero not to replicate objects
+     */
+    public int replicas() {
+        return Integer.parseInt(
+            this.props.getProperty("azure.replicas", "0")
+        );
+    }
+    /**
+     * Recent reads after which an object is replicated.
+     * @return Reads, with counts halving every minute
+     */
+    public int replicaReads() {
+        return Integer.parseInt(
+            this.props.getProperty("azure.replica.reads", "30")
+        );
+    }
+    /**
+     * Containers uploads are copied to, each the name of a container in the
+     * same account or the URL of a container with a shared access signature.
+     * @return Containers, or empty not to mirror uploads
+     */
+    public List<String> mirrors() {
+        return Splitter.on(',').trimResults().omitEmptyStrings().splitToList(
+            this.props.getProperty("azure.mirrors", "")
+        );
+    }
+    /**
+     * Directory of the queue of uploads not yet mirrored.
+     * @return Path
+     */
+    public String mirrorDir() {
+        return this.props.getProperty("gitlfs.mirror.dir", "");
+    }
 }
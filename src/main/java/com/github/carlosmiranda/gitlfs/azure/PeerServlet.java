@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.util.regex.Pattern;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ServerError;
+
+/**
+ * Servlet other nodes of a cluster read the objects this node owns from.
+ *
+ * <p>Mapped to {@code <path>/info/lfs/peer/*}, it answers {@code GET <oid>}
+ * from the node's own cache, fetching the object from storage if needed,
+ * and never asks further peers. It needs the same authorization as
+ * downloads.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class PeerServlet extends HttpServlet {
+    /**
+     * Serialization marker.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Size of the copy buffer.
+     */
+    // @checkstyle MagicNumber (1 line)
+    private static final int BUFFER = 1 << 16;
+
+    /**
+     * Path of an object.
+     */
+    private static final Pattern OBJECT = Pattern.compile("^/[0-9a-f]{64}$");
+
+    /**
+     * Storage, for access checks.
+     */
+    private final transient ContentManager storage;
+
+    /**
+     * Cluster cache.
+     */
+    private final transient PeerStorage peers;
+
+    /**
+     * Ctor.
+     * @param storage Storage, for access checks
+     * @param peers Cluster cache
+     */
+    PeerServlet(final ContentManager storage, final PeerStorage peers) {
+        super();
+        this.storage = storage;
+        this.peers = peers;
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest req,
+        final HttpServletResponse resp) throws IOException {
+        final String path = req.getPathInfo();
+        try {
+            if (path == null || !PeerServlet.OBJECT.matcher(path).matches()) {
+                throw new ServerError(
+                    HttpServletResponse.SC_NOT_FOUND, "Not found"
+                );
+            }
+            this.storage.checkDownloadAccess(req);
+            try (InputStream content =
+                this.peers.owned(req, path.substring(1))) {
+                resp.setStatus(HttpServletResponse.SC_OK);
+                resp.setContentType("application/octet-stream");
+                final OutputStream out = resp.getOutputStream();
+                final byte[] buffer = new byte[PeerServlet.BUFFER];
+                for (int read = content.read(buffer); read >= 0;
+                    read = content.read(buffer)) {
+                    out.write(buffer, 0, read);
+                }
+            }
+        } catch (final ServerError ex) {
+            resp.setStatus(ex.getStatusCode());
+            ex.updateHeaders(resp);
+            resp.getWriter().println(ex.getMessage());
+        } catch (final ArchivedException ex) {
+            resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            resp.getWriter().println(ex.getMessage());
+        }
+    }
+
+    /**
+     * Refuse deserialization, the servlet only makes sense in this server.
+     * @param stream Stream
+     * @throws IOException Always
+     * @throws ClassNotFoundException Never
+     */
+    private void readObject(final ObjectInputStream stream)
+        throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        throw new NotSerializableException(this.getClass().getName());
+    }
+}
@@ -0,0 +1,398 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.http.HttpServletRequest;
+import org.eclipse.jetty.http.HttpHeader;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ForbiddenError;
+import ru.bozaro.gitlfs.server.ServerError;
+import ru.bozaro.gitlfs.server.UnauthorizedError;
+
+/**
+ * Decorating ContentManager sharing one object cache across a cluster of
+ * servers.
+ *
+ * <p>Each object is owned by one node of a {@link HashRing}. The owner
+ * keeps the object in its {@link StagingCache}, fetching it from storage
+ * once; other nodes stream it from the owner's peer endpoint, passing on
+ * the client's credentials. Storage is therefore read about once per
+ * object, however many nodes serve it.
+ *
+ * <p>A peer that can't be reached leaves the ring for {@value #COOLDOWN}
+ * seconds, so its objects move to the next nodes meanwhile. A peer that
+ * answers with an error is not asked again for that request, which reads
+ * the object locally instead.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+final class PeerStorage implements ContentManager {
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(PeerStorage.class.getName());
+
+    /**
+     * Seconds a failed peer stays out of the ring.
+     */
+    private static final long COOLDOWN = 30L;
+
+    /**
+     * Milliseconds to wait for a peer to accept a connection.
+     */
+    private static final int CONNECT = 2000;
+
+    /**
+     * Milliseconds to wait for a peer to send data.
+     */
+    private static final int READ = 60_000;
+
+    /**
+     * Owners of objects.
+     */
+    private final HashRing ring;
+
+    /**
+     * This node, as named in the ring.
+     */
+    private final String self;
+
+    /**
+     * Objects owned by this node.
+     */
+    private final StagingCache cache;
+
+    /**
+     * Backing storage.
+     */
+    private final ContentManager storage;
+
+    /**
+     * Fetches from backing storage in progress, by object id.
+     */
+    private final ConcurrentMap<String, CompletableFuture<Long>> fetches;
+
+    /**
+     * Thread bringing failed peers back into the ring.
+     */
+    private final ScheduledExecutorService revival;
+
+    /**
+     * Objects served from the local cache.
+     */
+    private final AtomicLong hits;
+
+    /**
+     * Objects fetched from backing storage.
+     */
+    private final AtomicLong fetched;
+
+    /**
+     * Objects streamed from peers.
+     */
+    private final AtomicLong remote;
+
+    /**
+     * Failed requests to peers.
+     */
+    private final AtomicLong failures;
+
+    /**
+     * Ctor.
+     * @param ring Owners of objects, named by their peer endpoint URL
+     * @param self This node, as named in the ring
+     * @param cache Cache of objects owned by this node
+     * @param storage Backing storage
+     * @checkstyle ParameterNumber (4 lines)
+     */
+    PeerStorage(final HashRing ring, final String self,
+        final StagingCache cache, final ContentManager storage) {
+        this.ring = ring;
+        this.self = self;
+        this.cache = cache;
+        this.storage = storage;
+        this.fetches = new ConcurrentHashMap<>();
+        this.revival = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("peer-revival")
+                .build()
+        );
+        this.hits = new AtomicLong();
+        this.fetched = new AtomicLong();
+        this.remote = new AtomicLong();
+        this.failures = new AtomicLong();
+    }
+
+    /**
+     * Peer endpoint of a server.
+     * @param url Base URL of the server
+     * @param path Git LFS context path
+     * @return URL object ids are appended to
+     */
+    public static String endpoint(final String url, final String path) {
+        return String.format(
+            "%s%s/info/lfs/peer/", url.replaceAll("/+$", ""), path
+        );
+    }
+
+    @Override
+    @NotNull
+    public Downloader checkDownloadAccess(
+        @NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return new PeerDownloader(
+            this.storage.checkDownloadAccess(request),
+            request.getHeader(HttpHeader.AUTHORIZATION.asString())
+        );
+    }
+
+    @Override
+    @NotNull
+    public Uploader checkUploadAccess(@NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return this.storage.checkUploadAccess(request);
+    }
+
+    @Override
+    @Nullable
+    public Meta getMetadata(@NotNull final String hash) throws IOException {
+        return this.storage.getMetadata(hash);
+    }
+
+    /**
+     * Open an object this node owns, fetching it into the cache first if
+     * it isn't there. Concurrent requests for the same object share one
+     * fetch.
+     * @param request Request asking for the object
+     * @param oid Object id
+     * @return Content
+     * @throws IOException If the object can't be read
+     * @throws ServerError If access is refused
+     */
+    public InputStream owned(final HttpServletRequest request,
+        final String oid) throws IOException, ServerError {
+        return this.local(this.storage.checkDownloadAccess(request), oid);
+    }
+
+    /**
+     * Metrics of the cluster cache.
+     * @return Metrics
+     */
+    public Metrics metrics() {
+        return new Metrics("Peers")
+            .gauge("Hits", this.hits::doubleValue)
+            .gauge("Fetched", this.fetched::doubleValue)
+            .gauge("PeerReads", this.remote::doubleValue)
+            .gauge("PeerFailures", this.failures::doubleValue)
+            .gauge("Nodes", () -> this.ring.nodes().size());
+    }
+
+    /**
+     * Open an object from the local cache, fetching it if needed.
+     * @param source Backing downloader
+     * @param oid Object id
+     * @return Content
+     * @throws IOException If the object can't be read
+     */
+    private InputStream local(final Downloader source, final String oid)
+        throws IOException {
+        InputStream content = this.cache.open(oid);
+        if (content == null) {
+            this.fetch(source, oid);
+            content = this.cache.open(oid);
+        } else {
+            this.hits.incrementAndGet();
+        }
+        if (content == null) {
+            content = source.openObject(oid);
+        }
+        return content;
+    }
+
+    /**
+     * Fetch an object into the cache, or wait for the fetch already going
+     * on.
+     * @param source Backing downloader
+     * @param oid Object id
+     * @throws IOException If the object can't be fetched
+     */
+    private void fetch(final Downloader source, final String oid)
+        throws IOException {
+        final CompletableFuture<Long> mine = new CompletableFuture<>();
+        final CompletableFuture<Long> running =
+            this.fetches.putIfAbsent(oid, mine);
+        if (running == null) {
+            try (InputStream content = source.openObject(oid)) {
+                mine.complete(this.cache.stage(oid, content));
+                this.fetched.incrementAndGet();
+                // @checkstyle IllegalCatch (1 line)
+            } catch (final IOException | RuntimeException ex) {
+                mine.completeExceptionally(ex);
+                throw ex;
+            } finally {
+                this.fetches.remove(oid, mine);
+            }
+        } else {
+            PeerStorage.await(running);
+        }
+    }
+
+    /**
+     * Stream an object from the peer owning it.
+     * @param peer Peer endpoint
+     * @param oid Object id
+     * @param auth Authorization header of the client, or null
+     * @return Content, or null if the peer didn't serve it
+     */
+    private InputStream fromPeer(final String peer, final String oid,
+        final String auth) {
+        InputStream content = null;
+        try {
+            final HttpURLConnection conn = (HttpURLConnection)
+                new URL(String.format("%s%s", peer, oid)).openConnection();
+            conn.setConnectTimeout(PeerStorage.CONNECT);
+            conn.setReadTimeout(PeerStorage.READ);
+            if (auth != null) {
+                conn.setRequestProperty(
+                    HttpHeader.AUTHORIZATION.asString(), auth
+                );
+            }
+            final int status = conn.getResponseCode();
+            if (status == HttpURLConnection.HTTP_OK) {
+                content = conn.getInputStream();
+                final long length = conn.getContentLengthLong();
+                if (length >= 0L) {
+                    content = new SizedStream(content, length);
+                }
+                this.remote.incrementAndGet();
+            } else {
+                conn.disconnect();
+            }
+        } catch (final IOException ex) {
+            PeerStorage.LOGGER.log(
+                Level.WARNING,
+                String.format("Peer %s failed, leaving it out", peer),
+                ex
+            );
+            this.down(peer);
+        }
+        return content;
+    }
+
+    /**
+     * Take a failed peer out of the ring for a while.
+     * @param peer Peer endpoint
+     */
+    private void down(final String peer) {
+        this.failures.incrementAndGet();
+        if (this.ring.nodes().contains(peer)) {
+            this.ring.remove(peer);
+            this.revival.schedule(
+                () -> this.ring.add(peer), PeerStorage.COOLDOWN,
+                TimeUnit.SECONDS
+            );
+        }
+    }
+
+    /**
+     * Wait for a fetch by another request.
+     * @param fetch Fetch
+     * @throws IOException If the fetch failed
+     */
+    private static void await(final CompletableFuture<Long> fetch)
+        throws IOException {
+        try {
+            fetch.get();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (final ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Downloader going to the owner of each object.
+     */
+    private final class PeerDownloader implements Downloader {
+        /**
+         * Backing downloader.
+         */
+        private final Downloader downloader;
+
+        /**
+         * Authorization header of the client, or null.
+         */
+        private final String auth;
+
+        /**
+         * Ctor.
+         * @param downloader Backing downloader
+         * @param auth Authorization header of the client, or null
+         */
+        PeerDownloader(final Downloader downloader, final String auth) {
+            this.downloader = downloader;
+            this.auth = auth;
+        }
+
+        @Override
+        @NotNull
+        public InputStream openObject(@NotNull final String hash)
+            throws IOException {
+            final String owner = PeerStorage.this.ring.owner(hash);
+            InputStream content = null;
+            if (owner != null && !owner.equals(PeerStorage.this.self)) {
+                content = PeerStorage.this.fromPeer(owner, hash, this.auth);
+            }
+            if (content == null) {
+                content = PeerStorage.this.local(this.downloader, hash);
+            }
+            return content;
+        }
+
+        @Override
+        @Nullable
+        public InputStream openObjectGzipped(@NotNull final String hash)
+            throws IOException {
+            return this.downloader.openObjectGzipped(hash);
+        }
+    }
+}
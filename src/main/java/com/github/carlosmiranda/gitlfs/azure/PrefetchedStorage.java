@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.IOException;
+import java.io.InputStream;
+import javax.servlet.http.HttpServletRequest;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ForbiddenError;
+import ru.bozaro.gitlfs.server.UnauthorizedError;
+
+/**
+ * Decorating ContentManager serving downloads fetched ahead by a
+ * {@link Prefetcher}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class PrefetchedStorage implements ContentManager {
+    /**
+     * Prefetcher.
+     */
+    private final Prefetcher prefetcher;
+
+    /**
+     * Backing storage.
+     */
+    private final ContentManager storage;
+
+    /**
+     * Ctor.
+     * @param prefetcher Prefetcher
+     * @param storage Backing storage
+     */
+    PrefetchedStorage(final Prefetcher prefetcher,
+        final ContentManager storage) {
+        this.prefetcher = prefetcher;
+        this.storage = storage;
+    }
+
+    @Override
+    @NotNull
+    public Downloader checkDownloadAccess(
+        @NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return new PrefetchedDownloader(
+            this.storage.checkDownloadAccess(request)
+        );
+    }
+
+    @Override
+    @NotNull
+    public Uploader checkUploadAccess(@NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return this.storage.checkUploadAccess(request);
+    }
+
+    @Override
+    @Nullable
+    public Meta getMetadata(@NotNull final String hash) throws IOException {
+        return this.storage.getMetadata(hash);
+    }
+
+    /**
+     * Downloader looking in the staging cache first.
+     */
+    private final class PrefetchedDownloader implements Downloader {
+        /**
+         * Backing downloader.
+         */
+        private final Downloader downloader;
+
+        /**
+         * Ctor.
+         * @param downloader Backing downloader
+         */
+        PrefetchedDownloader(final Downloader downloader) {
+            this.downloader = downloader;
+        }
+
+        @Override
+        @NotNull
+        public InputStream openObject(@NotNull final String hash)
+            throws IOException {
+            return PrefetchedStorage.this.prefetcher.open(
+                hash, this.downloader
+            );
+        }
+
+        @Override
+        @Nullable
+        public InputStream openObjectGzipped(@NotNull final String hash)
+            throws IOException {
+            return this.downloader.openObjectGzipped(hash);
+        }
+    }
+}
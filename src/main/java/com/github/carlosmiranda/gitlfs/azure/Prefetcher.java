@@ -0,0 +1,225 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager.Downloader;
+
+/**
+ * Fetches objects listed in a download batch into a {@link StagingCache}
+ * before the client asks for them.
+ *
+ * <p>Objects are fetched by a fixed number of threads in the order the batch
+ * lists them, which is the order Git LFS downloads them in, up to a number
+ * of bytes per batch. When the client asks for an object still being
+ * fetched, it waits for the fetch; when it asks for one whose fetch hasn't
+ * started, the fetch is cancelled and the object read directly.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class Prefetcher {
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(Prefetcher.class.getName());
+
+    /**
+     * Staging cache.
+     */
+    private final StagingCache cache;
+
+    /**
+     * Most bytes to fetch per batch.
+     */
+    private final long budget;
+
+    /**
+     * Threads fetching objects.
+     */
+    private final ExecutorService threads;
+
+    /**
+     * Fetches queued or running, by object id.
+     */
+    private final ConcurrentMap<String, FutureTask<Void>> pending;
+
+    /**
+     * Downloads served from the staging cache.
+     */
+    private final AtomicLong hits;
+
+    /**
+     * Downloads read directly.
+     */
+    private final AtomicLong misses;
+
+    /**
+     * Bytes fetched ahead.
+     */
+    private final AtomicLong fetched;
+
+    /**
+     * Ctor.
+     * @param cache Staging cache
+     * @param threads Number of threads fetching objects
+     * @param budget Most bytes to fetch per batch
+     */
+    Prefetcher(final StagingCache cache, final int threads,
+        final long budget) {
+        this.cache = cache;
+        this.budget = budget;
+        this.threads = Executors.newFixedThreadPool(
+            threads,
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("prefetch-%d")
+                .build()
+        );
+        this.pending = new ConcurrentHashMap<>();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.fetched = new AtomicLong();
+    }
+
+    /**
+     * Queue the fetch of objects about to be downloaded, as a batch of its
+     * own.
+     * @param source Where to read objects from
+     * @param objects Objects, in the order they'll be downloaded
+     */
+    public void prefetch(final Downloader source,
+        final Iterable<? extends Meta> objects) {
+        this.prefetch(source, objects, this.budget());
+    }
+
+    /**
+     * Queue the fetch of objects about to be downloaded, spending the budget
+     * of the batch they belong to. A batch located in several parts passes
+     * the same budget for each.
+     * @param source Where to read objects from
+     * @param objects Objects, in the order they'll be downloaded
+     * @param left Bytes of the batch's budget not spent yet
+     */
+    public void prefetch(final Downloader source,
+        final Iterable<? extends Meta> objects, final AtomicLong left) {
+        for (final Meta meta : objects) {
+            final String oid = meta.getOid();
+            if (meta.getSize() <= left.get()
+                && meta.getSize() <= this.cache.capacity()
+                && !this.cache.contains(oid)) {
+                final FutureTask<Void> task = new FutureTask<>(
+                    () -> this.fetch(source, oid), null
+                );
+                if (this.pending.putIfAbsent(oid, task) == null) {
+                    left.addAndGet(-meta.getSize());
+                    this.threads.execute(task);
+                }
+            }
+        }
+    }
+
+    /**
+     * Budget of a new batch.
+     * @return Bytes the batch may fetch
+     */
+    public AtomicLong budget() {
+        return new AtomicLong(this.budget);
+    }
+
+    /**
+     * Open an object, from the staging cache if it was fetched ahead.
+     * @param oid Object id
+     * @param source Where to read the object from otherwise
+     * @return Content
+     * @throws IOException If the object can't be read
+     */
+    public InputStream open(final String oid, final Downloader source)
+        throws IOException {
+        final FutureTask<Void> task = this.pending.get(oid);
+        if (task != null) {
+            if (task.cancel(false)) {
+                this.pending.remove(oid, task);
+            } else {
+                Prefetcher.await(task);
+            }
+        }
+        InputStream content = this.cache.open(oid);
+        if (content == null) {
+            this.misses.incrementAndGet();
+            content = source.openObject(oid);
+        } else {
+            this.hits.incrementAndGet();
+        }
+        return content;
+    }
+
+    /**
+     * Metrics of prefetching.
+     * @return Metrics
+     */
+    public Metrics metrics() {
+        return new Metrics("Prefetch")
+            .gauge("Hits", this.hits::doubleValue)
+            .gauge("Misses", this.misses::doubleValue)
+            .gauge("PrefetchedBytes", this.fetched::doubleValue);
+    }
+
+    /**
+     * Fetch an object into the staging cache, logging failures.
+     * @param source Where to read the object from
+     * @param oid Object id
+     */
+    private void fetch(final Downloader source, final String oid) {
+        try (InputStream content = source.openObject(oid)) {
+            this.fetched.addAndGet(this.cache.stage(oid, content));
+            // @checkstyle IllegalCatch (1 line)
+        } catch (final IOException | RuntimeException ex) {
+            Prefetcher.LOGGER.log(
+                Level.FINE, String.format("Can't prefetch %s", oid), ex
+            );
+        } finally {
+            this.pending.remove(oid);
+        }
+    }
+
+    /**
+     * Wait for a running fetch.
+     * @param task Fetch
+     */
+    private static void await(final FutureTask<Void> task) {
+        try {
+            task.get();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException | CancellationException ex) {
+            Prefetcher.LOGGER.log(Level.FINE, "Prefetch failed", ex);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+import org.jetbrains.annotations.NotNull;
+import ru.bozaro.gitlfs.common.data.BatchItem;
+import ru.bozaro.gitlfs.common.data.LinkType;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ContentManager.Downloader;
+import ru.bozaro.gitlfs.server.ForbiddenError;
+import ru.bozaro.gitlfs.server.PointerManager;
+import ru.bozaro.gitlfs.server.UnauthorizedError;
+
+/**
+ * Decorating PointerManager handing the objects of each download batch to a
+ * {@link Prefetcher}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class PrefetchingPointers implements PointerManager {
+    /**
+     * Backing pointer manager.
+     */
+    private final PointerManager pointers;
+
+    /**
+     * Storage to fetch objects from, without the staging cache.
+     */
+    private final ContentManager source;
+
+    /**
+     * Prefetcher.
+     */
+    private final Prefetcher prefetcher;
+
+    /**
+     * Ctor.
+     * @param pointers Backing pointer manager
+     * @param source Storage to fetch objects from, without the staging cache
+     * @param prefetcher Prefetcher
+     */
+    PrefetchingPointers(final PointerManager pointers,
+        final ContentManager source, final Prefetcher prefetcher) {
+        this.pointers = pointers;
+        this.source = source;
+        this.prefetcher = prefetcher;
+    }
+
+    @Override
+    @NotNull
+    public Locator checkUploadAccess(@NotNull final HttpServletRequest request,
+        @NotNull final URI self)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return this.pointers.checkUploadAccess(request, self);
+    }
+
+    @Override
+    @NotNull
+    public Locator checkDownloadAccess(
+        @NotNull final HttpServletRequest request, @NotNull final URI self)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return new PrefetchingLocator(
+            this.pointers.checkDownloadAccess(request, self),
+            this.source.checkDownloadAccess(request)
+        );
+    }
+
+    /**
+     * Locator prefetching the objects it locates. It's made for a single
+     * batch, which may be located in several parts, so it keeps what's left
+     * of the batch's budget.
+     */
+    private final class PrefetchingLocator implements Locator {
+        /**
+         * Backing locator.
+         */
+        private final Locator locator;
+
+        /**
+         * Where to read objects from.
+         */
+        private final Downloader downloader;
+
+        /**
+         * Bytes of the batch's budget not spent yet.
+         */
+        private final AtomicLong left;
+
+        /**
+         * Ctor.
+         * @param locator Backing locator
+         * @param downloader Where to read objects from
+         */
+        PrefetchingLocator(final Locator locator,
+            final Downloader downloader) {
+            this.locator = locator;
+            this.downloader = downloader;
+            this.left = PrefetchingPointers.this.prefetcher.budget();
+        }
+
+        @Override
+        @NotNull
+        public BatchItem[] getLocations(@NotNull final Meta[] metas)
+            throws IOException {
+            final BatchItem[] items = this.locator.getLocations(metas);
+            final List<Meta> found = new ArrayList<>(items.length);
+            for (final BatchItem item : items) {
+                if (item.getError() == null && item.getLinks() != null
+                    && item.getLinks().containsKey(LinkType.Download)) {
+                    found.add(item);
+                }
+            }
+            PrefetchingPointers.this.prefetcher.prefetch(
+                this.downloader, found, this.left
+            );
+            return items;
+        }
+    }
+}
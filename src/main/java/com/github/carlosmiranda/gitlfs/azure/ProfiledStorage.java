@@ -0,0 +1,213 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.servlet.http.HttpServletRequest;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ForbiddenError;
+import ru.bozaro.gitlfs.server.UnauthorizedError;
+
+/**
+ * Decorating ContentManager recording each content transfer as a
+ * {@link TransferEvent}.
+ *
+ * <p>Content passes through a stream that times its reads: time inside
+ * {@code read} is spent on the source, time between reads on the sink.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class ProfiledStorage implements ContentManager {
+    /**
+     * Backing storage.
+     */
+    private final ContentManager storage;
+
+    /**
+     * Ctor.
+     * @param storage Backing storage
+     */
+    ProfiledStorage(final ContentManager storage) {
+        this.storage = storage;
+    }
+
+    @Override
+    @NotNull
+    public Downloader checkDownloadAccess(
+        @NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return new ProfiledDownloader(
+            this.storage.checkDownloadAccess(request)
+        );
+    }
+
+    @Override
+    @NotNull
+    public Uploader checkUploadAccess(@NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        final Uploader uploader = this.storage.checkUploadAccess(request);
+        return (meta, content) -> uploader.saveObject(
+            meta, new TimedStream(content, new TransferEvent(
+                "upload", meta.getOid()
+            ))
+        );
+    }
+
+    @Override
+    @Nullable
+    public Meta getMetadata(@NotNull final String hash) throws IOException {
+        return this.storage.getMetadata(hash);
+    }
+
+    /**
+     * Downloader timing the content it opens.
+     */
+    private static final class ProfiledDownloader implements Downloader {
+        /**
+         * Backing downloader.
+         */
+        private final Downloader downloader;
+
+        /**
+         * Ctor.
+         * @param downloader Backing downloader
+         */
+        ProfiledDownloader(final Downloader downloader) {
+            this.downloader = downloader;
+        }
+
+        @Override
+        @NotNull
+        public InputStream openObject(@NotNull final String hash)
+            throws IOException {
+            final InputStream content = this.downloader.openObject(hash);
+            return SizedStream.like(
+                content,
+                new TimedStream(content, new TransferEvent("download", hash))
+            );
+        }
+
+        @Override
+        @Nullable
+        public InputStream openObjectGzipped(@NotNull final String hash)
+            throws IOException {
+            return this.downloader.openObjectGzipped(hash);
+        }
+    }
+
+    /**
+     * Stream splitting the time of a transfer between source and sink.
+     */
+    private static final class TimedStream extends FilterInputStream {
+        /**
+         * Event of the transfer.
+         */
+        private final TransferEvent event;
+
+        /**
+         * When the last read returned, or zero before the first read.
+         */
+        private long returned;
+
+        /**
+         * Has the event been recorded?
+         */
+        private boolean done;
+
+        /**
+         * Ctor.
+         * @param source Source stream
+         * @param event Event of the transfer, starting now
+         */
+        TimedStream(final InputStream source, final TransferEvent event) {
+            super(source);
+            this.event = event;
+            this.event.begin();
+        }
+
+        @Override
+        public int read() throws IOException {
+            final long start = this.enter();
+            final int value = super.read();
+            long count = 1L;
+            if (value < 0) {
+                count = -1L;
+            }
+            this.leave(start, count);
+            return value;
+        }
+
+        @Override
+        public int read(final byte[] data, final int off, final int len)
+            throws IOException {
+            final long start = this.enter();
+            final int count = super.read(data, off, len);
+            this.leave(start, count);
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                this.record();
+            }
+        }
+
+        /**
+         * Start a read, counting the time since the last one as sink time.
+         * @return Start of the read
+         */
+        private long enter() {
+            final long now = System.nanoTime();
+            if (this.returned != 0L) {
+                this.event.writing(now - this.returned);
+            }
+            return now;
+        }
+
+        /**
+         * End a read, counting its time as source time.
+         * @param start Start of the read
+         * @param count Bytes read, negative at the end of the stream
+         */
+        private void leave(final long start, final long count) {
+            this.returned = System.nanoTime();
+            this.event.reading(this.returned - start);
+            if (count > 0L) {
+                this.event.copied(count);
+            } else if (count < 0L) {
+                this.record();
+            }
+        }
+
+        /**
+         * Record the event, once.
+         */
+        private void record() {
+            if (!this.done) {
+                this.done = true;
+                this.event.finish();
+            }
+        }
+    }
+}
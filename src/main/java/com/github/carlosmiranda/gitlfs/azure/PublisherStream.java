@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Blocking stream over a reactive stream of buffers, for the servlet layer.
+ *
+ * <p>One buffer is requested at a time, and the next one only once the
+ * reader has taken every byte of the current one, so the publisher never
+ * gets ahead of the reader by more than a buffer. Closing the stream before
+ * its end cancels the subscription.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class PublisherStream extends InputStream
+    implements Subscriber<ByteBuffer> {
+    /**
+     * Subscription, once subscribed.
+     */
+    private Subscription subscription;
+
+    /**
+     * Buffer being read, or null if none has arrived.
+     */
+    private ByteBuffer current;
+
+    /**
+     * Has the stream ended?
+     */
+    private boolean complete;
+
+    /**
+     * Failure of the stream, or null.
+     */
+    private Throwable error;
+
+    @Override
+    public void onSubscribe(final Subscription sub) {
+        synchronized (this) {
+            this.subscription = sub;
+        }
+        sub.request(1L);
+    }
+
+    @Override
+    public synchronized void onNext(final ByteBuffer buffer) {
+        this.current = buffer;
+        this.notifyAll();
+    }
+
+    @Override
+    public synchronized void onError(final Throwable failure) {
+        this.error = failure;
+        this.notifyAll();
+    }
+
+    @Override
+    public synchronized void onComplete() {
+        this.complete = true;
+        this.notifyAll();
+    }
+
+    @Override
+    public int read() throws IOException {
+        final ByteBuffer buffer = this.await();
+        int value = -1;
+        if (buffer != null) {
+            // @checkstyle MagicNumber (1 line)
+            value = buffer.get() & 0xff;
+        }
+        return value;
+    }
+
+    @Override
+    public int read(final byte[] data, final int off, final int len)
+        throws IOException {
+        int count = 0;
+        if (len > 0) {
+            count = -1;
+            final ByteBuffer buffer = this.await();
+            if (buffer != null) {
+                count = Math.min(len, buffer.remaining());
+                buffer.get(data, off, count);
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized int available() {
+        int count = 0;
+        if (this.current != null) {
+            count = this.current.remaining();
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        final Subscription sub;
+        synchronized (this) {
+            sub = this.subscription;
+            this.current = null;
+        }
+        if (sub != null && !this.ended()) {
+            sub.cancel();
+        }
+    }
+
+    /**
+     * Wait for bytes to read, asking for the next buffer when the current
+     * one is used up.
+     * @return Buffer with bytes left, or null at the end of the stream
+     * @throws IOException If the stream failed
+     */
+    private ByteBuffer await() throws IOException {
+        ByteBuffer ready = null;
+        boolean end = false;
+        while (ready == null && !end) {
+            this.release();
+            synchronized (this) {
+                this.waitForBuffer();
+                if (this.current != null && this.current.hasRemaining()) {
+                    ready = this.current;
+                } else if (this.current == null) {
+                    end = true;
+                }
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * Wait until a buffer arrives or the stream ends, with the lock held.
+     * @throws IOException If the stream failed, or waiting was interrupted
+     */
+    private void waitForBuffer() throws IOException {
+        while (this.current == null && !this.complete && this.error == null) {
+            try {
+                this.wait();
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(ex.getMessage());
+            }
+        }
+        if (this.current == null && this.error != null) {
+            throw new IOException(this.error);
+        }
+    }
+
+    /**
+     * Ask for the next buffer if the current one is used up.
+     */
+    private void release() {
+        Subscription sub = null;
+        synchronized (this) {
+            if (this.current != null && !this.current.hasRemaining()) {
+                this.current = null;
+                sub = this.subscription;
+            }
+        }
+        if (sub != null) {
+            sub.request(1L);
+        }
+    }
+
+    /**
+     * Has the stream ended?
+     * @return True if it completed or failed
+     */
+    private synchronized boolean ended() {
+        return this.complete || this.error != null;
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Object ids reachable from a repository, held in a Bloom filter.
+ *
+ * <p>Object ids are read from a file of lines starting with one, such as
+ * the output of {@code git lfs ls-files --all --long}; other lines are
+ * ignored. The file is read twice, once to count object ids and once to add
+ * them, so the filter is sized for them and takes about ten bits per object
+ * whatever the size of the file. A false positive only spares an
+ * unreachable object, about one in a hundred of them.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class Reachable implements Predicate<String> {
+    /**
+     * Line starting with an object id.
+     */
+    private static final Pattern LINE =
+        Pattern.compile("^([0-9a-f]{64})(\\s.*)?$");
+
+    /**
+     * Filter of reachable object ids.
+     */
+    private final BloomFilter filter;
+
+    /**
+     * Number of object ids read.
+     */
+    private final long count;
+
+    /**
+     * Ctor.
+     * @param filter Filter of reachable object ids
+     * @param count Number of object ids read
+     */
+    private Reachable(final BloomFilter filter, final long count) {
+        this.filter = filter;
+        this.count = count;
+    }
+
+    /**
+     * Read reachable object ids from a file.
+     * @param file File of lines starting with an object id
+     * @return Reachable object ids
+     * @throws IOException If the file can't be read
+     */
+    public static Reachable load(final Path file) throws IOException {
+        long count = 0L;
+        try (BufferedReader lines =
+            Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            for (String line = lines.readLine(); line != null;
+                line = lines.readLine()) {
+                if (Reachable.LINE.matcher(line).matches()) {
+                    ++count;
+                }
+            }
+        }
+        final BloomFilter filter = new BloomFilter(
+            LongBuffer.allocate(BloomFilter.words(count))
+        );
+        try (BufferedReader lines =
+            Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            for (String line = lines.readLine(); line != null;
+                line = lines.readLine()) {
+                final Matcher matcher = Reachable.LINE.matcher(line);
+                if (matcher.matches()) {
+                    final long[] key = IndexFile.record(matcher.group(1), 0L);
+                    filter.put(key[0], key[1]);
+                }
+            }
+        }
+        return new Reachable(filter, count);
+    }
+
+    /**
+     * Number of object ids read, counting duplicates.
+     * @return Count
+     */
+    public long count() {
+        return this.count;
+    }
+
+    /**
+     * Might an object be reachable?
+     * @param oid Object id
+     * @return False only if it's definitely not, true for anything that
+     *  isn't an object id
+     */
+    @Override
+    public boolean test(final String oid) {
+        final long[] key = IndexFile.record(oid, 0L);
+        return key == null || this.filter.mightContain(key[0], key[1]);
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.hash.Hashing;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of the objects read since some point in time.
+ *
+ * <p>It is sized for an expected number of distinct keys and a rate of
+ * false positives, so an unread object tests as read at about that rate as
+ * long as no more keys than expected are added. A read object always tests
+ * as read. Keys can be added from any number of threads without locking.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class ReadFilter {
+    /**
+     * Bits, 64 per word.
+     */
+    private final AtomicLongArray words;
+
+    /**
+     * Number of bits.
+     */
+    private final long size;
+
+    /**
+     * Bits set per key.
+     */
+    private final int hashes;
+
+    /**
+     * Ctor.
+     * @param expected Expected number of distinct keys
+     * @param rate Rate of false positives, between zero and one
+     */
+    ReadFilter(final long expected, final double rate) {
+        if (expected <= 0L || rate <= 0.0 || rate >= 1.0) {
+            throw new IllegalArgumentException(
+                String.format(
+                    "Can't size a filter for %d keys at %f", expected, rate
+                )
+            );
+        }
+        final double ln = Math.log(2.0);
+        final long bits = (long) Math.ceil(
+            -expected * Math.log(rate) / (ln * ln)
+        );
+        this.words = new AtomicLongArray(
+            Math.toIntExact((bits + Long.SIZE - 1L) / Long.SIZE)
+        );
+        this.size = (long) this.words.length() * Long.SIZE;
+        this.hashes = Math.max(
+            1, (int) Math.round((double) bits / expected * ln)
+        );
+    }
+
+    /**
+     * Record a key.
+     * @param key Object id
+     */
+    public void add(final String key) {
+        final ByteBuffer hash = ReadFilter.hash(key);
+        for (int idx = 0; idx < this.hashes; ++idx) {
+            final long bit = this.bit(hash, idx);
+            final int word = (int) (bit / Long.SIZE);
+            final long mask = 1L << bit;
+            if ((this.words.get(word) & mask) == 0L) {
+                this.words.getAndUpdate(word, value -> value | mask);
+            }
+        }
+    }
+
+    /**
+     * Whether a key might have been recorded.
+     * @param key Object id
+     * @return False if it certainly wasn't, true if it probably was
+     */
+    public boolean contains(final String key) {
+        final ByteBuffer hash = ReadFilter.hash(key);
+        boolean found = true;
+        for (int idx = 0; found && idx < this.hashes; ++idx) {
+            final long bit = this.bit(hash, idx);
+            found = (this.words.get((int) (bit / Long.SIZE)) & 1L << bit) != 0L;
+        }
+        return found;
+    }
+
+    /**
+     * Position of one of a key's bits, by double hashing.
+     * @param hash Key hash
+     * @param idx Which of the key's bits
+     * @return Bit position
+     */
+    private long bit(final ByteBuffer hash, final int idx) {
+        return Long.remainderUnsigned(
+            hash.getLong(0) + idx * (hash.getLong(Long.BYTES) | 1L),
+            this.size
+        );
+    }
+
+    /**
+     * Hash of a key.
+     * @param key Key
+     * @return 128 bits of hash
+     */
+    private static ByteBuffer hash(final String key) {
+        return ByteBuffer.wrap(
+            Hashing.murmur3_128().hashUnencodedChars(key).asBytes()
+        ).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
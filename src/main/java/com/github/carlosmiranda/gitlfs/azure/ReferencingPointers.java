@@ -0,0 +1,293 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.azure.storage.AccessCondition;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.servlet.http.HttpServletRequest;
+import org.jetbrains.annotations.NotNull;
+import ru.bozaro.gitlfs.common.data.BatchItem;
+import ru.bozaro.gitlfs.common.data.LinkType;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ForbiddenError;
+import ru.bozaro.gitlfs.server.PointerManager;
+import ru.bozaro.gitlfs.server.UnauthorizedError;
+
+/**
+ * Decorating PointerManager recording that upload batches referenced
+ * objects the container already holds.
+ *
+ * <p>Git LFS doesn't upload objects a batch answers exist, so a push can
+ * make an unreachable object reachable again without writing it. Each such
+ * object, or the manifest of a chunked one, gets the time in its
+ * {@value #REFERENCED} metadata, which changes its Last-Modified time and
+ * ETag too: a {@link Sweeper} keeps it for the grace period, and one that
+ * listed it before fails to delete it. An object found deleted already is
+ * forgotten through {@link Swept} and located again, so the client uploads
+ * it. Objects small enough to be packed are left to pack compaction.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+final class ReferencingPointers implements PointerManager {
+    /**
+     * Metadata key holding the time an object was last referenced.
+     */
+    public static final String REFERENCED = "referenced";
+
+    /**
+     * Number of objects recorded at once.
+     */
+    private static final int THREADS = 16;
+
+    /**
+     * Backing pointer manager.
+     */
+    private final PointerManager pointers;
+
+    /**
+     * Azure container.
+     */
+    private final CloudBlobContainer container;
+
+    /**
+     * Holders of objects to forget deleted ones.
+     */
+    private final Swept swept;
+
+    /**
+     * Largest object that may be packed, zero if none is.
+     */
+    private final long packed;
+
+    /**
+     * Threads recording references.
+     */
+    private final ExecutorService threads;
+
+    /**
+     * Ctor.
+     * @param pointers Backing pointer manager
+     * @param container Azure container
+     * @param swept Holders of objects to forget deleted ones
+     * @param packed Largest object that may be packed, zero if none is
+     * @checkstyle ParameterNumber (3 lines)
+     */
+    ReferencingPointers(final PointerManager pointers,
+        final CloudBlobContainer container, final Swept swept,
+        final long packed) {
+        this.pointers = pointers;
+        this.container = container;
+        this.swept = swept;
+        this.packed = packed;
+        this.threads = Executors.newFixedThreadPool(
+            ReferencingPointers.THREADS,
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("reference-%d")
+                .build()
+        );
+    }
+
+    @Override
+    @NotNull
+    public Locator checkUploadAccess(@NotNull final HttpServletRequest request,
+        @NotNull final URI self)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return new ReferencingLocator(
+            this.pointers.checkUploadAccess(request, self)
+        );
+    }
+
+    @Override
+    @NotNull
+    public Locator checkDownloadAccess(
+        @NotNull final HttpServletRequest request, @NotNull final URI self)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return this.pointers.checkDownloadAccess(request, self);
+    }
+
+    /**
+     * Record a reference to an object in its blob, or its manifest.
+     * @param oid Object id
+     * @return False if the object has neither
+     * @throws IOException If the reference can't be recorded
+     */
+    private boolean reference(final String oid) throws IOException {
+        boolean found = false;
+        for (final String name
+            : new String[] {oid, ChunkedStorage.MANIFESTS + oid}) {
+            if (!found) {
+                found = this.stamp(name);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Set the time of the reference in the metadata of a blob, keeping the
+     * rest of its metadata. A blob that changed meanwhile needs no stamp.
+     * @param name Blob name
+     * @return False if there is no such blob
+     * @throws IOException If the metadata can't be set
+     */
+    private boolean stamp(final String name) throws IOException {
+        boolean found = true;
+        try {
+            final CloudBlockBlob blob =
+                this.container.getBlockBlobReference(name);
+            blob.downloadAttributes();
+            blob.getMetadata().put(
+                ReferencingPointers.REFERENCED, Instant.now().toString()
+            );
+            blob.uploadMetadata(
+                AccessCondition.generateIfMatchCondition(
+                    blob.getProperties().getEtag()
+                ),
+                null, null
+            );
+        } catch (final StorageException ex) {
+            final int status = ex.getHttpStatusCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                found = false;
+            } else if (status != HttpURLConnection.HTTP_PRECON_FAILED) {
+                throw new IOException(ex);
+            }
+        } catch (final URISyntaxException ex) {
+            throw new IOException(ex);
+        }
+        return found;
+    }
+
+    /**
+     * Wait for a reference to be recorded.
+     * @param reference Reference being recorded
+     * @return False if the object was not found
+     * @throws IOException If it couldn't be recorded, or waiting was
+     *  interrupted
+     */
+    private static boolean await(final Future<Boolean> reference)
+        throws IOException {
+        try {
+            return reference.get();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+        } catch (final ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Does a batch answer that the container holds an object?
+     * @param item Batch item
+     * @return True if it does
+     */
+    private static boolean existing(final BatchItem item) {
+        return item.getError() == null
+            && (item.getLinks() == null
+            || !item.getLinks().containsKey(LinkType.Upload));
+    }
+
+    /**
+     * Locator recording references to the objects it finds.
+     */
+    private final class ReferencingLocator implements Locator {
+        /**
+         * Backing locator.
+         */
+        private final Locator locator;
+
+        /**
+         * Ctor.
+         * @param locator Backing locator
+         */
+        ReferencingLocator(final Locator locator) {
+            this.locator = locator;
+        }
+
+        @Override
+        @NotNull
+        public BatchItem[] getLocations(@NotNull final Meta[] metas)
+            throws IOException {
+            final BatchItem[] items = this.locator.getLocations(metas);
+            final Map<Integer, Future<Boolean>> references =
+                new LinkedHashMap<>();
+            for (int idx = 0; idx < items.length; ++idx) {
+                final BatchItem item = items[idx];
+                if (ReferencingPointers.existing(item)
+                    && item.getSize() > ReferencingPointers.this.packed) {
+                    references.put(
+                        idx,
+                        ReferencingPointers.this.threads.submit(
+                            () -> ReferencingPointers.this.reference(
+                                item.getOid()
+                            )
+                        )
+                    );
+                }
+            }
+            final List<Integer> gone = new ArrayList<>(0);
+            for (final Map.Entry<Integer, Future<Boolean>> entry
+                : references.entrySet()) {
+                if (!ReferencingPointers.await(entry.getValue())) {
+                    gone.add(entry.getKey());
+                }
+            }
+            this.relocate(items, gone);
+            return items;
+        }
+
+        /**
+         * Forget objects found deleted and locate them again.
+         * @param items Batch items, replaced in place
+         * @param gone Indexes of the items of deleted objects
+         * @throws IOException If they can't be located
+         */
+        private void relocate(final BatchItem[] items,
+            final List<Integer> gone) throws IOException {
+            if (!gone.isEmpty()) {
+                final Meta[] metas = new Meta[gone.size()];
+                for (int idx = 0; idx < metas.length; ++idx) {
+                    final BatchItem item = items[gone.get(idx)];
+                    ReferencingPointers.this.swept.forget(item.getOid());
+                    metas[idx] = new Meta(item.getOid(), item.getSize());
+                }
+                final BatchItem[] located = this.locator.getLocations(metas);
+                for (int idx = 0; idx < located.length; ++idx) {
+                    items[gone.get(idx)] = located[idx];
+                }
+            }
+        }
+    }
+}
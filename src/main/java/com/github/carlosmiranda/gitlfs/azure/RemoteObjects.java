@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Iterators;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import ru.bozaro.gitlfs.client.Client;
+import ru.bozaro.gitlfs.common.data.BatchItem;
+import ru.bozaro.gitlfs.common.data.BatchReq;
+import ru.bozaro.gitlfs.common.data.Error;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.common.data.Operation;
+
+/**
+ * Objects on another Git LFS server, read through its batch API.
+ *
+ * <p>Git LFS has no way to list a server's objects, so they are read from
+ * a file of {@code <oid> <size>} lines, sorted by object id. Each object is
+ * asked for in a batch request of its own right before it is read, so
+ * download links never expire while other objects are being copied.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class RemoteObjects implements Importer.Source {
+    /**
+     * Client of the other server.
+     */
+    private final Client client;
+
+    /**
+     * File listing the objects.
+     */
+    private final Path listing;
+
+    /**
+     * Ctor.
+     * @param client Client of the other server
+     * @param listing File of {@code <oid> <size>} lines, in object id order
+     */
+    RemoteObjects(final Client client, final Path listing) {
+        this.client = client;
+        this.listing = listing;
+    }
+
+    @Override
+    public Iterator<Meta> objects() throws IOException {
+        return Iterators.transform(
+            Iterators.filter(
+                Files.lines(this.listing, StandardCharsets.UTF_8).iterator(),
+                line -> !line.trim().isEmpty()
+            ),
+            RemoteObjects::meta
+        );
+    }
+
+    @Override
+    public void read(final Meta meta, final Importer.Sink sink)
+        throws IOException {
+        final BatchItem item = this.client.postBatch(
+            new BatchReq(Operation.Download, Collections.singletonList(meta))
+        ).getObjects().get(0);
+        final Error error = item.getError();
+        if (error != null) {
+            throw new IOException(
+                String.format(
+                    "%s: %d %s", meta.getOid(), error.getCode(),
+                    error.getMessage()
+                )
+            );
+        }
+        this.client.getObject(
+            meta, item,
+            content -> {
+                sink.accept(content);
+                return meta;
+            }
+        );
+    }
+
+    /**
+     * Metadata from a line of the listing.
+     * @param line Line
+     * @return Object id and size
+     */
+    private static Meta meta(final String line) {
+        final List<String> fields = Splitter.on(' ').trimResults()
+            .omitEmptyStrings().splitToList(line);
+        if (fields.size() != 2) {
+            throw new UncheckedIOException(
+                new IOException(String.format("Bad object line: %s", line))
+            );
+        }
+        return new Meta(fields.get(0), Long.parseLong(fields.get(1)));
+    }
+}
@@ -0,0 +1,348 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.CloudBlob;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import com.microsoft.azure.storage.blob.CopyStatus;
+import com.microsoft.azure.storage.blob.ListBlobItem;
+import java.net.URISyntaxException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Replicas of objects read more often than one blob can serve them.
+ *
+ * <p>Azure serves each blob at a limited rate, however many clients read
+ * it. Reads are counted in an {@link AccessSketch} whose counts halve every
+ * minute; once the count of an object reaches a threshold, the object is
+ * copied server-side into replica blobs {@code replicas/<oid>/<n>}, and its
+ * reads are spread evenly over the object and the replicas ready so far.
+ * Once the count falls below half the threshold, reads go back to the
+ * object alone, and the replicas are deleted after a grace period, so that
+ * downloads reading them can finish. Replicas left over by an earlier run
+ * are deleted on start.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+final class Replicas {
+    /**
+     * Prefix of replica blobs.
+     */
+    public static final String PREFIX = "replicas/";
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(Replicas.class.getName());
+
+    /**
+     * Time after which replicas of an object that cooled down are deleted.
+     */
+    // @checkstyle MagicNumber (1 line)
+    private static final Duration GRACE = Duration.ofMinutes(15L);
+
+    /**
+     * Time a server-side copy may take.
+     */
+    // @checkstyle MagicNumber (1 line)
+    private static final Duration COPY = Duration.ofMinutes(10L);
+
+    /**
+     * Milliseconds between checks of a pending copy.
+     */
+    private static final long POLL = 1000L;
+
+    /**
+     * Counters per row of the sketch.
+     */
+    // @checkstyle MagicNumber (1 line)
+    private static final int WIDTH = 1 << 18;
+
+    /**
+     * Container.
+     */
+    private final CloudBlobContainer container;
+
+    /**
+     * Replicas per hot object.
+     */
+    private final int copies;
+
+    /**
+     * Recent reads that make an object hot.
+     */
+    private final int reads;
+
+    /**
+     * Read counts.
+     */
+    private final AccessSketch sketch;
+
+    /**
+     * Number of replicas ready, by object id.
+     */
+    private final ConcurrentMap<String, Integer> ready;
+
+    /**
+     * Objects queued for copying.
+     */
+    private final Set<String> pending;
+
+    /**
+     * Time replicas of cooled down objects are deleted at, by object id.
+     * Only used by the maintenance thread.
+     */
+    private final Map<String, Instant> retired;
+
+    /**
+     * Replicas copied.
+     */
+    private final LongAdder copied;
+
+    /**
+     * Replicas deleted.
+     */
+    private final LongAdder deleted;
+
+    /**
+     * Reads sent to a replica.
+     */
+    private final LongAdder spread;
+
+    /**
+     * Thread copying and deleting replicas.
+     */
+    private final ScheduledExecutorService maintenance;
+
+    /**
+     * Ctor.
+     * @param container Container
+     * @param copies Replicas per hot object
+     * @param reads Recent reads that make an object hot
+     */
+    Replicas(final CloudBlobContainer container, final int copies,
+        final int reads) {
+        this.container = container;
+        this.copies = copies;
+        this.reads = reads;
+        this.sketch = new AccessSketch(Replicas.WIDTH);
+        this.ready = new ConcurrentHashMap<>();
+        this.pending = ConcurrentHashMap.newKeySet();
+        this.retired = new HashMap<>();
+        this.copied = new LongAdder();
+        this.deleted = new LongAdder();
+        this.spread = new LongAdder();
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("replicas")
+                .build()
+        );
+    }
+
+    /**
+     * Delete left over replicas and schedule passes.
+     * @return This same instance
+     */
+    public Replicas start() {
+        this.maintenance.execute(this::clean);
+        this.maintenance.scheduleWithFixedDelay(
+            this::pass, 1L, 1L, TimeUnit.MINUTES
+        );
+        return this;
+    }
+
+    /**
+     * Record a read of an object, and choose the blob to read it from.
+     * @param oid Object id
+     * @return Name of the object blob or of one of its replicas
+     */
+    public String read(final String oid) {
+        this.sketch.increment(oid);
+        final Integer count = this.ready.get(oid);
+        String blob = oid;
+        if (count == null) {
+            if (this.sketch.estimate(oid) >= this.reads
+                && this.pending.add(oid)) {
+                this.maintenance.execute(() -> this.replicate(oid));
+            }
+        } else {
+            final int pick = ThreadLocalRandom.current().nextInt(count + 1);
+            if (pick > 0) {
+                this.spread.increment();
+                blob = Replicas.name(oid, pick);
+            }
+        }
+        return blob;
+    }
+
+    /**
+     * Replica metrics.
+     * @return Metrics
+     */
+    public Metrics metrics() {
+        return new Metrics("Replicas")
+            .gauge("Replicated", () -> (double) this.ready.size())
+            .gauge("Copied", this.copied::doubleValue)
+            .gauge("Deleted", this.deleted::doubleValue)
+            .gauge("ReplicaReads", this.spread::doubleValue);
+    }
+
+    /**
+     * Name of a replica blob.
+     * @param oid Object id
+     * @param number Replica number, from 1
+     * @return Blob name
+     */
+    public static String name(final String oid, final int number) {
+        return String.format("%s%s/%d", Replicas.PREFIX, oid, number);
+    }
+
+    /**
+     * Copy an object into its replicas, making each readable once copied.
+     * @param oid Object id
+     */
+    private void replicate(final String oid) {
+        this.retired.remove(oid);
+        try {
+            final CloudBlockBlob source =
+                this.container.getBlockBlobReference(oid);
+            for (int number = 1; number <= this.copies; ++number) {
+                final CloudBlockBlob replica =
+                    this.container.getBlockBlobReference(
+                        Replicas.name(oid, number)
+                    );
+                replica.startCopy(source);
+                Replicas.await(replica);
+                this.copied.increment();
+                this.ready.put(oid, number);
+            }
+        } catch (final StorageException | URISyntaxException ex) {
+            Replicas.LOGGER.log(
+                Level.WARNING, String.format("Can't replicate %s", oid), ex
+            );
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.pending.remove(oid);
+        }
+    }
+
+    /**
+     * Retire replicas of objects that cooled down, delete those retired
+     * long enough ago, then decay read counts.
+     */
+    private void pass() {
+        final Instant now = Instant.now();
+        for (final String oid : this.ready.keySet()) {
+            if (this.sketch.estimate(oid) < this.reads / 2) {
+                this.ready.remove(oid);
+                this.retired.put(oid, now.plus(Replicas.GRACE));
+            }
+        }
+        final Iterator<Map.Entry<String, Instant>> expired =
+            this.retired.entrySet().iterator();
+        while (expired.hasNext()) {
+            final Map.Entry<String, Instant> entry = expired.next();
+            if (entry.getValue().isBefore(now)) {
+                expired.remove();
+                for (int number = 1; number <= this.copies; ++number) {
+                    this.delete(Replicas.name(entry.getKey(), number));
+                }
+            }
+        }
+        this.sketch.decay();
+    }
+
+    /**
+     * Delete replicas left over by an earlier run.
+     */
+    private void clean() {
+        try {
+            for (final ListBlobItem item
+                : this.container.listBlobs(Replicas.PREFIX, true)) {
+                if (item instanceof CloudBlob) {
+                    this.delete(((CloudBlob) item).getName());
+                }
+            }
+            // @checkstyle IllegalCatch (1 line)
+        } catch (final RuntimeException ex) {
+            Replicas.LOGGER.log(Level.WARNING, "Can't list replicas", ex);
+        }
+    }
+
+    /**
+     * Delete a replica, if it exists.
+     * @param name Blob name
+     */
+    private void delete(final String name) {
+        try {
+            if (this.container.getBlockBlobReference(name).deleteIfExists()) {
+                this.deleted.increment();
+            }
+        } catch (final StorageException | URISyntaxException ex) {
+            Replicas.LOGGER.log(
+                Level.WARNING, String.format("Can't delete %s", name), ex
+            );
+        }
+    }
+
+    /**
+     * Wait for a server-side copy to complete.
+     * @param replica Blob being copied to
+     * @throws StorageException If the copy fails or takes too long
+     * @throws InterruptedException If interrupted
+     */
+    static void await(final CloudBlockBlob replica)
+        throws StorageException, InterruptedException {
+        final Instant deadline = Instant.now().plus(Replicas.COPY);
+        CopyStatus status = replica.getCopyState().getStatus();
+        while (status == CopyStatus.PENDING
+            && Instant.now().isBefore(deadline)) {
+            Thread.sleep(Replicas.POLL);
+            replica.downloadAttributes();
+            status = replica.getCopyState().getStatus();
+        }
+        if (status != CopyStatus.SUCCESS) {
+            throw new StorageException(
+                "CopyFailed",
+                String.format(
+                    "Copy to %s ended %s", replica.getName(), status
+                ),
+                null
+            );
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.IOException;
+import java.io.InputStream;
+import javax.servlet.http.HttpServletRequest;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ForbiddenError;
+import ru.bozaro.gitlfs.server.UnauthorizedError;
+
+/**
+ * Decorating ContentManager spreading reads of hot objects over their
+ * {@link Replicas}.
+ *
+ * <p>The backing storage must read blobs by name, as the Azure engines do,
+ * so it goes right over them. A replica that can't be opened, because it
+ * was just deleted, is read from the object itself instead.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class ReplicatedStorage implements ContentManager {
+    /**
+     * Replicas.
+     */
+    private final Replicas replicas;
+
+    /**
+     * Backing storage.
+     */
+    private final ContentManager storage;
+
+    /**
+     * Ctor.
+     * @param replicas Replicas
+     * @param storage Backing storage
+     */
+    ReplicatedStorage(final Replicas replicas, final ContentManager storage) {
+        this.replicas = replicas;
+        this.storage = storage;
+    }
+
+    @Override
+    @NotNull
+    public Downloader checkDownloadAccess(
+        @NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return new ReplicatedDownloader(
+            this.storage.checkDownloadAccess(request)
+        );
+    }
+
+    @Override
+    @NotNull
+    public Uploader checkUploadAccess(@NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return this.storage.checkUploadAccess(request);
+    }
+
+    @Override
+    @Nullable
+    public Meta getMetadata(@NotNull final String hash) throws IOException {
+        return this.storage.getMetadata(hash);
+    }
+
+    /**
+     * Downloader reading from replicas.
+     */
+    private final class ReplicatedDownloader implements Downloader {
+        /**
+         * Backing downloader.
+         */
+        private final Downloader downloader;
+
+        /**
+         * Ctor.
+         * @param downloader Backing downloader
+         */
+        ReplicatedDownloader(final Downloader downloader) {
+            this.downloader = downloader;
+        }
+
+        @Override
+        @NotNull
+        public InputStream openObject(@NotNull final String hash)
+            throws IOException {
+            final String blob = ReplicatedStorage.this.replicas.read(hash);
+            InputStream stream;
+            if (blob.equals(hash)) {
+                stream = this.downloader.openObject(hash);
+            } else {
+                try {
+                    stream = this.downloader.openObject(blob);
+                } catch (final IOException ex) {
+                    stream = this.downloader.openObject(hash);
+                }
+            }
+            return stream;
+        }
+
+        @Override
+        @Nullable
+        public InputStream openObjectGzipped(@NotNull final String hash)
+            throws IOException {
+            return this.downloader.openObjectGzipped(hash);
+        }
+    }
+}
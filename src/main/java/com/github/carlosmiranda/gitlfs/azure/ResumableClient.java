@@ -0,0 +1,404 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CharStreams;
+import com.google.common.io.CountingInputStream;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * Client of the resumable upload and bulk download endpoints of an LFS
+ * server.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class ResumableClient {
+    /**
+     * Size of the copy buffer.
+     */
+    // @checkstyle MagicNumber (1 line)
+    private static final int BUFFER = 1 << 16;
+
+    /**
+     * Fields of a frame header.
+     */
+    private static final int FIELDS = 3;
+
+    /**
+     * Longest frame header.
+     */
+    private static final int HEADER = 128;
+
+    /**
+     * Time to wait between asking whether an upload is stored.
+     */
+    private static final Duration POLL = Duration.ofSeconds(1L);
+
+    /**
+     * Longest time to wait for an upload to be stored.
+     */
+    private static final Duration STORING = Duration.ofHours(1L);
+
+    /**
+     * LFS URL, ending with {@code /info/lfs}.
+     */
+    private final String url;
+
+    /**
+     * Authorization header, empty if none.
+     */
+    private final String auth;
+
+    /**
+     * Ctor.
+     * @param url LFS URL, ending with {@code /info/lfs}
+     * @param auth Authorization header, empty if none
+     */
+    ResumableClient(final String url, final String auth) {
+        this.url = url.replaceAll("/+$", "");
+        this.auth = auth;
+    }
+
+    /**
+     * Number of bytes of an object the server already has.
+     * @param oid Object id
+     * @return Offset to continue from, or -1 if the object is stored
+     * @throws IOException If the server can't be asked
+     */
+    public long offset(final String oid) throws IOException {
+        final HttpURLConnection conn =
+            this.open("HEAD", String.format("resumable/%s", oid));
+        ResumableClient.expect(conn, HttpURLConnection.HTTP_OK);
+        long offset = Long.parseLong(
+            conn.getHeaderField(ResumableServlet.OFFSET)
+        );
+        if (conn.getHeaderField(ResumableServlet.COMPLETE) != null) {
+            offset = -1L;
+        }
+        return offset;
+    }
+
+    /**
+     * Send the rest of an object.
+     * @param oid Object id
+     * @param offset Offset to continue from
+     * @param file File holding the object
+     * @param progress Told the number of bytes sent so far, as they're sent
+     * @return Number of bytes the server has received
+     * @throws IOException If sending fails
+     * @checkstyle ParameterNumber (3 lines)
+     */
+    public long append(final String oid, final long offset, final Path file,
+        final LongConsumer progress) throws IOException {
+        final HttpURLConnection conn =
+            this.open("PUT", String.format("resumable/%s", oid));
+        conn.setRequestProperty(ResumableServlet.OFFSET, Long.toString(offset));
+        conn.setDoOutput(true);
+        conn.setFixedLengthStreamingMode(Files.size(file) - offset);
+        try (FileChannel channel = FileChannel.open(
+            file, StandardOpenOption.READ
+        ); OutputStream output = conn.getOutputStream()) {
+            channel.position(offset);
+            ResumableClient.copy(
+                Channels.newInputStream(channel), output, offset, progress
+            );
+        }
+        ResumableClient.expect(conn, HttpURLConnection.HTTP_NO_CONTENT);
+        return Long.parseLong(conn.getHeaderField(ResumableServlet.OFFSET));
+    }
+
+    /**
+     * Complete an upload, waiting until the server has stored the object.
+     * @param oid Object id
+     * @throws IOException If the server refuses the object, or takes too
+     *  long to store it
+     */
+    public void finish(final String oid) throws IOException {
+        final Instant deadline = Instant.now().plus(ResumableClient.STORING);
+        int status = HttpURLConnection.HTTP_ACCEPTED;
+        while (status == HttpURLConnection.HTTP_ACCEPTED) {
+            final HttpURLConnection conn =
+                this.open("POST", String.format("resumable/%s", oid));
+            conn.setDoOutput(true);
+            conn.setFixedLengthStreamingMode(0);
+            conn.getOutputStream().close();
+            status = conn.getResponseCode();
+            if (status == HttpURLConnection.HTTP_ACCEPTED) {
+                if (Instant.now().isAfter(deadline)) {
+                    throw new IOException(
+                        String.format("%s is still being stored", oid)
+                    );
+                }
+                ResumableClient.pause();
+            } else {
+                ResumableClient.expect(conn, HttpURLConnection.HTTP_OK);
+            }
+        }
+    }
+
+    /**
+     * Download an object.
+     * @param oid Object id
+     * @param file File to write the object to
+     * @param progress Told the number of bytes received so far
+     * @throws IOException If the download fails
+     */
+    public void download(final String oid, final Path file,
+        final LongConsumer progress) throws IOException {
+        final HttpURLConnection conn =
+            this.open("GET", String.format("storage/%s", oid));
+        ResumableClient.expect(conn, HttpURLConnection.HTTP_OK);
+        try (InputStream input = conn.getInputStream();
+            OutputStream output = Files.newOutputStream(file)) {
+            ResumableClient.copy(input, output, 0L, progress);
+        }
+    }
+
+    /**
+     * Download many objects in one request.
+     *
+     * <p>Frames are handed over as they arrive, in the order asked for. The
+     * content of each is only readable until the next one is handed over;
+     * whatever isn't read is skipped.
+     * @param oids Object ids, at most {@link BulkServlet#MAX_OBJECTS}
+     * @param frames Told each object in the response
+     * @throws IOException If the request fails or the response is broken
+     */
+    public void bulk(final List<String> oids, final Frames frames)
+        throws IOException {
+        final byte[] body = oids.stream()
+            .map(oid -> oid.concat("\n"))
+            .collect(Collectors.joining())
+            .getBytes(StandardCharsets.US_ASCII);
+        final HttpURLConnection conn = this.open("POST", "bulk");
+        conn.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
+        conn.setDoOutput(true);
+        conn.setFixedLengthStreamingMode(body.length);
+        try (OutputStream output = conn.getOutputStream()) {
+            output.write(body);
+        }
+        ResumableClient.expect(conn, HttpURLConnection.HTTP_OK);
+        try (InputStream input = new BufferedInputStream(
+            conn.getInputStream(), ResumableClient.BUFFER
+        )) {
+            for (String header = ResumableClient.line(input); header != null;
+                header = ResumableClient.line(input)) {
+                final String[] fields = header.split(" ");
+                if (fields.length != ResumableClient.FIELDS) {
+                    throw new IOException(
+                        String.format("Malformed frame header %s", header)
+                    );
+                }
+                final long size = Long.parseLong(fields[2]);
+                final CountingInputStream content = new CountingInputStream(
+                    ByteStreams.limit(input, size)
+                );
+                try {
+                    frames.accept(
+                        fields[0], Integer.parseInt(fields[1]), content
+                    );
+                } finally {
+                    ByteStreams.copy(content, ByteStreams.nullOutputStream());
+                }
+                if (content.getCount() != size) {
+                    throw new IOException(
+                        String.format("Response ended within %s", fields[0])
+                    );
+                }
+            }
+        }
+    }
+
+    /**
+     * Open a request.
+     * @param method HTTP method
+     * @param path Path, relative to the LFS URL
+     * @return Connection
+     * @throws IOException If the connection can't be opened
+     */
+    private HttpURLConnection open(final String method, final String path)
+        throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) new URL(
+            String.format("%s/%s", this.url, path)
+        ).openConnection();
+        conn.setRequestMethod(method);
+        if (!this.auth.isEmpty()) {
+            conn.setRequestProperty("Authorization", this.auth);
+        }
+        return conn;
+    }
+
+    /**
+     * Copy a stream, telling progress.
+     * @param input Input
+     * @param output Output
+     * @param start Number of bytes sent before
+     * @param progress Told the number of bytes sent so far
+     * @throws IOException If copying fails
+     * @checkstyle ParameterNumber (3 lines)
+     */
+    private static void copy(final InputStream input, final OutputStream output,
+        final long start, final LongConsumer progress) throws IOException {
+        final byte[] buffer = new byte[ResumableClient.BUFFER];
+        long done = start;
+        for (int read = input.read(buffer); read >= 0;
+            read = input.read(buffer)) {
+            output.write(buffer, 0, read);
+            done += read;
+            progress.accept(done);
+        }
+    }
+
+    /**
+     * Read a frame header line.
+     * @param input Response body
+     * @return Line, or null at the end of the response
+     * @throws IOException If the line can't be read or is too long
+     */
+    private static String line(final InputStream input) throws IOException {
+        final StringBuilder line = new StringBuilder(ResumableClient.HEADER);
+        int read = input.read();
+        while (read >= 0 && read != '\n') {
+            if (line.length() == ResumableClient.HEADER) {
+                throw new IOException("Frame header too long");
+            }
+            line.append((char) read);
+            read = input.read();
+        }
+        if (read < 0 && line.length() > 0) {
+            throw new IOException("Response ended within a frame header");
+        }
+        String header = null;
+        if (read >= 0) {
+            header = line.toString();
+        }
+        return header;
+    }
+
+    /**
+     * Fail unless a response has the expected status.
+     * @param conn Connection
+     * @param status Expected status
+     * @throws IOException If it doesn't
+     */
+    private static void expect(final HttpURLConnection conn, final int status)
+        throws IOException {
+        final int actual = conn.getResponseCode();
+        if (actual != status) {
+            throw new IOException(
+                String.format(
+                    "%s %s answered %d %s", conn.getRequestMethod(),
+                    conn.getURL(), actual, conn.getResponseMessage()
+                )
+            );
+        }
+    }
+
+    /**
+     * Wait before asking the server again.
+     * @throws IOException If interrupted
+     */
+    private static void pause() throws IOException {
+        try {
+            Thread.sleep(ResumableClient.POLL.toMillis());
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the server", ex);
+        }
+    }
+
+    /**
+     * Credentials for a URL, from Git's credential helpers.
+     * @param url URL
+     * @return Authorization header, or empty if there are none
+     * @throws IOException If git can't be run
+     */
+    public static String credentials(final String url) throws IOException {
+        final Process git = new ProcessBuilder("git", "credential", "fill")
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+        try (Writer input = new OutputStreamWriter(
+            git.getOutputStream(), StandardCharsets.UTF_8
+        )) {
+            input.write(String.format("url=%s%n%n", url));
+        }
+        final Map<String, String> fields = new HashMap<>();
+        try (Reader output = new InputStreamReader(
+            git.getInputStream(), StandardCharsets.UTF_8
+        )) {
+            for (final String line : CharStreams.readLines(output)) {
+                final int split = line.indexOf('=');
+                if (split > 0) {
+                    fields.put(
+                        line.substring(0, split), line.substring(split + 1)
+                    );
+                }
+            }
+        }
+        String auth = "";
+        if (fields.containsKey("username")) {
+            auth = String.format(
+                "Basic %s",
+                Base64.getEncoder().encodeToString(
+                    String.format(
+                        "%s:%s", fields.get("username"),
+                        fields.getOrDefault("password", "")
+                    ).getBytes(StandardCharsets.UTF_8)
+                )
+            );
+        }
+        return auth;
+    }
+
+    /**
+     * Objects of a bulk download.
+     */
+    interface Frames {
+        /**
+         * Take an object.
+         * @param oid Object id
+         * @param status Status, 200 if the object was sent
+         * @param content Content
+         * @throws IOException If the content can't be taken
+         */
+        void accept(String oid, int status, InputStream content)
+            throws IOException;
+    }
+}
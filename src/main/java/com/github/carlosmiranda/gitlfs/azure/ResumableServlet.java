@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.util.regex.Pattern;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ServerError;
+
+/**
+ * Servlet for resumable uploads of objects.
+ *
+ * <p>Mapped to {@code <path>/info/lfs/resumable/<oid>}:
+ * <ul>
+ *   <li>{@code HEAD} answers the number of bytes received so far in the
+ *   {@code Upload-Offset} header, with {@code Upload-Complete: true} if the
+ *   object is already stored;</li>
+ *   <li>{@code PUT} with an {@code Upload-Offset} header appends its body,
+ *   and answers the new offset, or {@code 409} if the offset is wrong or
+ *   another request for the object is being served;</li>
+ *   <li>{@code POST} completes the upload: it answers {@code 202} while the
+ *   object is checked and stored in the background, and is repeated until
+ *   it answers {@code 200}, or {@code 422} if the content doesn't match the
+ *   object id.</li>
+ * </ul>
+ * Requests need the same authorization as uploads.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class ResumableServlet extends HttpServlet {
+    /**
+     * Header with the number of bytes received.
+     */
+    public static final String OFFSET = "Upload-Offset";
+
+    /**
+     * Header telling the object is already stored.
+     */
+    public static final String COMPLETE = "Upload-Complete";
+
+    /**
+     * Serialization marker.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Path of an object.
+     */
+    private static final Pattern OID = Pattern.compile("^/[0-9a-f]{64}$");
+
+    /**
+     * Storage.
+     */
+    private final transient ContentManager storage;
+
+    /**
+     * Staged uploads.
+     */
+    private final transient ResumableUploads uploads;
+
+    /**
+     * Ctor.
+     * @param storage Storage
+     * @param uploads Staged uploads
+     */
+    ResumableServlet(final ContentManager storage,
+        final ResumableUploads uploads) {
+        super();
+        this.storage = storage;
+        this.uploads = uploads;
+    }
+
+    @Override
+    protected void doHead(final HttpServletRequest req,
+        final HttpServletResponse resp) throws IOException {
+        this.serve(
+            req, resp,
+            oid -> {
+                this.storage.checkUploadAccess(req);
+                final Meta meta = this.storage.getMetadata(oid);
+                if (meta == null) {
+                    resp.setHeader(
+                        ResumableServlet.OFFSET,
+                        Long.toString(this.uploads.offset(oid))
+                    );
+                } else {
+                    resp.setHeader(
+                        ResumableServlet.OFFSET, Long.toString(meta.getSize())
+                    );
+                    resp.setHeader(ResumableServlet.COMPLETE, "true");
+                }
+                resp.setStatus(HttpServletResponse.SC_OK);
+            }
+        );
+    }
+
+    @Override
+    protected void doPut(final HttpServletRequest req,
+        final HttpServletResponse resp) throws IOException {
+        this.serve(
+            req, resp,
+            oid -> {
+                final String offset = req.getHeader(ResumableServlet.OFFSET);
+                if (offset == null || !offset.matches("\\d{1,18}")) {
+                    throw new ServerError(
+                        HttpServletResponse.SC_BAD_REQUEST,
+                        String.format(
+                            "%s header missing", ResumableServlet.OFFSET
+                        )
+                    );
+                }
+                this.storage.checkUploadAccess(req);
+                resp.setHeader(
+                    ResumableServlet.OFFSET,
+                    Long.toString(
+                        this.uploads.append(
+                            oid, Long.parseLong(offset), req.getInputStream()
+                        )
+                    )
+                );
+                resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            }
+        );
+    }
+
+    @Override
+    protected void doPost(final HttpServletRequest req,
+        final HttpServletResponse resp) throws IOException {
+        this.serve(
+            req, resp,
+            oid -> {
+                final ContentManager.Uploader uploader =
+                    this.storage.checkUploadAccess(req);
+                if (this.storage.getMetadata(oid) == null) {
+                    this.uploads.finish(oid, uploader);
+                    resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+                } else {
+                    resp.setStatus(HttpServletResponse.SC_OK);
+                }
+            }
+        );
+    }
+
+    /**
+     * Refuse deserialization, the servlet only makes sense in this server.
+     * @param stream Stream
+     * @throws IOException Always
+     * @throws ClassNotFoundException Never
+     */
+    private void readObject(final ObjectInputStream stream)
+        throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        throw new NotSerializableException(this.getClass().getName());
+    }
+
+    /**
+     * Serve a request for an object.
+     * @param req Request
+     * @param resp Response
+     * @param action What to do with the object
+     * @throws IOException If an IO Exception occurs.
+     */
+    private void serve(final HttpServletRequest req,
+        final HttpServletResponse resp, final Action action)
+        throws IOException {
+        final String path = req.getPathInfo();
+        try {
+            if (path == null || !ResumableServlet.OID.matcher(path).matches()) {
+                throw new ServerError(
+                    HttpServletResponse.SC_NOT_FOUND, "No such object"
+                );
+            }
+            action.run(path.substring(1));
+        } catch (final ServerError ex) {
+            resp.setStatus(ex.getStatusCode());
+            ex.updateHeaders(resp);
+            resp.getWriter().println(ex.getMessage());
+        }
+    }
+
+    /**
+     * Action on an object.
+     */
+    private interface Action {
+        /**
+         * Run the action.
+         * @param oid Object id
+         * @throws IOException If an IO Exception occurs.
+         * @throws ServerError If the request can't be served
+         */
+        void run(String oid) throws IOException, ServerError;
+    }
+}
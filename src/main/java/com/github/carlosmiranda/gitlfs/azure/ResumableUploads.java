@@ -0,0 +1,457 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.BlobListingDetails;
+import com.microsoft.azure.storage.blob.BlockEntry;
+import com.microsoft.azure.storage.blob.BlockListingFilter;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import com.microsoft.azure.storage.blob.ListBlobItem;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ServerError;
+
+/**
+ * Uploads that survive failures, staged as uncommitted Azure blocks.
+ *
+ * <p>The content of an object being uploaded is staged as blocks of the
+ * blob {@code uploads/<oid>}, each block id holding the offset of its first
+ * byte. The offset received so far is therefore known from the block list
+ * alone, whichever server received the blocks. A server takes one request
+ * at a time for an object, refusing a second one while the first is
+ * staging blocks or storing the object.
+ *
+ * <p>Once the client is done, the blocks are committed and the request
+ * answered. The committed blob is then read back in the background, to
+ * check the object id, and saved through the storage like any other
+ * upload; the client asks again until the object is stored. Content that
+ * doesn't match is marked refused, and the next request for it refused.
+ *
+ * <p>Azure discards uncommitted blocks after a week; uploads left alone
+ * for longer than the time to live are deleted sooner.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class ResumableUploads {
+    /**
+     * Prefix of staged uploads.
+     */
+    public static final String PREFIX = "uploads/";
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(ResumableUploads.class.getName());
+
+    /**
+     * Size of a staged block.
+     */
+    // @checkstyle MagicNumber (1 line)
+    private static final int BLOCK = 4 << 20;
+
+    /**
+     * Hours between sweeps of stale uploads.
+     */
+    private static final long SWEEP = 1L;
+
+    /**
+     * Metadata marking content that doesn't match its object id.
+     */
+    private static final String REFUSED = "refused";
+
+    /**
+     * Azure container.
+     */
+    private final CloudBlobContainer container;
+
+    /**
+     * Time after which an upload left alone is deleted.
+     */
+    private final Duration ttl;
+
+    /**
+     * Thread sweeping stale uploads.
+     */
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * Threads storing finished uploads.
+     */
+    private final ExecutorService storing;
+
+    /**
+     * Objects with a request being served, or being stored.
+     */
+    private final Set<String> busy;
+
+    /**
+     * Ctor.
+     * @param container Azure container
+     * @param ttl Time after which an upload left alone is deleted
+     */
+    ResumableUploads(final CloudBlobContainer container, final Duration ttl) {
+        this.container = container;
+        this.ttl = ttl;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("upload-sweep")
+                .build()
+        );
+        this.storing = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("upload-store-%d")
+                .build()
+        );
+        this.busy = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Schedule sweeps of stale uploads.
+     * @return This same instance
+     */
+    public ResumableUploads start() {
+        this.sweeper.scheduleWithFixedDelay(
+            this::sweep, ResumableUploads.SWEEP, ResumableUploads.SWEEP,
+            TimeUnit.HOURS
+        );
+        return this;
+    }
+
+    /**
+     * Number of bytes of an object received so far.
+     * @param oid Object id
+     * @return Offset to continue from
+     * @throws IOException If an IO Exception occurs.
+     */
+    public long offset(final String oid) throws IOException {
+        long offset = 0L;
+        final Map<Long, Long> blocks = this.blocks(oid);
+        while (blocks.containsKey(offset)) {
+            offset += blocks.get(offset);
+        }
+        return offset;
+    }
+
+    /**
+     * Stage more content of an object.
+     * @param oid Object id
+     * @param offset Offset of the content, which must be the number of
+     *  bytes received so far
+     * @param content Content
+     * @return Number of bytes received so far, including the content
+     * @throws IOException If an IO Exception occurs, after staging the
+     *  content read until then
+     * @throws ServerError If the offset is not the one expected, or the
+     *  object is busy with another request
+     */
+    public long append(final String oid, final long offset,
+        final InputStream content) throws IOException, ServerError {
+        this.acquire(oid);
+        try {
+            return this.receive(oid, offset, content);
+        } finally {
+            this.busy.remove(oid);
+        }
+    }
+
+    /**
+     * Commit an upload and store it in the background, unless it's already
+     * being stored.
+     * @param oid Object id
+     * @param uploader Uploader to save the object with
+     * @throws IOException If an IO Exception occurs.
+     * @throws ServerError If the content was found not to match the object
+     *  id
+     */
+    public void finish(final String oid, final ContentManager.Uploader uploader)
+        throws IOException, ServerError {
+        if (this.busy.add(oid)) {
+            boolean queued = false;
+            try {
+                final long size = this.commit(oid);
+                this.storing.execute(
+                    () -> {
+                        try {
+                            this.store(oid, size, uploader);
+                        } finally {
+                            this.busy.remove(oid);
+                        }
+                    }
+                );
+                queued = true;
+            } finally {
+                if (!queued) {
+                    this.busy.remove(oid);
+                }
+            }
+        }
+    }
+
+    /**
+     * Take the object for a request.
+     * @param oid Object id
+     * @throws ServerError If another request has it
+     */
+    private void acquire(final String oid) throws ServerError {
+        if (!this.busy.add(oid)) {
+            throw new ServerError(
+                HttpURLConnection.HTTP_CONFLICT,
+                String.format("%s is busy with another request", oid)
+            );
+        }
+    }
+
+    /**
+     * Stage content of an object, after checking its offset.
+     * @param oid Object id
+     * @param offset Offset of the content
+     * @param content Content
+     * @return Number of bytes received so far, including the content
+     * @throws IOException If an IO Exception occurs
+     * @throws ServerError If the offset is not the one expected
+     */
+    private long receive(final String oid, final long offset,
+        final InputStream content) throws IOException, ServerError {
+        final long expected = this.offset(oid);
+        if (offset != expected) {
+            throw new ServerError(
+                HttpURLConnection.HTTP_CONFLICT,
+                String.format("Expected offset %d, got %d", expected, offset)
+            );
+        }
+        final CloudBlockBlob blob = this.blob(oid);
+        final byte[] buffer = new byte[ResumableUploads.BLOCK];
+        long position = offset;
+        int read = 0;
+        while (read >= 0) {
+            int length = 0;
+            try {
+                while (read >= 0 && length < buffer.length) {
+                    read = content.read(buffer, length, buffer.length - length);
+                    length += Math.max(read, 0);
+                }
+            } finally {
+                ResumableUploads.stage(blob, position, buffer, length);
+                position += length;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Commit the staged blocks of an upload, in offset order.
+     * @param oid Object id
+     * @return Size of the object
+     * @throws IOException If an IO Exception occurs.
+     * @throws ServerError If the content was found not to match the object
+     *  id
+     */
+    private long commit(final String oid) throws IOException, ServerError {
+        final CloudBlockBlob blob = this.blob(oid);
+        try {
+            if (blob.exists() && blob.getMetadata()
+                .containsKey(ResumableUploads.REFUSED)) {
+                blob.deleteIfExists();
+                throw new ServerError(
+                    // @checkstyle MagicNumber (1 line)
+                    422, String.format("Content doesn't match %s", oid)
+                );
+            }
+            final Map<Long, Long> blocks = this.blocks(oid);
+            final long size = this.offset(oid);
+            final List<BlockEntry> list = new ArrayList<>(blocks.size());
+            for (long offset = 0L; offset < size;
+                offset += blocks.get(offset)) {
+                list.add(new BlockEntry(ResumableUploads.block(offset)));
+            }
+            blob.commitBlockList(list);
+            return size;
+        } catch (final StorageException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Check a committed upload and save it, marking it refused if it
+     * doesn't match its object id.
+     * @param oid Object id
+     * @param size Size of the object
+     * @param uploader Uploader to save the object with
+     */
+    private void store(final String oid, final long size,
+        final ContentManager.Uploader uploader) {
+        try {
+            final CloudBlockBlob blob = this.blob(oid);
+            final VerifiedStream content =
+                new VerifiedStream(blob.openInputStream(), oid);
+            try {
+                uploader.saveObject(new Meta(oid, size), content);
+            } catch (final IOException ex) {
+                if (!content.mismatch()) {
+                    throw ex;
+                }
+            } finally {
+                content.close();
+            }
+            if (content.mismatch()) {
+                blob.getMetadata().put(ResumableUploads.REFUSED, "true");
+                blob.uploadMetadata();
+            } else {
+                blob.deleteIfExists();
+            }
+            // @checkstyle IllegalCatch (1 line)
+        } catch (final IOException | StorageException | RuntimeException ex) {
+            ResumableUploads.LOGGER.log(
+                Level.WARNING, String.format("Can't store upload %s", oid), ex
+            );
+        }
+    }
+
+    /**
+     * Delete uploads left alone for longer than the time to live.
+     */
+    private void sweep() {
+        final Instant cutoff = Instant.now().minus(this.ttl);
+        try {
+            for (final ListBlobItem item : this.container.listBlobs(
+                ResumableUploads.PREFIX, true,
+                EnumSet.of(BlobListingDetails.UNCOMMITTED_BLOBS), null, null
+            )) {
+                final CloudBlockBlob blob = (CloudBlockBlob) item;
+                if (blob.getProperties().getLastModified() != null
+                    && blob.getProperties().getLastModified().toInstant()
+                        .isBefore(cutoff)) {
+                    blob.commitBlockList(Collections.emptyList());
+                    blob.deleteIfExists();
+                }
+            }
+            // @checkstyle IllegalCatch (1 line)
+        } catch (final StorageException | RuntimeException ex) {
+            ResumableUploads.LOGGER.log(
+                Level.WARNING, "Can't sweep stale uploads", ex
+            );
+        }
+    }
+
+    /**
+     * Staged blocks of an object, committed or not.
+     * @param oid Object id
+     * @return Block sizes, by offset
+     * @throws IOException If an IO Exception occurs.
+     */
+    private Map<Long, Long> blocks(final String oid) throws IOException {
+        final Map<Long, Long> blocks = new TreeMap<>();
+        try {
+            for (final BlockEntry block : this.blob(oid).downloadBlockList(
+                BlockListingFilter.ALL, null, null, null
+            )) {
+                blocks.put(
+                    Long.parseLong(
+                        new String(
+                            Base64.getDecoder().decode(block.getId()),
+                            StandardCharsets.US_ASCII
+                        )
+                    ),
+                    block.getSize()
+                );
+            }
+        } catch (final StorageException ex) {
+            if (ex.getHttpStatusCode() != HttpURLConnection.HTTP_NOT_FOUND) {
+                throw new IOException(ex);
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Blob an object is staged in.
+     * @param oid Object id
+     * @return Blob
+     * @throws IOException If an IO Exception occurs.
+     */
+    private CloudBlockBlob blob(final String oid) throws IOException {
+        try {
+            return this.container.getBlockBlobReference(
+                ResumableUploads.PREFIX + oid
+            );
+        } catch (final StorageException | URISyntaxException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Stage a block.
+     * @param blob Blob
+     * @param offset Offset of the block
+     * @param data Buffer holding the block
+     * @param length Length of the block, nothing is staged if zero
+     * @throws IOException If an IO Exception occurs.
+     * @checkstyle ParameterNumber (3 lines)
+     */
+    private static void stage(final CloudBlockBlob blob, final long offset,
+        final byte[] data, final int length) throws IOException {
+        if (length > 0) {
+            try {
+                blob.uploadBlock(
+                    ResumableUploads.block(offset),
+                    new ByteArrayInputStream(data, 0, length), length
+                );
+            } catch (final StorageException ex) {
+                throw new IOException(ex);
+            }
+        }
+    }
+
+    /**
+     * Block id for an offset.
+     * @param offset Offset of the block
+     * @return Block id
+     */
+    private static String block(final long offset) {
+        return Base64.getEncoder().encodeToString(
+            String.format("%019d", offset).getBytes(StandardCharsets.US_ASCII)
+        );
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.collect.Iterables;
+import com.microsoft.azure.storage.CloudStorageAccount;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.BlobRequestOptions;
+import com.microsoft.azure.storage.blob.CloudBlob;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import ru.bozaro.gitlfs.common.data.Meta;
+
+/**
+ * Entry point checking that every object and chunk in the container hashes
+ * to its name.
+ *
+ * <p>Takes the server's {@code --properties}, and optionally
+ * {@code --threads}, {@code --rate} in MiB per second, {@code --checkpoint}
+ * and {@code --report} files. Bad blobs are appended to the report, one per
+ * line; a scan run again with the same checkpoint file resumes where the
+ * last one stopped.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+public final class Scan {
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(Scan.class.getName());
+
+    /**
+     * Bytes in a MiB.
+     */
+    // @checkstyle MagicNumber (1 line)
+    private static final long MIB = 1L << 20;
+
+    /**
+     * Prefixes of blobs that are not named after their content.
+     */
+    private static final String[] OTHERS = {
+        ChunkedStorage.MANIFESTS, Locks.PREFIX, ResumableUploads.PREFIX,
+        PackWriter.PREFIX, Replicas.PREFIX, Swept.PREFIX,
+    };
+
+    /**
+     * Container to scan.
+     */
+    private final CloudBlobContainer container;
+
+    /**
+     * Ctor.
+     * @param container Container to scan
+     */
+    Scan(final CloudBlobContainer container) {
+        this.container = container;
+    }
+
+    /**
+     * Main entry point.
+     * @param args Command line arguments.
+     * @throws Exception If something goes wrong.
+     */
+    public static void main(final String[] args) throws Exception {
+        final OptionParser parser = new OptionParser();
+        final OptionSpec<String> props = parser.accepts("properties")
+            .withRequiredArg().required();
+        // @checkstyle MagicNumber (2 lines)
+        final OptionSpec<Integer> threads = parser.accepts("threads")
+            .withRequiredArg().ofType(Integer.class).defaultsTo(32);
+        final OptionSpec<Long> rate = parser.accepts("rate")
+            .withRequiredArg().ofType(Long.class).defaultsTo(0L);
+        final OptionSpec<String> checkpoint = parser.accepts("checkpoint")
+            .withRequiredArg().defaultsTo("scan.checkpoint");
+        final OptionSpec<String> report = parser.accepts("report")
+            .withRequiredArg().defaultsTo("scan.report");
+        final OptionSet options = parser.parse(args);
+        final Properties properties = new Properties();
+        try (FileInputStream file =
+            new FileInputStream(options.valueOf(props))) {
+            properties.load(file);
+        }
+        final Params params = new Params(properties);
+        final Scan scan = new Scan(
+            CloudStorageAccount.parse(
+                new AzureStorageCredentials(
+                    params.account(), params.key(), true
+                ).connectionString()
+            ).createCloudBlobClient().getContainerReference(params.container())
+        );
+        final Scanner scanner = new Scanner(
+            scan::open, options.valueOf(threads),
+            options.valueOf(rate) * Scan.MIB
+        );
+        final long start = System.nanoTime();
+        try (BufferedWriter out = Files.newBufferedWriter(
+            Paths.get(options.valueOf(report)), StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND
+        )) {
+            scanner.scan(
+                scan.blobs(), Paths.get(options.valueOf(checkpoint)),
+                line -> Scan.write(out, line)
+            );
+        }
+        Scan.LOGGER.info(Scan.summary(scanner.metrics(), start));
+    }
+
+    /**
+     * Blobs to check, in name order: objects, chunks, and blobs with an
+     * unexpected name.
+     * @return Blobs, with their full name and listed length
+     */
+    public Iterator<Meta> blobs() {
+        return Iterables.transform(
+            Iterables.filter(
+                Iterables.filter(
+                    this.container.listBlobs("", true), CloudBlob.class
+                ),
+                blob -> !Scan.other(blob.getName())
+            ),
+            blob -> new Meta(blob.getName(), blob.getProperties().getLength())
+        ).iterator();
+    }
+
+    /**
+     * Open a blob, reading it in ranges.
+     * @param name Blob name
+     * @return Content
+     * @throws IOException If the blob can't be opened
+     */
+    public InputStream open(final String name) throws IOException {
+        try {
+            final CloudBlockBlob blob =
+                this.container.getBlockBlobReference(name);
+            blob.downloadAttributes();
+            return new BlobRangeStream(
+                blob, name, new BlobRequestOptions(),
+                new Cancellation(Duration.ZERO)
+            );
+        } catch (final StorageException | URISyntaxException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Is a blob one that isn't named after its content?
+     * @param name Blob name
+     * @return True if it's a manifest, lock, staged upload, pack or
+     *  replica
+     */
+    private static boolean other(final String name) {
+        boolean other = false;
+        for (final String prefix : Scan.OTHERS) {
+            other |= name.startsWith(prefix);
+        }
+        return other;
+    }
+
+    /**
+     * Append a line to the report.
+     * @param out Report
+     * @param line Line
+     */
+    private static void write(final BufferedWriter out, final String line) {
+        synchronized (out) {
+            try {
+                out.write(line);
+                out.newLine();
+                out.flush();
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /**
+     * Summary of a scan.
+     * @param metrics Counts of the scan
+     * @param start Start of the scan, in nanoseconds
+     * @return Summary
+     */
+    private static String summary(final Metrics metrics, final long start) {
+        // @checkstyle MagicNumber (1 line)
+        final double seconds = (System.nanoTime() - start) / 1.0e9;
+        return String.format(
+            String.join(
+                " ", "Checked %.0f blobs at %.1f MiB/s:", "%.0f corrupt,",
+                "%.0f truncated, %.0f misnamed, %.0f unreadable"
+            ),
+            metrics.value("Checked"),
+            metrics.value("Bytes") / Scan.MIB / Math.max(seconds, 1.0),
+            metrics.value("Corrupt"), metrics.value("Truncated"),
+            metrics.value("Misnamed"), metrics.value("Unreadable")
+        );
+    }
+}
@@ -0,0 +1,291 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import ru.bozaro.gitlfs.common.data.Meta;
+
+/**
+ * Parallel check that blobs hash to the object id they are named after.
+ *
+ * <p>Blobs are read by a fixed number of threads, with at most twice as
+ * many queued, so memory stays bounded however large the container.
+ * Reads are paced to a byte rate, if given, so production traffic keeps
+ * its share of the account's bandwidth.
+ *
+ * <p>Blobs must be listed in name order, so that progress can be kept in a
+ * {@link Checkpoint} and a later scan with the same file resumes.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+final class Scanner {
+    /**
+     * Names of blobs holding objects or chunks, the last group being their
+     * SHA-256.
+     */
+    private static final Pattern NAME =
+        Pattern.compile("^(chunks/)?([0-9a-f]{64})$");
+
+    /**
+     * Size of the read buffer.
+     */
+    // @checkstyle MagicNumber (1 line)
+    private static final int BUFFER = 1 << 16;
+
+    /**
+     * Opener of blobs.
+     */
+    private final Opener opener;
+
+    /**
+     * Number of threads reading blobs.
+     */
+    private final int threads;
+
+    /**
+     * Pace of reads, or null if unlimited.
+     */
+    private final RateLimiter limiter;
+
+    /**
+     * Blobs checked.
+     */
+    private final AtomicLong checked;
+
+    /**
+     * Bytes read.
+     */
+    private final AtomicLong bytes;
+
+    /**
+     * Blobs whose content doesn't hash to their name.
+     */
+    private final AtomicLong corrupt;
+
+    /**
+     * Blobs shorter than their listed length.
+     */
+    private final AtomicLong truncated;
+
+    /**
+     * Blobs not named after an object id.
+     */
+    private final AtomicLong misnamed;
+
+    /**
+     * Blobs that couldn't be read.
+     */
+    private final AtomicLong unreadable;
+
+    /**
+     * Ctor.
+     * @param opener Opener of blobs
+     * @param threads Number of threads reading blobs
+     * @param rate Most bytes read per second, zero for no limit
+     */
+    Scanner(final Opener opener, final int threads, final long rate) {
+        this.opener = opener;
+        this.threads = threads;
+        if (rate > 0L) {
+            this.limiter = RateLimiter.create((double) rate);
+        } else {
+            this.limiter = null;
+        }
+        this.checked = new AtomicLong();
+        this.bytes = new AtomicLong();
+        this.corrupt = new AtomicLong();
+        this.truncated = new AtomicLong();
+        this.misnamed = new AtomicLong();
+        this.unreadable = new AtomicLong();
+    }
+
+    /**
+     * Check blobs, resuming from a checkpoint.
+     * @param blobs Blobs, named with their full name and listed length, in
+     *  name order
+     * @param checkpoint Checkpoint file, deleted once the scan is complete
+     * @param report Told one tab-separated line per bad blob
+     * @throws IOException If the checkpoint can't be read or written
+     * @throws InterruptedException If interrupted
+     */
+    public void scan(final Iterator<Meta> blobs, final Path checkpoint,
+        final Consumer<String> report)
+        throws IOException, InterruptedException {
+        final Checkpoint progress = new Checkpoint(checkpoint);
+        final String from = progress.resume();
+        final ExecutorService pool = Executors.newFixedThreadPool(
+            this.threads,
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("scanner-%d")
+                .build()
+        );
+        final Semaphore slots = new Semaphore(this.threads * 2);
+        try {
+            while (blobs.hasNext()) {
+                final Meta blob = blobs.next();
+                if (blob.getOid().compareTo(from) >= 0) {
+                    slots.acquire();
+                    progress.begin(blob.getOid());
+                    pool.execute(
+                        () -> this.check(
+                            blob, report,
+                            () -> {
+                                progress.done(blob.getOid());
+                                slots.release();
+                            }
+                        )
+                    );
+                }
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            progress.finish();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Counts of the scan.
+     * @return Metrics
+     */
+    public Metrics metrics() {
+        return new Metrics("Scan")
+            .gauge("Checked", this.checked::doubleValue)
+            .gauge("Bytes", this.bytes::doubleValue)
+            .gauge("Corrupt", this.corrupt::doubleValue)
+            .gauge("Truncated", this.truncated::doubleValue)
+            .gauge("Misnamed", this.misnamed::doubleValue)
+            .gauge("Unreadable", this.unreadable::doubleValue);
+    }
+
+    /**
+     * Check one blob, then say it's done.
+     * @param blob Blob name and listed length
+     * @param report Told bad blobs
+     * @param done Told when the blob is checked
+     */
+    private void check(final Meta blob, final Consumer<String> report,
+        final Runnable done) {
+        try {
+            this.check(blob, report);
+        } finally {
+            done.run();
+        }
+    }
+
+    /**
+     * Check one blob, reporting it if it's bad.
+     * @param blob Blob name and listed length
+     * @param report Told bad blobs
+     */
+    private void check(final Meta blob, final Consumer<String> report) {
+        final Matcher name =
+            Scanner.NAME.matcher(blob.getOid());
+        if (name.matches()) {
+            final Hasher hasher = Hashing.sha256().newHasher();
+            long length = 0L;
+            try (InputStream content = this.opener.open(blob.getOid())) {
+                final byte[] buffer = new byte[Scanner.BUFFER];
+                for (int read = content.read(buffer); read >= 0;
+                    read = content.read(buffer)) {
+                    this.pace(read);
+                    hasher.putBytes(buffer, 0, read);
+                    length += read;
+                }
+                this.verdict(blob, length, hasher.hash().toString(), report);
+            } catch (final IOException ex) {
+                this.unreadable.incrementAndGet();
+                report.accept(
+                    String.format(
+                        "unreadable\t%s\t%s", blob.getOid(), ex.getMessage()
+                    )
+                );
+            }
+            this.bytes.addAndGet(length);
+        } else {
+            this.misnamed.incrementAndGet();
+            report.accept(String.format("misnamed\t%s", blob.getOid()));
+        }
+        this.checked.incrementAndGet();
+    }
+
+    /**
+     * Tell whether a blob that was read fully is good.
+     * @param blob Blob name and listed length
+     * @param length Bytes read
+     * @param hash SHA-256 of the bytes read
+     * @param report Told bad blobs
+     * @checkstyle ParameterNumber (3 lines)
+     */
+    private void verdict(final Meta blob, final long length,
+        final String hash, final Consumer<String> report) {
+        if (length != blob.getSize()) {
+            this.truncated.incrementAndGet();
+            report.accept(
+                String.format(
+                    "truncated\t%s\t%d\t%d", blob.getOid(), length,
+                    blob.getSize()
+                )
+            );
+        } else if (!blob.getOid().endsWith(hash)) {
+            this.corrupt.incrementAndGet();
+            report.accept(
+                String.format("corrupt\t%s\t%s", blob.getOid(), hash)
+            );
+        }
+    }
+
+    /**
+     * Wait until reading more bytes keeps within the rate.
+     * @param count Bytes read
+     */
+    private void pace(final int count) {
+        if (this.limiter != null && count > 0) {
+            this.limiter.acquire(count);
+        }
+    }
+
+    /**
+     * Opener of blobs.
+     */
+    interface Opener {
+        /**
+         * Open a blob.
+         * @param name Blob name
+         * @return Content
+         * @throws IOException If the blob can't be read
+         */
+        InputStream open(String name) throws IOException;
+    }
+}
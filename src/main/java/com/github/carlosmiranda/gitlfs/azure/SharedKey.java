@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.base.Splitter;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Shared Key authorization of Azure Blob REST requests.
+ *
+ * <p>Used for the few operations the Azure SDK has no API for. Headers are
+ * passed with lowercase names, and must include {@code x-ms-date}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class SharedKey {
+    /**
+     * Standard headers that are signed, in signing order.
+     */
+    private static final List<String> STANDARD = Arrays.asList(
+        "content-encoding", "content-language", "content-length",
+        "content-md5", "content-type", "date", "if-modified-since",
+        "if-match", "if-none-match", "if-unmodified-since", "range"
+    );
+
+    /**
+     * Format of x-ms-date.
+     */
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern(
+        "EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US
+    );
+
+    /**
+     * Signing algorithm.
+     */
+    private static final String HMAC = "HmacSHA256";
+
+    /**
+     * Storage account name.
+     */
+    private final String account;
+
+    /**
+     * Storage account key.
+     */
+    private final byte[] key;
+
+    /**
+     * Ctor.
+     * @param account Storage account name
+     * @param key Base64-encoded storage account key
+     */
+    SharedKey(final String account, final String key) {
+        this.account = account;
+        this.key = Base64.getDecoder().decode(key);
+    }
+
+    /**
+     * Current time, formatted for x-ms-date.
+     * @return Date
+     */
+    public static String now() {
+        return ZonedDateTime.now(ZoneOffset.UTC).format(SharedKey.DATE);
+    }
+
+    /**
+     * Authorization header of a request.
+     * @param method HTTP method
+     * @param uri Request URI
+     * @param headers Request headers, with lowercase names
+     * @return Authorization header value
+     */
+    public String authorization(final String method, final URI uri,
+        final Map<String, String> headers) {
+        final StringBuilder text = new StringBuilder(method).append('\n');
+        for (final String name : SharedKey.STANDARD) {
+            String value = headers.getOrDefault(name, "");
+            if ("content-length".equals(name) && "0".equals(value)) {
+                value = "";
+            }
+            text.append(value).append('\n');
+        }
+        final Map<String, String> sorted = new TreeMap<>(headers);
+        for (final Map.Entry<String, String> header : sorted.entrySet()) {
+            if (header.getKey().startsWith("x-ms-")) {
+                text.append(header.getKey()).append(':')
+                    .append(header.getValue().trim()).append('\n');
+            }
+        }
+        text.append('/').append(this.account).append(uri.getRawPath());
+        SharedKey.query(uri).forEach(
+            (name, value) -> text.append('\n').append(name).append(':')
+                .append(value)
+        );
+        return String.format(
+            "SharedKey %s:%s", this.account, this.sign(text.toString())
+        );
+    }
+
+    /**
+     * Sign a string.
+     * @param text String to sign
+     * @return Base64-encoded signature
+     */
+    private String sign(final String text) {
+        try {
+            final Mac mac = Mac.getInstance(SharedKey.HMAC);
+            mac.init(new SecretKeySpec(this.key, SharedKey.HMAC));
+            return Base64.getEncoder().encodeToString(
+                mac.doFinal(text.getBytes(StandardCharsets.UTF_8))
+            );
+        } catch (final GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Decoded query parameters, by lowercase name.
+     * @param uri Request URI
+     * @return Parameters, in name order
+     */
+    private static Map<String, String> query(final URI uri) {
+        final Map<String, String> params = new TreeMap<>();
+        if (uri.getRawQuery() != null) {
+            final Iterable<String> pairs = Splitter.on('&').omitEmptyStrings()
+                .split(uri.getRawQuery());
+            for (final String pair : pairs) {
+                int split = pair.indexOf('=');
+                if (split < 0) {
+                    split = pair.length();
+                }
+                params.merge(
+                    SharedKey.decode(pair.substring(0, split))
+                        .toLowerCase(Locale.ENGLISH),
+                    SharedKey.decode(
+                        pair.substring(Math.min(split + 1, pair.length()))
+                    ),
+                    (first, second) -> String.join(",", first, second)
+                );
+            }
+        }
+        return params;
+    }
+
+    /**
+     * URL-decode a query string component.
+     * @param text Encoded text
+     * @return Decoded text
+     */
+    private static String decode(final String text) {
+        try {
+            return URLDecoder.decode(text, StandardCharsets.UTF_8.name());
+        } catch (final UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Stream of object content knowing its length.
+ *
+ * <p>Storage that learns the length of an object when opening it, like
+ * {@link AzureBlobStorage} from the blob properties, wraps the content in
+ * this stream, so that it can be sent with a Content-Length without looking
+ * the object up again. Decorators wrapping the content in streams of their
+ * own keep the length with {@link #like(InputStream, InputStream)}.
+ * Files are opened with their length by {@link #file(Path)}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class SizedStream extends FilterInputStream {
+    /**
+     * Length of the content.
+     */
+    private final long length;
+
+    /**
+     * Ctor.
+     * @param content Content
+     * @param length Length of the content
+     */
+    SizedStream(final InputStream content, final long length) {
+        super(content);
+        this.length = length;
+    }
+
+    /**
+     * Length of some content.
+     * @param content Content, as opened
+     * @return Length, or a negative number if unknown
+     */
+    public static long length(final InputStream content) {
+        long length = -1L;
+        if (content instanceof SizedStream) {
+            length = ((SizedStream) content).length;
+        }
+        return length;
+    }
+
+    /**
+     * Open a file with its length. The length is taken from the open file,
+     * so it holds even if the file is deleted or replaced meanwhile.
+     * @param file File
+     * @return Content of the file
+     * @throws IOException If the file can't be opened
+     */
+    public static SizedStream file(final Path file) throws IOException {
+        final FileChannel channel = FileChannel.open(file);
+        try {
+            return new SizedStream(
+                Channels.newInputStream(channel), channel.size()
+            );
+        } catch (final IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Keep the length of content across a stream wrapping it.
+     * @param source Content, as opened
+     * @param wrapper Stream reading the same bytes from it
+     * @return Wrapper, knowing the length of the content if the source did
+     */
+    public static InputStream like(final InputStream source,
+        final InputStream wrapper) {
+        final long length = SizedStream.length(source);
+        InputStream like = wrapper;
+        if (length >= 0L) {
+            like = new SizedStream(wrapper, length);
+        }
+        return like;
+    }
+}
@@ -0,0 +1,556 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Cache of small objects in off-heap {@link Slabs}, admitting them with
+ * W-TinyLFU.
+ *
+ * <p>New objects enter a small LRU window. Objects pushed out of the window
+ * only make it into the main space, a segmented LRU, if they were accessed
+ * more often than the object they would push out of it; access frequencies,
+ * including misses, are estimated with an {@link AccessSketch} that is
+ * halved periodically. One-off reads of cold objects thus can't flush hot
+ * ones out of the cache.
+ *
+ * <p>Content is read straight from the slabs. Each read pins the pages of
+ * its object, so an object evicted while being read keeps its pages until
+ * the read is closed.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+final class SlabCache {
+    /**
+     * Off-heap memory.
+     */
+    private final Slabs slabs;
+
+    /**
+     * Access frequencies.
+     */
+    private final AccessSketch sketch;
+
+    /**
+     * Accesses between halvings of the frequencies.
+     */
+    private final long period;
+
+    /**
+     * Recently added objects, least recently read first.
+     */
+    private final Map<String, Slot> window;
+
+    /**
+     * Objects in the main space read once, least recently read first.
+     */
+    private final Map<String, Slot> probation;
+
+    /**
+     * Objects in the main space read again, least recently read first.
+     */
+    private final Map<String, Slot> protect;
+
+    /**
+     * Pages of the window.
+     */
+    private final int windowed;
+
+    /**
+     * Pages of the main space.
+     */
+    private final int main;
+
+    /**
+     * Pages of the protected segment of the main space.
+     */
+    private final int protectable;
+
+    /**
+     * Accesses.
+     */
+    private final AtomicLong accesses;
+
+    /**
+     * Accesses answered from the cache.
+     */
+    private final AtomicLong hits;
+
+    /**
+     * Objects refused by the admission policy.
+     */
+    private final AtomicLong rejected;
+
+    /**
+     * Pages used by the window, probation and protected segments.
+     */
+    private final int[] used;
+
+    /**
+     * Bytes of content held.
+     */
+    private long bytes;
+
+    /**
+     * Ctor.
+     * @param budget Most bytes of off-heap memory to use
+     */
+    SlabCache(final long budget) {
+        this.slabs = new Slabs(budget);
+        final int pages = this.slabs.capacity();
+        // @checkstyle MagicNumber (2 lines)
+        this.sketch = new AccessSketch(
+            Integer.highestOneBit(Math.max(1024, Math.min(1 << 20, pages)))
+        );
+        // @checkstyle MagicNumber (1 line)
+        this.period = 10L * Math.max(1024, pages);
+        // @checkstyle MagicNumber (3 lines)
+        this.window = new LinkedHashMap<>(16, 0.75f, true);
+        this.probation = new LinkedHashMap<>(16, 0.75f, true);
+        this.protect = new LinkedHashMap<>(16, 0.75f, true);
+        // @checkstyle MagicNumber (7 lines)
+        this.windowed = Math.max(1, pages / 100);
+        this.main = pages - this.windowed;
+        this.protectable = this.main / 5 * 4;
+        this.accesses = new AtomicLong();
+        this.hits = new AtomicLong();
+        this.rejected = new AtomicLong();
+        this.used = new int[3];
+    }
+
+    /**
+     * Metrics of the cache.
+     * @return Metrics
+     */
+    public Metrics metrics() {
+        return new Metrics("MemoryCache")
+            .gauge("Accesses", this.accesses::get)
+            .gauge("Hits", this.hits::get)
+            .gauge(
+                "HitRate",
+                () -> (double) this.hits.get()
+                    / Math.max(1L, this.accesses.get())
+            )
+            .gauge("Rejected", this.rejected::get)
+            .gauge("Objects", this::count)
+            .gauge("Bytes", this::held)
+            .gauge("OffHeapBytes", this.slabs::reserved);
+    }
+
+    /**
+     * Read a cached object, recording the access.
+     * @param oid Object id
+     * @return Content, if cached
+     */
+    public Optional<InputStream> open(final String oid) {
+        this.sketch.increment(oid);
+        if (this.accesses.incrementAndGet() % this.period == 0L) {
+            this.sketch.decay();
+        }
+        final Optional<InputStream> found;
+        synchronized (this) {
+            final Slot slot = this.touch(oid);
+            if (slot != null && slot.retain()) {
+                found = Optional.of(
+                    new SizedStream(new SlotStream(slot), slot.size)
+                );
+            } else {
+                found = Optional.empty();
+            }
+        }
+        if (found.isPresent()) {
+            this.hits.incrementAndGet();
+        }
+        return found;
+    }
+
+    /**
+     * Size of a cached object.
+     * @param oid Object id
+     * @return Size, if cached
+     */
+    public synchronized Optional<Long> size(final String oid) {
+        Slot slot = this.window.get(oid);
+        if (slot == null) {
+            slot = this.probation.get(oid);
+        }
+        if (slot == null) {
+            slot = this.protect.get(oid);
+        }
+        return Optional.ofNullable(slot).map(found -> (long) found.size);
+    }
+
+    /**
+     * Offer an object read from storage to the cache.
+     * @param oid Object id
+     * @param content Content
+     */
+    public void offer(final String oid, final byte[] content) {
+        final int pages = Slabs.pages(content.length);
+        synchronized (this) {
+            if (!this.size(oid).isPresent() && pages <= this.windowed) {
+                final Slot slot = new Slot(this.slabs, content.length, pages);
+                this.window.put(oid, slot);
+                this.used[0] += pages;
+                this.evict();
+                this.fill(oid, slot, content);
+            }
+        }
+    }
+
+    /**
+     * Forget an object, deleted from storage.
+     * @param oid Object id
+     */
+    public synchronized void remove(final String oid) {
+        final List<Map<String, Slot>> segments =
+            Arrays.asList(this.window, this.probation, this.protect);
+        for (int idx = 0; idx < segments.size(); ++idx) {
+            final Slot slot = segments.get(idx).remove(oid);
+            if (slot != null) {
+                this.used[idx] -= slot.pages;
+                this.drop(slot);
+            }
+        }
+    }
+
+    /**
+     * Store the content of an object just added to the window, dropping it
+     * if pages still pinned by reads leave no room.
+     * @param oid Object id
+     * @param slot Its slot
+     * @param content Content
+     */
+    private void fill(final String oid, final Slot slot,
+        final byte[] content) {
+        final int[] pages = this.slabs.store(content);
+        if (pages == null) {
+            this.window.remove(oid);
+            this.used[0] -= slot.pages;
+            this.rejected.incrementAndGet();
+        } else {
+            slot.fill(pages);
+            this.bytes += content.length;
+        }
+    }
+
+    /**
+     * Find an object, updating its recency.
+     * @param oid Object id
+     * @return Slot, or null if not cached
+     */
+    private Slot touch(final String oid) {
+        Slot slot = this.window.get(oid);
+        if (slot == null) {
+            slot = this.protect.get(oid);
+        }
+        if (slot == null) {
+            slot = this.probation.remove(oid);
+            if (slot != null) {
+                this.used[1] -= slot.pages;
+                this.protect.put(oid, slot);
+                this.used[2] += slot.pages;
+                while (this.used[2] > this.protectable) {
+                    final Map.Entry<String, Slot> eldest =
+                        SlabCache.eldest(this.protect);
+                    this.protect.remove(eldest.getKey());
+                    this.used[2] -= eldest.getValue().pages;
+                    this.probation.put(eldest.getKey(), eldest.getValue());
+                    this.used[1] += eldest.getValue().pages;
+                }
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Move objects out of the window into the main space, admitting those
+     * accessed more often than the objects they would evict.
+     */
+    private void evict() {
+        while (this.used[0] > this.windowed) {
+            final Map.Entry<String, Slot> candidate =
+                SlabCache.eldest(this.window);
+            this.window.remove(candidate.getKey());
+            this.used[0] -= candidate.getValue().pages;
+            if (this.admit(candidate.getKey(), candidate.getValue().pages)) {
+                this.probation.put(candidate.getKey(), candidate.getValue());
+                this.used[1] += candidate.getValue().pages;
+            } else {
+                this.rejected.incrementAndGet();
+                this.drop(candidate.getValue());
+            }
+        }
+    }
+
+    /**
+     * Make room in the main space for a candidate, if it's accessed more
+     * often than the objects it would evict.
+     * @param oid Candidate object id
+     * @param pages Pages of the candidate
+     * @return True if admitted
+     */
+    private boolean admit(final String oid, final int pages) {
+        final int frequency = this.sketch.estimate(oid);
+        boolean admitted = true;
+        while (admitted && this.used[1] + this.used[2] + pages > this.main) {
+            Map<String, Slot> segment = this.probation;
+            if (segment.isEmpty()) {
+                segment = this.protect;
+            }
+            final Map.Entry<String, Slot> victim = SlabCache.eldest(segment);
+            admitted = frequency > this.sketch.estimate(victim.getKey());
+            if (admitted) {
+                segment.remove(victim.getKey());
+                if (segment == this.probation) {
+                    this.used[1] -= victim.getValue().pages;
+                } else {
+                    this.used[2] -= victim.getValue().pages;
+                }
+                this.drop(victim.getValue());
+            }
+        }
+        return admitted;
+    }
+
+    /**
+     * Drop an evicted slot.
+     * @param slot Slot
+     */
+    private void drop(final Slot slot) {
+        if (slot.filled()) {
+            this.bytes -= slot.size;
+        }
+        slot.release();
+    }
+
+    /**
+     * Number of objects cached.
+     * @return Count
+     */
+    private synchronized double count() {
+        return this.window.size() + this.probation.size()
+            + this.protect.size();
+    }
+
+    /**
+     * Bytes of content held.
+     * @return Bytes
+     */
+    private synchronized double held() {
+        return this.bytes;
+    }
+
+    /**
+     * Least recently read entry of a segment.
+     * @param segment Segment
+     * @return Entry
+     */
+    private static Map.Entry<String, Slot> eldest(
+        final Map<String, Slot> segment) {
+        final Iterator<Map.Entry<String, Slot>> entries =
+            segment.entrySet().iterator();
+        return entries.next();
+    }
+
+    /**
+     * Pages of one cached object, released once evicted and no longer read.
+     */
+    private static final class Slot {
+        /**
+         * Off-heap memory.
+         */
+        private final Slabs slabs;
+
+        /**
+         * Size of the content.
+         */
+        private final int size;
+
+        /**
+         * Number of pages.
+         */
+        private final int pages;
+
+        /**
+         * Holders: the cache itself, while cached, and each open read.
+         */
+        private final AtomicInteger pins;
+
+        /**
+         * Pages holding the content, once stored.
+         */
+        private final AtomicReference<int[]> stored;
+
+        /**
+         * Ctor.
+         * @param slabs Off-heap memory
+         * @param size Size of the content
+         * @param pages Number of pages
+         */
+        Slot(final Slabs slabs, final int size, final int pages) {
+            this.slabs = slabs;
+            this.size = size;
+            this.pages = pages;
+            this.pins = new AtomicInteger(1);
+            this.stored = new AtomicReference<>();
+        }
+
+        /**
+         * Set the pages holding the content.
+         * @param content Pages
+         */
+        public void fill(final int[] content) {
+            this.stored.set(content);
+        }
+
+        /**
+         * Is the content stored?
+         * @return True if it is
+         */
+        public boolean filled() {
+            return this.stored.get() != null;
+        }
+
+        /**
+         * Pin the content for a read.
+         * @return False if the content is gone
+         */
+        public boolean retain() {
+            boolean retained = false;
+            int count = this.pins.get();
+            while (!retained && count > 0 && this.filled()) {
+                retained = this.pins.compareAndSet(count, count + 1);
+                count = this.pins.get();
+            }
+            return retained;
+        }
+
+        /**
+         * Unpin the content, freeing its pages once nobody holds them.
+         */
+        public void release() {
+            if (this.pins.decrementAndGet() == 0 && this.filled()) {
+                this.slabs.release(this.stored.get());
+            }
+        }
+
+        /**
+         * View of a page of the content.
+         * @param index Index of the page within the content
+         * @return Buffer positioned at the page's content
+         */
+        public ByteBuffer page(final int index) {
+            final ByteBuffer page = this.slabs.page(this.stored.get()[index]);
+            page.limit(
+                Math.min(Slabs.PAGE, this.size - index * Slabs.PAGE)
+            );
+            return page;
+        }
+    }
+
+    /**
+     * Content of a pinned slot, read page after page.
+     */
+    private static final class SlotStream extends InputStream {
+        /**
+         * Slot read.
+         */
+        private final Slot slot;
+
+        /**
+         * Has it been closed?
+         */
+        private final AtomicBoolean closed;
+
+        /**
+         * Index of the next page.
+         */
+        private int next;
+
+        /**
+         * Page being read, or null if none.
+         */
+        private ByteBuffer current;
+
+        /**
+         * Ctor.
+         * @param slot Pinned slot
+         */
+        SlotStream(final Slot slot) {
+            super();
+            this.slot = slot;
+            this.closed = new AtomicBoolean();
+        }
+
+        @Override
+        public int read() {
+            final byte[] one = new byte[1];
+            int value = -1;
+            if (this.read(one, 0, 1) > 0) {
+                // @checkstyle MagicNumber (1 line)
+                value = one[0] & 0xff;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(final byte[] data, final int off, final int len) {
+            int count = -1;
+            if (len == 0) {
+                count = 0;
+            } else if (this.advance()) {
+                count = Math.min(len, this.current.remaining());
+                this.current.get(data, off, count);
+            }
+            return count;
+        }
+
+        @Override
+        public void close() {
+            if (this.closed.compareAndSet(false, true)) {
+                this.slot.release();
+            }
+        }
+
+        /**
+         * Move to the next page once the current one is read.
+         * @return False at the end of the content
+         */
+        private boolean advance() {
+            while ((this.current == null || !this.current.hasRemaining())
+                && !this.closed.get() && this.next < this.slot.pages) {
+                this.current = this.slot.page(this.next);
+                ++this.next;
+            }
+            return this.current != null && this.current.hasRemaining()
+                && !this.closed.get();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Off-heap memory, in direct slabs cut into fixed-size pages.
+ *
+ * <p>Slabs are allocated as needed, up to the memory budget, and never
+ * released. Content is spread over as many pages as it needs, which need not
+ * be contiguous, so freed pages can be reused for content of any size and
+ * memory never fragments. The only cost is the unused end of the last page
+ * of each content.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class Slabs {
+    /**
+     * Bytes per page.
+     */
+    public static final int PAGE = 1024;
+
+    /**
+     * Pages per slab.
+     */
+    private static final int PER_SLAB = 1024;
+
+    /**
+     * Slabs, allocated as needed.
+     */
+    private final ByteBuffer[] slabs;
+
+    /**
+     * Free pages, as a stack.
+     */
+    private final int[] free;
+
+    /**
+     * Number of free pages in the stack.
+     */
+    private int top;
+
+    /**
+     * Number of slabs allocated.
+     */
+    private int allocated;
+
+    /**
+     * Ctor.
+     * @param budget Most bytes of memory to allocate
+     */
+    Slabs(final long budget) {
+        final int count = (int) Math.min(
+            Integer.MAX_VALUE / Slabs.PER_SLAB,
+            budget / ((long) Slabs.PAGE * Slabs.PER_SLAB)
+        );
+        this.slabs = new ByteBuffer[count];
+        this.free = new int[count * Slabs.PER_SLAB];
+    }
+
+    /**
+     * Pages needed for content.
+     * @param bytes Size of the content
+     * @return Number of pages
+     */
+    public static int pages(final long bytes) {
+        return (int) ((bytes + Slabs.PAGE - 1L) / Slabs.PAGE);
+    }
+
+    /**
+     * Number of pages within the budget.
+     * @return Pages
+     */
+    public int capacity() {
+        return this.free.length;
+    }
+
+    /**
+     * Bytes of memory allocated so far.
+     * @return Bytes
+     */
+    public synchronized long reserved() {
+        return (long) this.allocated * Slabs.PER_SLAB * Slabs.PAGE;
+    }
+
+    /**
+     * Store content in free pages.
+     * @param content Content
+     * @return Pages holding it, or null if there aren't enough free pages
+     */
+    public int[] store(final byte[] content) {
+        final int[] pages = this.allocate(Slabs.pages(content.length));
+        if (pages != null) {
+            for (int idx = 0; idx < pages.length; ++idx) {
+                final int offset = idx * Slabs.PAGE;
+                this.page(pages[idx]).put(
+                    content, offset,
+                    Math.min(Slabs.PAGE, content.length - offset)
+                );
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Free pages.
+     * @param pages Pages to free
+     */
+    public synchronized void release(final int[] pages) {
+        for (final int page : pages) {
+            this.free[this.top] = page;
+            ++this.top;
+        }
+    }
+
+    /**
+     * View of a page.
+     * @param page Page
+     * @return Buffer of {@link #PAGE} bytes, sharing the page's memory
+     */
+    public ByteBuffer page(final int page) {
+        final ByteBuffer slab;
+        synchronized (this) {
+            slab = this.slabs[page / Slabs.PER_SLAB].duplicate();
+        }
+        slab.position(page % Slabs.PER_SLAB * Slabs.PAGE);
+        slab.limit(slab.position() + Slabs.PAGE);
+        return slab.slice();
+    }
+
+    /**
+     * Take free pages, allocating slabs if needed.
+     * @param count Number of pages
+     * @return Pages, or null if the budget doesn't allow them
+     */
+    private synchronized int[] allocate(final int count) {
+        while (this.top < count && this.allocated < this.slabs.length) {
+            this.slabs[this.allocated] = ByteBuffer.allocateDirect(
+                Slabs.PER_SLAB * Slabs.PAGE
+            );
+            for (int idx = Slabs.PER_SLAB - 1; idx >= 0; --idx) {
+                this.free[this.top] = this.allocated * Slabs.PER_SLAB + idx;
+                ++this.top;
+            }
+            ++this.allocated;
+        }
+        int[] pages = null;
+        if (this.top >= count) {
+            pages = new int[count];
+            for (int idx = 0; idx < count; ++idx) {
+                --this.top;
+                pages[idx] = this.free[this.top];
+            }
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Local directory of objects fetched ahead of their download, bounded in
+ * size.
+ *
+ * <p>When staged objects exceed the capacity, the least recently opened
+ * are deleted. A file deleted while it's being read stays readable until it
+ * is closed.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class StagingCache {
+    /**
+     * Directory holding staged objects.
+     */
+    private final Path dir;
+
+    /**
+     * Most bytes to keep.
+     */
+    private final long capacity;
+
+    /**
+     * Sizes of staged objects, least recently opened first.
+     */
+    private final Map<String, Long> entries;
+
+    /**
+     * Bytes staged.
+     */
+    private long size;
+
+    /**
+     * Ctor.
+     * @param dir Directory holding staged objects
+     * @param capacity Most bytes to keep
+     */
+    StagingCache(final Path dir, final long capacity) {
+        this.dir = dir;
+        this.capacity = capacity;
+        // @checkstyle MagicNumber (1 line)
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Create the directory, and empty it of objects staged before a restart.
+     * @return This same instance
+     * @throws IOException If the directory can't be prepared
+     */
+    public StagingCache start() throws IOException {
+        Files.createDirectories(this.dir);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.dir)) {
+            for (final Path file : files) {
+                Files.delete(file);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Most bytes to keep.
+     * @return Capacity
+     */
+    public long capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Is an object staged?
+     * @param oid Object id
+     * @return True if it is
+     */
+    public synchronized boolean contains(final String oid) {
+        return this.entries.containsKey(oid);
+    }
+
+    /**
+     * Open a staged object.
+     * @param oid Object id
+     * @return Content, or null if the object is not staged
+     * @throws IOException If the object can't be read
+     */
+    public InputStream open(final String oid) throws IOException {
+        final boolean staged;
+        synchronized (this) {
+            staged = this.entries.get(oid) != null;
+        }
+        InputStream content = null;
+        if (staged) {
+            try {
+                content = SizedStream.file(this.dir.resolve(oid));
+            } catch (final NoSuchFileException ex) {
+                content = null;
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Stage an object, evicting others if needed.
+     * @param oid Object id
+     * @param content Content
+     * @return Size of the object
+     * @throws IOException If the object can't be written
+     */
+    public long stage(final String oid, final InputStream content)
+        throws IOException {
+        final Path part = Files.createTempFile(this.dir, oid, ".part");
+        try {
+            final long length = Files.copy(
+                content, part, StandardCopyOption.REPLACE_EXISTING
+            );
+            Files.move(
+                part, this.dir.resolve(oid), StandardCopyOption.ATOMIC_MOVE
+            );
+            synchronized (this) {
+                final Long old = this.entries.put(oid, length);
+                if (old != null) {
+                    this.size -= old;
+                }
+                this.size += length;
+                this.evict();
+            }
+            return length;
+        } finally {
+            Files.deleteIfExists(part);
+        }
+    }
+
+    /**
+     * Forget an object, deleted from storage.
+     * @param oid Object id
+     * @throws IOException If it can't be deleted
+     */
+    public synchronized void remove(final String oid) throws IOException {
+        final Long length = this.entries.remove(oid);
+        if (length != null) {
+            this.size -= length;
+            Files.deleteIfExists(this.dir.resolve(oid));
+        }
+    }
+
+    /**
+     * Delete least recently opened objects until within capacity.
+     * @throws IOException If an object can't be deleted
+     */
+    private void evict() throws IOException {
+        final Iterator<Map.Entry<String, Long>> eldest =
+            this.entries.entrySet().iterator();
+        while (this.size > this.capacity && eldest.hasNext()) {
+            final Map.Entry<String, Long> entry = eldest.next();
+            eldest.remove();
+            this.size -= entry.getValue();
+            Files.deleteIfExists(this.dir.resolve(entry.getKey()));
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Collections;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+
+/**
+ * Chain of decorating ContentManagers over the container, as configured.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (3 lines)
+ * @checkstyle ClassFanOutComplexity (2 lines)
+ */
+final class StorageChain {
+    /**
+     * Parameters.
+     */
+    private final Params params;
+
+    /**
+     * Azure container.
+     */
+    private final CloudBlobContainer container;
+
+    /**
+     * Objects deleted by sweeps, to forget.
+     */
+    private final Swept swept;
+
+    /**
+     * Ctor.
+     * @param params Parameters
+     * @param container Azure container
+     */
+    StorageChain(final Params params, final CloudBlobContainer container) {
+        this.params = params;
+        this.container = container;
+        this.swept = new Swept(new BlobRest(container));
+    }
+
+    /**
+     * Storage for the container, with the configured optimisations.
+     * @return Storage
+     * @throws IOException If storage can't be set up
+     */
+    public ContentManager storage() throws IOException {
+        ContentManager storage = this.replicated(this.engine());
+        if (this.params.chunkSize() > 0) {
+            final ChunkedStorage chunked = new ChunkedStorage(
+                this.container, storage, new Chunker(this.params.chunkSize())
+            );
+            chunked.metrics().register();
+            storage = chunked;
+        }
+        Iterable<Meta> packed = Collections.emptyList();
+        if (this.params.packMaxObject() > 0) {
+            final PackedStorage packs = new PackedStorage(
+                this.container, storage, this.params.packMaxObject()
+            ).start();
+            packs.metrics().register();
+            packed = packs.listing();
+            storage = packs;
+        }
+        if (!this.params.writeBack().isEmpty()) {
+            final WriteBackStorage journal = new WriteBackStorage(
+                Paths.get(this.params.writeBack()),
+                this.params.writeBackBytes(), storage
+            ).start();
+            journal.metrics().register();
+            storage = journal;
+        }
+        final CancellingStorage cancelling = new CancellingStorage(
+            Duration.ofSeconds(this.params.downloadDeadlineSeconds()),
+            this.indexed(this.cached(this.mirrored(storage)), packed)
+        );
+        cancelling.metrics().register();
+        return cancelling;
+    }
+
+    /**
+     * Objects deleted by sweeps, telling the index and memory cache of the
+     * chain to forget them once started. Whatever else holds objects is
+     * added by the caller.
+     * @return Swept objects, not started
+     */
+    public Swept swept() {
+        return this.swept;
+    }
+
+    /**
+     * Storage recording the reads of clients for tiering, if enabled. It
+     * has to wrap whatever serves clients, caches included, or objects
+     * read from caches would look unread.
+     * @param served Storage serving clients
+     * @return Storage
+     */
+    public ContentManager tiered(final ContentManager served) {
+        ContentManager tiered = served;
+        if (this.params.tierCoolDays() > 0) {
+            final Tiering tiering = new Tiering(
+                new BlobRest(this.container),
+                new TierPolicy(
+                    Duration.ofDays(this.params.tierCoolDays()),
+                    Duration.ofDays(this.params.tierArchiveDays()),
+                    this.params.tierHotReads()
+                ),
+                this.params.tierReadsPerDay()
+            ).start();
+            tiering.metrics().register();
+            tiered = new TieredStorage(tiering, served);
+        }
+        return tiered;
+    }
+
+    /**
+     * Storage spreading reads of hot objects over replicas, if configured.
+     * @param storage Backing storage
+     * @return Storage
+     */
+    private ContentManager replicated(final ContentManager storage) {
+        ContentManager replicated = storage;
+        if (this.params.replicas() > 0) {
+            final Replicas replicas = new Replicas(
+                this.container, this.params.replicas(),
+                this.params.replicaReads()
+            ).start();
+            replicas.metrics().register();
+            replicated = new ReplicatedStorage(replicas, storage);
+        }
+        return replicated;
+    }
+
+    /**
+     * Storage queueing uploads for copying to other containers, if enabled.
+     * @param storage Backing storage
+     * @return Storage
+     * @throws IOException If the mirrors are misconfigured
+     */
+    private ContentManager mirrored(final ContentManager storage)
+        throws IOException {
+        ContentManager mirrored = storage;
+        if (!this.params.mirrors().isEmpty()) {
+            if (this.params.mirrorDir().isEmpty()) {
+                throw new IOException("Mirrors need gitlfs.mirror.dir");
+            }
+            final Mirror mirror = new Mirror(
+                new MirrorQueue(Paths.get(this.params.mirrorDir())),
+                this.container, storage
+            );
+            for (final String target : this.params.mirrors()) {
+                mirror.target(this.container(target));
+            }
+            final MirroredStorage queueing =
+                new MirroredStorage(mirror.start(), storage);
+            queueing.metrics().register();
+            mirrored = queueing;
+        }
+        return mirrored;
+    }
+
+    /**
+     * Container named in the configuration.
+     * @param name Container in the same account, or URL of a container
+     * @return Container
+     * @throws IOException If there's no such container
+     */
+    private CloudBlobContainer container(final String name)
+        throws IOException {
+        try {
+            final CloudBlobContainer target;
+            if (name.contains("://")) {
+                target = new CloudBlobContainer(new URI(name));
+            } else {
+                target = this.container.getServiceClient()
+                    .getContainerReference(name);
+            }
+            return target;
+        } catch (final URISyntaxException | StorageException ex) {
+            throw new IOException(
+                String.format("Invalid mirror container %s", name), ex
+            );
+        }
+    }
+
+    /**
+     * Storage serving small objects from memory, if configured.
+     * @param storage Backing storage
+     * @return Storage
+     */
+    private ContentManager cached(final ContentManager storage) {
+        ContentManager cached = storage;
+        if (this.params.memoryCacheBytes() > 0L) {
+            final SlabCache cache =
+                new SlabCache(this.params.memoryCacheBytes());
+            cache.metrics().register();
+            this.swept.holder(cache::remove);
+            cached = new MemoryCachedStorage(
+                cache, this.params.memoryCacheMaxObject(), storage
+            );
+        }
+        return cached;
+    }
+
+    /**
+     * Storage answering metadata lookups from the index, if configured.
+     * @param storage Backing storage
+     * @param packed Objects kept in packs, in object id order
+     * @return Storage
+     * @throws IOException If the index can't be started
+     */
+    private ContentManager indexed(final ContentManager storage,
+        final Iterable<Meta> packed) throws IOException {
+        ContentManager indexed = storage;
+        if (!this.params.index().isEmpty()) {
+            final OidIndex index = new OidIndex(
+                Paths.get(this.params.index()),
+                new ContainerListing(this.container, packed)
+            ).start();
+            this.swept.holder(index::remove);
+            indexed = new IndexedStorage(index, storage);
+        }
+        return indexed;
+    }
+
+    /**
+     * Storage making the Azure calls.
+     * @return Storage
+     * @throws IOException If storage can't be set up
+     */
+    private ContentManager engine() throws IOException {
+        final ContentManager storage;
+        if ("async".equals(this.params.engine())) {
+            storage = new AsyncBlobStorage(
+                this.container, this.params.engineThreads(),
+                this.params.uploadBlocks()
+            ).start();
+        } else {
+            storage = new AzureBlobStorage(
+                this.container,
+                new Hedging(
+                    this.params.hedgePercentile(), this.params.hedgeBudget()
+                ),
+                this.endpoints(),
+                this.params.uploadBlocks()
+            );
+        }
+        return storage;
+    }
+
+    /**
+     * Routing of reads between the primary and secondary endpoints.
+     * @return Endpoints
+     * @throws IOException If secondary reads are asked for but the account
+     *  has no secondary endpoint
+     */
+    private Endpoints endpoints() throws IOException {
+        Endpoints endpoints = new Endpoints();
+        if (this.params.secondaryReads()) {
+            if (this.container.getStorageUri().getSecondaryUri() == null) {
+                throw new IOException(
+                    "Secondary reads need a geo-redundant storage account"
+                );
+            }
+            endpoints = new Endpoints(
+                true, Duration.ofMinutes(this.params.secondaryLagMinutes())
+            );
+            endpoints.metrics().register();
+        }
+        return endpoints;
+    }
+}
@@ -0,0 +1,275 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.util.regex.Pattern;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.http.HttpHeader;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ContentServlet;
+import ru.bozaro.gitlfs.server.ServerError;
+
+/**
+ * Servlet for object content, telling clients to come back later for
+ * archived objects.
+ *
+ * <p>Objects are addressed by their content and never change, so downloads
+ * carry the object id as a strong ETag and may be cached for a year.
+ * Requests revalidating that ETag are answered with 304 without reading the
+ * object. Responses to authenticated requests are only cached privately.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class StorageServlet extends ContentServlet {
+    /**
+     * Serialization marker.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Seconds after which clients should retry reading archived objects.
+     */
+    private static final String RETRY = "3600";
+
+    /**
+     * Freshness of object content, a year.
+     */
+    private static final String FRESH = "max-age=31536000, immutable";
+
+    /**
+     * Size of the copy buffer.
+     */
+    // @checkstyle MagicNumber (1 line)
+    private static final int BUFFER = 1 << 16;
+
+    /**
+     * Path of an object.
+     */
+    private static final Pattern OBJECT = Pattern.compile("^/[0-9a-f]{64}$");
+
+    /**
+     * Storage.
+     */
+    private final transient ContentManager storage;
+
+    /**
+     * Ctor.
+     * @param manager Storage
+     */
+    StorageServlet(final ContentManager manager) {
+        super(manager);
+        this.storage = manager;
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest req,
+        final HttpServletResponse resp) throws ServletException, IOException {
+        final String path = req.getPathInfo();
+        if (path != null && StorageServlet.OBJECT.matcher(path).matches()) {
+            try {
+                this.download(req, resp, path.substring(1));
+            } catch (final ServerError ex) {
+                resp.setStatus(ex.getStatusCode());
+                ex.updateHeaders(resp);
+                resp.getWriter().println(ex.getMessage());
+            } catch (final ArchivedException ex) {
+                resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                resp.setHeader("Retry-After", StorageServlet.RETRY);
+                resp.getWriter().println(
+                    String.format(
+                        "%s, it is being rehydrated, retry later",
+                        ex.getMessage()
+                    )
+                );
+            }
+        } else {
+            super.doGet(req, resp);
+        }
+    }
+
+    /**
+     * Send an object, or tell the client its copy is still good.
+     * @param req Request
+     * @param resp Response
+     * @param oid Object id
+     * @throws IOException If the object can't be read or sent
+     * @throws ServerError If the object can't be downloaded
+     */
+    private void download(final HttpServletRequest req,
+        final HttpServletResponse resp, final String oid)
+        throws IOException, ServerError {
+        final ContentManager.Downloader downloader =
+            this.storage.checkDownloadAccess(req);
+        if (StorageServlet.matches(
+            req.getHeader(HttpHeader.IF_NONE_MATCH.asString()), oid
+        )) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            StorageServlet.validators(req, resp, oid);
+        } else {
+            try (InputStream content = StorageServlet.open(downloader, oid)) {
+                final byte[] buffer = new byte[StorageServlet.BUFFER];
+                final int first = StorageServlet.first(content, buffer, oid);
+                resp.setStatus(HttpServletResponse.SC_OK);
+                resp.setContentType("application/octet-stream");
+                final long length = this.length(content, oid);
+                if (length >= 0L) {
+                    resp.setContentLengthLong(length);
+                }
+                StorageServlet.validators(req, resp, oid);
+                final OutputStream out = resp.getOutputStream();
+                for (int read = first; read >= 0; read = content.read(buffer)) {
+                    out.write(buffer, 0, read);
+                }
+            }
+        }
+    }
+
+    /**
+     * Length of an object, as known by the storage that opened it, or looked
+     * up for storage that only learns it while streaming.
+     * @param content Content, as opened
+     * @param oid Object id
+     * @return Length, or a negative number if unknown
+     * @throws IOException If the object can't be looked up
+     */
+    private long length(final InputStream content, final String oid)
+        throws IOException {
+        long length = SizedStream.length(content);
+        if (length < 0L) {
+            final Meta meta = this.storage.getMetadata(oid);
+            if (meta != null) {
+                length = meta.getSize();
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Refuse deserialization, the servlet only makes sense in this server.
+     * @param stream Stream
+     * @throws IOException Always
+     * @throws ClassNotFoundException Never
+     */
+    private void readObject(final ObjectInputStream stream)
+        throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        throw new NotSerializableException(this.getClass().getName());
+    }
+
+    /**
+     * Set the ETag and caching headers of an object.
+     * @param req Request
+     * @param resp Response
+     * @param oid Object id
+     */
+    private static void validators(final HttpServletRequest req,
+        final HttpServletResponse resp, final String oid) {
+        resp.setHeader(
+            HttpHeader.ETAG.asString(), String.format("\"%s\"", oid)
+        );
+        String scope = "public";
+        if (req.getHeader(HttpHeader.AUTHORIZATION.asString()) != null) {
+            scope = "private";
+        }
+        resp.setHeader(
+            HttpHeader.CACHE_CONTROL.asString(),
+            String.format("%s, %s", scope, StorageServlet.FRESH)
+        );
+    }
+
+    /**
+     * Open an object.
+     * @param downloader Downloader
+     * @param oid Object id
+     * @return Content
+     * @throws IOException If the object can't be opened
+     * @throws ServerError If there is no such object
+     */
+    private static InputStream open(final ContentManager.Downloader downloader,
+        final String oid) throws IOException, ServerError {
+        try {
+            return downloader.openObject(oid);
+        } catch (final FileNotFoundException ex) {
+            throw StorageServlet.missing(oid);
+        }
+    }
+
+    /**
+     * Read the first bytes of an object, before answering, so that a
+     * missing object read lazily is still answered with 404.
+     * @param content Content
+     * @param buffer Buffer
+     * @param oid Object id
+     * @return Bytes read, negative if none
+     * @throws IOException If the object can't be read
+     * @throws ServerError If there is no such object
+     */
+    private static int first(final InputStream content, final byte[] buffer,
+        final String oid) throws IOException, ServerError {
+        try {
+            return content.read(buffer);
+        } catch (final IOException ex) {
+            Throwable cause = ex;
+            while (cause != null && !(cause instanceof FileNotFoundException)) {
+                cause = cause.getCause();
+            }
+            if (cause != null) {
+                throw StorageServlet.missing(oid);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Error for a missing object.
+     * @param oid Object id
+     * @return Error
+     */
+    private static ServerError missing(final String oid) {
+        return new ServerError(
+            HttpServletResponse.SC_NOT_FOUND,
+            String.format("Object %s not found", oid)
+        );
+    }
+
+    /**
+     * Does an If-None-Match header name the object?
+     * @param header Header, or null
+     * @param oid Object id
+     * @return True if the client has the object already
+     */
+    private static boolean matches(final String header, final String oid) {
+        boolean found = false;
+        if (header != null) {
+            final String tag = String.format("\"%s\"", oid);
+            for (final String item : header.split(",")) {
+                final String trimmed = item.trim();
+                found |= tag.equals(trimmed)
+                    || trimmed.equals(String.format("W/%s", tag));
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Blocks of a blocking stream, as a reactive stream, for the servlet layer.
+ *
+ * <p>The stream is read by the thread calling {@link #pump()}, one block at
+ * a time and only when the subscriber has asked for one, so an upload is
+ * read from its client no faster than its blocks are taken. The first block
+ * has been read already, to tell small uploads apart.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class StreamPublisher implements Publisher<ByteBuffer>, Subscription {
+    /**
+     * Rest of the stream.
+     */
+    private final InputStream source;
+
+    /**
+     * Size of a block.
+     */
+    private final int block;
+
+    /**
+     * Blocks requested and not published yet.
+     */
+    private final Semaphore demand;
+
+    /**
+     * First block, or null once published.
+     */
+    private ByteBuffer first;
+
+    /**
+     * Subscriber, once subscribed.
+     */
+    private volatile Subscriber<? super ByteBuffer> subscriber;
+
+    /**
+     * Has the subscription been cancelled?
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * Ctor.
+     * @param first First block, full, setting the size of blocks
+     * @param source Rest of the stream
+     */
+    StreamPublisher(final ByteBuffer first, final InputStream source) {
+        this.first = first;
+        this.block = first.remaining();
+        this.source = source;
+        this.demand = new Semaphore(0);
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super ByteBuffer> sub) {
+        this.subscriber = sub;
+        sub.onSubscribe(this);
+    }
+
+    @Override
+    public void request(final long count) {
+        this.demand.release((int) Math.min(count, Short.MAX_VALUE));
+    }
+
+    @Override
+    public void cancel() {
+        this.cancelled = true;
+        this.demand.release();
+    }
+
+    /**
+     * Read the stream and publish its blocks, until its end or until the
+     * subscription is cancelled.
+     * @throws IOException If the stream can't be read
+     */
+    public void pump() throws IOException {
+        boolean more = true;
+        while (more) {
+            try {
+                this.demand.acquire();
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                this.subscriber.onError(ex);
+                throw new InterruptedIOException(ex.getMessage());
+            }
+            more = !this.cancelled && this.next();
+        }
+    }
+
+    /**
+     * Publish the next block, or the end of the stream.
+     * @return True if there may be more blocks
+     * @throws IOException If the stream can't be read
+     */
+    private boolean next() throws IOException {
+        ByteBuffer buffer = this.first;
+        this.first = null;
+        if (buffer == null) {
+            final byte[] bytes = new byte[this.block];
+            try {
+                buffer = ByteBuffer.wrap(
+                    bytes, 0,
+                    ByteStreams.read(this.source, bytes, 0, bytes.length)
+                );
+            } catch (final IOException ex) {
+                this.subscriber.onError(ex);
+                throw ex;
+            }
+        }
+        final boolean full = buffer.remaining() == this.block;
+        if (buffer.hasRemaining()) {
+            this.subscriber.onNext(buffer);
+        }
+        if (!full) {
+            this.subscriber.onComplete();
+        }
+        return full;
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.microsoft.azure.storage.CloudStorageAccount;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Properties;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Entry point deleting objects no longer reachable from any repository
+ * using the container.
+ *
+ * <p>Takes the server's {@code --properties} and a {@code --reachable} file
+ * of lines starting with an object id, or {@code -} to read them from
+ * standard input, and optionally {@code --grace-days}, {@code --threads},
+ * {@code --report} and {@code --dry-run}. Objects changed within the grace
+ * period are kept, reachable or not. Deleted objects, or those that would
+ * be, are appended to the report. Packs made mostly of unreachable objects
+ * are compacted too.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+public final class Sweep {
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(Sweep.class.getName());
+
+    /**
+     * Bytes in a MiB.
+     */
+    // @checkstyle MagicNumber (1 line)
+    private static final long MIB = 1L << 20;
+
+    /**
+     * Utility class.
+     */
+    private Sweep() {
+    }
+
+    /**
+     * Main entry point.
+     * @param args Command line arguments.
+     * @throws Exception If something goes wrong.
+     */
+    public static void main(final String[] args) throws Exception {
+        final OptionParser parser = new OptionParser();
+        final OptionSpec<String> props = parser.accepts("properties")
+            .withRequiredArg().required();
+        final OptionSpec<String> reachable = parser.accepts("reachable")
+            .withRequiredArg().required();
+        // @checkstyle MagicNumber (4 lines)
+        final OptionSpec<Integer> grace = parser.accepts("grace-days")
+            .withRequiredArg().ofType(Integer.class).defaultsTo(7);
+        final OptionSpec<Integer> threads = parser.accepts("threads")
+            .withRequiredArg().ofType(Integer.class).defaultsTo(16);
+        final OptionSpec<String> report = parser.accepts("report")
+            .withRequiredArg().defaultsTo("sweep.report");
+        parser.accepts("dry-run");
+        final OptionSet options = parser.parse(args);
+        final Properties properties = new Properties();
+        try (FileInputStream file =
+            new FileInputStream(options.valueOf(props))) {
+            properties.load(file);
+        }
+        final Params params = new Params(properties);
+        final CloudBlobContainer container = CloudStorageAccount.parse(
+            new AzureStorageCredentials(
+                params.account(), params.key(), true
+            ).connectionString()
+        ).createCloudBlobClient().getContainerReference(params.container());
+        final Reachable live = Sweep.reachable(options.valueOf(reachable));
+        final Instant before = Instant.now().minus(
+            Duration.ofDays(options.valueOf(grace))
+        );
+        final Sweeper sweeper = new Sweeper(
+            new BlobRest(container), options.valueOf(threads),
+            !options.has("dry-run")
+        );
+        try (BufferedWriter out = Files.newBufferedWriter(
+            Paths.get(options.valueOf(report)), StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND
+        )) {
+            sweeper.sweep(live, before, line -> Sweep.write(out, line));
+        }
+        if (params.packMaxObject() > 0 && !options.has("dry-run")) {
+            new PackedStorage(
+                container, new AzureBlobStorage(container),
+                params.packMaxObject()
+            ).start().compact(live, before);
+        }
+        Sweep.LOGGER.info(Sweep.summary(sweeper.metrics(), live.count()));
+    }
+
+    /**
+     * Read reachable object ids, refusing an empty list.
+     * @param file File of lines starting with an object id, or {@code -}
+     *  for standard input
+     * @return Reachable object ids
+     * @throws IOException If none can be read
+     */
+    private static Reachable reachable(final String file) throws IOException {
+        final Reachable live;
+        if ("-".equals(file)) {
+            final Path copy = Files.createTempFile("reachable", ".txt");
+            try {
+                Files.copy(
+                    System.in, copy, StandardCopyOption.REPLACE_EXISTING
+                );
+                live = Reachable.load(copy);
+            } finally {
+                Files.delete(copy);
+            }
+        } else {
+            live = Reachable.load(Paths.get(file));
+        }
+        if (live.count() == 0L) {
+            throw new IOException(
+                String.format("No object ids in %s, none is reachable", file)
+            );
+        }
+        return live;
+    }
+
+    /**
+     * Append a line to the report.
+     * @param out Report
+     * @param line Line
+     */
+    private static void write(final BufferedWriter out, final String line) {
+        synchronized (out) {
+            try {
+                out.write(line);
+                out.newLine();
+                out.flush();
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /**
+     * Summary of a sweep.
+     * @param metrics Counts of the sweep
+     * @param reachable Number of reachable object ids read
+     * @return Summary
+     */
+    private static String summary(final Metrics metrics,
+        final long reachable) {
+        return String.format(
+            String.join(
+                " ", "Listed %.0f blobs against %d reachable objects:",
+                "%.0f unreachable (%.1f MiB), %.0f too recent, %.0f deleted"
+            ),
+            metrics.value("Listed"), reachable, metrics.value("Orphans"),
+            metrics.value("Bytes") / Sweep.MIB, metrics.value("Recent"),
+            metrics.value("Deleted")
+        );
+    }
+}
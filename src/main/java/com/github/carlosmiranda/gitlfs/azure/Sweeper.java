@@ -0,0 +1,270 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Parallel deletion of objects that are no longer reachable.
+ *
+ * <p>Objects and manifests of chunked objects are listed in 32 segments,
+ * one per first hex digit of their object id, fetched in parallel. Each
+ * listed object that isn't reachable and hasn't changed since a time is
+ * reported and deleted, up to 256 in one batch request, on condition that
+ * its ETag is still the listed one. Memory stays bounded however large the
+ * container: only a batch per segment is held at once. Each batch deleted
+ * is recorded by {@link Swept}, for servers to forget its objects, and
+ * records past their time are deleted once the sweep is done.
+ *
+ * <p>Chunks, packs and other blobs not named after an object are left
+ * alone; packed objects are dropped by
+ * {@link PackedStorage#compact(Predicate, Instant)}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+final class Sweeper {
+    /**
+     * Names of blobs holding objects or their manifests, the last group
+     * being their object id.
+     */
+    private static final Pattern NAME =
+        Pattern.compile("^(manifests/)?([0-9a-f]{64})$");
+
+    /**
+     * First digits of object ids, one per segment.
+     */
+    private static final String DIGITS = "0123456789abcdef";
+
+    /**
+     * Most blobs deleted in one batch.
+     */
+    private static final int BATCH = 256;
+
+    /**
+     * Azure REST requests.
+     */
+    private final BlobRest rest;
+
+    /**
+     * Record of deleted objects.
+     */
+    private final Swept swept;
+
+    /**
+     * Number of segments listed at once.
+     */
+    private final int threads;
+
+    /**
+     * Delete orphans, rather than only report them?
+     */
+    private final boolean delete;
+
+    /**
+     * Blobs listed.
+     */
+    private final LongAdder listed;
+
+    /**
+     * Unreachable blobs found.
+     */
+    private final LongAdder orphans;
+
+    /**
+     * Unreachable blobs spared, having changed too recently.
+     */
+    private final LongAdder recent;
+
+    /**
+     * Blobs deleted.
+     */
+    private final LongAdder deleted;
+
+    /**
+     * Bytes of unreachable blobs found.
+     */
+    private final LongAdder bytes;
+
+    /**
+     * Ctor.
+     * @param rest Azure REST requests
+     * @param threads Number of segments listed at once
+     * @param delete Delete orphans, rather than only report them?
+     */
+    Sweeper(final BlobRest rest, final int threads, final boolean delete) {
+        this.rest = rest;
+        this.swept = new Swept(rest);
+        this.threads = threads;
+        this.delete = delete;
+        this.listed = new LongAdder();
+        this.orphans = new LongAdder();
+        this.recent = new LongAdder();
+        this.deleted = new LongAdder();
+        this.bytes = new LongAdder();
+    }
+
+    /**
+     * Delete unreachable objects.
+     * @param live Tells whether an object might be reachable
+     * @param before Objects changed later are kept
+     * @param report Told one tab-separated line per unreachable object
+     * @throws IOException If the container can't be listed
+     * @throws InterruptedException If interrupted
+     */
+    public void sweep(final Predicate<String> live, final Instant before,
+        final Consumer<String> report)
+        throws IOException, InterruptedException {
+        final ExecutorService pool = Executors.newFixedThreadPool(
+            this.threads,
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("sweeper-%d")
+                .build()
+        );
+        try {
+            final List<Future<?>> segments = new ArrayList<>(0);
+            for (final String folder
+                : new String[] {"", ChunkedStorage.MANIFESTS}) {
+                for (final char digit : Sweeper.DIGITS.toCharArray()) {
+                    segments.add(
+                        pool.submit(
+                            () -> {
+                                this.segment(
+                                    folder + digit, live, before, report
+                                );
+                                return digit;
+                            }
+                        )
+                    );
+                }
+            }
+            for (final Future<?> segment : segments) {
+                segment.get();
+            }
+            if (this.delete) {
+                this.swept.expire();
+            }
+        } catch (final ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Counts of the sweep.
+     * @return Metrics
+     */
+    public Metrics metrics() {
+        return new Metrics("Sweep")
+            .gauge("Listed", this.listed::doubleValue)
+            .gauge("Orphans", this.orphans::doubleValue)
+            .gauge("Recent", this.recent::doubleValue)
+            .gauge("Deleted", this.deleted::doubleValue)
+            .gauge("Bytes", this.bytes::doubleValue);
+    }
+
+    /**
+     * Delete unreachable objects of one segment.
+     * @param prefix Prefix of the blobs of the segment
+     * @param live Tells whether an object might be reachable
+     * @param before Objects changed later are kept
+     * @param report Told unreachable objects
+     * @throws IOException If the segment can't be listed
+     * @checkstyle ParameterNumber (3 lines)
+     */
+    private void segment(final String prefix, final Predicate<String> live,
+        final Instant before, final Consumer<String> report)
+        throws IOException {
+        final Map<String, String> doomed = new LinkedHashMap<>();
+        try {
+            for (final BlobTier blob : new TierListing(this.rest, prefix)) {
+                this.listed.increment();
+                final Matcher name = Sweeper.NAME.matcher(blob.name());
+                if (name.matches() && !live.test(name.group(2))
+                    && this.expired(blob, before, report)) {
+                    doomed.put(blob.name(), blob.etag());
+                }
+                if (doomed.size() == Sweeper.BATCH) {
+                    this.flush(doomed);
+                }
+            }
+        } catch (final UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        this.flush(doomed);
+    }
+
+    /**
+     * Tell whether an unreachable blob changed long enough ago to delete,
+     * reporting it if so.
+     * @param blob Listed blob
+     * @param before Blobs changed later are kept
+     * @param report Told unreachable objects
+     * @return True if it did
+     */
+    private boolean expired(final BlobTier blob, final Instant before,
+        final Consumer<String> report) {
+        final boolean expired = blob.modified().isBefore(before);
+        if (expired) {
+            this.orphans.increment();
+            this.bytes.add(blob.size());
+            report.accept(
+                String.format("orphan\t%s\t%d", blob.name(), blob.size())
+            );
+        } else {
+            this.recent.increment();
+        }
+        return expired;
+    }
+
+    /**
+     * Delete blobs, if deleting, record their objects as swept, and forget
+     * them. Objects that changed since they were listed are recorded too;
+     * servers forgetting them only costs an upload that wasn't needed.
+     * @param doomed Blob names, and their listed ETags
+     * @throws IOException If the batch fails as a whole
+     */
+    private void flush(final Map<String, String> doomed) throws IOException {
+        if (this.delete && !doomed.isEmpty()) {
+            this.deleted.add(new BlobBatch(this.rest).delete(doomed));
+            this.swept.record(
+                doomed.keySet().stream()
+                    .map(name -> name.substring(name.lastIndexOf('/') + 1))
+                    .collect(Collectors.toList())
+            );
+        }
+        doomed.clear();
+    }
+}
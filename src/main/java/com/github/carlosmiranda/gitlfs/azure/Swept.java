@@ -0,0 +1,263 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.CharStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Objects deleted by sweeps, recorded in the container for servers to
+ * forget.
+ *
+ * <p>A {@link Sweeper} records each batch of objects it deletes as a blob
+ * named {@code swept/<millis>-<uuid>}, one object id per line. Servers read
+ * new records once a minute and tell whatever holds objects apart from the
+ * container, such as the {@link OidIndex} and the caches, to forget them,
+ * so they stop answering that those objects exist. Records are kept for
+ * {@value #DAYS} days, and a starting server reads all of them, since its
+ * index outlives restarts.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+final class Swept {
+    /**
+     * Prefix of records.
+     */
+    public static final String PREFIX = "swept/";
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(Swept.class.getName());
+
+    /**
+     * Days records are kept.
+     */
+    private static final long DAYS = 30L;
+
+    /**
+     * Azure REST requests.
+     */
+    private final BlobRest rest;
+
+    /**
+     * Holders of objects, told to forget swept ones.
+     */
+    private final List<Holder> holders;
+
+    /**
+     * Records already read.
+     */
+    private final Set<String> read;
+
+    /**
+     * Thread reading new records.
+     */
+    private final ScheduledExecutorService poller;
+
+    /**
+     * Ctor.
+     * @param rest Azure REST requests
+     */
+    Swept(final BlobRest rest) {
+        this.rest = rest;
+        this.holders = new CopyOnWriteArrayList<>();
+        this.read = ConcurrentHashMap.newKeySet();
+        this.poller = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("swept")
+                .build()
+        );
+    }
+
+    /**
+     * Add something to tell about swept objects.
+     * @param holder Holder of objects
+     * @return This same instance
+     */
+    public Swept holder(final Holder holder) {
+        this.holders.add(holder);
+        return this;
+    }
+
+    /**
+     * Start reading new records once a minute.
+     * @return This same instance
+     */
+    public Swept start() {
+        this.poller.scheduleWithFixedDelay(
+            this::poll, 0L, 1L, TimeUnit.MINUTES
+        );
+        return this;
+    }
+
+    /**
+     * Read the records not read yet, and tell the holders to forget their
+     * objects.
+     */
+    public void poll() {
+        try {
+            for (final BlobTier record
+                : new TierListing(this.rest, Swept.PREFIX)) {
+                final String name = record.name();
+                if (!this.read.contains(name)) {
+                    for (final String oid : this.oids(name)) {
+                        this.forget(oid);
+                    }
+                    this.read.add(name);
+                }
+            }
+        } catch (final IOException | UncheckedIOException ex) {
+            Swept.LOGGER.log(Level.WARNING, "Can't read swept objects", ex);
+        }
+    }
+
+    /**
+     * Tell the holders to forget an object, found deleted.
+     * @param oid Object id
+     * @throws IOException If one of them fails to
+     */
+    public void forget(final String oid) throws IOException {
+        for (final Holder holder : this.holders) {
+            holder.forget(oid);
+        }
+    }
+
+    /**
+     * Record objects just deleted.
+     * @param oids Object ids
+     * @throws IOException If the record can't be written
+     */
+    public void record(final Collection<String> oids) throws IOException {
+        if (!oids.isEmpty()) {
+            final StringBuilder text = new StringBuilder();
+            for (final String oid : oids) {
+                text.append(oid).append('\n');
+            }
+            final byte[] body = text.toString()
+                .getBytes(StandardCharsets.UTF_8);
+            final Map<String, String> headers = new TreeMap<>();
+            headers.put("x-ms-blob-type", "BlockBlob");
+            headers.put("content-type", "text/plain");
+            headers.put("content-length", Integer.toString(body.length));
+            final HttpURLConnection conn = this.rest.open(
+                "PUT",
+                this.rest.container(
+                    String.format(
+                        "/%s%013d-%s", Swept.PREFIX,
+                        Instant.now().toEpochMilli(), UUID.randomUUID()
+                    )
+                ),
+                headers
+            );
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(body);
+            }
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_CREATED) {
+                throw BlobRest.failure(conn);
+            }
+        }
+    }
+
+    /**
+     * Delete records older than they are kept for.
+     * @throws IOException If they can't be listed or deleted
+     */
+    public void expire() throws IOException {
+        final String oldest = String.format(
+            "%s%013d", Swept.PREFIX,
+            Instant.now().minus(Duration.ofDays(Swept.DAYS)).toEpochMilli()
+        );
+        final Map<String, String> expired = new LinkedHashMap<>();
+        try {
+            for (final BlobTier record
+                : new TierListing(this.rest, Swept.PREFIX)) {
+                if (record.name().compareTo(oldest) < 0) {
+                    expired.put(record.name(), record.etag());
+                }
+            }
+        } catch (final UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        new BlobBatch(this.rest).delete(expired);
+    }
+
+    /**
+     * Object ids in a record.
+     * @param name Record name
+     * @return Object ids, none if the record expired meanwhile
+     * @throws IOException If the record can't be read
+     */
+    private List<String> oids(final String name) throws IOException {
+        final HttpURLConnection conn = this.rest.open(
+            "GET", this.rest.container(String.format("/%s", name)),
+            Collections.emptyMap()
+        );
+        final int status = conn.getResponseCode();
+        final List<String> oids;
+        if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+            oids = Collections.emptyList();
+        } else if (status == HttpURLConnection.HTTP_OK) {
+            try (Reader reader = new InputStreamReader(
+                conn.getInputStream(), StandardCharsets.UTF_8
+            )) {
+                oids = CharStreams.readLines(reader);
+            }
+        } else {
+            throw BlobRest.failure(conn);
+        }
+        return oids;
+    }
+
+    /**
+     * Something holding objects apart from the container.
+     */
+    interface Holder {
+        /**
+         * Forget an object.
+         * @param oid Object id
+         * @throws IOException If it can't be forgotten
+         */
+        void forget(String oid) throws IOException;
+    }
+}
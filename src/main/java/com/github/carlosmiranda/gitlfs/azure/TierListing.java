@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Listing of the access tiers and metadata of the LFS objects in a
+ * container.
+ *
+ * <p>Only blobs at the top of the container, or of one folder, are listed,
+ * so chunks and manifests are left alone unless asked for. A prefix
+ * restricts the listing further, so that parts of it can be fetched in
+ * parallel. The listing is fetched page by page as it is
+ * iterated; failures are thrown as {@link UncheckedIOException}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class TierListing implements Iterable<BlobTier> {
+    /**
+     * Elements of the listing that aren't plain text.
+     */
+    private static final Set<String> PARENTS = ImmutableSet.of(
+        "EnumerationResults", "Blobs", "Blob", "BlobPrefix", "Properties",
+        "Metadata"
+    );
+
+    /**
+     * Query of the first page.
+     */
+    private static final String QUERY =
+        "?restype=container&comp=list&delimiter=%2F&maxresults=5000"
+            + "&include=metadata";
+
+    /**
+     * Azure REST requests.
+     */
+    private final BlobRest rest;
+
+    /**
+     * Prefix of the blobs listed.
+     */
+    private final String prefix;
+
+    /**
+     * Ctor.
+     * @param rest Azure REST requests
+     */
+    TierListing(final BlobRest rest) {
+        this(rest, "");
+    }
+
+    /**
+     * Ctor.
+     * @param rest Azure REST requests
+     * @param prefix Prefix of the blobs listed, up to the first slash
+     *  after it
+     */
+    TierListing(final BlobRest rest, final String prefix) {
+        this.rest = rest;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Iterator<BlobTier> iterator() {
+        return new Pages();
+    }
+
+    /**
+     * Parse a page of the listing.
+     * @param xml Page
+     * @param blobs Where to add the blobs of the page
+     * @return Marker of the next page, empty if this is the last page
+     * @throws XMLStreamException If the page can't be parsed
+     */
+    public static String parse(final InputStream xml,
+        final List<BlobTier> blobs) throws XMLStreamException {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        final XMLStreamReader reader = factory.createXMLStreamReader(xml);
+        String marker = "";
+        Map<String, String> properties = null;
+        boolean metadata = false;
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                final String name = reader.getLocalName();
+                if ("Blob".equals(name)) {
+                    properties = new HashMap<>();
+                    metadata = false;
+                } else if ("Metadata".equals(name)) {
+                    metadata = true;
+                } else if ("NextMarker".equals(name)) {
+                    marker = reader.getElementText();
+                } else if (properties != null
+                    && !TierListing.PARENTS.contains(name)) {
+                    properties.put(
+                        TierListing.key(name, metadata),
+                        reader.getElementText()
+                    );
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT
+                && "Blob".equals(reader.getLocalName())) {
+                blobs.add(new BlobTier(properties.get("Name"), properties));
+                properties = null;
+            }
+        }
+        return marker;
+    }
+
+    /**
+     * Key of a listed element in the properties of a blob.
+     * @param name Element name
+     * @param metadata Is it metadata?
+     * @return Key
+     */
+    private static String key(final String name, final boolean metadata) {
+        String key = name;
+        if (metadata) {
+            key = BlobTier.META + name.toLowerCase(Locale.ENGLISH);
+        }
+        return key;
+    }
+
+    /**
+     * Iterator fetching the listing page by page.
+     */
+    private final class Pages extends AbstractIterator<BlobTier> {
+        /**
+         * Blobs of the current page.
+         */
+        private Iterator<BlobTier> page = Collections.emptyIterator();
+
+        /**
+         * Marker of the next page, or null after the last page.
+         */
+        private String marker = "";
+
+        @Override
+        protected BlobTier computeNext() {
+            while (!this.page.hasNext() && this.marker != null) {
+                this.fetch();
+            }
+            final BlobTier next;
+            if (this.page.hasNext()) {
+                next = this.page.next();
+            } else {
+                next = this.endOfData();
+            }
+            return next;
+        }
+
+        /**
+         * Fetch the next page.
+         */
+        private void fetch() {
+            try {
+                String query = TierListing.QUERY;
+                if (!TierListing.this.prefix.isEmpty()) {
+                    query = String.format(
+                        "%s&prefix=%s", query,
+                        URLEncoder.encode(
+                            TierListing.this.prefix,
+                            StandardCharsets.UTF_8.name()
+                        )
+                    );
+                }
+                if (!this.marker.isEmpty()) {
+                    query = String.format(
+                        "%s&marker=%s", query,
+                        URLEncoder.encode(
+                            this.marker, StandardCharsets.UTF_8.name()
+                        )
+                    );
+                }
+                final HttpURLConnection conn = TierListing.this.rest.open(
+                    "GET", TierListing.this.rest.container(query),
+                    Collections.emptyMap()
+                );
+                if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                    throw BlobRest.failure(conn);
+                }
+                final List<BlobTier> blobs = new ArrayList<>(0);
+                try (InputStream xml = conn.getInputStream()) {
+                    this.marker = TierListing.parse(xml, blobs);
+                }
+                if (this.marker.isEmpty()) {
+                    this.marker = null;
+                }
+                this.page = blobs.iterator();
+            } catch (final UnsupportedEncodingException ex) {
+                throw new IllegalStateException(ex);
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            } catch (final XMLStreamException ex) {
+                throw new UncheckedIOException(new IOException(ex));
+            }
+        }
+    }
+}
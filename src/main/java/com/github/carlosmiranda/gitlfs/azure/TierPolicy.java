@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Policy choosing the access tier of an object from how often it's read.
+ *
+ * <p>Objects read often enough go back to the hot tier, wherever they are.
+ * Hot objects not read for a while go to the cool tier, and cool objects
+ * not read for a while longer go to the archive tier. How long an object
+ * went unread is measured from its last read, as recorded in its metadata,
+ * or from the time it got its tier if that's later.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class TierPolicy {
+    /**
+     * Hot tier.
+     */
+    public static final String HOT = "Hot";
+
+    /**
+     * Cool tier.
+     */
+    public static final String COOL = "Cool";
+
+    /**
+     * Archive tier.
+     */
+    public static final String ARCHIVE = "Archive";
+
+    /**
+     * Time in the hot tier without reads before cooling.
+     */
+    private final Duration cool;
+
+    /**
+     * Time in the cool tier without reads before archiving, zero to
+     * never archive.
+     */
+    private final Duration archive;
+
+    /**
+     * Reads that bring an object back to the hot tier.
+     */
+    private final int hot;
+
+    /**
+     * Ctor.
+     * @param cool Time in the hot tier without reads before cooling
+     * @param archive Time in the cool tier without reads before archiving,
+     *  zero to never archive
+     * @param hot Reads that bring an object back to the hot tier
+     */
+    TierPolicy(final Duration cool, final Duration archive, final int hot) {
+        this.cool = cool;
+        this.archive = archive;
+        this.hot = hot;
+    }
+
+    /**
+     * Tier a blob should move to.
+     * @param blob Blob and its current tier
+     * @param reads Recent reads of the blob
+     * @param now Current time
+     * @return Tier, or empty if the blob should stay where it is
+     */
+    public String target(final BlobTier blob, final int reads,
+        final Instant now) {
+        final String tier = blob.tier();
+        String target = tier;
+        if (reads >= this.hot) {
+            target = TierPolicy.HOT;
+        } else if (TierPolicy.HOT.equals(tier)
+            && TierPolicy.expired(blob, this.cool, now)) {
+            target = TierPolicy.COOL;
+        } else if (TierPolicy.COOL.equals(tier)
+            && TierPolicy.expired(blob, this.archive, now)) {
+            target = TierPolicy.ARCHIVE;
+        }
+        if (blob.rehydrating() || target.equals(tier)) {
+            target = "";
+        }
+        return target;
+    }
+
+    /**
+     * Has a blob gone unread in its tier for longer than a time?
+     * @param blob Blob
+     * @param time Time, zero for never
+     * @param now Current time
+     * @return True if it has
+     */
+    private static boolean expired(final BlobTier blob, final Duration time,
+        final Instant now) {
+        return !time.isZero() && blob.accessed().plus(time).isBefore(now);
+    }
+}
@@ -0,0 +1,334 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Automatic tiering of objects by how often they're read.
+ *
+ * <p>Reads are counted in an {@link AccessSketch}. Once a day, every
+ * object in the container is checked against a {@link TierPolicy} and the
+ * ones that should move are moved, in batches, after which the counts are
+ * halved. Objects read since the previous pass, kept in a
+ * {@link ReadFilter} sized for the expected reads per day, first get the
+ * time of the pass in their metadata, so how long an object went unread
+ * survives restarts and is shared by all servers; that's one write per
+ * object read per day. Archived objects that someone tried to read are
+ * brought back without waiting for the daily pass, within a minute.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+final class Tiering {
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(Tiering.class.getName());
+
+    /**
+     * Hours between tiering passes.
+     */
+    private static final long PASS = 24L;
+
+    /**
+     * Seconds between rehydrations of archived objects.
+     */
+    private static final long REHYDRATE = 60L;
+
+    /**
+     * Blobs per batch.
+     */
+    private static final int BATCH = 256;
+
+    /**
+     * Counters per row of the sketch.
+     */
+    // @checkstyle MagicNumber (1 line)
+    private static final int WIDTH = 1 << 20;
+
+    /**
+     * Rate of unread objects taken for read since the last pass, each
+     * costing a needless metadata write and a day more in its tier.
+     */
+    private static final double FALSE = 0.01;
+
+    /**
+     * Read counts.
+     */
+    private final AccessSketch sketch;
+
+    /**
+     * Reads since the last pass.
+     */
+    private final AtomicReference<ReadFilter> recent;
+
+    /**
+     * Distinct objects expected to be read between two passes.
+     */
+    private final long reads;
+
+    /**
+     * Azure REST requests.
+     */
+    private final BlobRest rest;
+
+    /**
+     * Tier policy.
+     */
+    private final TierPolicy policy;
+
+    /**
+     * Listing of blob tiers.
+     */
+    private final Iterable<BlobTier> listing;
+
+    /**
+     * Batches of tier changes.
+     */
+    private final BlobBatch batch;
+
+    /**
+     * Archived objects someone tried to read.
+     */
+    private final Set<String> archived;
+
+    /**
+     * Number of blobs moved, by tier.
+     */
+    private final ConcurrentMap<String, LongAdder> moved;
+
+    /**
+     * Thread running tiering passes.
+     */
+    private final ScheduledExecutorService passes;
+
+    /**
+     * Ctor.
+     * @param rest Azure REST requests
+     * @param policy Tier policy
+     * @param reads Distinct objects expected to be read in a day
+     */
+    Tiering(final BlobRest rest, final TierPolicy policy, final long reads) {
+        this.sketch = new AccessSketch(Tiering.WIDTH);
+        this.recent = new AtomicReference<>(
+            new ReadFilter(reads, Tiering.FALSE)
+        );
+        this.reads = reads;
+        this.rest = rest;
+        this.policy = policy;
+        this.listing = new TierListing(rest);
+        this.batch = new BlobBatch(rest);
+        this.archived = ConcurrentHashMap.newKeySet();
+        this.moved = new ConcurrentHashMap<>();
+        this.passes = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("tiering")
+                .build()
+        );
+    }
+
+    /**
+     * Schedule tiering passes.
+     * @return This same instance
+     */
+    public Tiering start() {
+        this.passes.scheduleWithFixedDelay(
+            this::pass, Tiering.PASS, Tiering.PASS, TimeUnit.HOURS
+        );
+        this.passes.scheduleWithFixedDelay(
+            this::rehydrate, Tiering.REHYDRATE, Tiering.REHYDRATE,
+            TimeUnit.SECONDS
+        );
+        return this;
+    }
+
+    /**
+     * Record a read of an object.
+     * @param oid Object id
+     */
+    public void read(final String oid) {
+        this.sketch.increment(oid);
+        this.recent.get().add(oid);
+    }
+
+    /**
+     * Bring an archived object back to the hot tier.
+     * @param oid Object id
+     */
+    public void archived(final String oid) {
+        this.archived.add(oid);
+    }
+
+    /**
+     * Tiering metrics.
+     * @return Metrics
+     */
+    public Metrics metrics() {
+        final Metrics metrics = new Metrics("Tiering");
+        for (final String tier : new String[] {
+            TierPolicy.HOT, TierPolicy.COOL, TierPolicy.ARCHIVE,
+        }) {
+            metrics.gauge(
+                String.format("MovedTo%s", tier),
+                () -> this.counter(tier).doubleValue()
+            );
+        }
+        return metrics;
+    }
+
+    /**
+     * Record reads since the last pass, move every object that should move,
+     * then decay read counts. Once started, this runs once a day.
+     */
+    public void pass() {
+        final Map<String, List<String>> moves = new HashMap<>();
+        final Instant now = Instant.now();
+        final ReadFilter since = this.recent.getAndSet(
+            new ReadFilter(this.reads, Tiering.FALSE)
+        );
+        try {
+            for (final BlobTier listed : this.listing) {
+                BlobTier blob = listed;
+                if (since.contains(blob.name())) {
+                    blob = this.stamp(blob, now);
+                }
+                final String target = this.policy.target(
+                    blob, this.sketch.estimate(blob.name()), now
+                );
+                if (!target.isEmpty()) {
+                    final List<String> blobs = moves.computeIfAbsent(
+                        target, tier -> new ArrayList<>(Tiering.BATCH)
+                    );
+                    blobs.add(blob.name());
+                    if (blobs.size() == Tiering.BATCH) {
+                        this.move(blobs, target);
+                    }
+                }
+            }
+            for (final Map.Entry<String, List<String>> entry
+                : moves.entrySet()) {
+                this.move(entry.getValue(), entry.getKey());
+            }
+            // @checkstyle IllegalCatch (1 line)
+        } catch (final IOException | RuntimeException ex) {
+            Tiering.LOGGER.log(Level.WARNING, "Tiering pass failed", ex);
+        }
+        this.sketch.decay();
+    }
+
+    /**
+     * Record the last read of a blob in its metadata, unless it's archived,
+     * keeping the rest of its metadata.
+     * @param blob Blob
+     * @param now Time of the read
+     * @return Blob, read at that time even if it couldn't be recorded
+     */
+    private BlobTier stamp(final BlobTier blob, final Instant now) {
+        final BlobTier read = blob.read(now);
+        if (!TierPolicy.ARCHIVE.equals(blob.tier())) {
+            final Map<String, String> headers = new HashMap<>(read.metadata());
+            if (!blob.etag().isEmpty()) {
+                headers.put("if-match", blob.etag());
+            }
+            headers.put("content-length", "0");
+            try {
+                final HttpURLConnection conn = this.rest.open(
+                    "PUT",
+                    this.rest.container(
+                        String.format("/%s?comp=metadata", blob.name())
+                    ),
+                    headers
+                );
+                conn.getOutputStream().close();
+                final int status = conn.getResponseCode();
+                if (status != HttpURLConnection.HTTP_OK
+                    && status != HttpURLConnection.HTTP_PRECON_FAILED
+                    && status != HttpURLConnection.HTTP_NOT_FOUND) {
+                    throw BlobRest.failure(conn);
+                }
+            } catch (final IOException ex) {
+                Tiering.LOGGER.log(
+                    Level.FINE,
+                    String.format("Can't record read of %s", blob.name()), ex
+                );
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Rehydrate archived objects someone tried to read.
+     */
+    private void rehydrate() {
+        final List<String> blobs = new ArrayList<>(this.archived);
+        if (!blobs.isEmpty()) {
+            this.archived.removeAll(blobs);
+            try {
+                this.move(blobs, TierPolicy.HOT);
+            } catch (final IOException ex) {
+                Tiering.LOGGER.log(Level.WARNING, "Can't rehydrate", ex);
+            }
+        }
+    }
+
+    /**
+     * Move blobs to a tier.
+     * @param blobs Blob names, cleared once moved
+     * @param tier Tier
+     * @throws IOException If a batch fails
+     */
+    private void move(final List<String> blobs, final String tier)
+        throws IOException {
+        final int done = this.batch.tier(blobs, tier);
+        this.counter(tier).add(done);
+        if (done < blobs.size()) {
+            Tiering.LOGGER.log(
+                Level.INFO, "{0} of {1} blobs not moved to {2}",
+                new Object[] {blobs.size() - done, blobs.size(), tier}
+            );
+        }
+        blobs.clear();
+    }
+
+    /**
+     * Counter of blobs moved to a tier.
+     * @param tier Tier
+     * @return Counter
+     */
+    private LongAdder counter(final String tier) {
+        return this.moved.computeIfAbsent(tier, key -> new LongAdder());
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import joptsimple.OptionParser;
+import joptsimple.OptionSpec;
+
+/**
+ * Git LFS standalone custom transfer agent using resumable uploads.
+ *
+ * <p>Configured in a repository with:
+ * <pre>
+ * git config lfs.standalonetransferagent resumable
+ * git config lfs.customtransfer.resumable.path java
+ * git config lfs.customtransfer.resumable.args \
+ *   "-cp git-lfs-azureblob.jar \
+ *   com.github.carlosmiranda.gitlfs.azure.TransferAgent \
+ *   --url https://host/repo.git/info/lfs"
+ * </pre>
+ * Uploads continue from the last byte the server received, even across
+ * runs; credentials come from {@code git credential fill}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+public final class TransferAgent {
+    /**
+     * Attempts to send an object before giving up.
+     */
+    private static final int ATTEMPTS = 5;
+
+    /**
+     * Bytes between progress events.
+     */
+    // @checkstyle MagicNumber (1 line)
+    private static final long STEP = 1L << 20;
+
+    /**
+     * JSON mapper.
+     */
+    private final ObjectMapper mapper;
+
+    /**
+     * Resumable upload client.
+     */
+    private final ResumableClient client;
+
+    /**
+     * Where to write events to Git LFS.
+     */
+    private final PrintStream out;
+
+    /**
+     * Ctor.
+     * @param client Resumable upload client
+     * @param out Where to write events to Git LFS
+     */
+    TransferAgent(final ResumableClient client, final PrintStream out) {
+        this.mapper = new ObjectMapper();
+        this.client = client;
+        this.out = out;
+    }
+
+    /**
+     * Main entry point.
+     * @param args Command line arguments.
+     * @throws Exception If something goes wrong.
+     */
+    public static void main(final String[] args) throws Exception {
+        final OptionParser parser = new OptionParser();
+        final OptionSpec<String> url = parser.accepts("url")
+            .withRequiredArg().required();
+        final String lfs = parser.parse(args).valueOf(url);
+        new TransferAgent(
+            new ResumableClient(lfs, ResumableClient.credentials(lfs)),
+            System.out
+        ).run(
+            new BufferedReader(
+                new InputStreamReader(System.in, StandardCharsets.UTF_8)
+            )
+        );
+    }
+
+    /**
+     * Answer events from Git LFS until told to terminate.
+     * @param in Events from Git LFS, one JSON object per line
+     * @throws IOException If events can't be read or written
+     */
+    public void run(final BufferedReader in) throws IOException {
+        for (String line = in.readLine(); line != null
+            && !"terminate".equals(this.handle(this.mapper.readTree(line)));
+            line = in.readLine()) {
+            this.out.flush();
+        }
+        this.out.flush();
+    }
+
+    /**
+     * Handle an event.
+     * @param event Event
+     * @return Event name
+     * @throws IOException If the answer can't be written
+     */
+    private String handle(final JsonNode event) throws IOException {
+        final String name = event.path("event").asText();
+        final String oid = event.path("oid").asText();
+        if ("init".equals(name)) {
+            this.send(ImmutableMap.of());
+        } else if ("upload".equals(name) || "download".equals(name)) {
+            final Map<String, Object> done = new HashMap<>();
+            done.put("event", "complete");
+            done.put("oid", oid);
+            try {
+                if ("upload".equals(name)) {
+                    this.upload(oid, Paths.get(event.path("path").asText()));
+                } else {
+                    done.put("path", this.download(oid).toString());
+                }
+            } catch (final IOException ex) {
+                done.put(
+                    "error",
+                    ImmutableMap.of("code", 1, "message", ex.getMessage())
+                );
+            }
+            this.send(done);
+        }
+        return name;
+    }
+
+    /**
+     * Upload an object, continuing where the server stopped receiving it.
+     * @param oid Object id
+     * @param file File holding the object
+     * @throws IOException If the object can't be uploaded
+     */
+    private void upload(final String oid, final Path file) throws IOException {
+        final long size = Files.size(file);
+        final LongConsumer progress = this.progress(oid);
+        long offset = this.client.offset(oid);
+        int attempts = 1;
+        while (offset >= 0L && offset < size) {
+            try {
+                offset = this.client.append(oid, offset, file, progress);
+            } catch (final IOException ex) {
+                if (attempts >= TransferAgent.ATTEMPTS) {
+                    throw ex;
+                }
+                ++attempts;
+                offset = this.client.offset(oid);
+            }
+        }
+        if (offset >= 0L) {
+            this.client.finish(oid);
+        }
+    }
+
+    /**
+     * Download an object to a temporary file.
+     * @param oid Object id
+     * @return Temporary file
+     * @throws IOException If the object can't be downloaded
+     */
+    private Path download(final String oid) throws IOException {
+        final Path tmp = Paths.get(".git", "lfs", "tmp");
+        final Path file;
+        if (Files.isDirectory(tmp)) {
+            file = Files.createTempFile(tmp, oid, ".tmp");
+        } else {
+            file = Files.createTempFile(oid, ".tmp");
+        }
+        this.client.download(oid, file, this.progress(oid));
+        return file;
+    }
+
+    /**
+     * Progress of a transfer, sent to Git LFS as it goes.
+     * @param oid Object id
+     * @return Progress, told the number of bytes transferred so far
+     */
+    private LongConsumer progress(final String oid) {
+        final AtomicLong last = new AtomicLong(-1L);
+        return done -> {
+            final long before = last.get();
+            if (before < 0L || done - before >= TransferAgent.STEP) {
+                last.set(done);
+                this.send(
+                    ImmutableMap.of(
+                        "event", "progress", "oid", oid, "bytesSoFar", done,
+                        "bytesSinceLast", done - Math.max(before, 0L)
+                    )
+                );
+            }
+        };
+    }
+
+    /**
+     * Send an event to Git LFS.
+     * @param event Event
+     */
+    private void send(final Map<String, ?> event) {
+        try {
+            this.out.println(this.mapper.writeValueAsString(event));
+        } catch (final IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        this.out.flush();
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event of the transfer of an object's content between a
+ * client and storage.
+ *
+ * <p>The time spent reading from the source and writing to the sink are
+ * recorded apart: for downloads the source is storage and the sink the
+ * client socket, for uploads the other way around.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+@Name("com.github.carlosmiranda.gitlfs.azure.Transfer")
+@Label("Content Transfer")
+@Category("Git LFS")
+@Description("Copy of an object between a client and storage")
+@StackTrace(false)
+@SuppressWarnings("PMD.UnusedPrivateField")
+final class TransferEvent extends Event {
+    /**
+     * Direction, upload or download.
+     */
+    @Label("Direction")
+    private String direction;
+
+    /**
+     * Object id.
+     */
+    @Label("Object")
+    private String oid;
+
+    /**
+     * Bytes copied.
+     */
+    @Label("Bytes")
+    @DataAmount
+    private long bytes;
+
+    /**
+     * Time spent reading from the source.
+     */
+    @Label("Source Time")
+    @Timespan
+    private long source;
+
+    /**
+     * Time spent writing to the sink.
+     */
+    @Label("Sink Time")
+    @Timespan
+    private long sink;
+
+    /**
+     * Ctor.
+     * @param direction Direction, upload or download
+     * @param oid Object id
+     */
+    TransferEvent(final String direction, final String oid) {
+        super();
+        this.direction = direction;
+        this.oid = oid;
+    }
+
+    /**
+     * Count bytes copied.
+     * @param count Bytes
+     */
+    public void copied(final long count) {
+        this.bytes += count;
+    }
+
+    /**
+     * Count time spent reading from the source.
+     * @param nanos Nanoseconds
+     */
+    public void reading(final long nanos) {
+        this.source += nanos;
+    }
+
+    /**
+     * Count time spent writing to the sink.
+     * @param nanos Nanoseconds
+     */
+    public void writing(final long nanos) {
+        this.sink += nanos;
+    }
+
+    /**
+     * End the transfer and record it, if recording.
+     */
+    public void finish() {
+        this.end();
+        if (this.shouldCommit()) {
+            this.commit();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream checking its content against an object id.
+ *
+ * <p>Once the end of the content is read, a read fails if the content
+ * doesn't hash to the object id, so a consumer storing the content fails
+ * before it commits anything.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class VerifiedStream extends FilterInputStream {
+    /**
+     * Object id.
+     */
+    private final String oid;
+
+    /**
+     * Hash of the content read so far.
+     */
+    private final Hasher hasher;
+
+    /**
+     * Hash of the whole content, or null until it's all read.
+     */
+    private String digest;
+
+    /**
+     * Ctor.
+     * @param content Content
+     * @param oid Object id
+     */
+    VerifiedStream(final InputStream content, final String oid) {
+        super(content);
+        this.oid = oid;
+        this.hasher = Hashing.sha256().newHasher();
+    }
+
+    /**
+     * Did the content turn out not to match?
+     * @return True if it didn't match
+     */
+    public boolean mismatch() {
+        return this.digest != null && !this.digest.equals(this.oid);
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] single = new byte[1];
+        int result = -1;
+        if (this.read(single, 0, 1) > 0) {
+            // @checkstyle MagicNumber (1 line)
+            result = single[0] & 0xff;
+        }
+        return result;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int off, final int len)
+        throws IOException {
+        final int read = super.read(buffer, off, len);
+        if (read > 0) {
+            this.hasher.putBytes(buffer, off, read);
+        } else if (read < 0 && this.digest == null) {
+            this.digest = this.hasher.hash().toString();
+        }
+        if (this.mismatch()) {
+            throw new IOException(
+                String.format("Content doesn't match %s", this.oid)
+            );
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(final long count) throws IOException {
+        throw new IOException("Can't skip verified content");
+    }
+}
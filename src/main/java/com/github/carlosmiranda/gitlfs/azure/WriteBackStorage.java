@@ -0,0 +1,370 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import javax.servlet.http.HttpServletRequest;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ForbiddenError;
+import ru.bozaro.gitlfs.server.ServerError;
+import ru.bozaro.gitlfs.server.UnauthorizedError;
+
+/**
+ * Decorating ContentManager acknowledging uploads once they are on local
+ * disk, and copying them to the backing storage in the background.
+ *
+ * <p>Each upload is written to a file of the journal directory, synced
+ * along with the directory, before the client is answered. Journaled
+ * objects are then saved to the backing storage by a few threads, retried
+ * with growing delays until they succeed, and their files deleted. Until
+ * then, lookups and downloads of them are answered from the journal. After
+ * a restart, objects left in the journal are copied again.
+ *
+ * <p>Once the journal holds its capacity in bytes, uploads are saved to
+ * the backing storage directly, so clients slow down to its pace instead
+ * of filling the disk.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+final class WriteBackStorage implements ContentManager {
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(WriteBackStorage.class.getName());
+
+    /**
+     * Names of journaled objects.
+     */
+    private static final Pattern OID = Pattern.compile("^[0-9a-f]{64}$");
+
+    /**
+     * Threads copying objects to the backing storage.
+     */
+    private static final int THREADS = 4;
+
+    /**
+     * Longest delay between attempts to copy an object, in seconds.
+     */
+    private static final long BACKOFF = 300L;
+
+    /**
+     * Journal directory.
+     */
+    private final Path dir;
+
+    /**
+     * Most bytes to journal.
+     */
+    private final long capacity;
+
+    /**
+     * Backing storage.
+     */
+    private final ContentManager storage;
+
+    /**
+     * Sizes of journaled objects not copied yet.
+     */
+    private final ConcurrentMap<String, Long> journaled;
+
+    /**
+     * Bytes journaled.
+     */
+    private final AtomicLong bytes;
+
+    /**
+     * Objects copied to the backing storage.
+     */
+    private final AtomicLong copied;
+
+    /**
+     * Failed attempts to copy objects.
+     */
+    private final AtomicLong failures;
+
+    /**
+     * Uploads saved directly since the journal was full.
+     */
+    private final AtomicLong through;
+
+    /**
+     * Threads copying objects.
+     */
+    private final ScheduledExecutorService copying;
+
+    /**
+     * Ctor.
+     * @param dir Journal directory
+     * @param capacity Most bytes to journal
+     * @param storage Backing storage
+     */
+    WriteBackStorage(final Path dir, final long capacity,
+        final ContentManager storage) {
+        this.dir = dir;
+        this.capacity = capacity;
+        this.storage = storage;
+        this.journaled = new ConcurrentHashMap<>();
+        this.bytes = new AtomicLong();
+        this.copied = new AtomicLong();
+        this.failures = new AtomicLong();
+        this.through = new AtomicLong();
+        this.copying = Executors.newScheduledThreadPool(
+            WriteBackStorage.THREADS,
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("write-back-%d")
+                .build()
+        );
+    }
+
+    /**
+     * Create the journal directory, and start copying objects left in it.
+     * @return This same instance
+     * @throws IOException If the directory can't be read
+     */
+    public WriteBackStorage start() throws IOException {
+        Files.createDirectories(this.dir);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.dir)) {
+            for (final Path file : files) {
+                final String name = file.toFile().getName();
+                if (WriteBackStorage.OID.matcher(name).matches()) {
+                    this.journaled(name, Files.size(file));
+                } else {
+                    Files.delete(file);
+                }
+            }
+        }
+        return this;
+    }
+
+    @Override
+    @NotNull
+    public Downloader checkDownloadAccess(
+        @NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        return new JournalDownloader(this.storage.checkDownloadAccess(request));
+    }
+
+    @Override
+    @NotNull
+    public Uploader checkUploadAccess(@NotNull final HttpServletRequest request)
+        throws IOException, ForbiddenError, UnauthorizedError {
+        final Uploader uploader = this.storage.checkUploadAccess(request);
+        return (meta, content) -> {
+            if (this.journaled.containsKey(meta.getOid())) {
+                ByteStreams.copy(content, ByteStreams.nullOutputStream());
+            } else if (this.bytes.get() + meta.getSize() > this.capacity) {
+                this.through.incrementAndGet();
+                uploader.saveObject(meta, content);
+            } else {
+                this.journaled(meta.getOid(), this.write(meta, content));
+            }
+        };
+    }
+
+    @Override
+    @Nullable
+    public Meta getMetadata(@NotNull final String hash) throws IOException {
+        final Long size = this.journaled.get(hash);
+        final Meta meta;
+        if (size == null) {
+            meta = this.storage.getMetadata(hash);
+        } else {
+            meta = new Meta(hash, size);
+        }
+        return meta;
+    }
+
+    /**
+     * Counts of the journal.
+     * @return Metrics
+     */
+    public Metrics metrics() {
+        return new Metrics("WriteBack")
+            .gauge("Backlog", () -> (double) this.journaled.size())
+            .gauge("BacklogBytes", this.bytes::doubleValue)
+            .gauge("Copied", this.copied::doubleValue)
+            .gauge("Failures", this.failures::doubleValue)
+            .gauge("WrittenThrough", this.through::doubleValue);
+    }
+
+    /**
+     * Write an object to the journal, durably.
+     * @param meta Object
+     * @param content Content
+     * @return Size of the object
+     * @throws IOException If it can't be written
+     */
+    private long write(final Meta meta, final InputStream content)
+        throws IOException {
+        final Path part =
+            Files.createTempFile(this.dir, meta.getOid(), ".part");
+        try {
+            final long length;
+            try (FileChannel channel =
+                FileChannel.open(part, StandardOpenOption.WRITE)) {
+                final OutputStream out = Channels.newOutputStream(channel);
+                length = ByteStreams.copy(content, out);
+                channel.force(true);
+            }
+            Files.move(
+                part, this.dir.resolve(meta.getOid()),
+                StandardCopyOption.ATOMIC_MOVE
+            );
+            try (FileChannel directory =
+                FileChannel.open(this.dir, StandardOpenOption.READ)) {
+                directory.force(true);
+            }
+            return length;
+        } finally {
+            Files.deleteIfExists(part);
+        }
+    }
+
+    /**
+     * Note that an object is journaled, and start copying it.
+     * @param oid Object id
+     * @param size Size of the object
+     */
+    private void journaled(final String oid, final long size) {
+        if (this.journaled.putIfAbsent(oid, size) == null) {
+            this.bytes.addAndGet(size);
+            this.copying.execute(() -> this.copy(oid, size, 0));
+        }
+    }
+
+    /**
+     * Copy an object to the backing storage, retrying later if it fails.
+     * @param oid Object id
+     * @param size Size of the object
+     * @param attempt Number of attempts before this one
+     */
+    private void copy(final String oid, final long size, final int attempt) {
+        final Path file = this.dir.resolve(oid);
+        try (InputStream content = Files.newInputStream(file)) {
+            // there is no request to check: the backing storage has no
+            // access control of its own
+            this.storage.checkUploadAccess(null).saveObject(
+                new Meta(oid, size), content
+            );
+            this.journaled.remove(oid);
+            this.bytes.addAndGet(-size);
+            Files.delete(file);
+            this.copied.incrementAndGet();
+            // @checkstyle IllegalCatch (1 line)
+        } catch (final IOException | ServerError | RuntimeException ex) {
+            this.failures.incrementAndGet();
+            WriteBackStorage.LOGGER.log(
+                Level.WARNING, String.format("Can't copy %s, retrying", oid),
+                ex
+            );
+            this.copying.schedule(
+                () -> this.copy(oid, size, attempt + 1),
+                WriteBackStorage.delay(attempt), TimeUnit.SECONDS
+            );
+        }
+    }
+
+    /**
+     * Delay before the next attempt to copy an object, doubling with each
+     * failed attempt up to {@value #BACKOFF} seconds.
+     * @param attempt Number of failed attempts
+     * @return Delay in seconds
+     */
+    private static long delay(final int attempt) {
+        long delay = 1L;
+        for (int idx = 0; idx < attempt && delay < WriteBackStorage.BACKOFF;
+            ++idx) {
+            delay *= 2L;
+        }
+        return Math.min(delay, WriteBackStorage.BACKOFF);
+    }
+
+    /**
+     * Downloader answering journaled objects from the journal.
+     */
+    private final class JournalDownloader implements Downloader {
+        /**
+         * Backing downloader.
+         */
+        private final Downloader downloader;
+
+        /**
+         * Ctor.
+         * @param downloader Backing downloader
+         */
+        JournalDownloader(final Downloader downloader) {
+            this.downloader = downloader;
+        }
+
+        @Override
+        @NotNull
+        public InputStream openObject(@NotNull final String hash)
+            throws IOException {
+            InputStream content = null;
+            if (WriteBackStorage.this.journaled.containsKey(hash)) {
+                try {
+                    content = SizedStream.file(
+                        WriteBackStorage.this.dir.resolve(hash)
+                    );
+                } catch (final NoSuchFileException ex) {
+                    content = null;
+                }
+            }
+            if (content == null) {
+                content = this.downloader.openObject(hash);
+            }
+            return content;
+        }
+
+        @Override
+        @Nullable
+        public InputStream openObjectGzipped(@NotNull final String hash)
+            throws IOException {
+            InputStream content = null;
+            if (!WriteBackStorage.this.journaled.containsKey(hash)) {
+                content = this.downloader.openObjectGzipped(hash);
+            }
+            return content;
+        }
+    }
+}
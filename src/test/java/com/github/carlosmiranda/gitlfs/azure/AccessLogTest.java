@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.HttpInput;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+/**
+ * Test case for {@link AccessLog}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class AccessLogTest {
+    /**
+     * Object id.
+     */
+    private static final String OID =
+        "4d7a214614ab2935c943f9e0ff69d22eadbb8f32b1258daaa5e2ca24d17e2393";
+
+    /**
+     * Temporary folder.
+     * @checkstyle VisibilityModifier (3 lines)
+     */
+    @Rule
+    public final transient TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * AccessLog can write who did what to which object.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void writesRequests() throws Exception {
+        final Path dir = this.folder.getRoot().toPath();
+        try (AccessLog log = new AccessLog(dir, 4, 7)) {
+            log.log(AccessLogTest.request(), AccessLogTest.response(200));
+        }
+        MatcherAssert.assertThat(
+            AccessLogTest.lines(dir),
+            Matchers.contains(
+                Matchers.allOf(
+                    Matchers.containsString(
+                        String.join(
+                            "\t", "alice", "GET",
+                            String.format(
+                                "/repo/info/lfs/storage/%s", AccessLogTest.OID
+                            ),
+                            AccessLogTest.OID, "200", "0", "1234"
+                        )
+                    ),
+                    Matchers.startsWith("1970-01-01T00:00:01Z")
+                )
+            )
+        );
+    }
+
+    /**
+     * AccessLog can drop and count records when its ring is full.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void dropsWhenFull() throws Exception {
+        final Path dir = this.folder.getRoot().toPath();
+        final AccessLog log = new AccessLog(dir, 4, 7);
+        for (int idx = 0; idx < 6; ++idx) {
+            log.log(AccessLogTest.request(), AccessLogTest.response(401));
+        }
+        log.close();
+        MatcherAssert.assertThat(
+            log.metrics().value("Dropped"), Matchers.is(2.0)
+        );
+        MatcherAssert.assertThat(AccessLogTest.lines(dir), Matchers.hasSize(4));
+    }
+
+    /**
+     * Lines of all log files.
+     * @param dir Directory of log files
+     * @return Lines
+     * @throws Exception If something goes wrong.
+     */
+    private static List<String> lines(final Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.flatMap(
+                file -> {
+                    try {
+                        return Files.readAllLines(file).stream();
+                    } catch (final IOException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                }
+            ).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Download request of alice.
+     * @return Request
+     */
+    private static Request request() {
+        final Request request = Mockito.mock(Request.class);
+        final HttpInput input = Mockito.mock(HttpInput.class);
+        Mockito.when(request.getMethod()).thenReturn("GET");
+        Mockito.when(request.getRequestURI()).thenReturn(
+            String.format("/repo/info/lfs/storage/%s", AccessLogTest.OID)
+        );
+        Mockito.when(request.getHeader(HttpHeader.AUTHORIZATION.asString()))
+            .thenReturn(
+                String.format(
+                    "Basic %s",
+                    Base64.getEncoder().encodeToString(
+                        "alice:secret".getBytes(StandardCharsets.UTF_8)
+                    )
+                )
+            );
+        Mockito.when(request.getTimeStamp()).thenReturn(1000L);
+        Mockito.when(request.getHttpInput()).thenReturn(input);
+        return request;
+    }
+
+    /**
+     * Response of 1234 bytes.
+     * @param status Status
+     * @return Response
+     */
+    private static Response response(final int status) {
+        final Response response = Mockito.mock(Response.class);
+        final HttpChannel channel = Mockito.mock(HttpChannel.class);
+        Mockito.when(response.getStatus()).thenReturn(status);
+        Mockito.when(response.getHttpChannel()).thenReturn(channel);
+        Mockito.when(channel.getBytesWritten()).thenReturn(1234L);
+        return response;
+    }
+
+}
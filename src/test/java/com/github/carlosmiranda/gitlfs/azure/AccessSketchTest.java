@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+/**
+ * Test case for {@link AccessSketch}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class AccessSketchTest {
+
+    /**
+     * AccessSketch can estimate access counts.
+     */
+    @Test
+    public void estimatesCounts() {
+        final AccessSketch sketch = new AccessSketch(1 << 10);
+        for (int idx = 0; idx < 100; ++idx) {
+            sketch.increment("hot");
+            sketch.increment(Integer.toString(idx));
+        }
+        MatcherAssert.assertThat(
+            sketch.estimate("hot"), Matchers.greaterThanOrEqualTo(100)
+        );
+        MatcherAssert.assertThat(
+            sketch.estimate("cold"), Matchers.lessThan(10)
+        );
+    }
+
+    /**
+     * AccessSketch can decay counts.
+     */
+    @Test
+    public void decaysCounts() {
+        final AccessSketch sketch = new AccessSketch(1 << 10);
+        for (int idx = 0; idx < 8; ++idx) {
+            sketch.increment("key");
+        }
+        sketch.decay();
+        MatcherAssert.assertThat(sketch.estimate("key"), Matchers.is(4));
+    }
+
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.ByteStreams;
+import com.microsoft.azure.storage.StorageCredentialsAccountAndKey;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ru.bozaro.gitlfs.common.data.Meta;
+
+/**
+ * Test case for {@link AsyncBlobStorage}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+public final class AsyncBlobStorageTest {
+
+    /**
+     * Blob endpoint.
+     */
+    private FakeBlobEndpoint endpoint;
+
+    /**
+     * Start the endpoint.
+     * @throws Exception If something goes wrong.
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.endpoint = new FakeBlobEndpoint().start();
+    }
+
+    /**
+     * Stop the endpoint.
+     * @throws Exception If something goes wrong.
+     */
+    @After
+    public void tearDown() throws Exception {
+        this.endpoint.close();
+    }
+
+    /**
+     * AsyncBlobStorage can upload objects in blocks and read them back.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void uploadsAndReadsObjects() throws Exception {
+        final byte[] large = AsyncBlobStorageTest.random(10_000_000);
+        final byte[] small = AsyncBlobStorageTest.random(1000);
+        try (AsyncBlobStorage storage = this.storage(4)) {
+            storage.checkUploadAccess(null).saveObject(
+                new Meta("large", large.length),
+                new ByteArrayInputStream(large)
+            );
+            storage.checkUploadAccess(null).saveObject(
+                new Meta("small", small.length),
+                new ByteArrayInputStream(small)
+            );
+            MatcherAssert.assertThat(
+                Arrays.equals(this.endpoint.blob("large"), large),
+                Matchers.is(true)
+            );
+            MatcherAssert.assertThat(
+                storage.getMetadata("small").getSize(),
+                Matchers.is((long) small.length)
+            );
+            try (InputStream input =
+                storage.checkDownloadAccess(null).openObject("large")) {
+                MatcherAssert.assertThat(
+                    Arrays.equals(ByteStreams.toByteArray(input), large),
+                    Matchers.is(true)
+                );
+            }
+        }
+    }
+
+    /**
+     * AsyncBlobStorage can read a range of an object.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void readsRanges() throws Exception {
+        final byte[] blob = AsyncBlobStorageTest.random(5000);
+        this.endpoint.put("blob", blob);
+        try (AsyncBlobStorage storage = this.storage(2)) {
+            final PublisherStream stream = new PublisherStream();
+            storage.content("blob", 1000L, 500L).subscribe(stream);
+            try (InputStream input = stream) {
+                MatcherAssert.assertThat(
+                    ByteStreams.toByteArray(input),
+                    Matchers.equalTo(Arrays.copyOfRange(blob, 1000, 1500))
+                );
+            }
+        }
+    }
+
+    /**
+     * AsyncBlobStorage can report missing objects.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void reportsMissingObjects() throws Exception {
+        try (AsyncBlobStorage storage = this.storage(2)) {
+            MatcherAssert.assertThat(
+                storage.getMetadata("missing"), Matchers.nullValue()
+            );
+        }
+    }
+
+    /**
+     * AsyncBlobStorage can keep thousands of slow calls in flight on a few
+     * threads.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void runsManyCallsOnFewThreads() throws Exception {
+        this.endpoint.put("blob", new byte[10]).slow(500L);
+        try (AsyncBlobStorage storage = this.storage(4)) {
+            final long start = System.nanoTime();
+            CompletableFuture.allOf(
+                IntStream.range(0, 2000)
+                    .mapToObj(idx -> storage.metadata("blob"))
+                    .toArray(CompletableFuture[]::new)
+            ).get(1L, TimeUnit.MINUTES);
+            MatcherAssert.assertThat(
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                Matchers.lessThan(20_000L)
+            );
+        }
+        MatcherAssert.assertThat(this.endpoint.requests(), Matchers.is(2000));
+    }
+
+    /**
+     * Storage on the fake endpoint.
+     * @param threads Threads of the HTTP client
+     * @return Started storage
+     * @throws Exception If something goes wrong.
+     */
+    private AsyncBlobStorage storage(final int threads) throws Exception {
+        return new AsyncBlobStorage(
+            new CloudBlobContainer(
+                this.endpoint.uri("lfs"),
+                new StorageCredentialsAccountAndKey(
+                    "account",
+                    Base64.getEncoder().encodeToString(new byte[32])
+                )
+            ),
+            threads, 4
+        ).start();
+    }
+
+    /**
+     * Random content.
+     * @param size Size
+     * @return Content
+     */
+    private static byte[] random(final int size) {
+        final byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+}
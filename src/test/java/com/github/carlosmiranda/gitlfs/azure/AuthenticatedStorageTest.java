@@ -19,6 +19,8 @@ import java.nio.charset.Charset;
 import javax.servlet.http.HttpServletRequest;
 import javax.xml.bind.DatatypeConverter;
 import org.eclipse.jetty.http.HttpHeader;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
 import org.junit.Test;
 import org.mockito.Mockito;
 import ru.bozaro.gitlfs.server.ContentManager;
@@ -105,6 +107,25 @@ public final class AuthenticatedStorageTest {
         Mockito.verify(storage).getMetadata(hash);
     }
 
+    /**
+     * AuthenticatedStorage can tell the user of a basic authorization.
+     */
+    @Test
+    public void readsUser() {
+        MatcherAssert.assertThat(
+            AuthenticatedStorage.user(
+                AuthenticatedStorageTest.authorization("who", "pw")
+            ),
+            Matchers.is("who")
+        );
+        MatcherAssert.assertThat(
+            AuthenticatedStorage.user("Basic !!!"), Matchers.is("")
+        );
+        MatcherAssert.assertThat(
+            AuthenticatedStorage.user(null), Matchers.is("")
+        );
+    }
+
     /**
      * Get authorization header value.
      * @param user Username
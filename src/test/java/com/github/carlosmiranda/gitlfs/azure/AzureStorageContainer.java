@@ -16,7 +16,9 @@
 package com.github.carlosmiranda.gitlfs.azure;
 
 import com.microsoft.azure.storage.CloudStorageAccount;
+import com.microsoft.azure.storage.StorageCredentialsAccountAndKey;
 import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import java.util.Base64;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.junit.Assume;
 import org.junit.rules.ExternalResource;
@@ -37,6 +39,16 @@ import org.junit.rules.ExternalResource;
  * specified, use of emulated storage will take precedence over the real Azure
  * storage account details.
  *
+ * <p>To use a local stand-in of the Blob service, started within the tests
+ * (see {@link FakeBlobEndpoint}), you must specify the environment variable
+ * <code>storage.local</code> with a value of <code>true</code>. Faults can be
+ * injected into it with <code>storage.local.latency</code> (median latency
+ * in milliseconds, log-normally distributed),
+ * <code>storage.local.bandwidth</code> (bytes per second and request),
+ * <code>storage.local.throttle</code> and <code>storage.local.reset</code>
+ * (fractions of requests throttled and of connections reset). It takes
+ * precedence over both other options.
+ *
  * The IT case will create and delete a container named
  * <code>gitlfs-test-[suffix]</code>, where [suffix] is a random string with 20
  * lowercase characters.
@@ -60,11 +72,22 @@ public final class AzureStorageContainer extends ExternalResource {
     private static final boolean EMULATED_STORAGE =
         Boolean.valueOf(System.getProperty("storage.emulated"));
 
+    /**
+     * Use the local stand-in of the Blob service?
+     */
+    private static final boolean LOCAL_STORAGE =
+        Boolean.valueOf(System.getProperty("storage.local"));
+
     /**
      * Name of storage container to test.
      */
     private final String cont;
 
+    /**
+     * Local stand-in of the Blob service.
+     */
+    private final FakeBlobEndpoint local;
+
     /**
      * Ctor.
      */
@@ -74,11 +97,31 @@ public final class AzureStorageContainer extends ExternalResource {
             "%s-%s", "gitlfs-test",
             RandomStringUtils.randomAlphabetic(20).toLowerCase()
         );
+        this.local = new FakeBlobEndpoint()
+            .latency(
+                FakeBlobEndpoint.lognormal(
+                    Long.getLong("storage.local.latency", 0L), 1.0
+                )
+            )
+            .bandwidth(Long.getLong("storage.local.bandwidth", 0L))
+            .throttle(
+                Double.parseDouble(
+                    System.getProperty("storage.local.throttle", "0")
+                )
+            )
+            .reset(
+                Double.parseDouble(
+                    System.getProperty("storage.local.reset", "0")
+                )
+            );
     }
 
     @Override
     protected void before() throws Throwable {
         Assume.assumeTrue(AzureStorageContainer.testShouldExecute());
+        if (AzureStorageContainer.LOCAL_STORAGE) {
+            this.local.start();
+        }
         final CloudBlobContainer container = this.container();
         container.createIfNotExists();
     }
@@ -88,6 +131,9 @@ public final class AzureStorageContainer extends ExternalResource {
         if (AzureStorageContainer.testShouldExecute()) {
             try {
                 this.container().deleteIfExists();
+                if (AzureStorageContainer.LOCAL_STORAGE) {
+                    this.local.close();
+                }
                 // @checkstyle IllegalCatch (1 line)
             } catch (final Exception ex) {
                 throw new IllegalStateException(ex);
@@ -100,7 +146,8 @@ public final class AzureStorageContainer extends ExternalResource {
      * @return true, if proper environment variables are specified
      */
     private static boolean testShouldExecute() {
-        return AzureStorageContainer.EMULATED_STORAGE
+        return AzureStorageContainer.LOCAL_STORAGE
+            || AzureStorageContainer.EMULATED_STORAGE
             || AzureStorageContainer.STORAGE_ACCOUNT != null
             && AzureStorageContainer.STORAGE_KEY != null;
     }
@@ -111,9 +158,23 @@ public final class AzureStorageContainer extends ExternalResource {
      * @throws Exception If something goes wrong
      */
     public CloudBlobContainer container() throws Exception {
-        final CloudStorageAccount account = AzureStorageContainer.account();
-        return account.createCloudBlobClient().
-            getContainerReference(this.cont);
+        final CloudBlobContainer container;
+        if (AzureStorageContainer.LOCAL_STORAGE) {
+            container = new CloudBlobContainer(
+                this.local.uri(this.cont),
+                new StorageCredentialsAccountAndKey(
+                    "account",
+                    // @checkstyle MagicNumber (1 line)
+                    Base64.getEncoder().encodeToString(new byte[32])
+                )
+            );
+        } else {
+            final CloudStorageAccount account =
+                AzureStorageContainer.account();
+            container = account.createCloudBlobClient().
+                getContainerReference(this.cont);
+        }
+        return container;
     }
 
     /**
@@ -0,0 +1,271 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+import javax.servlet.http.HttpServletRequest;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Assume;
+import org.junit.Test;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.common.data.BatchItem;
+import ru.bozaro.gitlfs.common.data.Link;
+import ru.bozaro.gitlfs.common.data.LinkType;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.PointerManager;
+import ru.bozaro.gitlfs.server.PointerServlet;
+
+/**
+ * Benchmark of {@link BatchServlet} against PointerServlet, answering a
+ * large download batch with a locator taking about 60us per object. Run it
+ * with {@code -Dbenchmark=true}, and {@code -Dbenchmark.objects=N} for
+ * another batch size.
+ *
+ * <p>Heap is the peak live heap above the one before the request, sampled
+ * after a GC every 20 ms. It includes the client's own buffered request
+ * body.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+public final class BatchServletITCase {
+    /**
+     * Logger.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(BatchServletITCase.class.getName());
+
+    /**
+     * Run the benchmark.
+     */
+    private static final boolean ENABLED = Boolean.getBoolean("benchmark");
+
+    /**
+     * Objects in the batch.
+     */
+    private static final int OBJECTS =
+        Integer.getInteger("benchmark.objects", 10000);
+
+    /**
+     * BatchServlet can answer the first objects of a large batch sooner, and
+     * in less heap, than PointerServlet.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void answersSoonerInLessHeap() throws Exception {
+        Assume.assumeTrue(BatchServletITCase.ENABLED);
+        final PointerManager pointers = BatchServletITCase.pointers();
+        final String body =
+            BatchServletITCase.batch(BatchServletITCase.OBJECTS);
+        try (LfsServer server = new LfsServer(
+            "/repo", Mockito.mock(ContentManager.class), pointers, 0
+        ).route("legacy/*", new PointerServlet(pointers)).start()) {
+            BatchServletITCase.run(server, "legacy", body);
+            BatchServletITCase.run(server, "objects", body);
+            final long[] legacy =
+                BatchServletITCase.run(server, "legacy", body);
+            final long[] streamed =
+                BatchServletITCase.run(server, "objects", body);
+            BatchServletITCase.LOGGER.info(
+                String.format(
+                    "%d objects: PointerServlet %s, BatchServlet %s",
+                    BatchServletITCase.OBJECTS,
+                    BatchServletITCase.describe(legacy),
+                    BatchServletITCase.describe(streamed)
+                )
+            );
+            MatcherAssert.assertThat(
+                streamed[0], Matchers.lessThan(legacy[0])
+            );
+            MatcherAssert.assertThat(
+                streamed[2], Matchers.lessThan(legacy[2])
+            );
+        }
+    }
+
+    /**
+     * Post a batch, measuring it.
+     * @param server Server
+     * @param mapping Servlet mapping
+     * @param body Request body
+     * @return Nanoseconds to the first byte and to the last, and peak heap
+     * @throws Exception If something goes wrong.
+     */
+    private static long[] run(final LfsServer server, final String mapping,
+        final String body) throws Exception {
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        final long base = runtime.totalMemory() - runtime.freeMemory();
+        final AtomicLong peak = new AtomicLong();
+        final AtomicBoolean done = new AtomicBoolean();
+        final Thread sampler = new Thread(
+            () -> {
+                while (!done.get()) {
+                    System.gc();
+                    peak.accumulateAndGet(
+                        runtime.totalMemory() - runtime.freeMemory() - base,
+                        Math::max
+                    );
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20L));
+                }
+            }
+        );
+        sampler.start();
+        final long start = System.nanoTime();
+        final long first;
+        try (InputStream input =
+            BatchServletITCase.open(server, mapping, body).getInputStream()) {
+            input.read();
+            first = System.nanoTime() - start;
+            ByteStreams.copy(input, ByteStreams.nullOutputStream());
+        }
+        final long total = System.nanoTime() - start;
+        done.set(true);
+        sampler.join();
+        return new long[] {first, total, peak.get()};
+    }
+
+    /**
+     * Describe a measurement.
+     * @param run Measurement
+     * @return Description
+     */
+    private static String describe(final long[] run) {
+        return String.format(
+            "TTFB %d ms, total %d ms, heap %d KiB",
+            TimeUnit.NANOSECONDS.toMillis(run[0]),
+            TimeUnit.NANOSECONDS.toMillis(run[1]),
+            run[2] / 1024L
+        );
+    }
+
+    /**
+     * Pointer manager locating objects for download, taking about 60us per
+     * object.
+     * @return Pointer manager
+     * @throws Exception If something goes wrong.
+     */
+    private static PointerManager pointers() throws Exception {
+        final PointerManager.Locator locator =
+            Mockito.mock(PointerManager.Locator.class);
+        Mockito.when(locator.getLocations(Mockito.any(Meta[].class)))
+            .thenAnswer(
+                inv -> {
+                    final Meta[] metas = inv.getArgumentAt(0, Meta[].class);
+                    final BatchItem[] items = new BatchItem[metas.length];
+                    for (int idx = 0; idx < metas.length; ++idx) {
+                        LockSupport.parkNanos(
+                            TimeUnit.MICROSECONDS.toNanos(60L)
+                        );
+                        items[idx] = BatchServletITCase.located(metas[idx]);
+                    }
+                    return items;
+                }
+            );
+        final PointerManager pointers = Mockito.mock(PointerManager.class);
+        Mockito.when(
+            pointers.checkDownloadAccess(
+                Mockito.any(HttpServletRequest.class), Mockito.any(URI.class)
+            )
+        ).thenReturn(locator);
+        return pointers;
+    }
+
+    /**
+     * Download batch request.
+     * @param count Number of objects
+     * @return Request body
+     */
+    private static String batch(final int count) {
+        final List<String> objects = new ArrayList<>(count);
+        for (int idx = 0; idx < count; ++idx) {
+            objects.add(
+                String.format(
+                    "{\"oid\":\"%s\",\"size\":10}",
+                    Strings.padStart(Integer.toString(idx), 64, '0')
+                )
+            );
+        }
+        return String.format(
+            "{\"operation\":\"download\",\"objects\":[%s]}",
+            String.join(",", objects)
+        );
+    }
+
+    /**
+     * Send a batch request.
+     * @param server Server
+     * @param mapping Servlet mapping
+     * @param body Request body
+     * @return Connection, with the request sent
+     * @throws IOException If something goes wrong.
+     */
+    private static HttpURLConnection open(final LfsServer server,
+        final String mapping, final String body) throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) new URL(
+            String.format(
+                "http://localhost:%d/repo/info/lfs/%s/batch",
+                server.port(), mapping
+            )
+        ).openConnection();
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Content-Type", "application/vnd.git-lfs+json");
+        conn.setDoOutput(true);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return conn;
+    }
+
+    /**
+     * Object located for download.
+     * @param meta Object
+     * @return Location
+     */
+    private static BatchItem located(final Meta meta) {
+        return new BatchItem(
+            meta,
+            Collections.singletonMap(
+                LinkType.Download,
+                new Link(
+                    URI.create(
+                        String.format("http://localhost/%s", meta.getOid())
+                    ),
+                    null, null
+                )
+            )
+        );
+    }
+}
@@ -0,0 +1,302 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.common.data.BatchItem;
+import ru.bozaro.gitlfs.common.data.Link;
+import ru.bozaro.gitlfs.common.data.LinkType;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.LocalPointerManager;
+import ru.bozaro.gitlfs.server.PointerManager;
+import ru.bozaro.gitlfs.server.PointerServlet;
+
+/**
+ * Test case for {@link BatchServlet}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+public final class BatchServletTest {
+    /**
+     * BatchServlet can answer batches like PointerServlet does.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void answersLikePointerServlet() throws Exception {
+        final ContentManager storage = Mockito.mock(ContentManager.class);
+        Mockito.when(
+            storage.checkDownloadAccess(Mockito.any(HttpServletRequest.class))
+        ).thenReturn(Mockito.mock(ContentManager.Downloader.class));
+        Mockito.when(
+            storage.checkUploadAccess(Mockito.any(HttpServletRequest.class))
+        ).thenReturn(Mockito.mock(ContentManager.Uploader.class));
+        Mockito.when(storage.getMetadata(Mockito.anyString())).thenAnswer(
+            inv -> {
+                final String oid = inv.getArgumentAt(0, String.class);
+                Meta meta = null;
+                if (Integer.parseInt(oid) % 2 == 0) {
+                    meta = new Meta(oid, 10L);
+                }
+                return meta;
+            }
+        );
+        final PointerManager pointers = new LocalPointerManager(
+            storage, LfsServer.content("/repo")
+        );
+        try (LfsServer server = BatchServletTest.server(pointers)) {
+            for (final String operation : new String[] {"download", "upload"}) {
+                final String body = BatchServletTest.batch(operation, 250);
+                MatcherAssert.assertThat(
+                    BatchServletTest.post(server, "objects", body),
+                    Matchers.equalTo(
+                        BatchServletTest.post(server, "legacy", body)
+                    )
+                );
+            }
+        }
+    }
+
+    /**
+     * BatchServlet can send the first entries before locating the rest,
+     * locating a chunk at a time.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void streamsEntriesByChunk() throws Exception {
+        final CountDownLatch received = new CountDownLatch(1);
+        final List<Integer> chunks = new ArrayList<>(3);
+        final PointerManager pointers =
+            BatchServletTest.pointers(received, chunks);
+        try (LfsServer server = BatchServletTest.server(pointers)) {
+            final HttpURLConnection conn = BatchServletTest.open(
+                server, "objects", BatchServletTest.batch("download", 250)
+            );
+            try (InputStream input = conn.getInputStream()) {
+                final int first = input.read();
+                received.countDown();
+                final JsonNode answer = new ObjectMapper().readTree(
+                    new SequenceInputStream(
+                        new ByteArrayInputStream(new byte[] {
+                            (byte) first,
+                        }),
+                        input
+                    )
+                );
+                MatcherAssert.assertThat(
+                    answer.get("objects").size(), Matchers.is(250)
+                );
+                MatcherAssert.assertThat(
+                    answer.get("objects").get(249).get("oid").asText(),
+                    Matchers.is(BatchServletTest.oid(249))
+                );
+            }
+        }
+        MatcherAssert.assertThat(chunks, Matchers.contains(100, 100, 50));
+    }
+
+    /**
+     * BatchServlet can refuse a batch without an operation.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void refusesBatchWithoutOperation() throws Exception {
+        try (LfsServer server = BatchServletTest.server(
+            Mockito.mock(PointerManager.class)
+        )) {
+            final HttpURLConnection conn = BatchServletTest.open(
+                server, "objects", "{\"objects\":[]}"
+            );
+            MatcherAssert.assertThat(
+                conn.getResponseCode(),
+                Matchers.is(HttpServletResponse.SC_BAD_REQUEST)
+            );
+            try (InputStream input = conn.getErrorStream()) {
+                MatcherAssert.assertThat(
+                    new ObjectMapper().readTree(input).get("message").asText(),
+                    Matchers.startsWith("Expected an operation")
+                );
+            }
+        }
+    }
+
+    /**
+     * Pointer manager locating objects for download, waiting until a first
+     * answer is received before locating a second chunk.
+     * @param received Set once a first answer is received
+     * @param chunks Sizes of the chunks located
+     * @return Pointer manager
+     * @throws Exception If something goes wrong.
+     */
+    private static PointerManager pointers(final CountDownLatch received,
+        final List<Integer> chunks) throws Exception {
+        final PointerManager.Locator locator =
+            Mockito.mock(PointerManager.Locator.class);
+        Mockito.when(locator.getLocations(Mockito.any(Meta[].class)))
+            .thenAnswer(
+                inv -> {
+                    final Meta[] metas = inv.getArgumentAt(0, Meta[].class);
+                    chunks.add(metas.length);
+                    if (chunks.size() > 1
+                        && !received.await(10L, TimeUnit.SECONDS)) {
+                        throw new IOException("Nothing sent yet");
+                    }
+                    final BatchItem[] items = new BatchItem[metas.length];
+                    for (int idx = 0; idx < metas.length; ++idx) {
+                        items[idx] = BatchServletTest.located(metas[idx]);
+                    }
+                    return items;
+                }
+            );
+        final PointerManager pointers = Mockito.mock(PointerManager.class);
+        Mockito.when(
+            pointers.checkDownloadAccess(
+                Mockito.any(HttpServletRequest.class), Mockito.any(URI.class)
+            )
+        ).thenReturn(locator);
+        return pointers;
+    }
+
+    /**
+     * Server answering batches, and with PointerServlet at
+     * {@code <path>/info/lfs/legacy}.
+     * @param pointers Pointer manager
+     * @return Started server
+     * @throws Exception If something goes wrong.
+     */
+    private static LfsServer server(final PointerManager pointers)
+        throws Exception {
+        return new LfsServer(
+            "/repo", Mockito.mock(ContentManager.class), pointers, 0
+        ).route("legacy/*", new PointerServlet(pointers)).start();
+    }
+
+    /**
+     * Batch request.
+     * @param operation Operation
+     * @param count Number of objects
+     * @return Request body
+     */
+    private static String batch(final String operation, final int count) {
+        final List<String> objects = new ArrayList<>(count);
+        for (int idx = 0; idx < count; ++idx) {
+            objects.add(
+                String.format(
+                    "{\"oid\":\"%s\",\"size\":10}", BatchServletTest.oid(idx)
+                )
+            );
+        }
+        return String.format(
+            "{\"operation\":\"%s\",\"ref\":{\"name\":\"master\"},"
+                + "\"objects\":[%s]}",
+            operation, String.join(",", objects)
+        );
+    }
+
+    /**
+     * Post a batch request and read the answer.
+     * @param server Server
+     * @param mapping Servlet mapping
+     * @param body Request body
+     * @return Answer
+     * @throws IOException If something goes wrong.
+     */
+    private static JsonNode post(final LfsServer server, final String mapping,
+        final String body) throws IOException {
+        try (InputStream input =
+            BatchServletTest.open(server, mapping, body).getInputStream()) {
+            return new ObjectMapper().readTree(input);
+        }
+    }
+
+    /**
+     * Send a batch request.
+     * @param server Server
+     * @param mapping Servlet mapping
+     * @param body Request body
+     * @return Connection, with the request sent
+     * @throws IOException If something goes wrong.
+     */
+    private static HttpURLConnection open(final LfsServer server,
+        final String mapping, final String body) throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) new URL(
+            String.format(
+                "http://localhost:%d/repo/info/lfs/%s/batch",
+                server.port(), mapping
+            )
+        ).openConnection();
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Content-Type", "application/vnd.git-lfs+json");
+        conn.setDoOutput(true);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return conn;
+    }
+
+    /**
+     * Object located for download.
+     * @param meta Object
+     * @return Location
+     */
+    private static BatchItem located(final Meta meta) {
+        return new BatchItem(
+            meta,
+            Collections.singletonMap(
+                LinkType.Download,
+                new Link(
+                    URI.create(
+                        String.format("http://localhost/%s", meta.getOid())
+                    ),
+                    null, null
+                )
+            )
+        );
+    }
+
+    /**
+     * Object id of a test object.
+     * @param number Object number
+     * @return Object id
+     */
+    private static String oid(final int number) {
+        return Strings.padStart(Integer.toString(number), 64, '0');
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+/**
+ * Test case for {@link BlobBatch}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+public final class BlobBatchTest {
+
+    /**
+     * BlobBatch can count successful responses in a batch.
+     */
+    @Test
+    public void countsSuccesses() {
+        MatcherAssert.assertThat(
+            BlobBatch.succeeded(
+                String.join(
+                    "\r\n",
+                    "--batchresponse_1",
+                    "Content-Type: application/http",
+                    "Content-ID: 0",
+                    "",
+                    "HTTP/1.1 200 OK",
+                    "x-ms-version: 2019-12-12",
+                    "",
+                    "--batchresponse_1",
+                    "Content-Type: application/http",
+                    "Content-ID: 1",
+                    "",
+                    "HTTP/1.1 202 Accepted",
+                    "",
+                    "--batchresponse_1",
+                    "Content-Type: application/http",
+                    "Content-ID: 2",
+                    "",
+                    "HTTP/1.1 404 The specified blob does not exist.",
+                    "",
+                    "--batchresponse_1--"
+                )
+            ),
+            Matchers.is(2)
+        );
+    }
+
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+
+/**
+ * Test case for {@link BulkServlet}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+public final class BulkServletTest {
+    /**
+     * BulkServlet can send objects in the order asked for, whatever order
+     * they are read in, telling which are missing.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void sendsObjectsInOrder() throws Exception {
+        final List<String> oids = Arrays.asList(
+            BulkServletTest.oid(1), BulkServletTest.oid(2),
+            BulkServletTest.oid(0), BulkServletTest.oid(3)
+        );
+        final List<String> frames = new ArrayList<>(oids.size());
+        try (LfsServer server = BulkServletTest.server(10L)) {
+            BulkServletTest.client(server).bulk(
+                oids,
+                (oid, status, content) -> frames.add(
+                    String.format(
+                        "%s %d %d", oid, status,
+                        ByteStreams.toByteArray(content).length
+                    )
+                )
+            );
+        }
+        MatcherAssert.assertThat(
+            frames,
+            Matchers.contains(
+                String.format("%s 200 %d", oids.get(0), 3_000_000),
+                String.format("%s 200 %d", oids.get(1), 20),
+                String.format("%s 404 0", oids.get(2)),
+                String.format("%s 200 %d", oids.get(3), 30)
+            )
+        );
+    }
+
+    /**
+     * BulkServlet can read objects ahead in parallel.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void readsObjectsAhead() throws Exception {
+        final List<String> oids = new ArrayList<>(40);
+        for (int idx = 2; idx < 42; ++idx) {
+            oids.add(BulkServletTest.oid(idx));
+        }
+        final long start = System.nanoTime();
+        try (LfsServer server = BulkServletTest.server(100L)) {
+            BulkServletTest.client(server).bulk(
+                oids, (oid, status, content) -> { }
+            );
+        }
+        MatcherAssert.assertThat(
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+            Matchers.lessThan(2000L)
+        );
+    }
+
+    /**
+     * BulkServlet can refuse malformed object ids.
+     * @throws Exception If something goes wrong.
+     */
+    @Test(expected = IOException.class)
+    public void refusesMalformedIds() throws Exception {
+        try (LfsServer server = BulkServletTest.server(0L)) {
+            BulkServletTest.client(server).bulk(
+                Arrays.asList("../etc/passwd"),
+                (oid, status, content) -> { }
+            );
+        }
+    }
+
+    /**
+     * Object id of a test object.
+     * @param number Object number
+     * @return Object id, of an object of {@code number * 10} bytes,
+     *  except object 1 which is big and object 0 which is missing
+     */
+    private static String oid(final int number) {
+        return Strings.padStart(Integer.toString(number), 64, '0');
+    }
+
+    /**
+     * Server with test objects, taking longer to look up earlier objects.
+     * @param delay Milliseconds to look up an object
+     * @return Started server
+     * @throws Exception If something goes wrong.
+     */
+    private static LfsServer server(final long delay) throws Exception {
+        final ContentManager storage = Mockito.mock(ContentManager.class);
+        final ContentManager.Downloader downloader =
+            Mockito.mock(ContentManager.Downloader.class);
+        Mockito.when(
+            storage.checkDownloadAccess(Mockito.any(HttpServletRequest.class))
+        ).thenReturn(downloader);
+        Mockito.when(storage.getMetadata(Mockito.anyString())).thenAnswer(
+            inv -> {
+                final String oid = inv.getArgumentAt(0, String.class);
+                final int number = Integer.parseInt(oid);
+                Thread.sleep(delay * (4 - Math.min(number, 3)));
+                Meta meta = null;
+                if (number > 0) {
+                    meta = new Meta(oid, BulkServletTest.size(number));
+                }
+                return meta;
+            }
+        );
+        Mockito.when(downloader.openObject(Mockito.anyString())).thenAnswer(
+            inv -> new ByteArrayInputStream(
+                new byte[BulkServletTest.size(
+                    Integer.parseInt(inv.getArgumentAt(0, String.class))
+                )]
+            )
+        );
+        return new LfsServer("/repo", storage)
+            .bulk(storage, 8)
+            .start();
+    }
+
+    /**
+     * Size of a test object.
+     * @param number Object number
+     * @return Bytes
+     */
+    private static int size(final int number) {
+        int size = number * 10;
+        if (number == 1) {
+            size = 3_000_000;
+        }
+        return size;
+    }
+
+    /**
+     * Client of a server.
+     * @param server Server
+     * @return Client
+     */
+    private static ResumableClient client(final LfsServer server) {
+        return new ResumableClient(
+            String.format("http://localhost:%d/repo/info/lfs", server.port()),
+            ""
+        );
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.ByteStreams;
+import com.microsoft.azure.storage.blob.BlobRequestOptions;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.server.ContentManager;
+
+/**
+ * Test case for {@link CancellingStorage}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class CancellingStorageTest {
+
+    /**
+     * CancellingStorage can cancel a download abandoned before its end,
+     * counting the bytes read for nothing.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void cancelsAbandonedDownloads() throws Exception {
+        final HttpServletRequest req = Mockito.mock(HttpServletRequest.class);
+        final List<Cancellation> opened = new ArrayList<>(1);
+        final CancellingStorage storage = new CancellingStorage(
+            Duration.ZERO, CancellingStorageTest.backing(req, opened)
+        );
+        final InputStream content =
+            storage.checkDownloadAccess(req).openObject("abc");
+        final Cancellation cancellation = opened.get(0);
+        cancellation.end(cancellation.begin(new BlobRequestOptions()), 10L);
+        content.read(new byte[4]);
+        content.close();
+        MatcherAssert.assertThat(
+            storage.metrics().value("Cancelled"), Matchers.is(1.0)
+        );
+        MatcherAssert.assertThat(
+            storage.metrics().value("WastedBytes"), Matchers.is(6.0)
+        );
+        try {
+            cancellation.begin(new BlobRequestOptions());
+            MatcherAssert.assertThat("read not refused", false);
+        } catch (final InterruptedIOException ex) {
+            MatcherAssert.assertThat(
+                ex.getMessage(), Matchers.is("Download cancelled")
+            );
+        }
+    }
+
+    /**
+     * CancellingStorage can leave downloads read to their end alone.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void keepsCompleteDownloads() throws Exception {
+        final HttpServletRequest req = Mockito.mock(HttpServletRequest.class);
+        final List<Cancellation> opened = new ArrayList<>(1);
+        final CancellingStorage storage = new CancellingStorage(
+            Duration.ZERO, CancellingStorageTest.backing(req, opened)
+        );
+        try (final InputStream content =
+            storage.checkDownloadAccess(req).openObject("abc")) {
+            ByteStreams.copy(content, ByteStreams.nullOutputStream());
+        }
+        MatcherAssert.assertThat(
+            storage.metrics().value("Cancelled"), Matchers.is(0.0)
+        );
+        opened.get(0).begin(new BlobRequestOptions());
+    }
+
+    /**
+     * CancellingStorage can cancel an abandoned object without cancelling
+     * other objects opened for the same request.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void cancelsOnlyAbandonedObject() throws Exception {
+        final HttpServletRequest req = Mockito.mock(HttpServletRequest.class);
+        final List<Cancellation> opened = new ArrayList<>(2);
+        final ContentManager.Downloader downloader = new CancellingStorage(
+            Duration.ZERO, CancellingStorageTest.backing(req, opened)
+        ).checkDownloadAccess(req);
+        final InputStream first = downloader.openObject("abc");
+        try (final InputStream second = downloader.openObject("abc")) {
+            first.close();
+            MatcherAssert.assertThat(opened, Matchers.hasSize(2));
+            opened.get(1).begin(new BlobRequestOptions());
+            MatcherAssert.assertThat(second.read(), Matchers.is(0));
+        }
+    }
+
+    /**
+     * CancellingStorage can refuse reads past the deadline of a download,
+     * and give earlier ones no more than the time left.
+     * @throws Exception If something goes wrong.
+     */
+    @Test(expected = InterruptedIOException.class)
+    public void enforcesDeadline() throws Exception {
+        final HttpServletRequest req = Mockito.mock(HttpServletRequest.class);
+        final List<Cancellation> opened = new ArrayList<>(1);
+        new CancellingStorage(
+            Duration.ofMillis(200L), CancellingStorageTest.backing(req, opened)
+        ).checkDownloadAccess(req).openObject("abc");
+        final Cancellation cancellation = opened.get(0);
+        final BlobRequestOptions options = new BlobRequestOptions();
+        cancellation.begin(options);
+        MatcherAssert.assertThat(
+            options.getMaximumExecutionTimeInMs(),
+            Matchers.lessThanOrEqualTo(200)
+        );
+        Thread.sleep(300L);
+        cancellation.begin(new BlobRequestOptions());
+    }
+
+    /**
+     * Backing storage with an object of ten bytes.
+     * @param req Request
+     * @param opened Cancellations the object is opened under
+     * @return Storage
+     * @throws Exception If something goes wrong.
+     */
+    private static ContentManager backing(final HttpServletRequest req,
+        final List<Cancellation> opened) throws Exception {
+        final ContentManager storage = Mockito.mock(ContentManager.class);
+        final ContentManager.Downloader downloader =
+            Mockito.mock(ContentManager.Downloader.class);
+        Mockito.when(storage.checkDownloadAccess(req)).thenReturn(downloader);
+        Mockito.when(downloader.openObject("abc")).thenAnswer(
+            inv -> {
+                opened.add(Cancellation.opening());
+                return new ByteArrayInputStream(new byte[10]);
+            }
+        );
+        return storage;
+    }
+
+}
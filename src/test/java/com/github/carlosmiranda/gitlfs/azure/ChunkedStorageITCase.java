@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.ByteStreams;
+import com.microsoft.azure.storage.StorageCredentialsAccountAndKey;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.servlet.http.HttpServletRequest;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.client.Client;
+import ru.bozaro.gitlfs.client.io.ByteArrayStreamProvider;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+
+/**
+ * Integration test for {@link ChunkedStorage}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+public final class ChunkedStorageITCase {
+
+    /**
+     * Container resource.
+     * @checkstyle VisibilityModifier (3 lines)
+     */
+    @ClassRule
+    public static AzureStorageContainer container = new AzureStorageContainer();
+
+    /**
+     * ChunkedStorage can store a new version of an object as the chunks
+     * that changed, and read both versions back.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void deduplicatesVersions() throws Exception {
+        final byte[] first = new byte[1 << 20];
+        new Random(1L).nextBytes(first);
+        final byte[] second = first.clone();
+        second[first.length / 2] ^= 1;
+        final ChunkedStorage storage = new ChunkedStorage(
+            ChunkedStorageITCase.container.container(),
+            new AzureBlobStorage(ChunkedStorageITCase.container.container()),
+            new Chunker(1 << 14)
+        );
+        final Metrics metrics = storage.metrics();
+        for (final byte[] data : new byte[][] {first, second}) {
+            final Meta meta = Client.generateMeta(
+                new ByteArrayStreamProvider(data)
+            );
+            storage.checkUploadAccess(Mockito.mock(HttpServletRequest.class))
+                .saveObject(meta, new ByteArrayInputStream(data));
+            MatcherAssert.assertThat(
+                storage.getMetadata(meta.getOid()).getSize(),
+                Matchers.is((long) data.length)
+            );
+            MatcherAssert.assertThat(
+                ByteStreams.toByteArray(
+                    storage.checkDownloadAccess(
+                        Mockito.mock(HttpServletRequest.class)
+                    ).openObject(meta.getOid())
+                ),
+                Matchers.is(data)
+            );
+        }
+        MatcherAssert.assertThat(
+            metrics.value("DedupRatio"), Matchers.greaterThan(1.8)
+        );
+    }
+
+    /**
+     * ChunkedStorage can find the metadata of an object stored before
+     * chunking without looking for its manifest.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void findsPlainObjectsFirst() throws Exception {
+        final ContentManager plain = Mockito.mock(ContentManager.class);
+        Mockito.when(plain.getMetadata("a")).thenReturn(new Meta("a", 1L));
+        try (FakeBlobEndpoint endpoint = new FakeBlobEndpoint().start()) {
+            MatcherAssert.assertThat(
+                new ChunkedStorage(
+                    new CloudBlobContainer(
+                        endpoint.uri("lfs"),
+                        new StorageCredentialsAccountAndKey(
+                            "account",
+                            Base64.getEncoder().encodeToString(new byte[32])
+                        )
+                    ),
+                    plain, new Chunker(1 << 14)
+                ).getMetadata("a").getSize(),
+                Matchers.is(1L)
+            );
+            MatcherAssert.assertThat(endpoint.requests(), Matchers.is(0));
+        }
+    }
+
+    /**
+     * ChunkedStorage can read chunks through the backing storage, under the
+     * cancellation of the object.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void readsChunksThroughStorage() throws Exception {
+        final byte[] data = new byte[1 << 18];
+        new Random(2L).nextBytes(data);
+        final Meta meta =
+            Client.generateMeta(new ByteArrayStreamProvider(data));
+        try (FakeBlobEndpoint endpoint = new FakeBlobEndpoint().start()) {
+            final CloudBlobContainer blobs = new CloudBlobContainer(
+                endpoint.uri("lfs"),
+                new StorageCredentialsAccountAndKey(
+                    "account", Base64.getEncoder().encodeToString(new byte[32])
+                )
+            );
+            final List<String> opened = new CopyOnWriteArrayList<>();
+            final ChunkedStorage storage = new ChunkedStorage(
+                blobs, ChunkedStorageITCase.recording(blobs, opened),
+                new Chunker(1 << 14)
+            );
+            storage.checkUploadAccess(Mockito.mock(HttpServletRequest.class))
+                .saveObject(meta, new ByteArrayInputStream(data));
+            final ContentManager.Downloader chunked =
+                storage.checkDownloadAccess(
+                    Mockito.mock(HttpServletRequest.class)
+                );
+            final Cancellation cancellation = new Cancellation(Duration.ZERO);
+            try (InputStream content = cancellation.open(
+                () -> chunked.openObject(meta.getOid())
+            )) {
+                MatcherAssert.assertThat(
+                    ByteStreams.toByteArray(content), Matchers.is(data)
+                );
+            }
+            MatcherAssert.assertThat(
+                opened,
+                Matchers.everyItem(Matchers.startsWith(ChunkedStorage.CHUNKS))
+            );
+            MatcherAssert.assertThat(
+                cancellation.fetched(), Matchers.is((long) data.length)
+            );
+        }
+    }
+
+    /**
+     * Storage over a container, recording the names of what it opens.
+     * @param blobs Container
+     * @param opened Names opened
+     * @return Storage
+     * @throws Exception If something goes wrong.
+     */
+    private static ContentManager recording(final CloudBlobContainer blobs,
+        final List<String> opened) throws Exception {
+        final ContentManager.Downloader engine =
+            new AzureBlobStorage(blobs).checkDownloadAccess(
+                Mockito.mock(HttpServletRequest.class)
+            );
+        final ContentManager.Downloader downloader =
+            Mockito.mock(ContentManager.Downloader.class);
+        Mockito.when(downloader.openObject(Mockito.anyString())).thenAnswer(
+            inv -> {
+                final String name = inv.getArgumentAt(0, String.class);
+                opened.add(name);
+                return engine.openObject(name);
+            }
+        );
+        final ContentManager plain = Mockito.mock(ContentManager.class);
+        Mockito.when(
+            plain.checkDownloadAccess(Mockito.any(HttpServletRequest.class))
+        ).thenReturn(downloader);
+        return plain;
+    }
+
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+/**
+ * Test case for {@link Chunker}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class ChunkerTest {
+
+    /**
+     * Chunker can keep chunk sizes within bounds.
+     */
+    @Test
+    public void boundsChunkSizes() {
+        final Chunker chunker = new Chunker(1024);
+        final List<Integer> sizes = ChunkerTest.sizes(
+            chunker, ChunkerTest.random(1 << 20, 1L)
+        );
+        for (final int size : sizes.subList(0, sizes.size() - 1)) {
+            MatcherAssert.assertThat(size, Matchers.greaterThanOrEqualTo(256));
+            MatcherAssert.assertThat(size, Matchers.lessThanOrEqualTo(4096));
+        }
+        MatcherAssert.assertThat(
+            sizes.stream().mapToInt(Integer::intValue).sum(),
+            Matchers.is(1 << 20)
+        );
+    }
+
+    /**
+     * Chunker can keep most boundaries after an insertion.
+     */
+    @Test
+    public void keepsBoundariesAfterEdit() {
+        final Chunker chunker = new Chunker(1024);
+        final byte[] original = ChunkerTest.random(1 << 18, 2L);
+        final byte[] edited = new byte[original.length + 10];
+        final int offset = original.length / 2;
+        System.arraycopy(original, 0, edited, 0, offset);
+        System.arraycopy(
+            original, offset, edited, offset + 10, original.length - offset
+        );
+        final Set<String> before = ChunkerTest.chunks(chunker, original);
+        final Set<String> after = ChunkerTest.chunks(chunker, edited);
+        after.retainAll(before);
+        MatcherAssert.assertThat(
+            after.size(), Matchers.greaterThan(before.size() * 9 / 10)
+        );
+    }
+
+    /**
+     * Chunker can refuse sizes that aren't a power of two.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOddSizes() {
+        new Chunker(1000);
+    }
+
+    /**
+     * Random data.
+     * @param length Length
+     * @param seed Seed
+     * @return Data
+     */
+    private static byte[] random(final int length, final long seed) {
+        final byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Sizes of the chunks of some data.
+     * @param chunker Chunker
+     * @param data Data
+     * @return Chunk sizes
+     */
+    private static List<Integer> sizes(final Chunker chunker,
+        final byte[] data) {
+        final List<Integer> sizes = new ArrayList<>(0);
+        int start = 0;
+        while (start < data.length) {
+            final byte[] rest = new byte[
+                Math.min(chunker.max(), data.length - start)
+            ];
+            System.arraycopy(data, start, rest, 0, rest.length);
+            final int size = chunker.boundary(rest, rest.length);
+            sizes.add(size);
+            start += size;
+        }
+        return sizes;
+    }
+
+    /**
+     * Chunks of some data, as start offset and size relative to their
+     * content.
+     * @param chunker Chunker
+     * @param data Data
+     * @return Chunks, each as its content in hex
+     */
+    private static Set<String> chunks(final Chunker chunker,
+        final byte[] data) {
+        final Set<String> chunks = new HashSet<>(0);
+        int start = 0;
+        for (final int size : ChunkerTest.sizes(chunker, data)) {
+            final StringBuilder chunk = new StringBuilder(size * 2);
+            for (int idx = start; idx < start + size; ++idx) {
+                chunk.append(String.format("%02x", data[idx]));
+            }
+            chunks.add(chunk.toString());
+            start += size;
+        }
+        return chunks;
+    }
+
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.microsoft.azure.storage.RetryNoRetry;
+import com.microsoft.azure.storage.StorageUri;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import javax.servlet.http.HttpServletRequest;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.common.data.Meta;
+
+/**
+ * Test case for {@link Endpoints}, with two local endpoints standing in for
+ * the primary and the secondary.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class EndpointsTest {
+    /**
+     * Object id.
+     */
+    private static final String OID = Strings.repeat("cd", 32);
+
+    /**
+     * Object content.
+     */
+    private static final byte[] CONTENT =
+        "replicated".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Primary endpoint.
+     */
+    private FakeBlobEndpoint primary;
+
+    /**
+     * Secondary endpoint.
+     */
+    private FakeBlobEndpoint secondary;
+
+    /**
+     * Start both endpoints.
+     * @throws Exception If something goes wrong.
+     */
+    @Before
+    public void start() throws Exception {
+        this.primary = new FakeBlobEndpoint().start();
+        this.secondary = new FakeBlobEndpoint().start();
+    }
+
+    /**
+     * Stop both endpoints.
+     * @throws Exception If something goes wrong.
+     */
+    @After
+    public void stop() throws Exception {
+        this.primary.close();
+        this.secondary.close();
+    }
+
+    /**
+     * Endpoints can send most reads to the faster endpoint.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void prefersFasterSecondary() throws Exception {
+        this.warm(new Endpoints(true, Duration.ofMinutes(1L)));
+        MatcherAssert.assertThat(
+            this.secondary.requests(),
+            Matchers.greaterThan(this.primary.requests())
+        );
+    }
+
+    /**
+     * Endpoints can read from the secondary and fall back to the primary
+     * when the secondary doesn't have the object yet.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void fallsBackToPrimaryForMissingObjects() throws Exception {
+        this.primary.put(EndpointsTest.OID, EndpointsTest.CONTENT).slow(10L);
+        final AzureBlobStorage storage = this.storage(
+            new Endpoints(true, Duration.ofMinutes(1L))
+        );
+        for (int idx = 0; idx < 300; ++idx) {
+            MatcherAssert.assertThat(
+                storage.getMetadata(EndpointsTest.OID),
+                Matchers.notNullValue(Meta.class)
+            );
+        }
+        MatcherAssert.assertThat(
+            this.primary.requests(), Matchers.is(300)
+        );
+    }
+
+    /**
+     * Endpoints can keep reads of recent uploads on the primary.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void readsRecentUploadsFromPrimary() throws Exception {
+        final Endpoints endpoints = new Endpoints(true, Duration.ofMinutes(1L));
+        final AzureBlobStorage storage = this.warm(endpoints);
+        final int before = this.secondary.requests();
+        endpoints.written(EndpointsTest.OID);
+        for (int idx = 0; idx < 50; ++idx) {
+            storage.getMetadata(EndpointsTest.OID);
+        }
+        MatcherAssert.assertThat(
+            this.secondary.requests(), Matchers.is(before)
+        );
+    }
+
+    /**
+     * Endpoints can stop reading from a failing secondary.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void avoidsFailingSecondary() throws Exception {
+        final AzureBlobStorage storage = this.warm(
+            new Endpoints(true, Duration.ofMinutes(1L))
+        );
+        this.secondary.fail(HttpURLConnection.HTTP_UNAVAILABLE);
+        final int before = this.secondary.requests();
+        for (int idx = 0; idx < 50; ++idx) {
+            MatcherAssert.assertThat(
+                storage.getMetadata(EndpointsTest.OID),
+                Matchers.notNullValue(Meta.class)
+            );
+        }
+        MatcherAssert.assertThat(
+            this.secondary.requests(), Matchers.is(before + 1)
+        );
+    }
+
+    /**
+     * Endpoints can stream object content from the secondary.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void readsContentFromSecondary() throws Exception {
+        final AzureBlobStorage storage = this.warm(
+            new Endpoints(true, Duration.ofMinutes(1L))
+        );
+        final int before = this.secondary.requests();
+        try (final InputStream content = storage.checkDownloadAccess(
+            Mockito.mock(HttpServletRequest.class)
+        ).openObject(EndpointsTest.OID)) {
+            MatcherAssert.assertThat(
+                ByteStreams.toByteArray(content),
+                Matchers.is(EndpointsTest.CONTENT)
+            );
+        }
+        MatcherAssert.assertThat(
+            this.secondary.requests(), Matchers.greaterThan(before)
+        );
+    }
+
+    /**
+     * Storage reading from a slow primary and a fast secondary, after
+     * enough reads to know which is faster.
+     * @param endpoints Routing of reads
+     * @return Storage
+     * @throws Exception If something goes wrong.
+     */
+    private AzureBlobStorage warm(final Endpoints endpoints)
+        throws Exception {
+        this.primary.put(EndpointsTest.OID, EndpointsTest.CONTENT).slow(10L);
+        this.secondary.put(EndpointsTest.OID, EndpointsTest.CONTENT);
+        final AzureBlobStorage storage = this.storage(endpoints);
+        for (int idx = 0; idx < 300; ++idx) {
+            storage.getMetadata(EndpointsTest.OID);
+        }
+        return storage;
+    }
+
+    /**
+     * Storage reading from both endpoints.
+     * @param endpoints Routing of reads
+     * @return Storage
+     * @throws Exception If something goes wrong.
+     */
+    private AzureBlobStorage storage(final Endpoints endpoints)
+        throws Exception {
+        final CloudBlobContainer container = new CloudBlobContainer(
+            new StorageUri(this.primary.uri("lfs"), this.secondary.uri("lfs"))
+        );
+        container.getServiceClient().getDefaultRequestOptions()
+            .setRetryPolicyFactory(new RetryNoRetry());
+        return new AzureBlobStorage(
+            container, new Hedging(0.0, 0.0), endpoints
+        );
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Answer of {@link FakeBlobEndpoint} to a Blob Batch request.
+ *
+ * <p>Only Delete Blob requests, with their {@code If-Match} condition, and
+ * Set Blob Tier requests are carried out; any other request in the batch
+ * is answered {@code 400}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class FakeBatch {
+    /**
+     * Boundary of the parts of the answer.
+     */
+    public static final String BOUNDARY = "batchresponse_fake";
+
+    /**
+     * Request in a batch: request line, then headers.
+     */
+    private static final Pattern REQUEST = Pattern.compile(
+        "^(\\w+) (\\S+) HTTP/1\\.1\\r\\n((?:[^\\r\\n]+\\r\\n)*)\\r\\n",
+        Pattern.MULTILINE
+    );
+
+    /**
+     * If-Match header of a request.
+     */
+    private static final Pattern MATCH =
+        Pattern.compile("^if-match: (.+)$", Pattern.MULTILINE);
+
+    /**
+     * Access tier header of a request.
+     */
+    private static final Pattern TIER =
+        Pattern.compile("^x-ms-access-tier: (.+)$", Pattern.MULTILINE);
+
+    /**
+     * Blobs, by name.
+     */
+    private final Map<String, FakeBlobEndpoint.Stored> blobs;
+
+    /**
+     * Ctor.
+     * @param blobs Blobs, by name
+     */
+    FakeBatch(final Map<String, FakeBlobEndpoint.Stored> blobs) {
+        this.blobs = blobs;
+    }
+
+    /**
+     * Carry out the requests of a batch.
+     * @param body Batch request body
+     * @return Batch response body
+     */
+    public String answer(final String body) {
+        final StringBuilder answer = new StringBuilder();
+        final Matcher request = FakeBatch.REQUEST.matcher(body);
+        for (int idx = 0; request.find(); ++idx) {
+            answer.append("--").append(FakeBatch.BOUNDARY).append("\r\n")
+                .append("Content-Type: application/http\r\n")
+                .append("Content-ID: ").append(idx).append("\r\n\r\n")
+                .append("HTTP/1.1 ")
+                .append(this.status(request)).append("\r\n\r\n");
+        }
+        return answer.append("--").append(FakeBatch.BOUNDARY).append("--\r\n")
+            .toString();
+    }
+
+    /**
+     * Carry out one request.
+     * @param request Matched request
+     * @return Status and reason
+     */
+    private String status(final Matcher request) {
+        // @checkstyle MagicNumber (2 lines)
+        final String name = URI.create(request.group(2)).getPath()
+            .split("/", 4)[3];
+        final FakeBlobEndpoint.Stored blob = this.blobs.get(name);
+        final Matcher match = FakeBatch.MATCH.matcher(request.group(3));
+        final Matcher tier = FakeBatch.TIER.matcher(request.group(3));
+        final String status;
+        if (!"DELETE".equals(request.group(1))
+            && !request.group(2).endsWith("comp=tier")) {
+            status = "400 Unsupported in a fake batch.";
+        } else if (blob == null) {
+            status = "404 The specified blob does not exist.";
+        } else if (match.find() && !match.group(1).equals(blob.etag())) {
+            status = "412 The condition specified was not met.";
+        } else if (tier.find()) {
+            blob.tier(tier.group(1));
+            status = "200 OK";
+        } else {
+            this.blobs.remove(name, blob);
+            status = "202 Accepted";
+        }
+        return status;
+    }
+}
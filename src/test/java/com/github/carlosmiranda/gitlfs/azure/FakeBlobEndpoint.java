@@ -0,0 +1,1069 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+/**
+ * Local stand-in for one endpoint of the Blob service, holding one
+ * container.
+ *
+ * <p>It implements the subset of the REST API this server uses: container
+ * creation and deletion, blob listing (with prefix, delimiter, metadata and
+ * paging), blob properties, ranged reads, Put Blob, Put Block, Put Block
+ * List, Get Block List, Copy Blob (from this or another fake endpoint),
+ * metadata, tier, deletion and batches of deletions, with
+ * {@code If-Match} and {@code If-None-Match: *} conditions. Shared keys and
+ * leases are not checked.
+ *
+ * <p>Faults can be injected for performance tests: a latency drawn from a
+ * distribution before each answer, a bandwidth cap on content sent, a
+ * fraction of requests throttled with {@code 503 ServerBusy}, and a fraction
+ * of connections reset, halfway through the content when there is some.
+ * Delayed requests are parked without holding a server thread, so that
+ * thousands of them can be outstanding at once.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+final class FakeBlobEndpoint implements Closeable {
+    /**
+     * Range header.
+     */
+    private static final Pattern RANGE =
+        Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    /**
+     * Block in a block list.
+     */
+    private static final Pattern BLOCK = Pattern.compile(
+        "<(Latest|Committed|Uncommitted)>([^<]+)</\\1>"
+    );
+
+    /**
+     * Prefix of metadata headers.
+     */
+    private static final String META = "x-ms-meta-";
+
+    /**
+     * Pending connections the server accepts.
+     */
+    private static final int BACKLOG = 4096;
+
+    /**
+     * Slices of content sent per second under a bandwidth cap.
+     */
+    private static final int SLICES = 10;
+
+    /**
+     * Parts of a blob path: account, container and blob name.
+     */
+    private static final int PARTS = 3;
+
+    /**
+     * Blobs, by name.
+     */
+    private final ConcurrentNavigableMap<String, Stored> blobs;
+
+    /**
+     * Uncommitted blocks, by blob name and block id.
+     */
+    private final Map<String, Map<String, byte[]>> staged;
+
+    /**
+     * Has the container been created?
+     */
+    private final AtomicBoolean created;
+
+    /**
+     * Requests answered.
+     */
+    private final AtomicInteger requests;
+
+    /**
+     * HTTP server.
+     */
+    private final Server server;
+
+    /**
+     * Timer answering delayed requests.
+     */
+    private final ScheduledExecutorService timer;
+
+    /**
+     * Delay before each answer, in milliseconds.
+     */
+    private volatile LongSupplier latency;
+
+    /**
+     * Bytes of content sent per second and request, or zero for no cap.
+     */
+    private volatile long bandwidth;
+
+    /**
+     * Fraction of requests throttled.
+     */
+    private volatile double throttling;
+
+    /**
+     * Fraction of connections reset.
+     */
+    private volatile double resets;
+
+    /**
+     * Status to fail requests with, or zero to answer them.
+     */
+    private volatile int failure;
+
+    /**
+     * Ctor.
+     */
+    FakeBlobEndpoint() {
+        this.blobs = new ConcurrentSkipListMap<>();
+        this.staged = new ConcurrentHashMap<>();
+        this.created = new AtomicBoolean();
+        this.requests = new AtomicInteger();
+        this.timer = Executors.newScheduledThreadPool(2);
+        this.latency = () -> 0L;
+        this.server = new Server();
+        final ServerConnector connector = new ServerConnector(this.server);
+        connector.setAcceptQueueSize(FakeBlobEndpoint.BACKLOG);
+        this.server.addConnector(connector);
+        this.server.setHandler(new Handler());
+    }
+
+    /**
+     * Start serving.
+     * @return This same instance
+     * @throws Exception If the server can't start
+     */
+    public FakeBlobEndpoint start() throws Exception {
+        this.server.start();
+        return this;
+    }
+
+    /**
+     * URI of a container on this endpoint.
+     * @param container Container name
+     * @return URI
+     */
+    public URI uri(final String container) {
+        return URI.create(
+            String.format(
+                "http://127.0.0.1:%d/account/%s",
+                ((ServerConnector) this.server.getConnectors()[0])
+                    .getLocalPort(),
+                container
+            )
+        );
+    }
+
+    /**
+     * Add a blob.
+     * @param name Blob name
+     * @param content Content
+     * @return This same instance
+     */
+    public FakeBlobEndpoint put(final String name, final byte[] content) {
+        this.blobs.put(
+            name, new Stored(content.clone(), Collections.emptyMap())
+        );
+        return this;
+    }
+
+    /**
+     * Content of a blob.
+     * @param name Blob name
+     * @return Content, or null if there is no such blob
+     */
+    public byte[] blob(final String name) {
+        final Stored stored = this.blobs.get(name);
+        byte[] content = null;
+        if (stored != null) {
+            content = stored.content.clone();
+        }
+        return content;
+    }
+
+    /**
+     * Access tier of a blob.
+     * @param name Blob name
+     * @return Tier, or null if there is no such blob
+     */
+    public String tier(final String name) {
+        final Stored stored = this.blobs.get(name);
+        String tier = null;
+        if (stored != null) {
+            tier = stored.tier;
+        }
+        return tier;
+    }
+
+    /**
+     * Delay every answer by the same time.
+     * @param millis Milliseconds
+     * @return This same instance
+     */
+    public FakeBlobEndpoint slow(final long millis) {
+        return this.latency(() -> millis);
+    }
+
+    /**
+     * Delay every answer by a time drawn from a distribution.
+     * @param millis Distribution of delays, in milliseconds
+     * @return This same instance
+     */
+    public FakeBlobEndpoint latency(final LongSupplier millis) {
+        this.latency = millis;
+        return this;
+    }
+
+    /**
+     * Cap the rate content is sent at, for each request.
+     * @param rate Bytes per second, or zero for no cap
+     * @return This same instance
+     */
+    public FakeBlobEndpoint bandwidth(final long rate) {
+        this.bandwidth = rate;
+        return this;
+    }
+
+    /**
+     * Throttle a fraction of requests.
+     * @param fraction Fraction answered {@code 503 ServerBusy}
+     * @return This same instance
+     */
+    public FakeBlobEndpoint throttle(final double fraction) {
+        this.throttling = fraction;
+        return this;
+    }
+
+    /**
+     * Reset a fraction of connections.
+     * @param fraction Fraction of requests whose connection is reset
+     * @return This same instance
+     */
+    public FakeBlobEndpoint reset(final double fraction) {
+        this.resets = fraction;
+        return this;
+    }
+
+    /**
+     * Fail every request.
+     * @param status HTTP status to answer, or zero to stop failing
+     * @return This same instance
+     */
+    public FakeBlobEndpoint fail(final int status) {
+        this.failure = status;
+        return this;
+    }
+
+    /**
+     * Requests answered so far.
+     * @return Count
+     */
+    public int requests() {
+        return this.requests.get();
+    }
+
+    /**
+     * Log-normal distribution of latencies, with the long tail of real
+     * network calls.
+     * @param median Median, in milliseconds
+     * @param sigma Standard deviation of the underlying normal distribution;
+     *  the 99th percentile is about {@code median * exp(2.33 * sigma)}
+     * @return Distribution
+     */
+    public static LongSupplier lognormal(final long median,
+        final double sigma) {
+        return () -> (long) (median * Math.exp(
+            sigma * ThreadLocalRandom.current().nextGaussian()
+        ));
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.timer.shutdownNow();
+        try {
+            this.server.stop();
+            // @checkstyle IllegalCatch (1 line)
+        } catch (final Exception ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Answer a request, or inject a fault.
+     * @param base Request
+     * @param resp Response
+     * @throws IOException If the answer can't be written
+     */
+    private void answer(final Request base, final HttpServletResponse resp)
+        throws IOException {
+        this.requests.incrementAndGet();
+        resp.setHeader("x-ms-request-id", "fake");
+        resp.setHeader("x-ms-version", "2017-04-17");
+        final String[] path = base.getPathInfo().substring(1)
+            .split("/", FakeBlobEndpoint.PARTS);
+        final double draw = ThreadLocalRandom.current().nextDouble();
+        if (this.failure != 0) {
+            FakeBlobEndpoint.error(resp, this.failure, "InternalError");
+        } else if (draw < this.throttling) {
+            FakeBlobEndpoint.error(
+                resp, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "ServerBusy"
+            );
+        } else if (draw < this.throttling + this.resets) {
+            this.reset(base, path);
+        } else if (path.length < FakeBlobEndpoint.PARTS) {
+            this.container(base, resp);
+        } else if (!this.satisfies(path[2], base, resp)) {
+            resp.flushBuffer();
+        } else if ("blocklist".equals(base.getParameter("comp"))
+            && "GET".equals(base.getMethod())) {
+            this.blocks(path[2], base, resp);
+        } else if ("PUT".equals(base.getMethod())) {
+            this.store(path[2], base, resp);
+        } else if ("DELETE".equals(base.getMethod())) {
+            this.delete(path[2], resp);
+        } else {
+            this.read(path[2], base, resp);
+        }
+    }
+
+    /**
+     * Reset the connection of a request, halfway through the content of
+     * the blob read if there is one.
+     * @param base Request
+     * @param path Account, container and blob name
+     * @throws IOException If content can't be written
+     */
+    private void reset(final Request base, final String[] path)
+        throws IOException {
+        if (path.length == FakeBlobEndpoint.PARTS
+            && "GET".equals(base.getMethod())
+            && this.blobs.containsKey(path[2])) {
+            final byte[] content = this.blobs.get(path[2]).content;
+            final HttpServletResponse resp = base.getResponse();
+            resp.setStatus(HttpServletResponse.SC_OK);
+            resp.setContentLength(content.length);
+            this.send(resp.getOutputStream(), content, 0, content.length / 2);
+            resp.flushBuffer();
+        }
+        base.getHttpChannel().abort(
+            new IOException("Connection reset by the fake endpoint")
+        );
+    }
+
+    /**
+     * Check the conditions of a request on a blob, answering it if they
+     * fail.
+     * @param name Blob name
+     * @param req Request
+     * @param resp Response
+     * @return True if the request may go on
+     * @throws IOException If the answer can't be written
+     */
+    private boolean satisfies(final String name, final HttpServletRequest req,
+        final HttpServletResponse resp) throws IOException {
+        final Stored stored = this.blobs.get(name);
+        final String match = req.getHeader("If-Match");
+        boolean satisfied = true;
+        if ("*".equals(req.getHeader("If-None-Match")) && stored != null) {
+            satisfied = false;
+            FakeBlobEndpoint.error(
+                resp, HttpServletResponse.SC_CONFLICT, "BlobAlreadyExists"
+            );
+        } else if (match != null && !"*".equals(match)
+            && (stored == null || !stored.etag().equals(match))) {
+            satisfied = false;
+            FakeBlobEndpoint.error(
+                resp, HttpServletResponse.SC_PRECONDITION_FAILED,
+                "ConditionNotMet"
+            );
+        }
+        return satisfied;
+    }
+
+    /**
+     * List the blocks of a blob, committed or uncommitted as asked.
+     * @param name Blob name
+     * @param req Request
+     * @param resp Response
+     * @throws IOException If the answer can't be written
+     */
+    private void blocks(final String name, final HttpServletRequest req,
+        final HttpServletResponse resp) throws IOException {
+        final String type = Strings.nullToEmpty(
+            req.getParameter("blocklisttype")
+        ).toLowerCase(Locale.ENGLISH);
+        final Stored stored = this.blobs.get(name);
+        Map<String, byte[]> committed = Collections.emptyMap();
+        if (stored != null && !"uncommitted".equals(type)) {
+            committed = stored.blocks;
+        }
+        Map<String, byte[]> uncommitted = Collections.emptyMap();
+        if ("uncommitted".equals(type) || "all".equals(type)) {
+            uncommitted = this.staged.getOrDefault(name, uncommitted);
+        }
+        if (stored == null && !this.staged.containsKey(name)) {
+            FakeBlobEndpoint.error(
+                resp, HttpServletResponse.SC_NOT_FOUND, "BlobNotFound"
+            );
+        } else {
+            final byte[] body = String.format(
+                "%s<BlockList><CommittedBlocks>%s</CommittedBlocks>"
+                    + "<UncommittedBlocks>%s</UncommittedBlocks></BlockList>",
+                "<?xml version=\"1.0\" encoding=\"utf-8\"?>",
+                FakeBlobEndpoint.blocks(committed),
+                FakeBlobEndpoint.blocks(uncommitted)
+            ).getBytes(StandardCharsets.UTF_8);
+            resp.setStatus(HttpServletResponse.SC_OK);
+            if (stored != null) {
+                resp.setHeader("ETag", stored.etag());
+            }
+            resp.setContentType("application/xml");
+            resp.setContentLength(body.length);
+            resp.getOutputStream().write(body);
+        }
+    }
+
+    /**
+     * Blocks as listed in a block list.
+     * @param blocks Blocks, by id
+     * @return XML
+     */
+    private static String blocks(final Map<String, byte[]> blocks) {
+        final StringBuilder xml = new StringBuilder();
+        synchronized (blocks) {
+            for (final Map.Entry<String, byte[]> block : blocks.entrySet()) {
+                xml.append("<Block><Name>").append(block.getKey())
+                    .append("</Name><Size>")
+                    .append(block.getValue().length)
+                    .append("</Size></Block>");
+            }
+        }
+        return xml.toString();
+    }
+
+    /**
+     * Answer a container operation.
+     * @param req Request
+     * @param resp Response
+     * @throws IOException If the answer can't be written
+     */
+    private void container(final HttpServletRequest req,
+        final HttpServletResponse resp) throws IOException {
+        if ("list".equals(req.getParameter("comp"))) {
+            this.list(req, resp);
+        } else if ("batch".equals(req.getParameter("comp"))) {
+            this.batch(req, resp);
+        } else if ("PUT".equals(req.getMethod())) {
+            if (this.created.compareAndSet(false, true)) {
+                resp.setStatus(HttpServletResponse.SC_CREATED);
+            } else {
+                FakeBlobEndpoint.error(
+                    resp, HttpServletResponse.SC_CONFLICT,
+                    "ContainerAlreadyExists"
+                );
+            }
+        } else if ("DELETE".equals(req.getMethod())) {
+            if (this.created.compareAndSet(true, false)) {
+                this.blobs.clear();
+                this.staged.clear();
+                resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+            } else {
+                FakeBlobEndpoint.error(
+                    resp, HttpServletResponse.SC_NOT_FOUND,
+                    "ContainerNotFound"
+                );
+            }
+        } else {
+            resp.setHeader("ETag", "\"0x1\"");
+            resp.setHeader("Last-Modified", FakeBlobEndpoint.date(0L));
+            resp.setStatus(HttpServletResponse.SC_OK);
+        }
+    }
+
+    /**
+     * List blobs.
+     * @param req Request
+     * @param resp Response
+     * @throws IOException If the answer can't be written
+     */
+    private void list(final HttpServletRequest req,
+        final HttpServletResponse resp) throws IOException {
+        final byte[] xml = new FakeListing(
+            this.blobs, req
+        ).xml().getBytes(StandardCharsets.UTF_8);
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.setContentType("application/xml");
+        resp.setContentLength(xml.length);
+        resp.getOutputStream().write(xml);
+    }
+
+    /**
+     * Carry out a batch of requests.
+     * @param req Request
+     * @param resp Response
+     * @throws IOException If the answer can't be written
+     */
+    private void batch(final HttpServletRequest req,
+        final HttpServletResponse resp) throws IOException {
+        final byte[] answer = new FakeBatch(this.blobs).answer(
+            new String(
+                ByteStreams.toByteArray(req.getInputStream()),
+                StandardCharsets.UTF_8
+            )
+        ).getBytes(StandardCharsets.UTF_8);
+        resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+        resp.setContentType(
+            String.format("multipart/mixed; boundary=%s", FakeBatch.BOUNDARY)
+        );
+        resp.setContentLength(answer.length);
+        resp.getOutputStream().write(answer);
+    }
+
+    /**
+     * Read a blob or its properties.
+     * @param name Blob name
+     * @param req Request
+     * @param resp Response
+     * @throws IOException If the answer can't be written
+     */
+    private void read(final String name, final HttpServletRequest req,
+        final HttpServletResponse resp) throws IOException {
+        final Stored stored = this.blobs.get(name);
+        if (stored == null) {
+            FakeBlobEndpoint.error(
+                resp, HttpServletResponse.SC_NOT_FOUND, "BlobNotFound"
+            );
+        } else {
+            resp.setHeader("ETag", stored.etag());
+            resp.setHeader(
+                "Last-Modified", FakeBlobEndpoint.date(stored.modified)
+            );
+            resp.setHeader("x-ms-blob-type", "BlockBlob");
+            resp.setHeader("x-ms-access-tier", stored.tier);
+            resp.setContentType(stored.type);
+            for (final Map.Entry<String, String> meta
+                : stored.metadata.entrySet()) {
+                resp.setHeader(
+                    FakeBlobEndpoint.META + meta.getKey(), meta.getValue()
+                );
+            }
+            this.content(stored.content, req, resp);
+        }
+    }
+
+    /**
+     * Write blob content, or the requested range of it.
+     * @param blob Blob content
+     * @param req Request
+     * @param resp Response
+     * @throws IOException If the content can't be written
+     */
+    private void content(final byte[] blob, final HttpServletRequest req,
+        final HttpServletResponse resp) throws IOException {
+        String header = req.getHeader("x-ms-range");
+        if (header == null) {
+            header = String.valueOf(req.getHeader("Range"));
+        }
+        final Matcher range = FakeBlobEndpoint.RANGE.matcher(header);
+        int first = 0;
+        int last = blob.length - 1;
+        if (range.matches()) {
+            first = Integer.parseInt(range.group(1));
+            if (!range.group(2).isEmpty()) {
+                last = Math.min(Integer.parseInt(range.group(2)), last);
+            }
+            resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            resp.setHeader(
+                "Content-Range",
+                String.format("bytes %d-%d/%d", first, last, blob.length)
+            );
+        } else {
+            resp.setStatus(HttpServletResponse.SC_OK);
+        }
+        resp.setContentLength(last - first + 1);
+        if (!"HEAD".equals(req.getMethod())) {
+            this.send(resp.getOutputStream(), blob, first, last - first + 1);
+        }
+    }
+
+    /**
+     * Store an uploaded blob, block, block list, copy, metadata or tier.
+     * @param name Blob name
+     * @param req Request
+     * @param resp Response
+     * @throws IOException If the upload can't be read
+     */
+    private void store(final String name, final HttpServletRequest req,
+        final HttpServletResponse resp) throws IOException {
+        final byte[] body = ByteStreams.toByteArray(req.getInputStream());
+        final String comp = String.valueOf(req.getParameter("comp"));
+        final String source = req.getHeader("x-ms-copy-source");
+        int status = HttpServletResponse.SC_CREATED;
+        if ("block".equals(comp)) {
+            this.staged.computeIfAbsent(name, key -> new ConcurrentHashMap<>())
+                .put(req.getParameter("blockid"), body);
+        } else if ("blocklist".equals(comp)) {
+            this.commit(name, req, body);
+        } else if ("metadata".equals(comp) || "tier".equals(comp)
+            || "properties".equals(comp)) {
+            status = this.update(name, req);
+        } else if (source == null) {
+            this.blobs.put(name, FakeBlobEndpoint.stored(req, body));
+        } else {
+            status = this.copy(name, req, source, resp);
+        }
+        if (status < HttpServletResponse.SC_BAD_REQUEST) {
+            resp.setStatus(status);
+            final Stored stored = this.blobs.get(name);
+            if (stored != null) {
+                resp.setHeader("ETag", stored.etag());
+                resp.setHeader(
+                    "Last-Modified", FakeBlobEndpoint.date(stored.modified)
+                );
+            }
+        } else {
+            FakeBlobEndpoint.error(resp, status, "BlobNotFound");
+        }
+    }
+
+    /**
+     * Commit a block list.
+     * @param name Blob name
+     * @param req Request
+     * @param body Block list
+     * @throws IOException If a block is missing
+     */
+    private void commit(final String name, final HttpServletRequest req,
+        final byte[] body) throws IOException {
+        final Map<String, byte[]> blocks = this.staged.getOrDefault(
+            name, Collections.emptyMap()
+        );
+        final ByteArrayOutputStream blob = new ByteArrayOutputStream();
+        final Matcher block = FakeBlobEndpoint.BLOCK.matcher(
+            new String(body, StandardCharsets.UTF_8)
+        );
+        final Stored previous = this.blobs.get(name);
+        final Map<String, byte[]> committed = new LinkedHashMap<>();
+        while (block.find()) {
+            byte[] content = blocks.get(block.group(2));
+            if (content == null && previous != null) {
+                content = previous.blocks.get(block.group(2));
+            }
+            if (content == null) {
+                throw new IOException("Unknown block in block list");
+            }
+            blob.write(content);
+            committed.put(block.group(2), content);
+        }
+        final Stored stored = FakeBlobEndpoint.stored(req, blob.toByteArray());
+        stored.blocks.putAll(committed);
+        this.blobs.put(name, stored);
+        this.staged.remove(name);
+    }
+
+    /**
+     * Update the metadata or tier of a blob.
+     * @param name Blob name
+     * @param req Request
+     * @return Status
+     */
+    private int update(final String name, final HttpServletRequest req) {
+        final Stored stored = this.blobs.get(name);
+        int status = HttpServletResponse.SC_NOT_FOUND;
+        if (stored != null) {
+            status = HttpServletResponse.SC_OK;
+            Map<String, String> metadata = stored.metadata;
+            if ("metadata".equals(req.getParameter("comp"))) {
+                metadata = FakeBlobEndpoint.metadata(req);
+            }
+            final Stored updated = new Stored(stored.content, metadata);
+            updated.blocks.putAll(stored.blocks);
+            updated.type = stored.type;
+            updated.tier = stored.tier;
+            final String tier = req.getHeader("x-ms-access-tier");
+            if (tier != null) {
+                updated.tier = tier;
+            }
+            this.blobs.put(name, updated);
+        }
+        return status;
+    }
+
+    /**
+     * Copy a blob, of this endpoint or read from another one, at once.
+     * @param name Blob name
+     * @param req Request
+     * @param source URI of the source blob
+     * @param resp Response
+     * @return Status
+     * @throws IOException If another endpoint can't be read
+     * @checkstyle ParameterNumber (3 lines)
+     */
+    private int copy(final String name, final HttpServletRequest req,
+        final String source, final HttpServletResponse resp)
+        throws IOException {
+        final URI uri = URI.create(source);
+        final Stored from;
+        if (uri.getPort() == this.uri("").getPort()) {
+            from = this.blobs.get(
+                uri.getPath().substring(1)
+                    .split("/", FakeBlobEndpoint.PARTS)[2]
+            );
+        } else {
+            from = FakeBlobEndpoint.remote(uri);
+        }
+        int status = HttpServletResponse.SC_NOT_FOUND;
+        if (from != null) {
+            Map<String, String> metadata = FakeBlobEndpoint.metadata(req);
+            if (metadata.isEmpty()) {
+                metadata = from.metadata;
+            }
+            this.blobs.put(name, new Stored(from.content, metadata));
+            resp.setHeader("x-ms-copy-id", "fake-copy");
+            resp.setHeader("x-ms-copy-status", "success");
+            status = HttpServletResponse.SC_ACCEPTED;
+        }
+        return status;
+    }
+
+    /**
+     * Delete a blob.
+     * @param name Blob name
+     * @param resp Response
+     * @throws IOException If the answer can't be written
+     */
+    private void delete(final String name, final HttpServletResponse resp)
+        throws IOException {
+        if (this.blobs.remove(name) == null) {
+            FakeBlobEndpoint.error(
+                resp, HttpServletResponse.SC_NOT_FOUND, "BlobNotFound"
+            );
+        } else {
+            this.staged.remove(name);
+            resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+        }
+    }
+
+    /**
+     * Send content, no faster than the bandwidth cap.
+     * @param out Output
+     * @param content Content
+     * @param offset Offset of the part to send
+     * @param length Length of the part to send
+     * @throws IOException If it can't be sent
+     * @checkstyle ParameterNumber (3 lines)
+     */
+    private void send(final OutputStream out, final byte[] content,
+        final int offset, final int length) throws IOException {
+        final long rate = this.bandwidth;
+        if (rate > 0L) {
+            final int slice = (int) Math.max(
+                1L, rate / FakeBlobEndpoint.SLICES
+            );
+            for (int pos = 0; pos < length; pos += slice) {
+                out.write(content, offset + pos, Math.min(slice, length - pos));
+                out.flush();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(
+                        TimeUnit.SECONDS.toMillis(1L) / FakeBlobEndpoint.SLICES
+                    );
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(ex.getMessage());
+                }
+            }
+        } else {
+            out.write(content, offset, length);
+        }
+    }
+
+    /**
+     * Blob uploaded with a request.
+     * @param req Request
+     * @param content Content
+     * @return Blob
+     */
+    private static Stored stored(final HttpServletRequest req,
+        final byte[] content) {
+        final Stored stored = new Stored(
+            content, FakeBlobEndpoint.metadata(req)
+        );
+        final String type = req.getHeader("x-ms-blob-content-type");
+        if (type != null) {
+            stored.type = type;
+        }
+        return stored;
+    }
+
+    /**
+     * Blob read from another endpoint.
+     * @param source URI of the blob
+     * @return Blob, or null if there's no such blob
+     * @throws IOException If it can't be read
+     */
+    private static Stored remote(final URI source) throws IOException {
+        final HttpURLConnection conn =
+            (HttpURLConnection) source.toURL().openConnection();
+        Stored stored = null;
+        try {
+            if (conn.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                try (InputStream content = conn.getInputStream()) {
+                    stored = new Stored(
+                        ByteStreams.toByteArray(content),
+                        Collections.emptyMap()
+                    );
+                }
+            }
+        } finally {
+            conn.disconnect();
+        }
+        return stored;
+    }
+
+    /**
+     * Metadata sent with a request.
+     * @param req Request
+     * @return Metadata
+     */
+    private static Map<String, String> metadata(
+        final HttpServletRequest req) {
+        final Map<String, String> metadata = new ConcurrentHashMap<>();
+        for (final String header : Collections.list(req.getHeaderNames())) {
+            if (header.toLowerCase().startsWith(FakeBlobEndpoint.META)) {
+                metadata.put(
+                    header.substring(FakeBlobEndpoint.META.length()),
+                    req.getHeader(header)
+                );
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Answer an error.
+     * @param resp Response
+     * @param status HTTP status
+     * @param code Error code
+     * @throws IOException If the answer can't be written
+     */
+    private static void error(final HttpServletResponse resp,
+        final int status, final String code) throws IOException {
+        final byte[] xml = String.format(
+            "<?xml version=\"1.0\" encoding=\"utf-8\"?><Error><Code>%s</Code>"
+                + "<Message>%1$s</Message></Error>",
+            code
+        ).getBytes(StandardCharsets.UTF_8);
+        resp.setStatus(status);
+        resp.setHeader("x-ms-error-code", code);
+        resp.setContentType("application/xml");
+        resp.setContentLength(xml.length);
+        resp.getOutputStream().write(xml);
+    }
+
+    /**
+     * Date in the format of HTTP headers.
+     * @param millis Milliseconds since the epoch
+     * @return Formatted date
+     */
+    private static String date(final long millis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(
+            Instant.ofEpochMilli(millis).atOffset(ZoneOffset.UTC)
+        );
+    }
+
+    /**
+     * Committed blob.
+     */
+    static final class Stored {
+        /**
+         * Versions of blobs stored so far.
+         */
+        private static final AtomicLong VERSIONS = new AtomicLong();
+
+        /**
+         * Content.
+         */
+        private final byte[] content;
+
+        /**
+         * Metadata.
+         */
+        private final Map<String, String> metadata;
+
+        /**
+         * Committed blocks, by id, in order.
+         */
+        private final Map<String, byte[]> blocks;
+
+        /**
+         * Time of the last change, in milliseconds since the epoch.
+         */
+        private final long modified;
+
+        /**
+         * Version, unique to this change.
+         */
+        private final long version;
+
+        /**
+         * Content type.
+         */
+        private volatile String type;
+
+        /**
+         * Access tier.
+         */
+        private volatile String tier;
+
+        /**
+         * Ctor.
+         * @param content Content
+         * @param metadata Metadata
+         */
+        Stored(final byte[] content, final Map<String, String> metadata) {
+            this.content = content;
+            this.metadata = new ConcurrentHashMap<>(metadata);
+            this.blocks = Collections.synchronizedMap(new LinkedHashMap<>());
+            this.modified = System.currentTimeMillis();
+            this.version = Stored.VERSIONS.incrementAndGet();
+            this.type = "application/octet-stream";
+            this.tier = "Hot";
+        }
+
+        /**
+         * Size of the content.
+         * @return Bytes
+         */
+        public int size() {
+            return this.content.length;
+        }
+
+        /**
+         * Metadata.
+         * @return Metadata, by name
+         */
+        public Map<String, String> metadata() {
+            return Collections.unmodifiableMap(this.metadata);
+        }
+
+        /**
+         * Access tier.
+         * @return Tier
+         */
+        public String tier() {
+            return this.tier;
+        }
+
+        /**
+         * Move to an access tier.
+         * @param target Tier
+         */
+        public void tier(final String target) {
+            this.tier = target;
+        }
+
+        /**
+         * Entity tag, changing with every change.
+         * @return Quoted tag
+         */
+        public String etag() {
+            return String.format("\"0x%X%08X\"", this.modified, this.version);
+        }
+
+        /**
+         * Time of the last change, in the format of HTTP headers.
+         * @return Formatted date
+         */
+        public String modified() {
+            return FakeBlobEndpoint.date(this.modified);
+        }
+    }
+
+    /**
+     * Handler of blob requests.
+     */
+    private final class Handler extends AbstractHandler {
+        // @checkstyle ParameterNumber (2 lines)
+        @Override
+        public void handle(final String target, final Request base,
+            final HttpServletRequest req, final HttpServletResponse resp)
+            throws IOException {
+            base.setHandled(true);
+            final long delay = FakeBlobEndpoint.this.latency.getAsLong();
+            if (delay > 0L) {
+                final AsyncContext async = base.startAsync();
+                async.setTimeout(0L);
+                FakeBlobEndpoint.this.timer.schedule(
+                    () -> FakeBlobEndpoint.this.server.getThreadPool().execute(
+                        () -> {
+                            try {
+                                FakeBlobEndpoint.this.answer(base, resp);
+                            } catch (final IOException ex) {
+                                base.getHttpChannel().abort(ex);
+                            } finally {
+                                async.complete();
+                            }
+                        }
+                    ),
+                    delay, TimeUnit.MILLISECONDS
+                );
+            } else {
+                FakeBlobEndpoint.this.answer(base, resp);
+            }
+        }
+    }
+}
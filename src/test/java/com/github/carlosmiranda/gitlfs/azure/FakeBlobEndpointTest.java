@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.microsoft.azure.storage.RetryNoRetry;
+import com.microsoft.azure.storage.StorageCredentialsAccountAndKey;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import com.microsoft.azure.storage.blob.ListBlobItem;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test case for {@link FakeBlobEndpoint}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+public final class FakeBlobEndpointTest {
+
+    /**
+     * Blob endpoint.
+     */
+    private FakeBlobEndpoint endpoint;
+
+    /**
+     * Start the endpoint.
+     * @throws Exception If something goes wrong.
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.endpoint = new FakeBlobEndpoint().start();
+    }
+
+    /**
+     * Stop the endpoint.
+     * @throws Exception If something goes wrong.
+     */
+    @After
+    public void tearDown() throws Exception {
+        this.endpoint.close();
+    }
+
+    /**
+     * FakeBlobEndpoint can store blocks and list blobs by directory.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void storesAndListsBlobs() throws Exception {
+        final CloudBlobContainer container = this.container();
+        container.createIfNotExists();
+        for (final String name : new String[] {"a", "b", "dir/c", "dir/d"}) {
+            container.getBlockBlobReference(name)
+                .uploadFromByteArray(new byte[3], 0, 3);
+        }
+        final List<String> names = new ArrayList<>(0);
+        for (final ListBlobItem item : container.listBlobs()) {
+            names.add(item.getUri().getPath());
+        }
+        MatcherAssert.assertThat(
+            names,
+            Matchers.contains(
+                "/account/lfs/a", "/account/lfs/b", "/account/lfs/dir/"
+            )
+        );
+        MatcherAssert.assertThat(
+            container.listBlobsSegmented("dir/", true, null, 1, null, null,
+                null).getResults().size(),
+            Matchers.is(1)
+        );
+        final CloudBlockBlob blob = container.getBlockBlobReference("dir/c");
+        blob.downloadAttributes();
+        MatcherAssert.assertThat(
+            blob.getProperties().getLength(), Matchers.is(3L)
+        );
+    }
+
+    /**
+     * FakeBlobEndpoint can throttle requests.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void throttlesRequests() throws Exception {
+        this.endpoint.put("blob", new byte[10]).throttle(1.0);
+        try {
+            this.container().getBlockBlobReference("blob").downloadAttributes();
+            MatcherAssert.assertThat("not throttled", false);
+        } catch (final StorageException ex) {
+            MatcherAssert.assertThat(ex.getHttpStatusCode(), Matchers.is(503));
+        }
+    }
+
+    /**
+     * FakeBlobEndpoint can reset connections halfway through content.
+     * @throws Exception If something goes wrong.
+     */
+    @Test(expected = StorageException.class)
+    public void resetsConnections() throws Exception {
+        this.endpoint.put("blob", new byte[100_000]).reset(1.0);
+        this.container().getBlockBlobReference("blob")
+            .downloadToByteArray(new byte[100_000], 0);
+    }
+
+    /**
+     * FakeBlobEndpoint can cap the bandwidth of content sent.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void capsBandwidth() throws Exception {
+        this.endpoint.put("blob", new byte[50_000]).bandwidth(50_000L);
+        final long start = System.nanoTime();
+        this.container().getBlockBlobReference("blob")
+            .downloadToByteArray(new byte[50_000], 0);
+        MatcherAssert.assertThat(
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+            Matchers.greaterThanOrEqualTo(900L)
+        );
+    }
+
+    /**
+     * FakeBlobEndpoint can draw latencies with a long tail.
+     */
+    @Test
+    public void drawsLongTailedLatencies() {
+        final LongSupplier latency = FakeBlobEndpoint.lognormal(10L, 1.0);
+        final long[] draws = new long[10_000];
+        for (int idx = 0; idx < draws.length; ++idx) {
+            draws[idx] = latency.getAsLong();
+        }
+        Arrays.sort(draws);
+        MatcherAssert.assertThat(
+            draws[5000], Matchers.allOf(
+                Matchers.greaterThanOrEqualTo(8L), Matchers.lessThan(12L)
+            )
+        );
+        MatcherAssert.assertThat(draws[9900], Matchers.greaterThan(50L));
+    }
+
+    /**
+     * Container on the endpoint, without retries.
+     * @return Container
+     * @throws Exception If something goes wrong.
+     */
+    private CloudBlobContainer container() throws Exception {
+        final CloudBlobContainer container = new CloudBlobContainer(
+            this.endpoint.uri("lfs"),
+            new StorageCredentialsAccountAndKey(
+                "account", Base64.getEncoder().encodeToString(new byte[32])
+            )
+        );
+        container.getServiceClient().getDefaultRequestOptions()
+            .setRetryPolicyFactory(new RetryNoRetry());
+        return container;
+    }
+}
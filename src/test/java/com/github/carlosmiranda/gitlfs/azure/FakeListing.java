@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Answer of {@link FakeBlobEndpoint} to a List Blobs request.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+final class FakeListing {
+    /**
+     * Most results per page, unless asked for fewer.
+     */
+    private static final int PAGE = 5000;
+
+    /**
+     * Blobs, by name.
+     */
+    private final NavigableMap<String, FakeBlobEndpoint.Stored> blobs;
+
+    /**
+     * Request.
+     */
+    private final HttpServletRequest req;
+
+    /**
+     * Ctor.
+     * @param blobs Blobs, by name
+     * @param req List Blobs request
+     */
+    FakeListing(final NavigableMap<String, FakeBlobEndpoint.Stored> blobs,
+        final HttpServletRequest req) {
+        this.blobs = blobs;
+        this.req = req;
+    }
+
+    /**
+     * Listing, as the Blob service would answer it.
+     * @return XML
+     */
+    public String xml() {
+        final String prefix = this.param("prefix");
+        final String delimiter = this.param("delimiter");
+        final boolean metadata = this.param("include").contains("metadata");
+        final int most = this.most();
+        final StringBuilder xml = new StringBuilder(
+            "<?xml version=\"1.0\" encoding=\"utf-8\"?><EnumerationResults>"
+        ).append("<Blobs>");
+        String last = "";
+        String next = "";
+        int count = 0;
+        for (final Map.Entry<String, FakeBlobEndpoint.Stored> blob
+            : this.blobs.tailMap(this.start(prefix), true).entrySet()) {
+            final String name = blob.getKey();
+            if (!name.startsWith(prefix)) {
+                break;
+            }
+            final int cut = FakeListing.cut(name, prefix, delimiter);
+            if (cut < 0 || !name.substring(0, cut).equals(last)) {
+                if (count == most) {
+                    next = name;
+                    break;
+                }
+                ++count;
+                if (cut < 0) {
+                    FakeListing.blob(xml, name, blob.getValue(), metadata);
+                } else {
+                    last = name.substring(0, cut);
+                    xml.append("<BlobPrefix><Name>")
+                        .append(FakeListing.escape(last))
+                        .append("</Name></BlobPrefix>");
+                }
+            }
+        }
+        return xml.append("</Blobs><NextMarker>")
+            .append(FakeListing.escape(next))
+            .append("</NextMarker></EnumerationResults>")
+            .toString();
+    }
+
+    /**
+     * Most entries listed in one page.
+     * @return Number of blobs and prefixes
+     */
+    private int most() {
+        int most = FakeListing.PAGE;
+        if (!this.param("maxresults").isEmpty()) {
+            most = Integer.parseInt(this.param("maxresults"));
+        }
+        return most;
+    }
+
+    /**
+     * First name listed.
+     * @param prefix Prefix of names listed
+     * @return Name, or prefix
+     */
+    private String start(final String prefix) {
+        String start = this.param("marker");
+        if (start.compareTo(prefix) < 0) {
+            start = prefix;
+        }
+        return start;
+    }
+
+    /**
+     * Query parameter.
+     * @param name Name
+     * @return Value, or empty string
+     */
+    private String param(final String name) {
+        final String value = this.req.getParameter(name);
+        String param = "";
+        if (value != null) {
+            param = value;
+        }
+        return param;
+    }
+
+    /**
+     * End of the virtual directory a name is in.
+     * @param name Blob name
+     * @param prefix Prefix listed
+     * @param delimiter Delimiter, or empty string for a flat listing
+     * @return Length of the directory name, or -1 if listed as a blob
+     */
+    private static int cut(final String name, final String prefix,
+        final String delimiter) {
+        int cut = -1;
+        if (!delimiter.isEmpty()) {
+            cut = name.indexOf(delimiter, prefix.length());
+            if (cut >= 0) {
+                cut += delimiter.length();
+            }
+        }
+        return cut;
+    }
+
+    /**
+     * Append a blob.
+     * @param xml Listing
+     * @param name Name
+     * @param blob Blob
+     * @param metadata Include metadata?
+     * @checkstyle ParameterNumber (3 lines)
+     */
+    private static void blob(final StringBuilder xml, final String name,
+        final FakeBlobEndpoint.Stored blob, final boolean metadata) {
+        xml.append("<Blob><Name>").append(FakeListing.escape(name))
+            .append("</Name><Properties><Last-Modified>")
+            .append(blob.modified())
+            .append("</Last-Modified><Etag>")
+            .append(blob.etag().replace("\"", ""))
+            .append("</Etag><Content-Length>").append(blob.size())
+            .append("</Content-Length>")
+            .append("<Content-Type>application/octet-stream</Content-Type>")
+            .append("<BlobType>BlockBlob</BlobType>")
+            .append("<AccessTier>").append(blob.tier())
+            .append("</AccessTier><LeaseStatus>unlocked</LeaseStatus>")
+            .append("<LeaseState>available</LeaseState></Properties>");
+        if (metadata) {
+            xml.append("<Metadata>");
+            for (final Map.Entry<String, String> meta
+                : blob.metadata().entrySet()) {
+                xml.append('<').append(meta.getKey()).append('>')
+                    .append(FakeListing.escape(meta.getValue()))
+                    .append("</").append(meta.getKey()).append('>');
+            }
+            xml.append("</Metadata>");
+        }
+        xml.append("</Blob>");
+    }
+
+    /**
+     * Escape text for XML.
+     * @param text Text
+     * @return Escaped text
+     */
+    private static String escape(final String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;")
+            .replace(">", "&gt;");
+    }
+}
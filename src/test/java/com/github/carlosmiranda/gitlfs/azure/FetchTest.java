@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.hash.Hashing;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import org.hamcrest.Matcher;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+
+/**
+ * Test case for {@link Fetch}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+public final class FetchTest {
+    /**
+     * Temporary folder.
+     * @checkstyle VisibilityModifier (3 lines)
+     */
+    @Rule
+    public final transient TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Fetch can store the objects whose content matches their id, and
+     * report the others.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void storesVerifiedObjects() throws Exception {
+        final byte[] good = {1, 2, 3};
+        final String oid = Hashing.sha256().hashBytes(good).toString();
+        final String corrupt = Hashing.sha256().hashBytes(new byte[] {4})
+            .toString();
+        final String missing = Hashing.sha256().hashBytes(new byte[] {5})
+            .toString();
+        final ContentManager storage = Mockito.mock(ContentManager.class);
+        final ContentManager.Downloader downloader =
+            Mockito.mock(ContentManager.Downloader.class);
+        Mockito.when(
+            storage.checkDownloadAccess(Mockito.any(HttpServletRequest.class))
+        ).thenReturn(downloader);
+        Mockito.when(storage.getMetadata(oid)).thenReturn(new Meta(oid, 3L));
+        Mockito.when(storage.getMetadata(corrupt))
+            .thenReturn(new Meta(corrupt, 3L));
+        Mockito.when(downloader.openObject(Mockito.anyString())).thenAnswer(
+            inv -> new ByteArrayInputStream(good)
+        );
+        final Path store = this.folder.newFolder("objects").toPath();
+        final List<String> report = new ArrayList<>(2);
+        final Fetch fetch;
+        try (LfsServer server = new LfsServer("/repo", storage)
+            .bulk(storage, 2)
+            .start()) {
+            fetch = new Fetch(
+                new ResumableClient(
+                    String.format(
+                        "http://localhost:%d/repo/info/lfs", server.port()
+                    ),
+                    ""
+                ),
+                store, 2
+            );
+            fetch.run(
+                new BufferedReader(
+                    new StringReader(
+                        String.join(
+                            "\n", String.format("%s * a.bin", oid),
+                            String.format("%s - b.bin", corrupt),
+                            String.format("%s - c.bin", missing)
+                        )
+                    )
+                ),
+                report::add
+            );
+        }
+        MatcherAssert.assertThat(
+            Files.readAllBytes(
+                store.resolve(oid.substring(0, 2))
+                    .resolve(oid.substring(2, 4)).resolve(oid)
+            ),
+            Matchers.equalTo(good)
+        );
+        MatcherAssert.assertThat(
+            fetch.metrics().value("Fetched"), Matchers.is(1.0)
+        );
+        MatcherAssert.assertThat(
+            report,
+            Matchers.containsInAnyOrder(
+                Arrays.<Matcher<? super String>>asList(
+                    Matchers.startsWith(corrupt),
+                    Matchers.is(String.format("%s 404", missing))
+                )
+            )
+        );
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+/**
+ * Test case for {@link HashRing}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class HashRingTest {
+
+    /**
+     * HashRing can spread objects evenly across nodes.
+     */
+    @Test
+    public void spreadsObjects() {
+        final HashRing ring = new HashRing(Arrays.asList("a", "b", "c"));
+        final Map<String, Integer> counts = new HashMap<>();
+        for (int idx = 0; idx < 30_000; ++idx) {
+            counts.merge(ring.owner(Integer.toString(idx)), 1, Integer::sum);
+        }
+        for (final int count : counts.values()) {
+            MatcherAssert.assertThat(count, Matchers.greaterThan(7_000));
+        }
+    }
+
+    /**
+     * HashRing can move only the objects of a joining node.
+     */
+    @Test
+    public void movesFewObjectsOnJoin() {
+        final HashRing ring = new HashRing(Arrays.asList("a", "b", "c"));
+        final String[] before = new String[10_000];
+        for (int idx = 0; idx < before.length; ++idx) {
+            before[idx] = ring.owner(Integer.toString(idx));
+        }
+        ring.add("d");
+        int moved = 0;
+        for (int idx = 0; idx < before.length; ++idx) {
+            final String owner = ring.owner(Integer.toString(idx));
+            if (!owner.equals(before[idx])) {
+                MatcherAssert.assertThat(owner, Matchers.is("d"));
+                ++moved;
+            }
+        }
+        MatcherAssert.assertThat(moved, Matchers.lessThan(3_500));
+        ring.remove("d");
+        for (int idx = 0; idx < before.length; ++idx) {
+            MatcherAssert.assertThat(
+                ring.owner(Integer.toString(idx)), Matchers.is(before[idx])
+            );
+        }
+    }
+
+    /**
+     * HashRing can tell there is no owner when it is empty.
+     */
+    @Test
+    public void hasNoOwnerWhenEmpty() {
+        MatcherAssert.assertThat(
+            new HashRing(Arrays.asList()).owner("a"), Matchers.nullValue()
+        );
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+/**
+ * Test case for {@link Hedging}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+public final class HedgingTest {
+
+    /**
+     * Hedging can answer a straggling call with a duplicate.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void hedgesStragglers() throws Exception {
+        final Hedging hedging = new Hedging(90.0, 1.0);
+        HedgingTest.warmup(hedging);
+        final AtomicInteger attempts = new AtomicInteger();
+        final long start = System.nanoTime();
+        final String result = hedging.call(
+            () -> {
+                if (attempts.incrementAndGet() == 1) {
+                    // @checkstyle MagicNumber (1 line)
+                    Thread.sleep(5000L);
+                }
+                return "fast";
+            }
+        );
+        MatcherAssert.assertThat(result, Matchers.is("fast"));
+        MatcherAssert.assertThat(attempts.get(), Matchers.is(2));
+        MatcherAssert.assertThat(
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+            // @checkstyle MagicNumber (1 line)
+            Matchers.lessThan(2000L)
+        );
+    }
+
+    /**
+     * Hedging can refuse to duplicate calls once its budget is spent.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void respectsBudget() throws Exception {
+        final Hedging hedging = new Hedging(50.0, 0.001);
+        HedgingTest.warmup(hedging);
+        final AtomicInteger attempts = new AtomicInteger();
+        hedging.call(
+            () -> {
+                attempts.incrementAndGet();
+                // @checkstyle MagicNumber (1 line)
+                Thread.sleep(200L);
+                return "slow";
+            }
+        );
+        MatcherAssert.assertThat(attempts.get(), Matchers.is(1));
+    }
+
+    /**
+     * Hedging can report failure only when every attempt failed.
+     * @throws Exception If something goes wrong.
+     */
+    @Test(expected = IOException.class)
+    public void failsWhenAllAttemptsFail() throws Exception {
+        // @checkstyle MagicNumber (1 line)
+        new Hedging(90.0, 1.0).call(
+            () -> {
+                throw new IOException("broken");
+            }
+        );
+    }
+
+    /**
+     * Hedging can run calls directly when disabled.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void runsDirectlyWhenDisabled() throws Exception {
+        final Thread caller = Thread.currentThread();
+        MatcherAssert.assertThat(
+            // @checkstyle MagicNumber (1 line)
+            new Hedging(90.0, 0.0).call(() -> Thread.currentThread()),
+            Matchers.is(caller)
+        );
+    }
+
+    /**
+     * Fill latency window with fast calls.
+     * @param hedging Hedging to warm up
+     * @throws Exception If something goes wrong.
+     */
+    private static void warmup(final Hedging hedging) throws Exception {
+        // @checkstyle MagicNumber (1 line)
+        for (int idx = 0; idx < 100; ++idx) {
+            hedging.call(() -> "warm");
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+
+/**
+ * Test case for {@link Importer}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class ImporterTest {
+    /**
+     * Temporary folder.
+     * @checkstyle VisibilityModifier (3 lines)
+     */
+    @Rule
+    public final transient TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Importer can copy objects of several local stores once, skipping
+     * those the storage already has.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void importsLocalObjects() throws Exception {
+        final Path repo = this.folder.newFolder("repo").toPath();
+        final Path store = this.folder.newFolder("store").toPath();
+        final Path nested = repo.resolve(".git/lfs/objects");
+        final String first = ImporterTest.put(nested, "first");
+        final String second = ImporterTest.put(nested, "second");
+        ImporterTest.put(store, "second");
+        final String third = ImporterTest.put(store, "third");
+        final String present = ImporterTest.put(store, "present");
+        final ContentManager storage = Mockito.mock(ContentManager.class);
+        Mockito.when(storage.getMetadata(present))
+            .thenReturn(new Meta(present, 7L));
+        final Map<String, String> saved = new ConcurrentHashMap<>();
+        final Importer importer = new Importer(
+            storage,
+            (meta, content) -> saved.put(
+                meta.getOid(),
+                new String(
+                    ByteStreams.toByteArray(content), StandardCharsets.UTF_8
+                )
+            ),
+            4
+        );
+        final Path checkpoint = this.folder.getRoot().toPath()
+            .resolve("checkpoint");
+        importer.run(
+            new LocalObjects(Arrays.asList(repo, store)), checkpoint,
+            line -> { }
+        );
+        MatcherAssert.assertThat(saved.size(), Matchers.is(3));
+        MatcherAssert.assertThat(saved.get(first), Matchers.is("first"));
+        MatcherAssert.assertThat(saved.get(second), Matchers.is("second"));
+        MatcherAssert.assertThat(saved.get(third), Matchers.is("third"));
+        MatcherAssert.assertThat(
+            importer.metrics().value("Present"), Matchers.is(1.0)
+        );
+        MatcherAssert.assertThat(
+            Files.exists(checkpoint), Matchers.is(false)
+        );
+    }
+
+    /**
+     * Importer can report objects whose content doesn't match their id,
+     * failing their upload.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void reportsCorruptObjects() throws Exception {
+        final Path store = this.folder.newFolder("objects").toPath();
+        final String oid = ImporterTest.put(store, "original");
+        Files.write(
+            ImporterTest.path(store, oid),
+            "tampered".getBytes(StandardCharsets.UTF_8)
+        );
+        final List<String> report = new CopyOnWriteArrayList<>();
+        final List<String> saved = new CopyOnWriteArrayList<>();
+        final Importer importer = new Importer(
+            Mockito.mock(ContentManager.class),
+            (meta, content) -> {
+                ByteStreams.toByteArray(content);
+                saved.add(meta.getOid());
+            },
+            2
+        );
+        importer.run(
+            new LocalObjects(Arrays.asList(store)),
+            this.folder.getRoot().toPath().resolve("checkpoint"),
+            report::add
+        );
+        MatcherAssert.assertThat(saved, Matchers.empty());
+        MatcherAssert.assertThat(
+            report,
+            Matchers.contains(
+                Matchers.startsWith(String.format("failed\t%s", oid))
+            )
+        );
+        MatcherAssert.assertThat(
+            importer.metrics().value("Failed"), Matchers.is(1.0)
+        );
+    }
+
+    /**
+     * Put an object in a local store.
+     * @param store Object store
+     * @param text Content
+     * @return Object id
+     * @throws Exception If something goes wrong.
+     */
+    private static String put(final Path store, final String text)
+        throws Exception {
+        final byte[] content = text.getBytes(StandardCharsets.UTF_8);
+        final String oid = Hashing.sha256().hashBytes(content).toString();
+        final Path file = ImporterTest.path(store, oid);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content);
+        return oid;
+    }
+
+    /**
+     * Path of an object in a local store.
+     * @param store Object store
+     * @param oid Object id
+     * @return Path
+     */
+    private static Path path(final Path store, final String oid) {
+        return store.resolve(oid.substring(0, 2)).resolve(oid.substring(2, 4))
+            .resolve(oid);
+    }
+}
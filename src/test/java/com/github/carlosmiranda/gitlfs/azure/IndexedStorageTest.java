@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.base.Strings;
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+
+/**
+ * Test case for {@link IndexedStorage}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class IndexedStorageTest {
+
+    /**
+     * Temporary folder.
+     * @checkstyle VisibilityModifier (3 lines)
+     */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * IndexedStorage can answer metadata of uploaded objects from the index,
+     * without asking the backing storage.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void answersMetadataFromIndex() throws Exception {
+        final ContentManager storage = Mockito.mock(ContentManager.class);
+        Mockito.when(storage.checkUploadAccess(Mockito.any()))
+            .thenReturn((meta, content) -> content.skip(Long.MAX_VALUE));
+        final String hash = Strings.repeat("c", 64);
+        try (OidIndex index = new OidIndex(
+            this.folder.newFolder().toPath().resolve("index"),
+            Collections.emptyList()
+        ).start()) {
+            while (!index.ready()) {
+                TimeUnit.MILLISECONDS.sleep(10L);
+            }
+            final IndexedStorage indexed = new IndexedStorage(index, storage);
+            MatcherAssert.assertThat(
+                indexed.getMetadata(hash), Matchers.nullValue()
+            );
+            indexed.checkUploadAccess(Mockito.mock(HttpServletRequest.class))
+                .saveObject(
+                    new Meta(hash, -1L),
+                    new ByteArrayInputStream(new byte[] {1, 2, 3})
+                );
+            MatcherAssert.assertThat(
+                indexed.getMetadata(hash).getSize(), Matchers.is(3L)
+            );
+        }
+        Mockito.verify(storage, Mockito.never()).getMetadata(hash);
+    }
+
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+/**
+ * Test case for {@link Latencies}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class LatenciesTest {
+
+    /**
+     * Latencies can compute percentiles over the window.
+     */
+    @Test
+    public void computesPercentiles() {
+        final Latencies latencies = new Latencies(100, 1);
+        for (long sample = 1L; sample <= 100L; ++sample) {
+            latencies.record(sample);
+        }
+        MatcherAssert.assertThat(latencies.percentile(50.0), Matchers.is(50L));
+        MatcherAssert.assertThat(latencies.percentile(99.0), Matchers.is(99L));
+    }
+
+    /**
+     * Latencies can forget samples that fell out of the window.
+     */
+    @Test
+    public void forgetsOldSamples() {
+        final Latencies latencies = new Latencies(10, 1);
+        for (int idx = 0; idx < 10; ++idx) {
+            latencies.record(1000L);
+        }
+        for (int idx = 0; idx < 10; ++idx) {
+            latencies.record(1L);
+        }
+        MatcherAssert.assertThat(
+            latencies.percentile(100.0), Matchers.is(1L)
+        );
+    }
+
+    /**
+     * Latencies can report unknown percentile before warming up.
+     */
+    @Test
+    public void unknownBeforeWarmup() {
+        final Latencies latencies = new Latencies(10, 5);
+        latencies.record(1L);
+        MatcherAssert.assertThat(
+            latencies.percentile(50.0), Matchers.is(Long.MAX_VALUE)
+        );
+    }
+
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import javax.servlet.http.HttpServletResponse;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+/**
+ * Integration test case for {@link LockServlet}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class LockServletITCase {
+
+    /**
+     * Container resource.
+     * @checkstyle VisibilityModifier (3 lines)
+     */
+    @ClassRule
+    public static AzureStorageContainer container = new AzureStorageContainer();
+
+    /**
+     * LockServlet can lock paths, refuse a second lock, verify locks page by
+     * page and unlock.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void locksAndUnlocks() throws Exception {
+        final String path = "/foo/locks.git";
+        try (LfsServer server = new LfsServer(
+            path,
+            new AzureBlobStorage(LockServletITCase.container.container())
+        ).route(
+            "locks/*",
+            new LockServlet(
+                new AzureBlobStorage(LockServletITCase.container.container()),
+                new Locks(LockServletITCase.container.container())
+            )
+        ).start()) {
+            final String url = String.format(
+                "http://localhost:%d%s/info/lfs/locks", server.port(), path
+            );
+            for (final String file : new String[] {"a.psd", "b.psd", "c.psd"}) {
+                MatcherAssert.assertThat(
+                    LockServletITCase.call(
+                        url, "alice",
+                        String.format("{\"path\":\"%s\"}", file)
+                    ).path("lock").path("path").asText(),
+                    Matchers.is(file)
+                );
+            }
+            MatcherAssert.assertThat(
+                LockServletITCase.call(url, "bob", "{\"path\":\"a.psd\"}")
+                    .path("lock").path("owner").path("name").asText(),
+                Matchers.is("alice")
+            );
+            final JsonNode page = LockServletITCase.call(
+                String.format("%s/verify", url), "bob", "{\"limit\":2}"
+            );
+            MatcherAssert.assertThat(
+                page.path("theirs").size(), Matchers.is(2)
+            );
+            MatcherAssert.assertThat(
+                LockServletITCase.call(
+                    String.format("%s/verify", url), "alice",
+                    String.format(
+                        "{\"cursor\":\"%s\"}", page.path("next_cursor").asText()
+                    )
+                ).path("ours").size(),
+                Matchers.is(1)
+            );
+            MatcherAssert.assertThat(
+                new Locks(LockServletITCase.container.container())
+                    .find(Lock.key("b.psd")).owner(),
+                Matchers.is("alice")
+            );
+            final String unlock = String.format(
+                "%s/%s/unlock", url, Lock.key("b.psd")
+            );
+            MatcherAssert.assertThat(
+                LockServletITCase.call(unlock, "bob", "{}").path("message")
+                    .asText(),
+                Matchers.containsString("alice")
+            );
+            LockServletITCase.call(unlock, "bob", "{\"force\":true}");
+            MatcherAssert.assertThat(
+                LockServletITCase.call(
+                    String.format("%s/verify", url), "alice", "{}"
+                ).path("ours").size(),
+                Matchers.is(2)
+            );
+        }
+    }
+
+    /**
+     * Locks can be shared by servers using one container, each seeing the
+     * locks the others take and release.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void sharesLocksBetweenServers() throws Exception {
+        final Locks first = new Locks(LockServletITCase.container.container());
+        final Locks second =
+            new Locks(LockServletITCase.container.container());
+        final Lock lock = first.create("shared.psd", "alice");
+        MatcherAssert.assertThat(
+            second.find(lock.ident()).owner(), Matchers.is("alice")
+        );
+        MatcherAssert.assertThat(
+            Lists.transform(second.page("", 1000).locks(), Lock::path),
+            Matchers.hasItem("shared.psd")
+        );
+        try {
+            second.create("shared.psd", "bob");
+            MatcherAssert.assertThat("locked twice", false);
+        } catch (final LockedException ex) {
+            MatcherAssert.assertThat(
+                ex.lock().owner(), Matchers.is("alice")
+            );
+        }
+        second.remove(lock.ident(), "alice", false);
+        MatcherAssert.assertThat(
+            first.find(lock.ident()), Matchers.nullValue()
+        );
+        first.remove(first.create("shared.psd", "bob").ident(), "bob", false);
+    }
+
+    /**
+     * Post to the locking API.
+     * @param url URL
+     * @param user User name
+     * @param body Request body
+     * @return Answer
+     * @throws IOException If something goes wrong.
+     */
+    private static JsonNode call(final String url, final String user,
+        final String body) throws IOException {
+        final HttpURLConnection conn =
+            (HttpURLConnection) new URL(url).openConnection();
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty(
+            "Authorization",
+            String.format(
+                "Basic %s",
+                Base64.getEncoder().encodeToString(
+                    String.format("%s:secret", user)
+                        .getBytes(StandardCharsets.UTF_8)
+                )
+            )
+        );
+        conn.setDoOutput(true);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        final int status = conn.getResponseCode();
+        InputStream answer = conn.getErrorStream();
+        if (status < HttpServletResponse.SC_BAD_REQUEST) {
+            answer = conn.getInputStream();
+        }
+        try (InputStream input = answer) {
+            return new ObjectMapper().readTree(input);
+        }
+    }
+
+}
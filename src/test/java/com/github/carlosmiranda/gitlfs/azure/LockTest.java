@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.time.Instant;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+/**
+ * Test case for {@link Lock}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+public final class LockTest {
+
+    /**
+     * Lock can derive its id from its path alone.
+     */
+    @Test
+    public void identifiesByPath() {
+        final Lock lock = new Lock("a/b.psd", "alice", Instant.EPOCH);
+        MatcherAssert.assertThat(
+            lock.ident(),
+            Matchers.allOf(
+                Matchers.is(Lock.key("a/b.psd")),
+                Matchers.is(
+                    new Lock("a/b.psd", "bob", Instant.now()).ident()
+                ),
+                Matchers.not(Lock.key("a/c.psd"))
+            )
+        );
+    }
+
+    /**
+     * Lock can render itself as in the file locking API.
+     */
+    @Test
+    public void rendersJson() {
+        MatcherAssert.assertThat(
+            new Lock("x.bin", "carol", Instant.EPOCH).json().toString(),
+            Matchers.allOf(
+                Matchers.containsString("path=x.bin"),
+                Matchers.containsString("locked_at=1970-01-01T00:00:00Z"),
+                Matchers.containsString("owner={name=carol}")
+            )
+        );
+    }
+
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.collect.Ordering;
+import com.microsoft.azure.storage.StorageCredentialsAccountAndKey;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+/**
+ * Test case for {@link Locks}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class LocksTest {
+
+    /**
+     * Locks can walk all pages with one listing call per page, each starting
+     * where the one before stopped.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void listsOnePagePerCall() throws Exception {
+        try (FakeBlobEndpoint endpoint = new FakeBlobEndpoint().start()) {
+            final Locks locks = new Locks(
+                new CloudBlobContainer(
+                    endpoint.uri("lfs"),
+                    new StorageCredentialsAccountAndKey(
+                        "account",
+                        Base64.getEncoder().encodeToString(new byte[32])
+                    )
+                )
+            );
+            for (int idx = 0; idx < 25; ++idx) {
+                locks.create(String.format("file%d.psd", idx), "alice");
+            }
+            final int before = endpoint.requests();
+            final List<String> idents = new ArrayList<>(25);
+            String cursor = "";
+            while (cursor != null) {
+                final Locks.Page page = locks.page(cursor, 10);
+                MatcherAssert.assertThat(
+                    page.locks().size(), Matchers.lessThanOrEqualTo(10)
+                );
+                for (final Lock lock : page.locks()) {
+                    idents.add(lock.ident());
+                }
+                cursor = page.next();
+            }
+            MatcherAssert.assertThat(
+                endpoint.requests() - before, Matchers.is(3)
+            );
+            MatcherAssert.assertThat(idents, Matchers.hasSize(25));
+            MatcherAssert.assertThat(
+                Ordering.natural().isOrdered(idents), Matchers.is(true)
+            );
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import javax.servlet.http.HttpServletRequest;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.server.ContentManager;
+
+/**
+ * Test case for {@link MemoryCachedStorage}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class MemoryCachedStorageTest {
+
+    /**
+     * MemoryCachedStorage can serve small objects from memory once read.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void servesSmallObjectsFromMemory() throws Exception {
+        final HttpServletRequest req = Mockito.mock(HttpServletRequest.class);
+        final ContentManager.Downloader backing =
+            MemoryCachedStorageTest.downloader("small", new byte[100]);
+        final ContentManager storage = MemoryCachedStorageTest.storage(
+            req, backing
+        );
+        for (int idx = 0; idx < 3; ++idx) {
+            try (InputStream input =
+                storage.checkDownloadAccess(req).openObject("small")) {
+                MatcherAssert.assertThat(
+                    ByteStreams.toByteArray(input).length, Matchers.is(100)
+                );
+            }
+        }
+        Mockito.verify(backing, Mockito.times(1)).openObject("small");
+        MatcherAssert.assertThat(
+            storage.getMetadata("small").getSize(), Matchers.is(100L)
+        );
+    }
+
+    /**
+     * MemoryCachedStorage can stream large objects whole from storage.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void streamsLargeObjects() throws Exception {
+        final HttpServletRequest req = Mockito.mock(HttpServletRequest.class);
+        final ContentManager.Downloader backing =
+            MemoryCachedStorageTest.downloader("large", new byte[5000]);
+        final ContentManager storage = MemoryCachedStorageTest.storage(
+            req, backing
+        );
+        for (int idx = 0; idx < 2; ++idx) {
+            try (InputStream input =
+                storage.checkDownloadAccess(req).openObject("large")) {
+                MatcherAssert.assertThat(
+                    ByteStreams.toByteArray(input).length, Matchers.is(5000)
+                );
+            }
+        }
+        Mockito.verify(backing, Mockito.times(2)).openObject("large");
+    }
+
+    /**
+     * Storage caching objects of up to 1000 bytes.
+     * @param req Request
+     * @param downloader Backing downloader
+     * @return Storage
+     * @throws Exception If something goes wrong.
+     */
+    private static ContentManager storage(final HttpServletRequest req,
+        final ContentManager.Downloader downloader) throws Exception {
+        final ContentManager backing = Mockito.mock(ContentManager.class);
+        Mockito.when(backing.checkDownloadAccess(req)).thenReturn(downloader);
+        return new MemoryCachedStorage(
+            new SlabCache(1_048_576L), 1000, backing
+        );
+    }
+
+    /**
+     * Downloader with one object.
+     * @param oid Object id
+     * @param content Content
+     * @return Downloader
+     * @throws Exception If something goes wrong.
+     */
+    private static ContentManager.Downloader downloader(final String oid,
+        final byte[] content) throws Exception {
+        final ContentManager.Downloader downloader =
+            Mockito.mock(ContentManager.Downloader.class);
+        Mockito.when(downloader.openObject(oid)).thenAnswer(
+            inv -> new ByteArrayInputStream(content)
+        );
+        return downloader;
+    }
+
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.ObjectName;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+/**
+ * Test case for {@link Metrics}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+public final class MetricsTest {
+
+    /**
+     * Metrics can publish gauges over JMX.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void publishesGauges() throws Exception {
+        final AtomicLong count = new AtomicLong();
+        new Metrics("Test").gauge("Count", count::doubleValue).register();
+        count.set(2L);
+        MatcherAssert.assertThat(
+            ManagementFactory.getPlatformMBeanServer().getAttribute(
+                new ObjectName(
+                    "com.github.carlosmiranda.gitlfs.azure:type=Test"
+                ),
+                "Count"
+            ),
+            Matchers.is(2.0)
+        );
+    }
+
+    /**
+     * Metrics can replace a registry of the same type.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void replacesRegistry() throws Exception {
+        new Metrics("Replaced").gauge("Value", () -> 1.0).register();
+        new Metrics("Replaced").gauge("Value", () -> 2.0).register();
+        MatcherAssert.assertThat(
+            ManagementFactory.getPlatformMBeanServer().getAttribute(
+                new ObjectName(
+                    "com.github.carlosmiranda.gitlfs.azure:type=Replaced"
+                ),
+                "Value"
+            ),
+            Matchers.is(2.0)
+        );
+    }
+
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.base.Strings;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test case for {@link MirrorQueue}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class MirrorQueueTest {
+    /**
+     * Temporary folder.
+     * @checkstyle VisibilityModifier (3 lines)
+     */
+    @Rule
+    public final transient TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * MirrorQueue can hand out objects to each target at its own pace.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void readsAtEachTargetsPace() throws Exception {
+        try (MirrorQueue queue = new MirrorQueue(
+            this.folder.newFolder("queue").toPath()
+        ).start(Arrays.asList("fast", "slow"))) {
+            queue.add(MirrorQueueTest.oid('a'));
+            queue.add(MirrorQueueTest.oid('b'));
+            queue.add(MirrorQueueTest.oid('c'));
+            MatcherAssert.assertThat(
+                queue.next("fast", 2),
+                Matchers.contains(
+                    MirrorQueueTest.oid('a'), MirrorQueueTest.oid('b')
+                )
+            );
+            queue.done("fast", 2);
+            MatcherAssert.assertThat(
+                queue.next("fast", 2),
+                Matchers.contains(MirrorQueueTest.oid('c'))
+            );
+            MatcherAssert.assertThat(queue.pending("fast"), Matchers.is(1L));
+            MatcherAssert.assertThat(queue.pending("slow"), Matchers.is(3L));
+            MatcherAssert.assertThat(
+                queue.lag("slow"), Matchers.greaterThanOrEqualTo(0L)
+            );
+        }
+    }
+
+    /**
+     * MirrorQueue can resume from saved offsets after a restart, ignoring a
+     * partly written entry.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void resumesAfterRestart() throws Exception {
+        final Path dir = this.folder.newFolder("restart").toPath();
+        try (MirrorQueue queue = new MirrorQueue(dir).start(
+            Collections.singleton("target")
+        )) {
+            queue.add(MirrorQueueTest.oid('a'));
+            queue.add(MirrorQueueTest.oid('b'));
+            queue.next("target", 1);
+            queue.done("target", 1);
+        }
+        final Path log = dir.resolve("queue.log");
+        Files.write(
+            log, Arrays.copyOf(Files.readAllBytes(log), (int) Files.size(log)
+                + 10)
+        );
+        try (MirrorQueue queue = new MirrorQueue(dir).start(
+            Collections.singleton("target")
+        )) {
+            MatcherAssert.assertThat(
+                queue.next("target", 10),
+                Matchers.contains(MirrorQueueTest.oid('b'))
+            );
+        }
+    }
+
+    /**
+     * MirrorQueue can empty its log once every target has read it.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void emptiesLogOnceRead() throws Exception {
+        final Path dir = this.folder.newFolder("empty").toPath();
+        try (MirrorQueue queue = new MirrorQueue(dir).start(
+            Arrays.asList("first", "second")
+        )) {
+            queue.add(MirrorQueueTest.oid('a'));
+            queue.done("first", queue.next("first", 10).size());
+            MatcherAssert.assertThat(
+                Files.size(dir.resolve("queue.log")), Matchers.greaterThan(0L)
+            );
+            queue.done("second", queue.next("second", 10).size());
+            MatcherAssert.assertThat(
+                Files.size(dir.resolve("queue.log")), Matchers.is(0L)
+            );
+            MatcherAssert.assertThat(queue.lag("first"), Matchers.is(0L));
+            queue.add(MirrorQueueTest.oid('b'));
+            MatcherAssert.assertThat(
+                queue.next("second", 10),
+                Matchers.contains(MirrorQueueTest.oid('b'))
+            );
+        }
+    }
+
+    /**
+     * Object id made of one character.
+     * @param chr Character
+     * @return Object id
+     */
+    private static String oid(final char chr) {
+        return Strings.repeat(String.valueOf(chr), 64);
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.base.Strings;
+import com.microsoft.azure.storage.StorageCredentialsAccountAndKey;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import java.io.ByteArrayInputStream;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+
+/**
+ * Test case for {@link Mirror}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+public final class MirrorTest {
+    /**
+     * Temporary folder.
+     * @checkstyle VisibilityModifier (3 lines)
+     */
+    @Rule
+    public final transient TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Source blob endpoint.
+     */
+    private FakeBlobEndpoint source;
+
+    /**
+     * Target blob endpoint.
+     */
+    private FakeBlobEndpoint target;
+
+    /**
+     * Start the endpoints.
+     * @throws Exception If something goes wrong.
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.source = new FakeBlobEndpoint().start();
+        this.target = new FakeBlobEndpoint().start();
+    }
+
+    /**
+     * Stop the endpoints.
+     * @throws Exception If something goes wrong.
+     */
+    @After
+    public void tearDown() throws Exception {
+        this.source.close();
+        this.target.close();
+    }
+
+    /**
+     * Mirror can copy blobs server-side and upload objects stored otherwise
+     * through the storage.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void copiesQueuedObjects() throws Exception {
+        final String plain = Strings.repeat("ab", 32);
+        final String chunked = Strings.repeat("cd", 32);
+        this.source.put(plain, new byte[] {1, 2});
+        final ContentManager storage = Mockito.mock(ContentManager.class);
+        final ContentManager.Downloader downloader =
+            Mockito.mock(ContentManager.Downloader.class);
+        Mockito.when(storage.getMetadata(chunked))
+            .thenReturn(new Meta(chunked, 3L));
+        Mockito.when(storage.checkDownloadAccess(Mockito.any()))
+            .thenReturn(downloader);
+        Mockito.when(downloader.openObject(chunked))
+            .thenReturn(new ByteArrayInputStream(new byte[] {3, 4, 5}));
+        final Mirror mirror = new Mirror(
+            new MirrorQueue(this.folder.newFolder("queue").toPath()),
+            MirrorTest.container(this.source), storage
+        ).target(MirrorTest.container(this.target)).start();
+        mirror.add(plain);
+        mirror.add(chunked);
+        MirrorTest.await(mirror, "Copied", 2.0);
+        MatcherAssert.assertThat(
+            this.target.blob(plain), Matchers.equalTo(new byte[] {1, 2})
+        );
+        MatcherAssert.assertThat(
+            this.target.blob(chunked), Matchers.equalTo(new byte[] {3, 4, 5})
+        );
+        Mockito.verify(downloader, Mockito.never()).openObject(plain);
+    }
+
+    /**
+     * Mirror can retry copies while a target is down, and skip objects
+     * that are gone.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void retriesUntilTargetIsBack() throws Exception {
+        final String oid = Strings.repeat("ef", 32);
+        this.source.put(oid, new byte[] {6});
+        this.target.fail(403);
+        final Mirror mirror = new Mirror(
+            new MirrorQueue(this.folder.newFolder("down").toPath()),
+            MirrorTest.container(this.source),
+            Mockito.mock(ContentManager.class)
+        ).target(MirrorTest.container(this.target)).start();
+        mirror.add(Strings.repeat("00", 32));
+        mirror.add(oid);
+        MirrorTest.await(mirror, "Failures", 1.0);
+        this.target.fail(0);
+        MirrorTest.await(mirror, "Copied", 1.0);
+        MirrorTest.await(mirror, "Skipped", 1.0);
+        MatcherAssert.assertThat(
+            this.target.blob(oid), Matchers.equalTo(new byte[] {6})
+        );
+        MatcherAssert.assertThat(
+            mirror.metrics().value("Skipped"), Matchers.is(1.0)
+        );
+    }
+
+    /**
+     * Wait for a metric to reach a value.
+     * @param mirror Mirror
+     * @param metric Metric name
+     * @param value Value
+     * @throws InterruptedException If interrupted
+     */
+    private static void await(final Mirror mirror, final String metric,
+        final double value) throws InterruptedException {
+        final long deadline = System.nanoTime()
+            + TimeUnit.SECONDS.toNanos(10L);
+        while (mirror.metrics().value(metric) < value
+            && System.nanoTime() < deadline) {
+            Thread.sleep(10L);
+        }
+    }
+
+    /**
+     * Container on an endpoint.
+     * @param endpoint Endpoint
+     * @return Container
+     * @throws Exception If something goes wrong.
+     */
+    private static CloudBlobContainer container(
+        final FakeBlobEndpoint endpoint) throws Exception {
+        return new CloudBlobContainer(
+            endpoint.uri("lfs"),
+            new StorageCredentialsAccountAndKey(
+                "account", Base64.getEncoder().encodeToString(new byte[32])
+            )
+        );
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.base.Strings;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.bozaro.gitlfs.common.data.Meta;
+
+/**
+ * Test case for {@link OidIndex}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class OidIndexTest {
+
+    /**
+     * Temporary folder.
+     * @checkstyle VisibilityModifier (3 lines)
+     */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * OidIndex can build itself from a container listing.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void buildsFromListing() throws Exception {
+        try (OidIndex index = new OidIndex(
+            this.folder.newFolder().toPath().resolve("oids"),
+            Arrays.asList(
+                new Meta(OidIndexTest.oid('1'), 10L),
+                new Meta(OidIndexTest.oid('a'), 20L)
+            )
+        ).start()) {
+            OidIndexTest.await(index);
+            MatcherAssert.assertThat(
+                index.find(OidIndexTest.oid('a')).getSize(), Matchers.is(20L)
+            );
+            MatcherAssert.assertThat(
+                index.find(OidIndexTest.oid('b')), Matchers.nullValue()
+            );
+        }
+    }
+
+    /**
+     * OidIndex can keep uploads across restarts without listing again.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void persistsUploads() throws Exception {
+        final Path file = this.folder.newFolder().toPath().resolve("idx");
+        try (OidIndex index = new OidIndex(
+            file, Collections.singletonList(new Meta(OidIndexTest.oid('2'), 1L))
+        ).start()) {
+            OidIndexTest.await(index);
+            index.add(OidIndexTest.oid('3'), 3L);
+        }
+        try (OidIndex index = new OidIndex(
+            file,
+            () -> {
+                throw new AssertionError("listed again");
+            }
+        ).start()) {
+            OidIndexTest.await(index);
+            MatcherAssert.assertThat(
+                index.find(OidIndexTest.oid('2')).getSize(), Matchers.is(1L)
+            );
+            MatcherAssert.assertThat(
+                index.find(OidIndexTest.oid('3')).getSize(), Matchers.is(3L)
+            );
+        }
+    }
+
+    /**
+     * OidIndex can forget removed objects, listed or uploaded, across
+     * merges and restarts.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void forgetsRemoved() throws Exception {
+        final Path file = this.folder.newFolder().toPath().resolve("gone");
+        try (OidIndex index = new OidIndex(
+            file, Collections.singletonList(new Meta(OidIndexTest.oid('4'), 4L))
+        ).start()) {
+            OidIndexTest.await(index);
+            index.add(OidIndexTest.oid('5'), 5L);
+            index.add(OidIndexTest.oid('6'), 6L);
+            index.remove(OidIndexTest.oid('4'));
+            index.remove(OidIndexTest.oid('5'));
+            MatcherAssert.assertThat(
+                index.find(OidIndexTest.oid('5')), Matchers.nullValue()
+            );
+            index.flush();
+            MatcherAssert.assertThat(
+                index.find(OidIndexTest.oid('4')), Matchers.nullValue()
+            );
+        }
+        try (OidIndex index = new OidIndex(file, Collections.emptyList())
+            .start()) {
+            OidIndexTest.await(index);
+            MatcherAssert.assertThat(
+                index.find(OidIndexTest.oid('5')), Matchers.nullValue()
+            );
+            MatcherAssert.assertThat(
+                index.find(OidIndexTest.oid('6')).getSize(), Matchers.is(6L)
+            );
+        }
+    }
+
+    /**
+     * OidIndex can merge recent uploads into the index file.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void mergesUploads() throws Exception {
+        final Path file = this.folder.newFolder().toPath().resolve("merge");
+        try (OidIndex index =
+            new OidIndex(file, Collections.emptyList()).start()) {
+            OidIndexTest.await(index);
+            for (char digit = '0'; digit <= '9'; ++digit) {
+                index.add(OidIndexTest.oid(digit), digit);
+            }
+            index.flush();
+            MatcherAssert.assertThat(
+                IndexFile.open(file).count(), Matchers.is(10L)
+            );
+            MatcherAssert.assertThat(
+                index.find(OidIndexTest.oid('5')).getSize(),
+                Matchers.is((long) '5')
+            );
+        }
+    }
+
+    /**
+     * OidIndex can ignore names that aren't object ids.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void ignoresInvalidIds() throws Exception {
+        try (OidIndex index = new OidIndex(
+            this.folder.newFolder().toPath().resolve("bad"),
+            Collections.emptyList()
+        ).start()) {
+            OidIndexTest.await(index);
+            MatcherAssert.assertThat(
+                index.find(Strings.repeat("A", 64)), Matchers.nullValue()
+            );
+            MatcherAssert.assertThat(
+                index.find("locks/abc"), Matchers.nullValue()
+            );
+        }
+    }
+
+    /**
+     * Wait for index to become ready.
+     * @param index Index
+     * @throws Exception If something goes wrong.
+     */
+    private static void await(final OidIndex index) throws Exception {
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+        while (!index.ready() && System.nanoTime() < end) {
+            TimeUnit.MILLISECONDS.sleep(10L);
+        }
+        MatcherAssert.assertThat(index.ready(), Matchers.is(true));
+    }
+
+    /**
+     * Object id made of one repeated digit.
+     * @param digit Hex digit
+     * @return Object id
+     */
+    private static String oid(final char digit) {
+        return Strings.repeat(String.valueOf(digit), 64);
+    }
+
+}
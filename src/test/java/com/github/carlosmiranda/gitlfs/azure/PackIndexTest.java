@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.collect.ImmutableMap;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+import ru.bozaro.gitlfs.common.data.Meta;
+
+/**
+ * Test case for {@link PackIndex}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class PackIndexTest {
+
+    /**
+     * First object id.
+     */
+    private static final String FIRST =
+        "0000000000000000000000000000000000000000000000000000000000000001";
+
+    /**
+     * Second object id.
+     */
+    private static final String SECOND =
+        "ff00000000000000000000000000000000000000000000000000000000000002";
+
+    /**
+     * PackIndex can locate the objects of a block from its header.
+     */
+    @Test
+    public void locatesObjectsOfBlock() {
+        final byte[] header = PackIndex.header(
+            Arrays.asList(
+                new Meta(PackIndexTest.FIRST, 10L),
+                new Meta(PackIndexTest.SECOND, 20L)
+            )
+        );
+        MatcherAssert.assertThat(
+            PackIndex.header(ByteBuffer.wrap(header, 0, Integer.BYTES)),
+            Matchers.is(header.length)
+        );
+        final Map<String, PackIndex.Entry> objects = PackIndex.block(
+            "pack", 100L, ByteBuffer.wrap(header)
+        );
+        MatcherAssert.assertThat(
+            objects.get(PackIndexTest.FIRST).offset(),
+            Matchers.is(100L + header.length)
+        );
+        MatcherAssert.assertThat(
+            objects.get(PackIndexTest.SECOND).offset(),
+            Matchers.is(110L + header.length)
+        );
+        MatcherAssert.assertThat(
+            objects.get(PackIndexTest.SECOND).length(), Matchers.is(20)
+        );
+    }
+
+    /**
+     * PackIndex can read back the index blob it wrote.
+     */
+    @Test
+    public void decodesIndexBlob() {
+        final Map<String, PackIndex.Entry> decoded = PackIndex.decode(
+            "pack",
+            ByteBuffer.wrap(
+                PackIndex.encode(
+                    ImmutableMap.of(
+                        PackIndexTest.FIRST,
+                        new PackIndex.Entry("pack", 5_000_000_000L, 7),
+                        PackIndexTest.SECOND,
+                        new PackIndex.Entry("pack", 8L, 3)
+                    )
+                )
+            )
+        );
+        MatcherAssert.assertThat(decoded.size(), Matchers.is(2));
+        MatcherAssert.assertThat(
+            decoded.get(PackIndexTest.FIRST).offset(),
+            Matchers.is(5_000_000_000L)
+        );
+        MatcherAssert.assertThat(
+            decoded.get(PackIndexTest.FIRST).length(), Matchers.is(7)
+        );
+        MatcherAssert.assertThat(
+            decoded.get(PackIndexTest.SECOND).pack(), Matchers.is("pack")
+        );
+    }
+
+    /**
+     * PackIndex can keep a moved object when its old location is removed.
+     */
+    @Test
+    public void keepsMovedObjects() {
+        final PackIndex index = new PackIndex();
+        final PackIndex.Entry old = new PackIndex.Entry("old", 0L, 1);
+        index.add(PackIndexTest.FIRST, old);
+        index.add(PackIndexTest.SECOND, new PackIndex.Entry("old", 1L, 1));
+        final PackIndex.Entry moved = new PackIndex.Entry("new", 0L, 1);
+        index.add(PackIndexTest.FIRST, moved);
+        index.remove(PackIndexTest.FIRST, old);
+        MatcherAssert.assertThat(
+            index.find(PackIndexTest.FIRST), Matchers.is(moved)
+        );
+        MatcherAssert.assertThat(
+            index.iterator().next().getOid(), Matchers.is(PackIndexTest.FIRST)
+        );
+        MatcherAssert.assertThat(
+            index.packs().keySet(), Matchers.containsInAnyOrder("old", "new")
+        );
+    }
+
+}
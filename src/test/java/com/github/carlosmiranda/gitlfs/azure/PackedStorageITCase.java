@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+import javax.servlet.http.HttpServletRequest;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.client.Client;
+import ru.bozaro.gitlfs.client.io.ByteArrayStreamProvider;
+import ru.bozaro.gitlfs.common.data.Meta;
+
+/**
+ * Integration test for {@link PackedStorage}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class PackedStorageITCase {
+
+    /**
+     * Container resource.
+     * @checkstyle VisibilityModifier (3 lines)
+     */
+    @ClassRule
+    public static AzureStorageContainer container = new AzureStorageContainer();
+
+    /**
+     * PackedStorage can pack small objects, and find and read them again
+     * from a fresh start.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void packsSmallObjects() throws Exception {
+        final byte[] data = new byte[1000];
+        new Random(1L).nextBytes(data);
+        final Meta meta = Client.generateMeta(
+            new ByteArrayStreamProvider(data)
+        );
+        final AzureBlobStorage backing = new AzureBlobStorage(
+            PackedStorageITCase.container.container()
+        );
+        final PackedStorage storage = new PackedStorage(
+            PackedStorageITCase.container.container(), backing, 4096
+        ).start();
+        storage.checkUploadAccess(Mockito.mock(HttpServletRequest.class))
+            .saveObject(meta, new ByteArrayInputStream(data));
+        MatcherAssert.assertThat(
+            backing.getMetadata(meta.getOid()), Matchers.nullValue()
+        );
+        final PackedStorage fresh = new PackedStorage(
+            PackedStorageITCase.container.container(), backing, 4096
+        ).start();
+        MatcherAssert.assertThat(
+            fresh.getMetadata(meta.getOid()).getSize(),
+            Matchers.is((long) data.length)
+        );
+        MatcherAssert.assertThat(
+            ByteStreams.toByteArray(
+                fresh.checkDownloadAccess(
+                    Mockito.mock(HttpServletRequest.class)
+                ).openObject(meta.getOid())
+            ),
+            Matchers.is(data)
+        );
+    }
+
+}
@@ -75,5 +75,73 @@ public final class ParamsTest {
         );
     }
 
-}
+    /**
+     * Params can fall back to defaults for optional parameters.
+     * @throws Exception If something goes wrong
+     */
+    @Test
+    public void defaultsOptionalParams() throws Exception {
+        final Properties props = new Properties();
+        props.setProperty("gitlfs.port", "8080");
+        final Params params = new Params(props);
+        MatcherAssert.assertThat(params.hedgeBudget(), Matchers.is(0.0));
+        MatcherAssert.assertThat(
+            // @checkstyle MagicNumber (1 line)
+            params.hedgePercentile(), Matchers.is(95.0)
+        );
+        MatcherAssert.assertThat(params.chunkSize(), Matchers.is(0));
+        MatcherAssert.assertThat(params.secondaryReads(), Matchers.is(false));
+        MatcherAssert.assertThat(
+            // @checkstyle MagicNumber (1 line)
+            params.secondaryLagMinutes(), Matchers.is(15L)
+        );
+        MatcherAssert.assertThat(params.uploadBlocks(), Matchers.is(1));
+        MatcherAssert.assertThat(params.packMaxObject(), Matchers.is(0));
+        MatcherAssert.assertThat(params.engine(), Matchers.is("sdk"));
+        MatcherAssert.assertThat(
+            // @checkstyle MagicNumber (1 line)
+            params.engineThreads(), Matchers.is(8)
+        );
+        MatcherAssert.assertThat(
+            // @checkstyle MagicNumber (1 line)
+            params.uploadTtlHours(), Matchers.is(24L)
+        );
+        MatcherAssert.assertThat(params.prefetchCache(), Matchers.is(""));
+        MatcherAssert.assertThat(params.accessLog(), Matchers.is(""));
+        MatcherAssert.assertThat(
+            params.peers(), Matchers.emptyIterable()
+        );
+        MatcherAssert.assertThat(params.writeBack(), Matchers.is(""));
+        MatcherAssert.assertThat(
+            params.downloadDeadlineSeconds(), Matchers.is(0L)
+        );
+    }
 
+    /**
+     * Params can fall back to defaults for optional serving parameters.
+     * @throws Exception If something goes wrong
+     */
+    @Test
+    public void defaultsServingParams() throws Exception {
+        final Properties props = new Properties();
+        props.setProperty("gitlfs.port", "8080");
+        final Params params = new Params(props);
+        MatcherAssert.assertThat(params.memoryCacheBytes(), Matchers.is(0L));
+        MatcherAssert.assertThat(
+            // @checkstyle MagicNumber (1 line)
+            params.memoryCacheMaxObject(), Matchers.is(65_536)
+        );
+        MatcherAssert.assertThat(
+            // @checkstyle MagicNumber (1 line)
+            params.bulkThreads(), Matchers.is(16)
+        );
+        MatcherAssert.assertThat(params.replicas(), Matchers.is(0));
+        MatcherAssert.assertThat(
+            // @checkstyle MagicNumber (1 line)
+            params.replicaReads(), Matchers.is(30)
+        );
+        MatcherAssert.assertThat(params.mirrors(), Matchers.empty());
+        MatcherAssert.assertThat(params.mirrorDir(), Matchers.is(""));
+    }
+
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.server.ContentManager;
+
+/**
+ * Test case for {@link PeerStorage}, with a cluster of servers on
+ * localhost.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+public final class PeerStorageTest {
+    /**
+     * Git LFS context path.
+     */
+    private static final String PATH = "/cluster.git";
+
+    /**
+     * Temporary folder.
+     * @checkstyle VisibilityModifier (3 lines)
+     */
+    @Rule
+    public final transient TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * PeerStorage can read each object from backing storage once, whatever
+     * node it is asked from.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void readsStorageOncePerObject() throws Exception {
+        final ContentManager.Downloader source = PeerStorageTest.source();
+        final List<String> endpoints = PeerStorageTest.endpoints(3);
+        final List<LfsServer> servers = new ArrayList<>(3);
+        final List<PeerStorage> nodes = new ArrayList<>(3);
+        try {
+            for (final String endpoint : endpoints) {
+                final PeerStorage node = this.node(endpoints, endpoint, source);
+                nodes.add(node);
+                servers.add(PeerStorageTest.serve(endpoint, node));
+            }
+            for (final PeerStorage node : nodes) {
+                for (int idx = 0; idx < 20; ++idx) {
+                    PeerStorageTest.check(node, idx);
+                }
+            }
+        } finally {
+            for (final LfsServer server : servers) {
+                server.close();
+            }
+        }
+        for (int idx = 0; idx < 20; ++idx) {
+            Mockito.verify(source, Mockito.times(1))
+                .openObject(PeerStorageTest.oid(idx));
+        }
+    }
+
+    /**
+     * PeerStorage can serve objects when a peer goes away.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void survivesLeavingPeer() throws Exception {
+        final ContentManager.Downloader source = PeerStorageTest.source();
+        final List<String> endpoints = PeerStorageTest.endpoints(2);
+        final PeerStorage node =
+            this.node(endpoints, endpoints.get(0), source);
+        final LfsServer server =
+            PeerStorageTest.serve(endpoints.get(0), node);
+        try {
+            for (int idx = 0; idx < 20; ++idx) {
+                PeerStorageTest.check(node, idx);
+            }
+            MatcherAssert.assertThat(
+                node.metrics().value("PeerFailures"), Matchers.is(1.0)
+            );
+            MatcherAssert.assertThat(
+                node.metrics().value("Nodes"), Matchers.is(1.0)
+            );
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Node of a cluster, over the given backing storage.
+     * @param endpoints Peer endpoints of all nodes
+     * @param self Peer endpoint of this node
+     * @param source Backing downloader
+     * @return Node
+     * @throws Exception If something goes wrong.
+     */
+    private PeerStorage node(final List<String> endpoints, final String self,
+        final ContentManager.Downloader source) throws Exception {
+        final ContentManager storage = Mockito.mock(ContentManager.class);
+        Mockito.when(
+            storage.checkDownloadAccess(Mockito.any(HttpServletRequest.class))
+        ).thenReturn(source);
+        return new PeerStorage(
+            new HashRing(endpoints), self,
+            new StagingCache(this.folder.newFolder().toPath(), 1L << 20)
+                .start(),
+            storage
+        );
+    }
+
+    /**
+     * Serve a node.
+     * @param endpoint Peer endpoint of the node
+     * @param node Node
+     * @return Started server
+     * @throws Exception If something goes wrong.
+     */
+    private static LfsServer serve(final String endpoint,
+        final PeerStorage node) throws Exception {
+        final int port = Integer.parseInt(
+            endpoint.replaceAll("^http://127.0.0.1:(\\d+)/.*$", "$1")
+        );
+        return new LfsServer(PeerStorageTest.PATH, node, port)
+            .route("peer/*", new PeerServlet(node, node))
+            .start();
+    }
+
+    /**
+     * Read an object through a node and check its content.
+     * @param node Node
+     * @param index Object number
+     * @throws Exception If something goes wrong.
+     */
+    private static void check(final PeerStorage node, final int index)
+        throws Exception {
+        try (InputStream content = node.checkDownloadAccess(
+            Mockito.mock(HttpServletRequest.class)
+        ).openObject(PeerStorageTest.oid(index))) {
+            MatcherAssert.assertThat(
+                ByteStreams.toByteArray(content),
+                Matchers.is(PeerStorageTest.content(index))
+            );
+        }
+    }
+
+    /**
+     * Backing downloader, serving every object.
+     * @return Downloader
+     * @throws Exception If something goes wrong.
+     */
+    private static ContentManager.Downloader source() throws Exception {
+        final ContentManager.Downloader source =
+            Mockito.mock(ContentManager.Downloader.class);
+        for (int idx = 0; idx < 20; ++idx) {
+            final byte[] content = PeerStorageTest.content(idx);
+            Mockito.when(source.openObject(PeerStorageTest.oid(idx)))
+                .thenAnswer(inv -> new ByteArrayInputStream(content));
+        }
+        return source;
+    }
+
+    /**
+     * Peer endpoints on free local ports.
+     * @param count Number of nodes
+     * @return Endpoints
+     * @throws Exception If something goes wrong.
+     */
+    private static List<String> endpoints(final int count) throws Exception {
+        final List<String> endpoints = new ArrayList<>(count);
+        for (int idx = 0; idx < count; ++idx) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                endpoints.add(
+                    PeerStorage.endpoint(
+                        String.format(
+                            "http://127.0.0.1:%d", socket.getLocalPort()
+                        ),
+                        PeerStorageTest.PATH
+                    )
+                );
+            }
+        }
+        return endpoints;
+    }
+
+    /**
+     * Object id.
+     * @param index Object number
+     * @return Object id
+     */
+    private static String oid(final int index) {
+        return Strings.padStart(Integer.toHexString(index), 64, '0');
+    }
+
+    /**
+     * Object content.
+     * @param index Object number
+     * @return Content
+     */
+    private static byte[] content(final int index) {
+        return String.format("object %d", index)
+            .getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.common.data.BatchItem;
+import ru.bozaro.gitlfs.common.data.Link;
+import ru.bozaro.gitlfs.common.data.LinkType;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ContentManager.Downloader;
+import ru.bozaro.gitlfs.server.PointerManager;
+
+/**
+ * Test case for {@link Prefetcher}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+public final class PrefetcherTest {
+    /**
+     * Temporary folder.
+     * @checkstyle VisibilityModifier (3 lines)
+     */
+    @Rule
+    public final transient TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Prefetcher can serve an object it fetched ahead without reading it
+     * again.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void servesFetchedObjects() throws Exception {
+        final Downloader source = Mockito.mock(Downloader.class);
+        Mockito.when(source.openObject("a")).thenReturn(
+            new ByteArrayInputStream(new byte[]{4, 2})
+        );
+        final StagingCache cache = this.cache();
+        final Prefetcher prefetcher = new Prefetcher(cache, 1, 1000L);
+        prefetcher.prefetch(
+            source, Collections.singletonList(new Meta("a", 2L))
+        );
+        PrefetcherTest.await(cache, "a");
+        try (InputStream content = prefetcher.open("a", source)) {
+            MatcherAssert.assertThat(
+                ByteStreams.toByteArray(content),
+                Matchers.equalTo(new byte[]{4, 2})
+            );
+        }
+        Mockito.verify(source, Mockito.times(1)).openObject("a");
+        MatcherAssert.assertThat(
+            prefetcher.metrics().value("Hits"), Matchers.is(1.0)
+        );
+    }
+
+    /**
+     * Prefetcher can stop fetching a batch once its byte budget is spent.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void respectsBudget() throws Exception {
+        final Downloader source = Mockito.mock(Downloader.class);
+        Mockito.when(source.openObject(Mockito.anyString())).thenAnswer(
+            invocation -> new ByteArrayInputStream(new byte[10])
+        );
+        final StagingCache cache = this.cache();
+        final Prefetcher prefetcher = new Prefetcher(cache, 1, 15L);
+        prefetcher.prefetch(
+            source, Arrays.asList(new Meta("a", 10L), new Meta("b", 10L))
+        );
+        PrefetcherTest.await(cache, "a");
+        prefetcher.open("a", source).close();
+        prefetcher.open("b", source).close();
+        MatcherAssert.assertThat(
+            prefetcher.metrics().value("PrefetchedBytes"), Matchers.is(10.0)
+        );
+        MatcherAssert.assertThat(
+            prefetcher.metrics().value("Misses"), Matchers.is(1.0)
+        );
+    }
+
+    /**
+     * PrefetchingPointers can spend one budget on all the parts a batch is
+     * located in.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void spendsBudgetAcrossParts() throws Exception {
+        final Downloader source = Mockito.mock(Downloader.class);
+        Mockito.when(source.openObject(Mockito.anyString())).thenAnswer(
+            invocation -> new ByteArrayInputStream(new byte[10])
+        );
+        final ContentManager storage = Mockito.mock(ContentManager.class);
+        Mockito.when(
+            storage.checkDownloadAccess(Mockito.any(HttpServletRequest.class))
+        ).thenReturn(source);
+        final PointerManager.Locator backing =
+            Mockito.mock(PointerManager.Locator.class);
+        Mockito.when(backing.getLocations(Mockito.any(Meta[].class)))
+            .thenAnswer(
+                inv -> {
+                    final Meta meta = inv.getArgumentAt(0, Meta[].class)[0];
+                    return new BatchItem[]{
+                        new BatchItem(
+                            meta,
+                            Collections.singletonMap(
+                                LinkType.Download,
+                                new Link(URI.create("http://localhost/"),
+                                    null, null)
+                            )
+                        ),
+                    };
+                }
+            );
+        final PointerManager pointers = Mockito.mock(PointerManager.class);
+        Mockito.when(
+            pointers.checkDownloadAccess(
+                Mockito.any(HttpServletRequest.class), Mockito.any(URI.class)
+            )
+        ).thenReturn(backing);
+        final StagingCache cache = this.cache();
+        final PointerManager.Locator locator = new PrefetchingPointers(
+            pointers, storage, new Prefetcher(cache, 1, 15L)
+        ).checkDownloadAccess(
+            Mockito.mock(HttpServletRequest.class), URI.create("http://x/")
+        );
+        locator.getLocations(new Meta[]{new Meta("a", 10L)});
+        locator.getLocations(new Meta[]{new Meta("b", 10L)});
+        PrefetcherTest.await(cache, "a");
+        Mockito.verify(source, Mockito.never()).openObject("b");
+    }
+
+    /**
+     * Prefetcher can read an object directly instead of waiting behind
+     * fetches that haven't started.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void skipsQueuedFetches() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Downloader source = Mockito.mock(Downloader.class);
+        Mockito.when(source.openObject("slow")).thenAnswer(
+            invocation -> {
+                release.await(10L, TimeUnit.SECONDS);
+                return new ByteArrayInputStream(new byte[1]);
+            }
+        );
+        Mockito.when(source.openObject("queued")).thenAnswer(
+            invocation -> new ByteArrayInputStream(new byte[1])
+        );
+        final Prefetcher prefetcher = new Prefetcher(this.cache(), 1, 1000L);
+        prefetcher.prefetch(
+            source, Arrays.asList(new Meta("slow", 1L), new Meta("queued", 1L))
+        );
+        prefetcher.open("queued", source).close();
+        release.countDown();
+        Mockito.verify(source, Mockito.times(1)).openObject("queued");
+    }
+
+    /**
+     * Fresh staging cache.
+     * @return Staging cache
+     * @throws Exception If something goes wrong.
+     */
+    private StagingCache cache() throws Exception {
+        return new StagingCache(this.folder.getRoot().toPath(), 1000L).start();
+    }
+
+    /**
+     * Wait until an object is staged.
+     * @param cache Staging cache
+     * @param oid Object id
+     * @throws Exception If something goes wrong.
+     */
+    private static void await(final StagingCache cache, final String oid)
+        throws Exception {
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+        while (!cache.contains(oid) && System.nanoTime() < end) {
+            Thread.sleep(10L);
+        }
+    }
+
+}
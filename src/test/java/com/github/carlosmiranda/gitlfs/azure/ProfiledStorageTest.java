@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Path;
+import javax.servlet.http.HttpServletRequest;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.server.ContentManager;
+
+/**
+ * Test case for {@link ProfiledStorage}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+public final class ProfiledStorageTest {
+    /**
+     * Temporary folder.
+     * @checkstyle VisibilityModifier (3 lines)
+     */
+    @Rule
+    public final transient TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * ProfiledStorage can record a download as a flight recorder event.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void recordsDownloads() throws Exception {
+        final ContentManager storage = Mockito.mock(ContentManager.class);
+        final ContentManager.Downloader downloader =
+            Mockito.mock(ContentManager.Downloader.class);
+        final HttpServletRequest req = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(storage.checkDownloadAccess(req)).thenReturn(downloader);
+        Mockito.when(downloader.openObject("abc")).thenReturn(
+            new ByteArrayInputStream(new byte[] {1, 2, 2, 1})
+        );
+        final Path dump = this.folder.getRoot().toPath().resolve("rec.jfr");
+        try (final Recording recording = new Recording()) {
+            recording.enable(TransferEvent.class).withoutThreshold();
+            recording.start();
+            try (final InputStream content = new ProfiledStorage(storage)
+                .checkDownloadAccess(req).openObject("abc")) {
+                ByteStreams.copy(content, ByteStreams.nullOutputStream());
+            }
+            recording.stop();
+            recording.dump(dump);
+        }
+        final RecordedEvent event = RecordingFile.readAllEvents(dump).get(0);
+        MatcherAssert.assertThat(
+            event.getString("oid"), Matchers.is("abc")
+        );
+        MatcherAssert.assertThat(
+            event.getString("direction"), Matchers.is("download")
+        );
+        // @checkstyle MagicNumber (1 line)
+        MatcherAssert.assertThat(event.getLong("bytes"), Matchers.is(4L));
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test case for {@link Reachable}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class ReachableTest {
+    /**
+     * Temporary folder.
+     * @checkstyle VisibilityModifier (3 lines)
+     */
+    @Rule
+    public final transient TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Reachable can read object ids from the lines of a file, and never
+     * miss one.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void readsObjectIds() throws Exception {
+        final Path file = this.folder.newFile("reachable").toPath();
+        final String listed = Strings.repeat("1f", 32);
+        Files.write(
+            file,
+            Arrays.asList(
+                String.format("%s * images/logo.png", listed),
+                Strings.repeat("2e", 32),
+                "not an object id",
+                Strings.repeat("3D", 32)
+            ),
+            StandardCharsets.UTF_8
+        );
+        final Reachable reachable = Reachable.load(file);
+        MatcherAssert.assertThat(reachable.count(), Matchers.is(2L));
+        MatcherAssert.assertThat(reachable.test(listed), Matchers.is(true));
+        MatcherAssert.assertThat(
+            reachable.test(Strings.repeat("2e", 32)), Matchers.is(true)
+        );
+        MatcherAssert.assertThat(
+            reachable.test("manifests"), Matchers.is(true)
+        );
+    }
+
+    /**
+     * Reachable can tell most unreachable object ids apart.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void rejectsMostUnreachable() throws Exception {
+        final Path file = this.folder.newFile("many").toPath();
+        final StringBuilder lines = new StringBuilder();
+        for (int idx = 0; idx < 10_000; ++idx) {
+            lines.append(ReachableTest.oid(idx)).append('\n');
+        }
+        Files.write(file, lines.toString().getBytes(StandardCharsets.UTF_8));
+        final Reachable reachable = Reachable.load(file);
+        int kept = 0;
+        for (int idx = 10_000; idx < 20_000; ++idx) {
+            if (reachable.test(ReachableTest.oid(idx))) {
+                ++kept;
+            }
+        }
+        MatcherAssert.assertThat(kept, Matchers.lessThan(300));
+    }
+
+    /**
+     * Object id of a number.
+     * @param number Number
+     * @return Object id
+     */
+    private static String oid(final int number) {
+        return Hashing.sha256().hashInt(number).toString();
+    }
+}
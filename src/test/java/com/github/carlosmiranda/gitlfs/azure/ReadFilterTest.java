@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+/**
+ * Test case for {@link ReadFilter}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class ReadFilterTest {
+
+    /**
+     * ReadFilter can tell a million read objects from unread ones, taking
+     * about the requested rate of unread ones for read.
+     */
+    @Test
+    public void keepsFalsePositivesNearRate() {
+        final ReadFilter filter = new ReadFilter(1_000_000L, 0.01);
+        for (int idx = 0; idx < 1_000_000; ++idx) {
+            filter.add(ReadFilterTest.oid(1, idx));
+        }
+        for (int idx = 0; idx < 1_000_000; idx += 1000) {
+            MatcherAssert.assertThat(
+                filter.contains(ReadFilterTest.oid(1, idx)), Matchers.is(true)
+            );
+        }
+        int wrong = 0;
+        for (int idx = 0; idx < 100_000; ++idx) {
+            if (filter.contains(ReadFilterTest.oid(2, idx))) {
+                ++wrong;
+            }
+        }
+        MatcherAssert.assertThat(wrong, Matchers.lessThan(1300));
+    }
+
+    /**
+     * ReadFilter can refuse a size it can't meet.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesBadRate() {
+        new ReadFilter(1000L, 1.0);
+    }
+
+    /**
+     * Object id.
+     * @param set Set of objects
+     * @param idx Index within the set
+     * @return Object id
+     */
+    static String oid(final int set, final int idx) {
+        return String.format("%032x%032x", set, idx);
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.microsoft.azure.storage.StorageCredentialsAccountAndKey;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.http.HttpServletRequest;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.common.data.BatchItem;
+import ru.bozaro.gitlfs.common.data.Link;
+import ru.bozaro.gitlfs.common.data.LinkType;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.PointerManager;
+
+/**
+ * Test case for {@link ReferencingPointers}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+public final class ReferencingPointersTest {
+    /**
+     * Stored object id.
+     */
+    private static final String STORED = Strings.repeat("1a", 32);
+
+    /**
+     * Chunked object id.
+     */
+    private static final String CHUNKED = Strings.repeat("2b", 32);
+
+    /**
+     * Swept object id.
+     */
+    private static final String GONE = Strings.repeat("3c", 32);
+
+    /**
+     * Packed object id.
+     */
+    private static final String PACKED = Strings.repeat("4d", 32);
+
+    /**
+     * ReferencingPointers can record references to objects an upload batch
+     * found, and have swept ones uploaded again.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void recordsReferences() throws Exception {
+        try (FakeBlobEndpoint endpoint = new FakeBlobEndpoint().start()
+            .put(ReferencingPointersTest.STORED, new byte[100])
+            .put(
+                ChunkedStorage.MANIFESTS + ReferencingPointersTest.CHUNKED,
+                new byte[1]
+            )) {
+            final CloudBlobContainer container =
+                ReferencingPointersTest.container(endpoint);
+            final List<String> forgotten = new CopyOnWriteArrayList<>();
+            final BatchItem[] items = new ReferencingPointers(
+                ReferencingPointersTest.pointers(),
+                container,
+                new Swept(new BlobRest(container)).holder(forgotten::add),
+                10L
+            ).checkUploadAccess(
+                Mockito.mock(HttpServletRequest.class), URI.create("http://x/")
+            ).getLocations(
+                new Meta[] {
+                    new Meta(ReferencingPointersTest.STORED, 100L),
+                    new Meta(ReferencingPointersTest.CHUNKED, 100L),
+                    new Meta(ReferencingPointersTest.GONE, 100L),
+                    new Meta(ReferencingPointersTest.PACKED, 5L),
+                }
+            );
+            for (final String name : new String[] {
+                ReferencingPointersTest.STORED,
+                ChunkedStorage.MANIFESTS + ReferencingPointersTest.CHUNKED,
+            }) {
+                final CloudBlockBlob blob =
+                    container.getBlockBlobReference(name);
+                blob.downloadAttributes();
+                MatcherAssert.assertThat(
+                    blob.getMetadata(),
+                    Matchers.hasKey(ReferencingPointers.REFERENCED)
+                );
+            }
+            MatcherAssert.assertThat(
+                forgotten, Matchers.contains(ReferencingPointersTest.GONE)
+            );
+            MatcherAssert.assertThat(
+                items[2].getLinks(), Matchers.hasKey(LinkType.Upload)
+            );
+            MatcherAssert.assertThat(
+                items[3].getLinks().isEmpty(), Matchers.is(true)
+            );
+        }
+    }
+
+    /**
+     * ReferencingPointers can record a reference to an object while it's
+     * being downloaded, without failing the download.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void keepsDownloadsGoing() throws Exception {
+        final byte[] data = new byte[5 << 20];
+        new Random(1L).nextBytes(data);
+        try (FakeBlobEndpoint endpoint = new FakeBlobEndpoint().start()
+            .put(ReferencingPointersTest.STORED, data)) {
+            final CloudBlobContainer container =
+                ReferencingPointersTest.container(endpoint);
+            try (InputStream content = new AzureBlobStorage(container)
+                .checkDownloadAccess(Mockito.mock(HttpServletRequest.class))
+                .openObject(ReferencingPointersTest.STORED)) {
+                final byte[] first = new byte[1];
+                ByteStreams.readFully(content, first);
+                final PointerManager.Locator locator = new ReferencingPointers(
+                    ReferencingPointersTest.pointers(), container,
+                    new Swept(new BlobRest(container)), 10L
+                ).checkUploadAccess(
+                    Mockito.mock(HttpServletRequest.class),
+                    URI.create("http://x/")
+                );
+                locator.getLocations(
+                    new Meta[] {
+                        new Meta(ReferencingPointersTest.STORED, data.length),
+                    }
+                );
+                MatcherAssert.assertThat(
+                    ByteStreams.toByteArray(content).length,
+                    Matchers.is(data.length - 1)
+                );
+            }
+        }
+    }
+
+    /**
+     * Pointer manager answering that every object exists, until asked again.
+     * @return Pointer manager
+     * @throws Exception If something goes wrong.
+     */
+    private static PointerManager pointers() throws Exception {
+        final AtomicBoolean asked = new AtomicBoolean();
+        final PointerManager.Locator locator =
+            Mockito.mock(PointerManager.Locator.class);
+        Mockito.when(locator.getLocations(Mockito.any(Meta[].class)))
+            .thenAnswer(
+                inv -> {
+                    final Meta[] metas = inv.getArgumentAt(0, Meta[].class);
+                    final boolean again = asked.getAndSet(true);
+                    final BatchItem[] items = new BatchItem[metas.length];
+                    for (int idx = 0; idx < metas.length; ++idx) {
+                        if (again) {
+                            items[idx] = new BatchItem(
+                                metas[idx],
+                                Collections.singletonMap(
+                                    LinkType.Upload,
+                                    new Link(
+                                        URI.create("http://localhost/"),
+                                        null, null
+                                    )
+                                )
+                            );
+                        } else {
+                            items[idx] = new BatchItem(
+                                metas[idx], Collections.emptyMap()
+                            );
+                        }
+                    }
+                    return items;
+                }
+            );
+        final PointerManager pointers = Mockito.mock(PointerManager.class);
+        Mockito.when(
+            pointers.checkUploadAccess(
+                Mockito.any(HttpServletRequest.class), Mockito.any(URI.class)
+            )
+        ).thenReturn(locator);
+        return pointers;
+    }
+
+    /**
+     * Container on an endpoint.
+     * @param endpoint Blob endpoint
+     * @return Container
+     * @throws Exception If something goes wrong.
+     */
+    private static CloudBlobContainer container(
+        final FakeBlobEndpoint endpoint) throws Exception {
+        return new CloudBlobContainer(
+            endpoint.uri("lfs"),
+            new StorageCredentialsAccountAndKey(
+                "account", Base64.getEncoder().encodeToString(new byte[32])
+            )
+        );
+    }
+}
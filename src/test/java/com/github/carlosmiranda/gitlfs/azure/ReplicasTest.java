@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.base.Strings;
+import com.microsoft.azure.storage.StorageCredentialsAccountAndKey;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test case for {@link Replicas}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class ReplicasTest {
+    /**
+     * Object id.
+     */
+    private static final String OID = Strings.repeat("ab", 32);
+
+    /**
+     * Blob endpoint.
+     */
+    private FakeBlobEndpoint endpoint;
+
+    /**
+     * Start the endpoint.
+     * @throws Exception If something goes wrong.
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.endpoint = new FakeBlobEndpoint().start();
+    }
+
+    /**
+     * Stop the endpoint.
+     * @throws Exception If something goes wrong.
+     */
+    @After
+    public void tearDown() throws Exception {
+        this.endpoint.close();
+    }
+
+    /**
+     * Replicas can copy a hot object and spread its reads over the copies.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void spreadsReadsOfHotObjects() throws Exception {
+        final byte[] content = {1, 2, 3};
+        this.endpoint.put(ReplicasTest.OID, content);
+        final Replicas replicas = new Replicas(this.container(), 2, 5);
+        final long deadline = System.nanoTime()
+            + TimeUnit.SECONDS.toNanos(10L);
+        while (replicas.metrics().value("Copied") < 2.0
+            && System.nanoTime() < deadline) {
+            replicas.read(ReplicasTest.OID);
+            Thread.sleep(10L);
+        }
+        final Map<String, Integer> reads = new HashMap<>();
+        for (int idx = 0; idx < 3000; ++idx) {
+            reads.merge(replicas.read(ReplicasTest.OID), 1, Integer::sum);
+        }
+        MatcherAssert.assertThat(
+            this.endpoint.blob(Replicas.name(ReplicasTest.OID, 2)),
+            Matchers.equalTo(content)
+        );
+        MatcherAssert.assertThat(reads.size(), Matchers.is(3));
+        for (final int count : reads.values()) {
+            MatcherAssert.assertThat(count, Matchers.greaterThan(800));
+        }
+    }
+
+    /**
+     * Replicas can leave objects read rarely alone.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void ignoresColdObjects() throws Exception {
+        this.endpoint.put(ReplicasTest.OID, new byte[] {1});
+        final Replicas replicas = new Replicas(this.container(), 2, 5);
+        for (int idx = 0; idx < 4; ++idx) {
+            MatcherAssert.assertThat(
+                replicas.read(ReplicasTest.OID),
+                Matchers.is(ReplicasTest.OID)
+            );
+        }
+        Thread.sleep(200L);
+        MatcherAssert.assertThat(
+            this.endpoint.blob(Replicas.name(ReplicasTest.OID, 1)),
+            Matchers.nullValue()
+        );
+    }
+
+    /**
+     * Replicas can delete replicas left over by an earlier run.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void deletesLeftOverReplicas() throws Exception {
+        final String left = Replicas.name(ReplicasTest.OID, 1);
+        this.endpoint.put(ReplicasTest.OID, new byte[] {1})
+            .put(left, new byte[] {1});
+        final Replicas replicas = new Replicas(this.container(), 2, 5)
+            .start();
+        final long deadline = System.nanoTime()
+            + TimeUnit.SECONDS.toNanos(10L);
+        while (replicas.metrics().value("Deleted") < 1.0
+            && System.nanoTime() < deadline) {
+            Thread.sleep(10L);
+        }
+        MatcherAssert.assertThat(
+            this.endpoint.blob(left), Matchers.nullValue()
+        );
+        MatcherAssert.assertThat(
+            this.endpoint.blob(ReplicasTest.OID), Matchers.notNullValue()
+        );
+    }
+
+    /**
+     * Container on the endpoint.
+     * @return Container
+     * @throws Exception If something goes wrong.
+     */
+    private CloudBlobContainer container() throws Exception {
+        return new CloudBlobContainer(
+            this.endpoint.uri("lfs"),
+            new StorageCredentialsAccountAndKey(
+                "account", Base64.getEncoder().encodeToString(new byte[32])
+            )
+        );
+    }
+}
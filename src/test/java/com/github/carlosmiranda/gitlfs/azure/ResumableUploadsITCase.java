@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.client.Client;
+import ru.bozaro.gitlfs.client.io.ByteArrayStreamProvider;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+import ru.bozaro.gitlfs.server.ServerError;
+
+/**
+ * Integration test for {@link ResumableUploads}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+public final class ResumableUploadsITCase {
+    /**
+     * Container resource.
+     * @checkstyle VisibilityModifier (3 lines)
+     */
+    @ClassRule
+    public static AzureStorageContainer container = new AzureStorageContainer();
+
+    /**
+     * ResumableUploads can store an upload received in pieces after
+     * answering the request finishing it.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void storesInBackground() throws Exception {
+        final byte[] data = new byte[5 << 20];
+        new Random(2L).nextBytes(data);
+        final Meta meta =
+            Client.generateMeta(new ByteArrayStreamProvider(data));
+        final ContentManager storage = new AzureBlobStorage(
+            ResumableUploadsITCase.container.container()
+        );
+        final ResumableUploads uploads = ResumableUploadsITCase.uploads();
+        final int half = data.length / 2;
+        uploads.append(
+            meta.getOid(), 0L, new ByteArrayInputStream(data, 0, half)
+        );
+        MatcherAssert.assertThat(
+            uploads.append(
+                meta.getOid(), half,
+                new ByteArrayInputStream(data, half, data.length - half)
+            ),
+            Matchers.is((long) data.length)
+        );
+        uploads.finish(
+            meta.getOid(),
+            storage.checkUploadAccess(Mockito.mock(HttpServletRequest.class))
+        );
+        ResumableUploadsITCase.await(storage, meta.getOid());
+        MatcherAssert.assertThat(
+            ByteStreams.toByteArray(
+                storage.checkDownloadAccess(
+                    Mockito.mock(HttpServletRequest.class)
+                ).openObject(meta.getOid())
+            ),
+            Matchers.is(data)
+        );
+    }
+
+    /**
+     * ResumableUploads can refuse a request to finish content that turned
+     * out not to match its object id.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void refusesMismatchedContent() throws Exception {
+        final String oid = Client.generateMeta(
+            new ByteArrayStreamProvider(new byte[] {1})
+        ).getOid();
+        final ContentManager.Uploader uploader =
+            Mockito.mock(ContentManager.Uploader.class);
+        Mockito.doAnswer(
+            inv -> ByteStreams.toByteArray(
+                inv.getArgumentAt(1, InputStream.class)
+            )
+        ).when(uploader).saveObject(Mockito.any(), Mockito.any());
+        final ResumableUploads uploads = ResumableUploadsITCase.uploads();
+        uploads.append(oid, 0L, new ByteArrayInputStream(new byte[] {2}));
+        uploads.finish(oid, uploader);
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+        int status = 0;
+        while (status == 0 && System.nanoTime() < end) {
+            try {
+                uploads.finish(oid, uploader);
+                Thread.sleep(10L);
+            } catch (final ServerError ex) {
+                status = ex.getStatusCode();
+            }
+        }
+        MatcherAssert.assertThat(status, Matchers.is(422));
+        MatcherAssert.assertThat(uploads.offset(oid), Matchers.is(0L));
+    }
+
+    /**
+     * ResumableUploads can refuse content sent while another request is
+     * staging content of the same object.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void refusesConcurrentAppend() throws Exception {
+        final String oid = Client.generateMeta(
+            new ByteArrayStreamProvider(new byte[] {3})
+        ).getOid();
+        final ResumableUploads uploads = ResumableUploadsITCase.uploads();
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService thread = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Long> first = thread.submit(
+                () -> uploads.append(
+                    oid, 0L,
+                    new SequenceInputStream(
+                        new ByteArrayInputStream(new byte[] {3}),
+                        new InputStream() {
+                            @Override
+                            public int read() throws IOException {
+                                reading.countDown();
+                                try {
+                                    release.await(10L, TimeUnit.SECONDS);
+                                } catch (final InterruptedException ex) {
+                                    Thread.currentThread().interrupt();
+                                }
+                                return -1;
+                            }
+                        }
+                    )
+                )
+            );
+            reading.await(10L, TimeUnit.SECONDS);
+            int status = 0;
+            try {
+                uploads.append(oid, 0L, new ByteArrayInputStream(new byte[1]));
+            } catch (final ServerError ex) {
+                status = ex.getStatusCode();
+            }
+            release.countDown();
+            MatcherAssert.assertThat(status, Matchers.is(409));
+            MatcherAssert.assertThat(first.get(), Matchers.is(1L));
+        } finally {
+            thread.shutdownNow();
+        }
+    }
+
+    /**
+     * Resumable uploads in the test container.
+     * @return Uploads
+     * @throws Exception If something goes wrong.
+     */
+    private static ResumableUploads uploads() throws Exception {
+        return new ResumableUploads(
+            ResumableUploadsITCase.container.container(), Duration.ofHours(1L)
+        );
+    }
+
+    /**
+     * Wait until an object is stored.
+     * @param storage Storage
+     * @param oid Object id
+     * @throws Exception If something goes wrong.
+     */
+    private static void await(final ContentManager storage, final String oid)
+        throws Exception {
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+        while (storage.getMetadata(oid) == null && System.nanoTime() < end) {
+            Thread.sleep(10L);
+        }
+    }
+}
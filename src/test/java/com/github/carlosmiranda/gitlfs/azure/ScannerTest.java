@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.hamcrest.Matcher;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.bozaro.gitlfs.common.data.Meta;
+
+/**
+ * Test case for {@link Scanner}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class ScannerTest {
+    /**
+     * Temporary folder.
+     * @checkstyle VisibilityModifier (3 lines)
+     */
+    @Rule
+    public final transient TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Scanner can report corrupt, truncated and misnamed blobs.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void reportsBadBlobs() throws Exception {
+        final Map<String, byte[]> blobs = new HashMap<>();
+        final String good = ScannerTest.oid("good");
+        blobs.put(good, ScannerTest.bytes("good"));
+        final String chunk = String.format("chunks/%s", ScannerTest.oid("c"));
+        blobs.put(chunk, ScannerTest.bytes("c"));
+        final String corrupt = ScannerTest.oid("corrupt");
+        blobs.put(corrupt, ScannerTest.bytes("currupt"));
+        final String truncated = ScannerTest.oid("truncated");
+        blobs.put(truncated, ScannerTest.bytes("trunc"));
+        blobs.put("notes.txt", ScannerTest.bytes("notes"));
+        final List<String> report = new CopyOnWriteArrayList<>();
+        final Scanner scanner = new Scanner(
+            name -> new ByteArrayInputStream(blobs.get(name)), 4, 0L
+        );
+        scanner.scan(
+            Arrays.asList(
+                new Meta(good, 4L), new Meta(corrupt, 7L),
+                new Meta(truncated, 9L), new Meta(chunk, 1L),
+                new Meta("notes.txt", 5L)
+            ).iterator(),
+            this.folder.getRoot().toPath().resolve("checkpoint"),
+            report::add
+        );
+        MatcherAssert.assertThat(
+            report,
+            Matchers.containsInAnyOrder(
+                Arrays.<Matcher<? super String>>asList(
+                    Matchers.startsWith(String.format("corrupt\t%s", corrupt)),
+                    Matchers.is(
+                        String.format("truncated\t%s\t5\t9", truncated)
+                    ),
+                    Matchers.is("misnamed\tnotes.txt")
+                )
+            )
+        );
+        MatcherAssert.assertThat(
+            scanner.metrics().value("Checked"), Matchers.is(5.0)
+        );
+    }
+
+    /**
+     * Scanner can resume from its checkpoint, and forget it once done.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void resumesFromCheckpoint() throws Exception {
+        final String first = ScannerTest.oid("first");
+        final String second = ScannerTest.oid("second");
+        final String[] names = {first, second};
+        Arrays.sort(names);
+        final Path checkpoint =
+            this.folder.getRoot().toPath().resolve("checkpoint");
+        Files.write(checkpoint, names[1].getBytes(StandardCharsets.UTF_8));
+        final List<String> opened = new CopyOnWriteArrayList<>();
+        final Scanner scanner = new Scanner(
+            name -> {
+                opened.add(name);
+                throw new FileNotFoundException(name);
+            },
+            2, 0L
+        );
+        scanner.scan(
+            Arrays.asList(new Meta(names[0], 1L), new Meta(names[1], 1L))
+                .iterator(),
+            checkpoint, line -> { }
+        );
+        MatcherAssert.assertThat(opened, Matchers.contains(names[1]));
+        MatcherAssert.assertThat(
+            Files.exists(checkpoint), Matchers.is(false)
+        );
+    }
+
+    /**
+     * Scanner can keep reads within a byte rate.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void limitsRate() throws Exception {
+        final byte[] content = new byte[2048];
+        final String oid = Hashing.sha256().hashBytes(content).toString();
+        final long start = System.nanoTime();
+        new Scanner(name -> new ByteArrayInputStream(content), 2, 2048L).scan(
+            Arrays.asList(
+                new Meta(oid, 2048L),
+                new Meta(String.format("chunks/%s", oid), 2048L)
+            ).iterator(),
+            this.folder.getRoot().toPath().resolve("checkpoint"),
+            line -> { }
+        );
+        MatcherAssert.assertThat(
+            System.nanoTime() - start, Matchers.greaterThan(900_000_000L)
+        );
+    }
+
+    /**
+     * Object id of a text.
+     * @param text Text
+     * @return SHA-256 of the text
+     */
+    private static String oid(final String text) {
+        return Hashing.sha256().hashBytes(ScannerTest.bytes(text)).toString();
+    }
+
+    /**
+     * Bytes of a text.
+     * @param text Text
+     * @return Bytes
+     */
+    private static byte[] bytes(final String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
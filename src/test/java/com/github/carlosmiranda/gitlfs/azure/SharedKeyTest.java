@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.microsoft.azure.storage.OperationContext;
+import com.microsoft.azure.storage.StorageCredentialsAccountAndKey;
+import com.microsoft.azure.storage.core.StorageCredentialsHelper;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.util.Base64;
+import java.util.Map;
+import java.util.TreeMap;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+/**
+ * Test case for {@link SharedKey}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+public final class SharedKeyTest {
+
+    /**
+     * SharedKey can sign requests the same way as the Azure SDK.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void signsLikeAzureSdk() throws Exception {
+        final String key = Base64.getEncoder().encodeToString(
+            "not a real key".getBytes("UTF-8")
+        );
+        final URI uri = URI.create(
+            "https://acct.blob.core.windows.net/cont/blob?comp=tier&a=b%2Fc"
+        );
+        final HttpURLConnection conn = new Recorded(uri.toURL());
+        conn.setRequestMethod("PUT");
+        conn.setRequestProperty("x-ms-version", "2019-12-12");
+        conn.setRequestProperty("x-ms-access-tier", "Cool");
+        conn.setRequestProperty("Content-Type", "text/plain");
+        StorageCredentialsHelper.signBlobQueueAndFileRequest(
+            new StorageCredentialsAccountAndKey("acct", key), conn, 0L,
+            new OperationContext()
+        );
+        final Map<String, String> headers = new TreeMap<>();
+        headers.put("x-ms-version", "2019-12-12");
+        headers.put("x-ms-access-tier", "Cool");
+        headers.put("x-ms-date", conn.getRequestProperty("x-ms-date"));
+        headers.put("content-type", "text/plain");
+        headers.put("content-length", "0");
+        MatcherAssert.assertThat(
+            new SharedKey("acct", key).authorization("PUT", uri, headers),
+            Matchers.is(conn.getRequestProperty("Authorization"))
+        );
+    }
+
+    /**
+     * Connection that is never opened, and shows all request headers.
+     */
+    private static final class Recorded extends HttpURLConnection {
+        /**
+         * Ctor.
+         * @param url URL
+         */
+        Recorded(final URL url) {
+            super(url);
+        }
+
+        @Override
+        public void disconnect() {
+            this.connected = false;
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+
+        @Override
+        public void connect() {
+            this.connected = true;
+        }
+    }
+
+}
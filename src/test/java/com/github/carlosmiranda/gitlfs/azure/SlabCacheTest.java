@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Optional;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+/**
+ * Test case for {@link SlabCache}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class SlabCacheTest {
+
+    /**
+     * SlabCache can serve objects it was offered.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void servesCachedObjects() throws Exception {
+        final SlabCache cache = new SlabCache(1_048_576L);
+        final byte[] content = SlabCacheTest.content(3000, 7);
+        MatcherAssert.assertThat(
+            cache.open("icon").isPresent(), Matchers.is(false)
+        );
+        cache.offer("icon", content);
+        try (InputStream input = cache.open("icon").get()) {
+            MatcherAssert.assertThat(
+                ByteStreams.toByteArray(input), Matchers.equalTo(content)
+            );
+        }
+        MatcherAssert.assertThat(
+            cache.size("icon"), Matchers.is(Optional.of(3000L))
+        );
+        MatcherAssert.assertThat(
+            cache.metrics().value("HitRate"), Matchers.is(0.5)
+        );
+        MatcherAssert.assertThat(
+            cache.metrics().value("OffHeapBytes"), Matchers.is(1_048_576.0)
+        );
+    }
+
+    /**
+     * SlabCache can forget a removed object.
+     */
+    @Test
+    public void removesObjects() {
+        final SlabCache cache = new SlabCache(1_048_576L);
+        cache.offer("gone", SlabCacheTest.content(2000, 1));
+        cache.offer("kept", SlabCacheTest.content(2000, 2));
+        cache.remove("gone");
+        cache.remove("missing");
+        MatcherAssert.assertThat(
+            cache.open("gone").isPresent(), Matchers.is(false)
+        );
+        MatcherAssert.assertThat(
+            cache.open("kept").isPresent(), Matchers.is(true)
+        );
+    }
+
+    /**
+     * SlabCache can keep frequently read objects through a scan of objects
+     * read once.
+     */
+    @Test
+    public void resistsScans() {
+        final SlabCache cache = new SlabCache(1_048_576L);
+        for (int round = 0; round < 5; ++round) {
+            for (int idx = 0; idx < 100; ++idx) {
+                SlabCacheTest.read(cache, String.format("hot%d", idx));
+            }
+        }
+        for (int idx = 0; idx < 1000; ++idx) {
+            SlabCacheTest.read(cache, String.format("cold%d", idx));
+        }
+        int cached = 0;
+        for (int idx = 0; idx < 100; ++idx) {
+            if (cache.size(String.format("hot%d", idx)).isPresent()) {
+                ++cached;
+            }
+        }
+        MatcherAssert.assertThat(cached, Matchers.is(100));
+        MatcherAssert.assertThat(
+            cache.metrics().value("Bytes"),
+            Matchers.lessThanOrEqualTo(1_048_576.0)
+        );
+    }
+
+    /**
+     * SlabCache can finish reading an object evicted during the read.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void keepsContentWhileRead() throws Exception {
+        final SlabCache cache = new SlabCache(1_048_576L);
+        final byte[] content = SlabCacheTest.content(5000, 3);
+        cache.open("first");
+        cache.offer("first", content);
+        try (InputStream input = cache.open("first").get()) {
+            for (int round = 0; round < 3; ++round) {
+                for (int idx = 0; idx < 300; ++idx) {
+                    SlabCacheTest.read(cache, String.format("other%d", idx));
+                }
+            }
+            MatcherAssert.assertThat(
+                cache.size("first").isPresent(), Matchers.is(false)
+            );
+            MatcherAssert.assertThat(
+                Arrays.equals(ByteStreams.toByteArray(input), content),
+                Matchers.is(true)
+            );
+        }
+    }
+
+    /**
+     * Read an object of 5000 bytes through the cache, offering it on a miss.
+     * @param cache Cache
+     * @param oid Object id
+     */
+    private static void read(final SlabCache cache, final String oid) {
+        final Optional<InputStream> cached = cache.open(oid);
+        if (cached.isPresent()) {
+            try (InputStream input = cached.get()) {
+                ByteStreams.toByteArray(input);
+            } catch (final IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        } else {
+            cache.offer(oid, SlabCacheTest.content(5000, oid.hashCode()));
+        }
+    }
+
+    /**
+     * Content of a given size.
+     * @param size Size
+     * @param seed Seed of its bytes
+     * @return Content
+     */
+    private static byte[] content(final int size, final int seed) {
+        final byte[] content = new byte[size];
+        for (int idx = 0; idx < size; ++idx) {
+            content[idx] = (byte) (idx * 31 + seed);
+        }
+        return content;
+    }
+
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test case for {@link StagingCache}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class StagingCacheTest {
+    /**
+     * Temporary folder.
+     * @checkstyle VisibilityModifier (3 lines)
+     */
+    @Rule
+    public final transient TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * StagingCache can give back staged objects.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void opensStagedObjects() throws Exception {
+        final StagingCache cache = new StagingCache(
+            this.folder.getRoot().toPath().resolve("staged"), 100L
+        ).start();
+        MatcherAssert.assertThat(cache.open("a"), Matchers.nullValue());
+        cache.stage("a", new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        try (InputStream staged = cache.open("a")) {
+            MatcherAssert.assertThat(
+                ByteStreams.toByteArray(staged),
+                Matchers.equalTo(new byte[]{1, 2, 3})
+            );
+        }
+    }
+
+    /**
+     * StagingCache can evict the least recently opened objects when full.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void evictsLeastRecentlyOpened() throws Exception {
+        final StagingCache cache = new StagingCache(
+            this.folder.getRoot().toPath(), 25L
+        ).start();
+        cache.stage("a", new ByteArrayInputStream(new byte[10]));
+        cache.stage("b", new ByteArrayInputStream(new byte[10]));
+        cache.open("a").close();
+        cache.stage("c", new ByteArrayInputStream(new byte[10]));
+        MatcherAssert.assertThat(cache.contains("a"), Matchers.is(true));
+        MatcherAssert.assertThat(cache.contains("b"), Matchers.is(false));
+        MatcherAssert.assertThat(cache.contains("c"), Matchers.is(true));
+        MatcherAssert.assertThat(cache.open("b"), Matchers.nullValue());
+    }
+
+    /**
+     * StagingCache can forget a removed object and free its space.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void removesObjects() throws Exception {
+        final StagingCache cache = new StagingCache(
+            this.folder.getRoot().toPath(), 15L
+        ).start();
+        cache.stage("a", new ByteArrayInputStream(new byte[10]));
+        cache.remove("a");
+        cache.remove("b");
+        MatcherAssert.assertThat(cache.open("a"), Matchers.nullValue());
+        cache.stage("c", new ByteArrayInputStream(new byte[10]));
+        MatcherAssert.assertThat(cache.contains("c"), Matchers.is(true));
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.microsoft.azure.storage.StorageCredentialsAccountAndKey;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.ListBlobItem;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import javax.servlet.http.HttpServletRequest;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.client.Client;
+import ru.bozaro.gitlfs.client.io.ByteArrayStreamProvider;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+
+/**
+ * Test case for {@link StorageChain}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+public final class StorageChainTest {
+
+    /**
+     * StorageChain can pack small objects and chunk larger ones when both
+     * are enabled.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void packsSmallObjectsWhenChunking() throws Exception {
+        try (FakeBlobEndpoint endpoint = new FakeBlobEndpoint().start()) {
+            final CloudBlobContainer container = new CloudBlobContainer(
+                endpoint.uri("lfs"),
+                new StorageCredentialsAccountAndKey(
+                    "account", Base64.getEncoder().encodeToString(new byte[32])
+                )
+            );
+            final Properties props = new Properties();
+            props.putAll(
+                ImmutableMap.<String, String>builder()
+                    .put("gitlfs.port", "8080")
+                    .put("azure.pack.max.object", "4096")
+                    .put("azure.chunk.size", "8192")
+                    .build()
+            );
+            final ContentManager storage =
+                new StorageChain(new Params(props), container).storage();
+            final byte[] small = StorageChainTest.content(1000);
+            final byte[] large = StorageChainTest.content(100_000);
+            for (final byte[] data : new byte[][] {small, large}) {
+                storage
+                    .checkUploadAccess(Mockito.mock(HttpServletRequest.class))
+                    .saveObject(
+                        StorageChainTest.meta(data),
+                        new ByteArrayInputStream(data)
+                    );
+            }
+            final List<String> names = new ArrayList<>(0);
+            for (final ListBlobItem item : container.listBlobs("", true)) {
+                names.add(item.getUri().getPath());
+            }
+            final String oid = StorageChainTest.meta(small).getOid();
+            MatcherAssert.assertThat(
+                names,
+                Matchers.allOf(
+                    Matchers.hasItem(
+                        Matchers.containsString(PackWriter.PREFIX)
+                    ),
+                    Matchers.not(Matchers.hasItem(Matchers.endsWith(oid))),
+                    Matchers.hasItem(
+                        Matchers.endsWith(
+                            ChunkedStorage.MANIFESTS
+                                + StorageChainTest.meta(large).getOid()
+                        )
+                    )
+                )
+            );
+            MatcherAssert.assertThat(
+                ByteStreams.toByteArray(
+                    storage.checkDownloadAccess(
+                        Mockito.mock(HttpServletRequest.class)
+                    ).openObject(oid)
+                ),
+                Matchers.is(small)
+            );
+        }
+    }
+
+    /**
+     * Random content.
+     * @param size Size in bytes
+     * @return Content
+     */
+    private static byte[] content(final int size) {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Metadata of content.
+     * @param data Content
+     * @return Metadata
+     * @throws Exception If something goes wrong.
+     */
+    private static Meta meta(final byte[] data) throws Exception {
+        return Client.generateMeta(new ByteArrayStreamProvider(data));
+    }
+}
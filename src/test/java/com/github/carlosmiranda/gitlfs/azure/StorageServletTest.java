@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.base.Strings;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.http.HttpHeader;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+
+/**
+ * Test case for {@link StorageServlet}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+public final class StorageServletTest {
+    /**
+     * Object id.
+     */
+    private static final String OID = Strings.repeat("ab", 32);
+
+    /**
+     * StorageServlet can send objects with a strong ETag and their length.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void sendsValidators() throws Exception {
+        final ContentManager storage = Mockito.mock(ContentManager.class);
+        final ContentManager.Downloader downloader =
+            Mockito.mock(ContentManager.Downloader.class);
+        final HttpServletRequest req = StorageServletTest.request();
+        final HttpServletResponse resp =
+            Mockito.mock(HttpServletResponse.class);
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        Mockito.when(resp.getOutputStream()).thenReturn(new Body(body));
+        Mockito.when(storage.checkDownloadAccess(req)).thenReturn(downloader);
+        Mockito.when(downloader.openObject(StorageServletTest.OID))
+            .thenReturn(
+                new SizedStream(new ByteArrayInputStream(new byte[] {1, 2}), 2L)
+            );
+        new StorageServlet(storage).doGet(req, resp);
+        Mockito.verify(resp).setStatus(HttpServletResponse.SC_OK);
+        Mockito.verify(resp).setContentLengthLong(2L);
+        Mockito.verify(resp).setHeader(
+            HttpHeader.ETAG.asString(),
+            String.format("\"%s\"", StorageServletTest.OID)
+        );
+        Mockito.verify(resp).setHeader(
+            HttpHeader.CACHE_CONTROL.asString(),
+            "public, max-age=31536000, immutable"
+        );
+        MatcherAssert.assertThat(body.size(), Matchers.is(2));
+        Mockito.verify(storage, Mockito.never()).getMetadata(
+            Mockito.anyString()
+        );
+    }
+
+    /**
+     * StorageServlet can send the length of objects served from the memory
+     * cache, whether they're read through it or from it.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void sendsLengthOfCachedObjects() throws Exception {
+        final ContentManager backing = Mockito.mock(ContentManager.class);
+        final ContentManager.Downloader downloader =
+            Mockito.mock(ContentManager.Downloader.class);
+        Mockito.when(
+            backing.checkDownloadAccess(Mockito.any(HttpServletRequest.class))
+        ).thenReturn(downloader);
+        Mockito.when(downloader.openObject(StorageServletTest.OID))
+            .thenReturn(new ByteArrayInputStream(new byte[] {1, 2, 3}));
+        final StorageServlet servlet = new StorageServlet(
+            new MemoryCachedStorage(new SlabCache(1_048_576L), 1024, backing)
+        );
+        for (int idx = 0; idx < 2; ++idx) {
+            final HttpServletResponse resp =
+                Mockito.mock(HttpServletResponse.class);
+            Mockito.when(resp.getOutputStream())
+                .thenReturn(new Body(new ByteArrayOutputStream()));
+            servlet.doGet(StorageServletTest.request(), resp);
+            Mockito.verify(resp).setContentLengthLong(3L);
+        }
+        Mockito.verify(downloader).openObject(StorageServletTest.OID);
+        Mockito.verify(backing, Mockito.never()).getMetadata(
+            Mockito.anyString()
+        );
+    }
+
+    /**
+     * StorageServlet can look up the length of objects opened without it.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void looksUpUnknownLength() throws Exception {
+        final ContentManager storage = Mockito.mock(ContentManager.class);
+        final ContentManager.Downloader downloader =
+            Mockito.mock(ContentManager.Downloader.class);
+        final HttpServletRequest req = StorageServletTest.request();
+        final HttpServletResponse resp =
+            Mockito.mock(HttpServletResponse.class);
+        Mockito.when(resp.getOutputStream())
+            .thenReturn(new Body(new ByteArrayOutputStream()));
+        Mockito.when(storage.checkDownloadAccess(req)).thenReturn(downloader);
+        Mockito.when(downloader.openObject(StorageServletTest.OID))
+            .thenReturn(new ByteArrayInputStream(new byte[] {1, 2}));
+        Mockito.when(storage.getMetadata(StorageServletTest.OID))
+            .thenReturn(new Meta(StorageServletTest.OID, 2L));
+        new StorageServlet(storage).doGet(req, resp);
+        Mockito.verify(resp).setContentLengthLong(2L);
+    }
+
+    /**
+     * StorageServlet can answer 404 for an object found missing when read.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void answersNotFound() throws Exception {
+        final ContentManager storage = Mockito.mock(ContentManager.class);
+        final ContentManager.Downloader downloader =
+            Mockito.mock(ContentManager.Downloader.class);
+        final HttpServletRequest req = StorageServletTest.request();
+        final HttpServletResponse resp =
+            Mockito.mock(HttpServletResponse.class);
+        final InputStream content = Mockito.mock(InputStream.class);
+        Mockito.when(content.read(Mockito.any(byte[].class))).thenThrow(
+            new IOException(new FileNotFoundException(StorageServletTest.OID))
+        );
+        Mockito.when(resp.getWriter())
+            .thenReturn(new PrintWriter(new StringWriter()));
+        Mockito.when(storage.checkDownloadAccess(req)).thenReturn(downloader);
+        Mockito.when(downloader.openObject(StorageServletTest.OID))
+            .thenReturn(content);
+        new StorageServlet(storage).doGet(req, resp);
+        Mockito.verify(resp).setStatus(HttpServletResponse.SC_NOT_FOUND);
+        Mockito.verify(resp, Mockito.never()).setStatus(
+            HttpServletResponse.SC_OK
+        );
+    }
+
+    /**
+     * StorageServlet can answer a revalidation without reading the object.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void answersNotModified() throws Exception {
+        final ContentManager storage = Mockito.mock(ContentManager.class);
+        final ContentManager.Downloader downloader =
+            Mockito.mock(ContentManager.Downloader.class);
+        final HttpServletRequest req = StorageServletTest.request();
+        Mockito.when(req.getHeader(HttpHeader.IF_NONE_MATCH.asString()))
+            .thenReturn(String.format("\"x\", \"%s\"", StorageServletTest.OID));
+        final HttpServletResponse resp =
+            Mockito.mock(HttpServletResponse.class);
+        Mockito.when(storage.checkDownloadAccess(req)).thenReturn(downloader);
+        new StorageServlet(storage).doGet(req, resp);
+        Mockito.verify(resp).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        Mockito.verify(storage, Mockito.never()).getMetadata(
+            Mockito.anyString()
+        );
+        Mockito.verify(downloader, Mockito.never()).openObject(
+            Mockito.anyString()
+        );
+    }
+
+    /**
+     * Request for the object.
+     * @return Request
+     */
+    private static HttpServletRequest request() {
+        final HttpServletRequest req = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(req.getPathInfo())
+            .thenReturn(String.format("/%s", StorageServletTest.OID));
+        return req;
+    }
+
+    /**
+     * Response body collecting what is written.
+     */
+    private static final class Body extends ServletOutputStream {
+        /**
+         * Bytes written.
+         */
+        private final ByteArrayOutputStream bytes;
+
+        /**
+         * Ctor.
+         * @param bytes Bytes written
+         */
+        Body(final ByteArrayOutputStream bytes) {
+            super();
+            this.bytes = bytes;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(final WriteListener listener) {
+            throw new UnsupportedOperationException("Not implemented");
+        }
+
+        @Override
+        public void write(final int data) {
+            this.bytes.write(data);
+        }
+    }
+}
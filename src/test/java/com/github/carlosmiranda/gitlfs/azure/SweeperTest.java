@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.base.Strings;
+import com.microsoft.azure.storage.StorageCredentialsAccountAndKey;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test case for {@link Sweeper}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class SweeperTest {
+    /**
+     * Reachable object id.
+     */
+    private static final String LIVE = Strings.repeat("0a", 32);
+
+    /**
+     * Unreachable object id.
+     */
+    private static final String DEAD = Strings.repeat("0b", 32);
+
+    /**
+     * Unreachable chunked object id.
+     */
+    private static final String CHUNKED = Strings.repeat("fc", 32);
+
+    /**
+     * Blob endpoint.
+     */
+    private FakeBlobEndpoint endpoint;
+
+    /**
+     * Start the endpoint, with reachable and unreachable objects.
+     * @throws Exception If something goes wrong.
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.endpoint = new FakeBlobEndpoint().start()
+            .put(SweeperTest.LIVE, new byte[] {1})
+            .put(SweeperTest.DEAD, new byte[] {2, 3})
+            .put(ChunkedStorage.MANIFESTS + SweeperTest.CHUNKED, new byte[1])
+            .put(ChunkedStorage.CHUNKS + SweeperTest.DEAD, new byte[1])
+            .put(Locks.PREFIX + SweeperTest.DEAD, new byte[1]);
+    }
+
+    /**
+     * Stop the endpoint.
+     * @throws Exception If something goes wrong.
+     */
+    @After
+    public void tearDown() throws Exception {
+        this.endpoint.close();
+    }
+
+    /**
+     * Sweeper can delete unreachable objects and manifests, and nothing
+     * else.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void deletesUnreachableObjects() throws Exception {
+        final List<String> report = new CopyOnWriteArrayList<>();
+        final Sweeper sweeper = new Sweeper(this.rest(), 4, true);
+        sweeper.sweep(
+            SweeperTest.LIVE::equals, Instant.now().plusSeconds(60L),
+            report::add
+        );
+        MatcherAssert.assertThat(
+            report,
+            Matchers.containsInAnyOrder(
+                String.format("orphan\t%s\t2", SweeperTest.DEAD),
+                String.format(
+                    "orphan\t%s%s\t1", ChunkedStorage.MANIFESTS,
+                    SweeperTest.CHUNKED
+                )
+            )
+        );
+        MatcherAssert.assertThat(
+            sweeper.metrics().value("Deleted"), Matchers.is(2.0)
+        );
+        MatcherAssert.assertThat(
+            this.endpoint.blob(SweeperTest.DEAD), Matchers.nullValue()
+        );
+        MatcherAssert.assertThat(
+            this.endpoint.blob(
+                ChunkedStorage.MANIFESTS + SweeperTest.CHUNKED
+            ),
+            Matchers.nullValue()
+        );
+        for (final String kept : new String[] {
+            SweeperTest.LIVE, ChunkedStorage.CHUNKS + SweeperTest.DEAD,
+            Locks.PREFIX + SweeperTest.DEAD,
+        }) {
+            MatcherAssert.assertThat(
+                this.endpoint.blob(kept), Matchers.notNullValue()
+            );
+        }
+    }
+
+    /**
+     * Sweeper can record the objects it deletes, for servers to forget.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void recordsSweptObjects() throws Exception {
+        new Sweeper(this.rest(), 4, true).sweep(
+            SweeperTest.LIVE::equals, Instant.now().plusSeconds(60L),
+            line -> { }
+        );
+        final List<String> forgotten = new CopyOnWriteArrayList<>();
+        final Swept swept = new Swept(this.rest()).holder(forgotten::add);
+        swept.poll();
+        swept.poll();
+        MatcherAssert.assertThat(
+            forgotten,
+            Matchers.containsInAnyOrder(SweeperTest.DEAD, SweeperTest.CHUNKED)
+        );
+    }
+
+    /**
+     * Sweeper can spare recent objects, and only report orphans on a dry
+     * run.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void sparesRecentObjects() throws Exception {
+        final Sweeper recent = new Sweeper(this.rest(), 4, true);
+        recent.sweep(
+            SweeperTest.LIVE::equals,
+            Instant.now().minus(Duration.ofHours(1L)), line -> { }
+        );
+        MatcherAssert.assertThat(
+            recent.metrics().value("Recent"), Matchers.is(2.0)
+        );
+        final Sweeper dry = new Sweeper(this.rest(), 4, false);
+        dry.sweep(
+            SweeperTest.LIVE::equals, Instant.now().plusSeconds(60L),
+            line -> { }
+        );
+        MatcherAssert.assertThat(
+            dry.metrics().value("Orphans"), Matchers.is(2.0)
+        );
+        MatcherAssert.assertThat(
+            this.endpoint.blob(SweeperTest.DEAD), Matchers.notNullValue()
+        );
+    }
+
+    /**
+     * Azure REST requests to the endpoint.
+     * @return REST requests
+     * @throws Exception If something goes wrong.
+     */
+    private BlobRest rest() throws Exception {
+        return new BlobRest(
+            new CloudBlobContainer(
+                this.endpoint.uri("lfs"),
+                new StorageCredentialsAccountAndKey(
+                    "account", Base64.getEncoder().encodeToString(new byte[32])
+                )
+            )
+        );
+    }
+}
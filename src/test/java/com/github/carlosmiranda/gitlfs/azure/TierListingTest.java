@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+/**
+ * Test case for {@link TierListing}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ */
+public final class TierListingTest {
+
+    /**
+     * TierListing can parse a page of blobs, their tiers and metadata.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void parsesPage() throws Exception {
+        final String xml = String.join(
+            "",
+            "<?xml version=\"1.0\" encoding=\"utf-8\"?>",
+            "<EnumerationResults ContainerName=\"c\"><MaxResults>2",
+            "</MaxResults><Delimiter>/</Delimiter><Blobs>",
+            "<Blob><Name>aa</Name><Properties>",
+            "<Last-Modified>Thu, 01 Sep 2016 10:00:00 GMT</Last-Modified>",
+            "<Content-Length>3</Content-Length><AccessTier>Hot</AccessTier>",
+            "<AccessTierInferred>true</AccessTierInferred>",
+            "</Properties><Metadata><LastRead>2016-09-02T00:00:00Z</LastRead>",
+            "</Metadata></Blob>",
+            "<BlobPrefix><Name>chunks/</Name></BlobPrefix>",
+            "<Blob><Name>bb</Name><Properties>",
+            "<Last-Modified>Thu, 01 Sep 2016 10:00:00 GMT</Last-Modified>",
+            "<AccessTier>Archive</AccessTier>",
+            "<ArchiveStatus>rehydrate-pending-to-hot</ArchiveStatus>",
+            "</Properties></Blob>",
+            "</Blobs><NextMarker>next</NextMarker></EnumerationResults>"
+        );
+        final List<BlobTier> blobs = new ArrayList<>(0);
+        MatcherAssert.assertThat(
+            TierListing.parse(
+                new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+                blobs
+            ),
+            Matchers.is("next")
+        );
+        MatcherAssert.assertThat(blobs, Matchers.hasSize(2));
+        MatcherAssert.assertThat(blobs.get(0).name(), Matchers.is("aa"));
+        MatcherAssert.assertThat(blobs.get(0).tier(), Matchers.is("Hot"));
+        MatcherAssert.assertThat(
+            blobs.get(0).rehydrating(), Matchers.is(false)
+        );
+        MatcherAssert.assertThat(
+            blobs.get(0).accessed(),
+            Matchers.is(Instant.parse("2016-09-02T00:00:00Z"))
+        );
+        MatcherAssert.assertThat(
+            blobs.get(0).metadata(),
+            Matchers.hasEntry("x-ms-meta-lastread", "2016-09-02T00:00:00Z")
+        );
+        MatcherAssert.assertThat(
+            blobs.get(1).rehydrating(), Matchers.is(true)
+        );
+    }
+
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.collect.ImmutableMap;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+/**
+ * Test case for {@link TierPolicy}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ */
+public final class TierPolicyTest {
+
+    /**
+     * Current time.
+     */
+    private static final Instant NOW = Instant.parse("2016-09-01T00:00:00Z");
+
+    /**
+     * Policy under test.
+     */
+    private final TierPolicy policy = new TierPolicy(
+        Duration.ofDays(30L), Duration.ofDays(90L), 2
+    );
+
+    /**
+     * TierPolicy can cool objects unread for long enough.
+     */
+    @Test
+    public void coolsUnreadObjects() {
+        MatcherAssert.assertThat(
+            this.policy.target(
+                TierPolicyTest.blob(TierPolicy.HOT, 31L), 0, TierPolicyTest.NOW
+            ),
+            Matchers.is(TierPolicy.COOL)
+        );
+        MatcherAssert.assertThat(
+            this.policy.target(
+                TierPolicyTest.blob(TierPolicy.HOT, 29L), 0, TierPolicyTest.NOW
+            ),
+            Matchers.isEmptyString()
+        );
+    }
+
+    /**
+     * TierPolicy can archive cool objects unread for long enough.
+     */
+    @Test
+    public void archivesUnreadObjects() {
+        MatcherAssert.assertThat(
+            this.policy.target(
+                TierPolicyTest.blob(TierPolicy.COOL, 91L), 0,
+                TierPolicyTest.NOW
+            ),
+            Matchers.is(TierPolicy.ARCHIVE)
+        );
+        MatcherAssert.assertThat(
+            new TierPolicy(Duration.ofDays(30L), Duration.ZERO, 2).target(
+                TierPolicyTest.blob(TierPolicy.COOL, 91L), 0,
+                TierPolicyTest.NOW
+            ),
+            Matchers.isEmptyString()
+        );
+    }
+
+    /**
+     * TierPolicy can bring objects read again back to the hot tier.
+     */
+    @Test
+    public void heatsReadObjects() {
+        MatcherAssert.assertThat(
+            this.policy.target(
+                TierPolicyTest.blob(TierPolicy.ARCHIVE, 200L), 2,
+                TierPolicyTest.NOW
+            ),
+            Matchers.is(TierPolicy.HOT)
+        );
+        MatcherAssert.assertThat(
+            this.policy.target(
+                TierPolicyTest.blob(TierPolicy.COOL, 10L), 1,
+                TierPolicyTest.NOW
+            ),
+            Matchers.isEmptyString()
+        );
+    }
+
+    /**
+     * TierPolicy can measure how long an object went unread from its last
+     * recorded read, whatever its read count.
+     */
+    @Test
+    public void coolsByLastRead() {
+        MatcherAssert.assertThat(
+            this.policy.target(
+                TierPolicyTest.blob(TierPolicy.HOT, 100L)
+                    .read(TierPolicyTest.NOW.minus(Duration.ofDays(5L))),
+                0, TierPolicyTest.NOW
+            ),
+            Matchers.isEmptyString()
+        );
+        MatcherAssert.assertThat(
+            this.policy.target(
+                TierPolicyTest.blob(TierPolicy.HOT, 100L)
+                    .read(TierPolicyTest.NOW.minus(Duration.ofDays(40L))),
+                1, TierPolicyTest.NOW
+            ),
+            Matchers.is(TierPolicy.COOL)
+        );
+    }
+
+    /**
+     * TierPolicy can leave objects being rehydrated alone.
+     */
+    @Test
+    public void ignoresRehydratingObjects() {
+        MatcherAssert.assertThat(
+            this.policy.target(
+                new BlobTier(
+                    "a",
+                    ImmutableMap.of(
+                        "AccessTier", TierPolicy.ARCHIVE,
+                        "ArchiveStatus", "rehydrate-pending-to-hot",
+                        "Last-Modified", TierPolicyTest.date(400L)
+                    )
+                ),
+                5, TierPolicyTest.NOW
+            ),
+            Matchers.isEmptyString()
+        );
+    }
+
+    /**
+     * Blob in a tier.
+     * @param tier Tier
+     * @param days Days since the blob was modified
+     * @return Blob
+     */
+    private static BlobTier blob(final String tier, final long days) {
+        return new BlobTier(
+            "b",
+            ImmutableMap.of(
+                "AccessTier", tier, "Last-Modified", TierPolicyTest.date(days)
+            )
+        );
+    }
+
+    /**
+     * Date some days ago, as listed by Azure.
+     * @param days Days ago
+     * @return Date
+     */
+    private static String date(final long days) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(
+            TierPolicyTest.NOW.minus(Duration.ofDays(days))
+                .atOffset(ZoneOffset.UTC)
+        );
+    }
+
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.base.Strings;
+import com.microsoft.azure.storage.StorageCredentialsAccountAndKey;
+import com.microsoft.azure.storage.blob.BlobListingDetails;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import com.microsoft.azure.storage.blob.ListBlobItem;
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.EnumSet;
+import javax.servlet.http.HttpServletRequest;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.server.ContentManager;
+
+/**
+ * Test case for {@link Tiering}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+public final class TieringTest {
+    /**
+     * Tiering can record the last read of the objects read since the
+     * previous pass in their metadata, and leave the others alone.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void recordsReads() throws Exception {
+        final String read = Strings.repeat("0a", 32);
+        final String unread = Strings.repeat("0b", 32);
+        try (FakeBlobEndpoint endpoint = new FakeBlobEndpoint().start()
+            .put(read, new byte[] {1})
+            .put(unread, new byte[] {2})) {
+            final CloudBlobContainer container = TieringTest.container(
+                endpoint
+            );
+            final Tiering tiering = new Tiering(
+                new BlobRest(container),
+                new TierPolicy(Duration.ofDays(30L), Duration.ZERO, 2),
+                1000L
+            );
+            final Instant before = Instant.now();
+            tiering.read(read);
+            tiering.pass();
+            final CloudBlockBlob first = container.getBlockBlobReference(read);
+            first.downloadAttributes();
+            MatcherAssert.assertThat(
+                Instant.parse(first.getMetadata().get(BlobTier.READ)),
+                Matchers.greaterThanOrEqualTo(before)
+            );
+            final CloudBlockBlob second =
+                container.getBlockBlobReference(unread);
+            second.downloadAttributes();
+            MatcherAssert.assertThat(
+                second.getMetadata(),
+                Matchers.not(Matchers.hasKey(BlobTier.READ))
+            );
+        }
+    }
+
+    /**
+     * Tiering can leave nearly all unread objects alone after a day with a
+     * million distinct reads.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void stampsFewUnreadObjects() throws Exception {
+        try (FakeBlobEndpoint endpoint = new FakeBlobEndpoint().start()) {
+            for (int idx = 0; idx < 2000; ++idx) {
+                endpoint.put(ReadFilterTest.oid(2, idx), new byte[] {1});
+            }
+            final CloudBlobContainer container = TieringTest.container(
+                endpoint
+            );
+            final Tiering tiering = new Tiering(
+                new BlobRest(container),
+                new TierPolicy(Duration.ofDays(30L), Duration.ZERO, 2),
+                1_000_000L
+            );
+            for (int idx = 0; idx < 1_000_000; ++idx) {
+                tiering.read(ReadFilterTest.oid(1, idx));
+            }
+            tiering.pass();
+            int stamped = 0;
+            for (final ListBlobItem item : container.listBlobs(
+                "", true, EnumSet.of(BlobListingDetails.METADATA), null, null
+            )) {
+                if (((CloudBlockBlob) item).getMetadata()
+                    .containsKey(BlobTier.READ)) {
+                    ++stamped;
+                }
+            }
+            MatcherAssert.assertThat(stamped, Matchers.lessThan(50));
+        }
+    }
+
+    /**
+     * TieredStorage can keep an object hot while clients read it from a
+     * cache in front of the container.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void keepsCachedObjectsHot() throws Exception {
+        final String cached = Strings.repeat("0c", 32);
+        final String unread = Strings.repeat("0d", 32);
+        try (FakeBlobEndpoint endpoint = new FakeBlobEndpoint().start()
+            .put(cached, new byte[] {1})
+            .put(unread, new byte[] {2})) {
+            final HttpServletRequest req =
+                Mockito.mock(HttpServletRequest.class);
+            final ContentManager.Downloader blobs =
+                Mockito.mock(ContentManager.Downloader.class);
+            Mockito.when(blobs.openObject(cached)).thenAnswer(
+                inv -> new ByteArrayInputStream(new byte[] {1})
+            );
+            final ContentManager backing = Mockito.mock(ContentManager.class);
+            Mockito.when(backing.checkDownloadAccess(req)).thenReturn(blobs);
+            final ContentManager memory = new MemoryCachedStorage(
+                new SlabCache(1_048_576L), 1000, backing
+            );
+            memory.checkDownloadAccess(req).openObject(cached).close();
+            final Tiering tiering = new Tiering(
+                new BlobRest(TieringTest.container(endpoint)),
+                new TierPolicy(Duration.ofMillis(10L), Duration.ZERO, 2),
+                1000L
+            );
+            new TieredStorage(tiering, memory).checkDownloadAccess(req)
+                .openObject(cached).close();
+            Thread.sleep(50L);
+            tiering.pass();
+            Mockito.verify(blobs, Mockito.times(1)).openObject(cached);
+            MatcherAssert.assertThat(
+                endpoint.tier(cached), Matchers.is(TierPolicy.HOT)
+            );
+            MatcherAssert.assertThat(
+                endpoint.tier(unread), Matchers.is(TierPolicy.COOL)
+            );
+        }
+    }
+
+    /**
+     * Container of a fake endpoint.
+     * @param endpoint Endpoint
+     * @return Container
+     * @throws Exception If something goes wrong.
+     */
+    private static CloudBlobContainer container(
+        final FakeBlobEndpoint endpoint) throws Exception {
+        return new CloudBlobContainer(
+            endpoint.uri("lfs"),
+            new StorageCredentialsAccountAndKey(
+                "account", Base64.getEncoder().encodeToString(new byte[32])
+            )
+        );
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.io.ByteStreams;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.server.ContentManager;
+
+/**
+ * Test case for {@link TransferAgent}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+public final class TransferAgentTest {
+    /**
+     * Upload event.
+     */
+    private static final String UPLOAD = String.join(
+        "", "{\"event\":\"upload\",\"oid\":\"%s\",",
+        "\"size\":%d,\"path\":\"%s\"}"
+    );
+
+    /**
+     * Temporary folder.
+     * @checkstyle VisibilityModifier (3 lines)
+     */
+    @Rule
+    public final transient TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * TransferAgent can continue an interrupted upload where it stopped,
+     * without sending any byte twice, and wait for it to be stored.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void resumesInterruptedUpload() throws Exception {
+        final byte[] content = new byte[3 << 20];
+        new Random(0L).nextBytes(content);
+        final Path file = this.folder.newFile().toPath();
+        Files.write(file, content);
+        final Resumable servlet = new Resumable();
+        final String events = TransferAgentTest.transfer(
+            servlet,
+            String.format(
+                TransferAgentTest.UPLOAD, "ab", content.length, file
+            )
+        );
+        MatcherAssert.assertThat(
+            events,
+            Matchers.allOf(
+                Matchers.containsString("\"event\":\"complete\""),
+                Matchers.not(Matchers.containsString("error"))
+            )
+        );
+        MatcherAssert.assertThat(servlet.finished, Matchers.is(true));
+        MatcherAssert.assertThat(servlet.posts, Matchers.is(2));
+        MatcherAssert.assertThat(
+            servlet.received.toByteArray(), Matchers.equalTo(content)
+        );
+    }
+
+    /**
+     * TransferAgent can skip objects the server already stores.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void skipsStoredObject() throws Exception {
+        final Path file = this.folder.newFile().toPath();
+        Files.write(file, new byte[]{1, 2, 3});
+        final Resumable servlet = new Resumable();
+        servlet.finished = true;
+        TransferAgentTest.transfer(
+            servlet,
+            String.format(
+                TransferAgentTest.UPLOAD, "cd", 3, file
+            )
+        );
+        MatcherAssert.assertThat(servlet.puts, Matchers.is(0));
+    }
+
+    /**
+     * Run a transfer agent against a server.
+     * @param servlet Resumable upload servlet
+     * @param event Transfer event
+     * @return Events sent back by the agent
+     * @throws Exception If something goes wrong.
+     */
+    private static String transfer(final HttpServlet servlet,
+        final String event) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (LfsServer server = new LfsServer(
+            "/repo", Mockito.mock(ContentManager.class)
+        ).route("resumable/*", servlet).start()) {
+            new TransferAgent(
+                new ResumableClient(
+                    String.format(
+                        "http://localhost:%d/repo/info/lfs", server.port()
+                    ),
+                    ""
+                ),
+                new PrintStream(out, true, StandardCharsets.UTF_8.name())
+            ).run(
+                new BufferedReader(
+                    new StringReader(
+                        String.join(
+                            "\n", "{\"event\":\"init\"}", event,
+                            "{\"event\":\"terminate\"}"
+                        )
+                    )
+                )
+            );
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * In-memory resumable upload endpoint, that drops its first upload
+     * halfway and stores the object by the second time it's finished.
+     */
+    private static final class Resumable extends HttpServlet {
+        /**
+         * Serialization marker.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Bytes received.
+         */
+        private final transient ByteArrayOutputStream received =
+            new ByteArrayOutputStream();
+
+        /**
+         * Number of uploads.
+         */
+        private transient int puts;
+
+        /**
+         * Number of requests to finish.
+         */
+        private transient int posts;
+
+        /**
+         * Has the upload been finished?
+         */
+        private transient boolean finished;
+
+        @Override
+        protected void doHead(final HttpServletRequest req,
+            final HttpServletResponse resp) {
+            resp.setHeader(
+                ResumableServlet.OFFSET,
+                Integer.toString(this.received.size())
+            );
+            if (this.finished) {
+                resp.setHeader(ResumableServlet.COMPLETE, "true");
+            }
+        }
+
+        @Override
+        protected void doPut(final HttpServletRequest req,
+            final HttpServletResponse resp) throws IOException {
+            ++this.puts;
+            MatcherAssert.assertThat(
+                Long.parseLong(req.getHeader(ResumableServlet.OFFSET)),
+                Matchers.is((long) this.received.size())
+            );
+            if (this.puts == 1) {
+                ByteStreams.copy(
+                    ByteStreams.limit(
+                        req.getInputStream(), req.getContentLengthLong() / 2
+                    ),
+                    this.received
+                );
+                resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            } else {
+                ByteStreams.copy(req.getInputStream(), this.received);
+                resp.setHeader(
+                    ResumableServlet.OFFSET,
+                    Integer.toString(this.received.size())
+                );
+                resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            }
+        }
+
+        @Override
+        protected void doPost(final HttpServletRequest req,
+            final HttpServletResponse resp) {
+            ++this.posts;
+            if (this.posts == 1) {
+                resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+            } else {
+                this.finished = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright (C) 2016 Carlos Miranda
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.carlosmiranda.gitlfs.azure;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+import javax.servlet.http.HttpServletRequest;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import ru.bozaro.gitlfs.common.data.Meta;
+import ru.bozaro.gitlfs.server.ContentManager;
+
+/**
+ * Test case for {@link WriteBackStorage}.
+ *
+ * @author Carlos Miranda (miranda.cma+azureblob.gitlfs@gmail.com)
+ * @checkstyle MagicNumber (500 lines)
+ * @checkstyle ClassDataAbstractionCoupling (2 lines)
+ */
+public final class WriteBackStorageTest {
+    /**
+     * Temporary folder.
+     * @checkstyle VisibilityModifier (3 lines)
+     */
+    @Rule
+    public final transient TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * WriteBackStorage can acknowledge an upload before the backing storage
+     * has it, and serve it from the journal meanwhile.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void servesJournaledObjects() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Map<String, String> saved = new ConcurrentHashMap<>();
+        final ContentManager backing = WriteBackStorageTest.backing(
+            (meta, content) -> {
+                WriteBackStorageTest.await(release);
+                saved.put(meta.getOid(), WriteBackStorageTest.text(content));
+            }
+        );
+        final WriteBackStorage storage = new WriteBackStorage(
+            this.folder.newFolder("journal").toPath(), 1L << 20, backing
+        ).start();
+        final String oid = WriteBackStorageTest.oid("pushed");
+        final HttpServletRequest req = Mockito.mock(HttpServletRequest.class);
+        storage.checkUploadAccess(req).saveObject(
+            new Meta(oid, 6L), WriteBackStorageTest.stream("pushed")
+        );
+        MatcherAssert.assertThat(
+            storage.getMetadata(oid).getSize(), Matchers.is(6L)
+        );
+        MatcherAssert.assertThat(
+            WriteBackStorageTest.text(
+                storage.checkDownloadAccess(req).openObject(oid)
+            ),
+            Matchers.is("pushed")
+        );
+        MatcherAssert.assertThat(saved.isEmpty(), Matchers.is(true));
+        release.countDown();
+        WriteBackStorageTest.eventually(
+            () -> storage.metrics().value("Backlog") == 0.0
+        );
+        MatcherAssert.assertThat(saved.get(oid), Matchers.is("pushed"));
+        MatcherAssert.assertThat(
+            storage.metrics().value("BacklogBytes"), Matchers.is(0.0)
+        );
+    }
+
+    /**
+     * WriteBackStorage can copy objects left in the journal by an earlier
+     * run, retrying failed copies.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void copiesLeftoversWithRetries() throws Exception {
+        final Path dir = this.folder.newFolder("left").toPath();
+        final String oid = WriteBackStorageTest.oid("left");
+        Files.write(dir.resolve(oid), "left".getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve(String.format("%s123.part", oid)), new byte[1]);
+        final AtomicInteger attempts = new AtomicInteger();
+        final Map<String, String> saved = new ConcurrentHashMap<>();
+        final ContentManager backing = WriteBackStorageTest.backing(
+            (meta, content) -> {
+                if (attempts.incrementAndGet() == 1) {
+                    throw new IOException("unavailable");
+                }
+                saved.put(meta.getOid(), WriteBackStorageTest.text(content));
+            }
+        );
+        final WriteBackStorage storage =
+            new WriteBackStorage(dir, 1L << 20, backing).start();
+        WriteBackStorageTest.eventually(() -> saved.containsKey(oid));
+        MatcherAssert.assertThat(saved.get(oid), Matchers.is("left"));
+        MatcherAssert.assertThat(
+            storage.metrics().value("Failures"), Matchers.is(1.0)
+        );
+        WriteBackStorageTest.eventually(() -> !Files.exists(dir.resolve(oid)));
+        try (Stream<Path> files = Files.list(dir)) {
+            MatcherAssert.assertThat(files.count(), Matchers.is(0L));
+        }
+    }
+
+    /**
+     * WriteBackStorage can save uploads directly once the journal is full.
+     * @throws Exception If something goes wrong.
+     */
+    @Test
+    public void writesThroughWhenFull() throws Exception {
+        final Map<String, String> saved = new ConcurrentHashMap<>();
+        final ContentManager backing = WriteBackStorageTest.backing(
+            (meta, content) -> saved.put(
+                meta.getOid(), WriteBackStorageTest.text(content)
+            )
+        );
+        final WriteBackStorage storage = new WriteBackStorage(
+            this.folder.newFolder("full").toPath(), 4L, backing
+        ).start();
+        final String oid = WriteBackStorageTest.oid("too large");
+        storage.checkUploadAccess(Mockito.mock(HttpServletRequest.class))
+            .saveObject(
+                new Meta(oid, 9L), WriteBackStorageTest.stream("too large")
+            );
+        MatcherAssert.assertThat(saved.get(oid), Matchers.is("too large"));
+        MatcherAssert.assertThat(
+            storage.metrics().value("WrittenThrough"), Matchers.is(1.0)
+        );
+    }
+
+    /**
+     * Backing storage saving objects with an uploader.
+     * @param uploader Uploader
+     * @return Storage
+     * @throws Exception If something goes wrong.
+     */
+    private static ContentManager backing(
+        final ContentManager.Uploader uploader) throws Exception {
+        final ContentManager storage = Mockito.mock(ContentManager.class);
+        Mockito.when(storage.checkUploadAccess(Mockito.any()))
+            .thenReturn(uploader);
+        return storage;
+    }
+
+    /**
+     * Wait until a condition holds, for up to ten seconds.
+     * @param condition Condition
+     * @throws Exception If something goes wrong.
+     */
+    private static void eventually(final BooleanSupplier condition)
+        throws Exception {
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+        while (!condition.getAsBoolean() && System.nanoTime() < end) {
+            Thread.sleep(10L);
+        }
+        MatcherAssert.assertThat(condition.getAsBoolean(), Matchers.is(true));
+    }
+
+    /**
+     * Wait for a latch.
+     * @param latch Latch
+     * @throws IOException If interrupted
+     */
+    private static void await(final CountDownLatch latch)
+        throws IOException {
+        try {
+            latch.await();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Object id of a text.
+     * @param text Text
+     * @return SHA-256 of the text
+     */
+    private static String oid(final String text) {
+        return Hashing.sha256()
+            .hashString(text, StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * Stream of a text.
+     * @param text Text
+     * @return Stream
+     */
+    private static InputStream stream(final String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Text of a stream.
+     * @param content Stream
+     * @return Text
+     * @throws IOException If it can't be read
+     */
+    private static String text(final InputStream content)
+        throws IOException {
+        try (InputStream input = content) {
+            return new String(
+                ByteStreams.toByteArray(input), StandardCharsets.UTF_8
+            );
+        }
+    }
+}